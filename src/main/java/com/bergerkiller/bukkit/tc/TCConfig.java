@@ -26,6 +26,7 @@ import com.bergerkiller.bukkit.common.utils.MathUtil;
 import com.bergerkiller.bukkit.common.utils.ParseUtil;
 import com.bergerkiller.bukkit.tc.attachments.animation.Animation;
 import com.bergerkiller.bukkit.tc.pathfinding.PathProvider;
+import com.bergerkiller.bukkit.tc.statements.Statement;
 import com.bergerkiller.bukkit.tc.utils.ConfiguredWorldSet;
 
 /**
@@ -59,6 +60,8 @@ public class TCConfig {
     public static boolean useCoalFromStorageCart;
     public static boolean setOwnerOnPlacement;
     public static boolean keepChunksLoadedOnlyWhenMoving;
+    public static boolean restoreQueueEnabled = false;
+    public static int restoreQueueMaxCartsPerTick = 64;
     public static int maxKeepChunksLoadedRadius;
     public static int maxDetectorLength;
     public static int maxMutexSize;
@@ -100,8 +103,10 @@ public class TCConfig {
     public static boolean playHissWhenLinked = true;
     public static boolean playHissWhenCartRemoved = true;
     public static boolean rerouteOnStartup = false;
+    public static boolean pathFindingRoutingTable = false;
     public static boolean switcherResetCountersOnFirstCart = true;
     public static boolean logMutexConflicts = false;
+    public static boolean mutexBatchedGrants = false;
     public static boolean logSyncChunkLoads = false;
     public static boolean logTrainSplitting = false;
     public static String launchFunctionType = "bezier";
@@ -112,6 +117,18 @@ public class TCConfig {
     public static double unloadRunawayTrainDistance = 160.0;
     public static int autoSaveInterval = 30 * 20; // autosave every 30 seconds
     public static int attachmentTransformParallelism = -1;
+    public static boolean attachmentCullingEnabled = false;
+    public static boolean tickSchedulerEnabled = false;
+    public static int tickSchedulerIdleInterval = 10;
+    public static double tickSchedulerBudget = -1.0;
+    public static double tickSchedulerPlayerDistance = 64.0;
+    public static boolean networkInterestEnabled = false;
+    public static double networkInterestFullRateDistance = 32.0;
+    public static double networkInterestReducedRateDistance = 96.0;
+    public static int networkInterestReducedRateInterval = 2;
+    public static int networkInterestDistantInterval = 4;
+    public static String packetQueueDispatcher = "thread";
+    public static int packetQueuePoolSize = -1;
     public static boolean allowExternalTicketImagePaths = false; // Whether images outside of the images subdirectory are allowed
     public static boolean allowSchematicAttachment = true;
     public static int maxCommandSelectorValues = 128;
@@ -254,6 +271,17 @@ public class TCConfig {
         config.addHeader("keepChunksLoadedOnlyWhenMoving", "They also keep chunks loaded while the train is waiting on a station");
         keepChunksLoadedOnlyWhenMoving = config.get("keepChunksLoadedOnlyWhenMoving", false);
 
+        // Restoring of trains when chunks load
+        {
+            config.setHeader("restoreQueue", "\nConfigures how trains are restored when the chunks they are in load");
+            ConfigurationNode restoreQueueConfig = config.getNode("restoreQueue");
+            restoreQueueConfig.setHeader("enabled", "Whether trains are queued up and restored over several ticks, closest to players first.");
+            restoreQueueConfig.addHeader("enabled", "When disabled, trains are restored right away when their chunks load.");
+            restoreQueueEnabled = restoreQueueConfig.get("enabled", false);
+            restoreQueueConfig.setHeader("maxCartsPerTick", "Maximum number of carts restored every tick. At least one train is restored every tick.");
+            restoreQueueMaxCartsPerTick = Math.max(1, restoreQueueConfig.get("maxCartsPerTick", 64));
+        }
+
         config.setHeader("maxKeepChunksLoadedRadius", "\nMaximum radius that can be set for the keep chunks loaded property of a train");
         config.addHeader("maxKeepChunksLoadedRadius", "The default is radius is 2, which loads a 5x5 chunk area. Avoid abuse, don't make it too big.");
         maxKeepChunksLoadedRadius = config.get("maxKeepChunksLoadedRadius", 7);
@@ -382,6 +410,12 @@ public class TCConfig {
         config.setHeader("logMutexConflicts", "\nLogs a message to server log when two trains are inside a mutex zone, when they shouldn't be");
         logMutexConflicts = config.get("logMutexConflicts", false);
 
+        config.setHeader("mutexBatchedGrants", "\nWhether trains waiting to enter a mutex zone are given access once per tick, all at the same time");
+        config.addHeader("mutexBatchedGrants", "Trains that waited the longest go first, followed by the trains closest to the zone");
+        config.addHeader("mutexBatchedGrants", "This makes the order in which trains enter busy interlockings predictable,");
+        config.addHeader("mutexBatchedGrants", "but trains only enter a free mutex zone one tick after reaching it");
+        mutexBatchedGrants = config.get("mutexBatchedGrants", false);
+
         config.setHeader("logTrainSplitting", "\nLogs detailed messages whenever a train splits apart because of issues finding a path between carts");
         logTrainSplitting = config.get("logTrainSplitting", false);
 
@@ -474,6 +508,7 @@ public class TCConfig {
             config.set("statementShortcuts.diamond", "i@diamond");
         }
         statementShortcuts.clear().load(config.getNode("statementShortcuts"));
+        Statement.clearCompiledCache();
 
         //parser shortcuts
         config.setHeader("itemShortcuts", "\nSeveral shortcuts you can use on signs to set the items");
@@ -525,6 +560,11 @@ public class TCConfig {
         traincarts.getPathProvider().setMaxProcessingPerTick(
                 config.get("pathFindingMaxProcessingPerTick", PathProvider.DEFAULT_MAX_PROCESSING_PER_TICK));
 
+        config.setHeader("pathFindingRoutingTable", "\nWhen enabled, pre-computes the route from every switcher to every destination");
+        config.addHeader("pathFindingRoutingTable", "in the background after routing completes. This makes switchers faster at the cost");
+        config.addHeader("pathFindingRoutingTable", "of memory, which grows with the number of switchers times the number of destinations");
+        pathFindingRoutingTable = config.get("pathFindingRoutingTable", false);
+
         config.setHeader("switcherResetCountersOnFirstCart", "\nFor [cart] signs that use counter statements, specifies whether");
         config.addHeader("switcherResetCountersOnFirstCart", "counters reset on the first cart of the train");
         switcherResetCountersOnFirstCart = config.get("switcherResetCountersOnFirstCart", true);
@@ -646,6 +686,61 @@ public class TCConfig {
             attachmentTransformParallelism = config.get("attachmentTransformParallelism", -1);
         }
 
+        // Whether attachment positions of carts nobody is looking at are updated
+        config.setHeader("attachmentCulling", "\nWhether to skip updating the attachment positions of carts that no player can see");
+        config.addHeader("attachmentCulling", "Carts with occupied seats, hitboxes, sounds or lights are always updated");
+        config.addHeader("attachmentCulling", "Positions are computed again as soon as a player comes in view (default false)");
+        attachmentCullingEnabled = config.get("attachmentCulling", false);
+
+        // Adaptive tick scheduler
+        {
+            config.setHeader("tickScheduler", "\nConfigures the reduced update rate of idle trains. Trains that are not moving,");
+            config.addHeader("tickScheduler", "have no actions, passengers or nearby players and are not waiting for mutex zones");
+            config.addHeader("tickScheduler", "are considered idle. Idle trains only update once every few ticks.");
+            ConfigurationNode schedulerConfig = config.getNode("tickScheduler");
+            schedulerConfig.setHeader("enabled", "Whether idle trains update at a reduced rate (default false)");
+            tickSchedulerEnabled = schedulerConfig.get("enabled", false);
+            schedulerConfig.setHeader("idleInterval", "Number of ticks between updates of idle trains");
+            tickSchedulerIdleInterval = Math.max(1, schedulerConfig.get("idleInterval", 10));
+            schedulerConfig.setHeader("budget", "Maximum time (in milliseconds) spent on train physics per tick before");
+            schedulerConfig.addHeader("budget", "postponing updates of idle trains to the next tick. -1 disables the budget.");
+            tickSchedulerBudget = schedulerConfig.get("budget", -1.0);
+            schedulerConfig.setHeader("playerDistance", "Trains with a player within this distance (blocks) are never idle");
+            tickSchedulerPlayerDistance = schedulerConfig.get("playerDistance", 64.0);
+        }
+
+        // Per-player network interest management
+        {
+            config.setHeader("networkInterest", "\nConfigures the reduced rate at which the movement of train attachments far away");
+            config.addHeader("networkInterest", "from a player, or behind the player, is sent to that player. This reduces the bandwidth");
+            config.addHeader("networkInterest", "used by players that can see many trains at once.");
+            ConfigurationNode interestConfig = config.getNode("networkInterest");
+            interestConfig.setHeader("enabled", "Whether movement is sent at a reduced rate to players far away (default false)");
+            networkInterestEnabled = interestConfig.get("enabled", false);
+            interestConfig.setHeader("fullRateDistance", "Movement within this distance (blocks) of a player is sent every tick");
+            networkInterestFullRateDistance = interestConfig.get("fullRateDistance", 32.0);
+            interestConfig.setHeader("reducedRateDistance", "Movement within this distance (blocks) of a player, in front of the player,");
+            interestConfig.addHeader("reducedRateDistance", "is sent every reducedRateInterval ticks");
+            networkInterestReducedRateDistance = interestConfig.get("reducedRateDistance", 96.0);
+            interestConfig.setHeader("reducedRateInterval", "Number of ticks between movement updates within the reduced rate distance");
+            networkInterestReducedRateInterval = Math.max(1, interestConfig.get("reducedRateInterval", 2));
+            interestConfig.setHeader("distantInterval", "Number of ticks between movement updates beyond the reduced rate distance,");
+            interestConfig.addHeader("distantInterval", "or behind the player beyond the full rate distance");
+            networkInterestDistantInterval = Math.max(1, interestConfig.get("distantInterval", 4));
+        }
+
+        // Packet queue writer threads
+        {
+            config.setHeader("packetQueue", "\nConfigures the threads that send the packets of trains to the players");
+            ConfigurationNode packetQueueConfig = config.getNode("packetQueue");
+            packetQueueConfig.setHeader("dispatcher", "How packets are sent. 'thread' gives every player a writer thread of its own,");
+            packetQueueConfig.addHeader("dispatcher", "'pool' shares a fixed pool of threads between all players and 'virtual' uses");
+            packetQueueConfig.addHeader("dispatcher", "virtual threads (Java 21+, falls back to 'pool'). Requires a restart to change.");
+            packetQueueDispatcher = packetQueueConfig.get("dispatcher", "thread");
+            packetQueueConfig.setHeader("poolSize", "Number of threads of the 'pool' dispatcher. -1 uses the number of processors.");
+            packetQueuePoolSize = packetQueueConfig.get("poolSize", -1);
+        }
+
         config.setHeader("unloadRunawayTrainDistance", "\nWhen trains that keep chunks loaded around them derail, they can end up");
         config.addHeader("unloadRunawayTrainDistance", "flying off into nowhere. This results in thousands of chunks being generated,");
         config.addHeader("unloadRunawayTrainDistance", "with no clear indication other than server performance tanking. To combat this,");
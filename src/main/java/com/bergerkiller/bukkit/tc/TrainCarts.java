@@ -103,6 +103,7 @@ public class TrainCarts extends PluginBase {
     private Task autosaveTask;
     private Task cacheCleanupTask;
     private Task mutexZoneUpdateTask;
+    private Task restoreQueueTask;
     private final List<ChunkPreloadTask> chunkPreloadTasks = new ArrayList<>();
     private TCPropertyRegistry propertyRegistry;
     private TCListener listener;
@@ -667,6 +668,17 @@ public class TrainCarts extends PluginBase {
         // Refresh
         this.autosaveTask.stop().start(TCConfig.autoSaveInterval, TCConfig.autoSaveInterval);
 
+        // Restores the trains queued up when chunks load, a limited number of carts per tick
+        if (TCConfig.restoreQueueEnabled) {
+            if (restoreQueueTask == null) {
+                restoreQueueTask = new RestoreQueueTask(this).start(1, 1);
+            }
+        } else if (restoreQueueTask != null) {
+            Task.stop(restoreQueueTask);
+            restoreQueueTask = null;
+            offlineGroupManager.flushRestoreQueue();
+        }
+
         // Load this one right away
         this.modelListing = new ResourcePackModelListing(this);
         this.modelListing.load(TCConfig.resourcePack);
@@ -1007,6 +1019,8 @@ public class TrainCarts extends PluginBase {
         Task.stop(autosaveTask);
         Task.stop(cacheCleanupTask);
         Task.stop(mutexZoneUpdateTask);
+        Task.stop(restoreQueueTask);
+        restoreQueueTask = null;
 
         //Stop preloading chunks (happens when quickly disabling after enabling)
         for (ChunkPreloadTask preloadTask : this.chunkPreloadTasks) {
@@ -1132,6 +1146,9 @@ public class TrainCarts extends PluginBase {
 
         //WorldEdit schematic loader can now also be shut down permanently
         this.worldEditSchematicLoader.disable();
+
+        // Stop the packet writer threads shared by all players, if any
+        this.packetQueueMap.disable();
     }
 
     @SuppressWarnings({"rawtypes", "deprecation", "unchecked"})
@@ -1275,6 +1292,18 @@ public class TrainCarts extends PluginBase {
         }
     }
 
+    private static class RestoreQueueTask extends Task {
+
+        public RestoreQueueTask(TrainCarts plugin) {
+            super(plugin);
+        }
+
+        @Override
+        public void run() {
+            ((TrainCarts) this.getPlugin()).getOfflineGroups().processRestoreQueue();
+        }
+    }
+
     /**
      * Keeps chunks with trains in them loaded for a short time
      * to allow for the asynchronous entity loading to complete.
@@ -3,6 +3,8 @@ package com.bergerkiller.bukkit.tc.attachments;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -21,9 +23,11 @@ import com.bergerkiller.bukkit.common.math.Matrix4x4;
 import com.bergerkiller.bukkit.common.math.Quaternion;
 import com.bergerkiller.bukkit.common.protocol.CommonPacket;
 import com.bergerkiller.bukkit.common.protocol.PacketType;
+import com.bergerkiller.bukkit.common.utils.CommonUtil;
 import com.bergerkiller.bukkit.common.utils.EntityUtil;
 import com.bergerkiller.bukkit.common.utils.MathUtil;
 import com.bergerkiller.bukkit.common.wrappers.DataWatcher;
+import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.Util;
 import com.bergerkiller.bukkit.tc.attachments.api.AttachmentManager;
 import com.bergerkiller.bukkit.tc.attachments.api.AttachmentViewer;
@@ -89,7 +93,10 @@ public class VirtualEntity extends VirtualSpawnableObject {
     private SyncMode syncMode = SyncMode.NORMAL;
     private boolean minecartInterpolation = false;
     private boolean useParentMetadata = false;
-    private Vector yawPitchRoll = new Vector(0.0, 0.0, 0.0);
+    private final Vector yawPitchRoll = new Vector(0.0, 0.0, 0.0);
+    private final Vector computedYawPitchRoll = new Vector();
+    private final Vector transformedPos = new Vector();
+    private Map<AttachmentViewer, ViewerSyncState> reducedRateViewers = null;
 
     public VirtualEntity(AttachmentManager manager) {
         this(manager, EntityUtil.getUniqueEntityId(), UUID.randomUUID());
@@ -237,12 +244,23 @@ public class VirtualEntity extends VirtualSpawnableObject {
 
     @Override
     public void updatePosition(Matrix4x4 transform) {
+        // Forward and up vectors are computed from the quaternion components directly,
+        // rather than using forwardVector() / upVector(), so no vectors are allocated.
+        // This runs for every entity of every attachment every tick.
         Quaternion rotation = transform.getRotation();
-        Vector f = rotation.forwardVector();
+        double qx = rotation.getX();
+        double qy = rotation.getY();
+        double qz = rotation.getZ();
+        double qw = rotation.getW();
+        double fx = 2.0 * (qx * qz + qw * qy);
+        double fy = 2.0 * (qy * qz - qw * qx);
+        double fz = 1.0 - 2.0 * (qx * qx + qy * qy);
         double yaw, pitch;
 
         if (this.hasPitch()) {
-            Vector u = rotation.upVector();
+            double ux = 2.0 * (qx * qy - qw * qz);
+            double uy = 1.0 - 2.0 * (qx * qx + qz * qz);
+            double uz = 2.0 * (qy * qz + qw * qx);
 
             // Compute yawmode factor - whether to use the forward or up-vector for computing yaw
             // A value below 0.0 indicates the forward vector should be used (mostly horizontal)
@@ -250,44 +268,49 @@ public class VirtualEntity extends VirtualSpawnableObject {
             // A value between 0.0 and 1.0 selects a smooth combination of both
             final double yawmode_factor_start = 0.9;
             final double yawmode_factor_end = 0.99;
-            double yawmode_factor = (Math.abs(f.getY()) - yawmode_factor_start) / (1.0 - yawmode_factor_end);
+            double yawmode_factor = (Math.abs(fy) - yawmode_factor_start) / (1.0 - yawmode_factor_end);
 
             // Invert up-vector when upside-down
             // Up-vector is only used when the entity is vertical - so this is fine.
-            boolean isFrontSideDown = (f.getY() < 0.0);
+            boolean isFrontSideDown = (fy < 0.0);
 
-            if (u.getY() < 0.0) {
+            if (uy < 0.0) {
                 // Upside-down
-                pitch = 180.0 + MathUtil.getLookAtPitch(f.getX(), -f.getY(), f.getZ());
-                f.multiply(-1.0);
+                pitch = 180.0 + MathUtil.getLookAtPitch(fx, -fy, fz);
+                fx = -fx;
+                fy = -fy;
+                fz = -fz;
             } else {
                 // Upright
-                pitch = MathUtil.getLookAtPitch(f.getX(), f.getY(), f.getZ());
+                pitch = MathUtil.getLookAtPitch(fx, fy, fz);
             }
 
             if (isFrontSideDown) {
-                u.multiply(-1.0);
+                ux = -ux;
+                uz = -uz;
             }
 
             if (yawmode_factor <= 0.0) {
                 // Horizontal, use forward vector for yaw
-                yaw = MathUtil.getLookAtYaw(-f.getZ(), f.getX());
+                yaw = MathUtil.getLookAtYaw(-fz, fx);
             } else if (yawmode_factor >= 1.0) {
                 // Vertical, use up-vector for yaw
-                yaw = MathUtil.getLookAtYaw(u.getZ(), -u.getX());
+                yaw = MathUtil.getLookAtYaw(uz, -ux);
             } else {
                 // Mix of the above
-                double ax = yawmode_factor *  u.getZ() + (1.0 - yawmode_factor) * -f.getZ();
-                double az = yawmode_factor * -u.getX() + (1.0 - yawmode_factor) * f.getX();
+                double ax = yawmode_factor *  uz + (1.0 - yawmode_factor) * -fz;
+                double az = yawmode_factor * -ux + (1.0 - yawmode_factor) * fx;
                 yaw = MathUtil.getLookAtYaw(ax, az);
             }
         } else {
             // If this entity has no pitch - return yaw instantly
-            yaw = MathUtil.getLookAtYaw(-f.getZ(), f.getX());
+            yaw = MathUtil.getLookAtYaw(-fz, fx);
             pitch = 0.0;
         }
 
-        updatePosition(transform, new Vector(pitch, yaw, 0.0));
+        // Re-used vector, the rotation is copied in updatePosition(x, y, z, pitch, yaw, roll)
+        MathUtil.setVector(this.computedYawPitchRoll, pitch, yaw, 0.0);
+        updatePosition(transform, this.computedYawPitchRoll);
     }
 
     /**
@@ -297,13 +320,16 @@ public class VirtualEntity extends VirtualSpawnableObject {
      * @param yawPitchRoll rotation
      */
     public void updatePosition(Matrix4x4 transform, Vector yawPitchRoll) {
+        // Transforms the position into a re-used vector, to avoid allocating one every tick
+        Vector v = this.transformedPos;
         if (this.posSet) {
-            Vector v = new Vector(this.posX, this.posY, this.posZ);
-            transform.transformPoint(v);
-            updatePosition(v, yawPitchRoll);
+            MathUtil.setVector(v, this.posX, this.posY, this.posZ);
         } else {
-            updatePosition(transform.toVector(), yawPitchRoll);
+            MathUtil.setVector(v, 0.0, 0.0, 0.0);
         }
+        transform.transformPoint(v);
+        updatePosition(v.getX(), v.getY(), v.getZ(),
+                yawPitchRoll.getX(), yawPitchRoll.getY(), yawPitchRoll.getZ());
     }
 
     /**
@@ -313,13 +339,18 @@ public class VirtualEntity extends VirtualSpawnableObject {
      * @param yawPitchRoll rotation
      */
     public void updatePosition(Vector position, Vector yawPitchRoll) {
-        MathUtil.setVector(this.liveAbsPos, position);
+        updatePosition(position.getX(), position.getY(), position.getZ(),
+                yawPitchRoll.getX(), yawPitchRoll.getY(), yawPitchRoll.getZ());
+    }
+
+    private void updatePosition(double x, double y, double z, double pitch, double yaw, double roll) {
+        MathUtil.setVector(this.liveAbsPos, x, y, z);
         this.liveAbsPos.add(this.relativePos);
 
-        this.yawPitchRoll = yawPitchRoll;
-        this.liveYaw = (float) this.yawPitchRoll.getY();
+        MathUtil.setVector(this.yawPitchRoll, pitch, yaw, roll);
+        this.liveYaw = (float) yaw;
         if (this.syncMode != SyncMode.SEAT && this.hasPitch()) {
-            livePitch = (float) this.yawPitchRoll.getX();
+            livePitch = (float) pitch;
         } else {
             livePitch = 0.0f;
         }
@@ -421,6 +452,9 @@ public class VirtualEntity extends VirtualSpawnableObject {
 
         //System.out.println("SPAWN " + this.syncAbsX + "/" + this.syncAbsY + "/" + this.syncAbsZ + " ID=" + this.entityUUID);
 
+        // Spawns at the synchronized position, which viewers updated at full rate also see
+        removeReducedRateViewer(viewer);
+
         // Position to spawn at
         Vector spawnPos = this.syncAbsPos.clone();
         if (byViewerPositionAdjustment != null) {
@@ -545,6 +579,7 @@ public class VirtualEntity extends VirtualSpawnableObject {
         if (this.respawnOnPitchFlip && this.syncPitch != this.livePitch && Util.isProtocolRotationGlitched(this.syncPitch, this.livePitch)) {
             this.forAllViewers(this::sendDestroyPacketsWithoutVMC);
             this.syncPositionSilent();
+            this.reducedRateViewers = null;
             for (AttachmentViewer viewer : this.getViewers()) {
                 sendSpawnPackets(viewer, largeChange ? new Vector() : new Vector(dx, dy, dz));
             }
@@ -571,9 +606,14 @@ public class VirtualEntity extends VirtualSpawnableObject {
             }
             syncPositionSilent();
             refreshHeadRotation();
+            reducedRateViewers = null; // All viewers are in sync again
             return;
         }
 
+        // Find out what viewers receive movement updates at a reduced rate. These viewers
+        // are excluded from the relative movement updates sent to all other viewers.
+        boolean hasReducedRateViewers = updateReducedRateViewers();
+
         boolean moved, rotated, rotatedNow;
 
         // Check that the position changed meaningfully (can be represented in protocol)
@@ -619,7 +659,7 @@ public class VirtualEntity extends VirtualSpawnableObject {
             this.syncYaw = packet.getYaw();
             this.syncPitch = packet.getPitch();
             MathUtil.addToVector(this.syncAbsPos, packet.getDeltaX(), packet.getDeltaY(), packet.getDeltaZ());
-            broadcast(packet);
+            broadcastFullRate(packet);
         } else if (moved) {
             // Only position changed
             PacketPlayOutRelEntityMoveHandle packet = PacketPlayOutRelEntityMoveHandle.createNew(
@@ -628,10 +668,13 @@ public class VirtualEntity extends VirtualSpawnableObject {
                     false);
 
             MathUtil.addToVector(this.syncAbsPos, packet.getDeltaX(), packet.getDeltaY(), packet.getDeltaZ());
-            broadcast(packet);
+            broadcastFullRate(packet);
         } else if (rotated) {
             // Only rotation changed
             for (AttachmentViewer viewer : this.getViewers()) {
+                if (reducedRateViewers != null && reducedRateViewers.containsKey(viewer)) {
+                    continue;
+                }
                 if (viewer.evaluateGameVersion(">=", "1.15")) {
                     // On minecraft 1.15 and later there is a Minecraft client bug
                     // Sending an Entity Look packet causes the client to cancel/ignore previous movement updates
@@ -659,6 +702,88 @@ public class VirtualEntity extends VirtualSpawnableObject {
                     this.syncPitch = packet.getPitch();
                 }
             }
+            if (hasReducedRateViewers) {
+                // All viewers might have been skipped, the rotation must still be synchronized
+                this.syncYaw = this.liveYaw;
+                this.syncPitch = this.livePitch;
+            }
+        }
+
+        // Send the synchronized position to viewers updated at a reduced rate, when it is their turn
+        if (hasReducedRateViewers) {
+            syncReducedRateViewers(rotated);
+        }
+    }
+
+    /**
+     * Refreshes what viewers receive movement updates at a reduced rate, based on the
+     * distance between the viewer and the live position of this entity.
+     * Must be called before the synchronized position is updated.
+     *
+     * @return True if there are viewers that are or were updated at a reduced rate
+     */
+    private boolean updateReducedRateViewers() {
+        if (!TCConfig.networkInterestEnabled || byViewerPositionAdjustment != null) {
+            // Viewers still updated at a reduced rate must be synchronized one more time
+            return reducedRateViewers != null;
+        }
+
+        for (AttachmentViewer viewer : this.getViewers()) {
+            int interval = viewer.getMovementUpdateInterval(liveAbsPos.getX(), liveAbsPos.getY(), liveAbsPos.getZ());
+            ViewerSyncState state = (reducedRateViewers == null) ? null : reducedRateViewers.get(viewer);
+            if (state != null) {
+                state.interval = interval;
+            } else if (interval > 1) {
+                if (reducedRateViewers == null) {
+                    reducedRateViewers = new HashMap<>();
+                }
+                reducedRateViewers.put(viewer, new ViewerSyncState(interval));
+            }
+        }
+        return reducedRateViewers != null;
+    }
+
+    /**
+     * Sends the synchronized position and rotation to the viewers updated at a reduced rate
+     * whose turn it is this tick. Viewers that are updated at full rate again are brought in sync
+     * and are updated with all other viewers from then on.
+     *
+     * @param forceRotation Whether to send the rotation, even if it did not change
+     */
+    private void syncReducedRateViewers(boolean forceRotation) {
+        int ticks = CommonUtil.getServerTicks() + this.entityId; // Spreads the updates of all entities over time
+        boolean updateAll = !TCConfig.networkInterestEnabled || byViewerPositionAdjustment != null;
+        Iterator<Map.Entry<AttachmentViewer, ViewerSyncState>> iter = reducedRateViewers.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<AttachmentViewer, ViewerSyncState> entry = iter.next();
+            ViewerSyncState state = entry.getValue();
+            if (updateAll || state.interval <= 1) {
+                state.sync(entry.getKey(), forceRotation);
+                iter.remove();
+            } else if ((ticks % state.interval) == 0) {
+                state.sync(entry.getKey(), forceRotation);
+            }
+        }
+        if (reducedRateViewers.isEmpty()) {
+            reducedRateViewers = null;
+        }
+    }
+
+    private void removeReducedRateViewer(AttachmentViewer viewer) {
+        if (reducedRateViewers != null && reducedRateViewers.remove(viewer) != null && reducedRateViewers.isEmpty()) {
+            reducedRateViewers = null;
+        }
+    }
+
+    private void broadcastFullRate(PacketHandle packet) {
+        if (reducedRateViewers == null) {
+            broadcast(packet);
+        } else {
+            for (AttachmentViewer viewer : this.getViewers()) {
+                if (!reducedRateViewers.containsKey(viewer)) {
+                    viewer.send(packet);
+                }
+            }
         }
     }
 
@@ -718,6 +843,7 @@ public class VirtualEntity extends VirtualSpawnableObject {
     }
 
     private void sendDestroyPacketsWithoutVMC(AttachmentViewer viewer) {
+        removeReducedRateViewer(viewer);
         if (this.syncVel > 0.0) {
             viewer.send(PacketType.OUT_ENTITY_VELOCITY.newInstance(this.entityId, new Vector()));
         }
@@ -918,6 +1044,89 @@ public class VirtualEntity extends VirtualSpawnableObject {
         }
     }
 
+    /**
+     * Position and rotation of this entity last sent to a viewer that is updated
+     * at a reduced rate. Updates are relative to this position, and are skipped
+     * when the synchronized position and rotation did not change since then.
+     */
+    private final class ViewerSyncState {
+        public int interval;
+        private double posX, posY, posZ;
+        private float yaw, pitch;
+
+        public ViewerSyncState(int interval) {
+            this.interval = interval;
+            this.posX = syncAbsPos.getX();
+            this.posY = syncAbsPos.getY();
+            this.posZ = syncAbsPos.getZ();
+            this.yaw = syncYaw;
+            this.pitch = syncPitch;
+        }
+
+        /**
+         * Sends the synchronized position and rotation of the entity to the viewer,
+         * if it changed since the last time it was sent.
+         *
+         * @param viewer Viewer to send the updates to
+         * @param forceRotation Whether to send the rotation, even if it did not change
+         */
+        public void sync(AttachmentViewer viewer, boolean forceRotation) {
+            double dx = (syncAbsPos.getX() - posX);
+            double dy = (syncAbsPos.getY() - posY);
+            double dz = (syncAbsPos.getZ() - posZ);
+            double abs_delta = Math.max(Math.max(Math.abs(dx), Math.abs(dy)), Math.abs(dz));
+            if (abs_delta > EntityNetworkController.MAX_RELATIVE_DISTANCE) {
+                viewer.send(PacketPlayOutEntityTeleportHandle.createNew(entityId,
+                        syncAbsPos.getX(), syncAbsPos.getY(), syncAbsPos.getZ(),
+                        syncYaw, syncPitch, false));
+                posX = syncAbsPos.getX();
+                posY = syncAbsPos.getY();
+                posZ = syncAbsPos.getZ();
+                yaw = syncYaw;
+                pitch = syncPitch;
+                return;
+            }
+
+            boolean moved = (abs_delta >= (1.0 / 4096.0));
+            boolean rotated = forceRotation ||
+                    EntityTrackerEntryStateHandle.hasProtocolRotationChanged(syncYaw, yaw) ||
+                    EntityTrackerEntryStateHandle.hasProtocolRotationChanged(syncPitch, pitch);
+
+            if (moved && rotated) {
+                PacketPlayOutRelEntityMoveLookHandle packet = PacketPlayOutRelEntityMoveLookHandle.createNew(
+                        entityId, dx, dy, dz, syncYaw, syncPitch, false);
+                posX += packet.getDeltaX();
+                posY += packet.getDeltaY();
+                posZ += packet.getDeltaZ();
+                yaw = packet.getYaw();
+                pitch = packet.getPitch();
+                viewer.send(packet);
+            } else if (moved) {
+                PacketPlayOutRelEntityMoveHandle packet = PacketPlayOutRelEntityMoveHandle.createNew(
+                        entityId, dx, dy, dz, false);
+                posX += packet.getDeltaX();
+                posY += packet.getDeltaY();
+                posZ += packet.getDeltaZ();
+                viewer.send(packet);
+            } else if (rotated) {
+                // See syncPosition() for why a movement + look packet is used on 1.15 and later
+                if (viewer.evaluateGameVersion(">=", "1.15")) {
+                    PacketPlayOutRelEntityMoveLookHandle packet = PacketPlayOutRelEntityMoveLookHandle.createNew(
+                            entityId, 0.0, 0.0, 0.0, syncYaw, syncPitch, false);
+                    yaw = packet.getYaw();
+                    pitch = packet.getPitch();
+                    viewer.send(packet);
+                } else {
+                    PacketPlayOutEntityLookHandle packet = PacketPlayOutEntityLookHandle.createNew(
+                            entityId, syncYaw, syncPitch, false);
+                    yaw = packet.getYaw();
+                    pitch = packet.getPitch();
+                    viewer.send(packet);
+                }
+            }
+        }
+    }
+
     /**
      * Callback that adjusts the position of this virtual entity based on the type
      * of viewer that views it. This allows for different offsets to be specified
@@ -420,6 +420,17 @@ public interface Attachment extends AttachmentNameLookup.Supplier {
      */
     default boolean isHiddenWhenInactive() { return true; }
 
+    /**
+     * Gets whether the transform of this attachment must be kept up to date while no
+     * player is viewing the attachment. When this returns false for all attachments
+     * of a cart without viewers, the transforms of those attachments are not updated
+     * until a player views the cart again. Attachments that affect the world or
+     * passengers, like lights and occupied seats, should return true.
+     *
+     * @return True if the transform is required while there are no viewers
+     */
+    default boolean isTransformRequiredWithoutViewers() { return false; }
+
     /**
      * Gets whether or not this attachment is active.
      * See {@link #setActive(boolean)}.
@@ -180,6 +180,20 @@ public interface AttachmentViewer extends TrainCarts.Provider {
         return PlayerUtil.evaluateGameVersion(getPlayer(), operand, rightSide);
     }
 
+    /**
+     * Gets the number of ticks between movement updates sent to this viewer of an entity
+     * at a position. Entities far away from the viewer, or behind the viewer, can be updated
+     * less often to reduce the bandwidth used. By default every tick.
+     *
+     * @param x X-coordinate of the entity
+     * @param y Y-coordinate of the entity
+     * @param z Z-coordinate of the entity
+     * @return Movement update interval in ticks, 1 to update every tick
+     */
+    default int getMovementUpdateInterval(double x, double y, double z) {
+        return 1;
+    }
+
     /**
      * Gets whether this viewer, and the server itself, can support the use of display entities.
      * If true, a display entity can be spawned for this player. If false, armorstands should be used.
@@ -242,6 +242,11 @@ public class CartAttachmentHitBox extends CartAttachment {
         }
     }
 
+    @Override
+    public boolean isTransformRequiredWithoutViewers() {
+        return true;
+    }
+
     @Override
     public void onTick() {
         if (box != null && !this.isFocused() &&
@@ -182,6 +182,11 @@ public class CartAttachmentLight extends CartAttachment {
         }
     }
 
+    @Override
+    public boolean isTransformRequiredWithoutViewers() {
+        return true;
+    }
+
     @Override
     public void onTick() {
         Vector pos_d = this.getTransform().toVector();
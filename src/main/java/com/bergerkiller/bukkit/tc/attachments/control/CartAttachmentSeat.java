@@ -673,6 +673,11 @@ public class CartAttachmentSeat extends CartAttachment {
         return this.seated.getEntity();
     }
 
+    @Override
+    public boolean isTransformRequiredWithoutViewers() {
+        return this.seated.getEntity() != null;
+    }
+
     /**
      * Gets the number of ticks this current Entity has been inside the seat.
      * Returns 0 if this seat has no passenger.
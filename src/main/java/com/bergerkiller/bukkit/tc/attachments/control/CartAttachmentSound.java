@@ -236,6 +236,11 @@ public class CartAttachmentSound extends CartAttachment implements Attachment.Ef
         listeners.stop();
     }
 
+    @Override
+    public boolean isTransformRequiredWithoutViewers() {
+        return true;
+    }
+
     @Override
     public void onTick() {
         listeners.updateListeners(this, sound, false);
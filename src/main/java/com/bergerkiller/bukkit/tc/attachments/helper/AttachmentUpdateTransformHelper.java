@@ -1,9 +1,11 @@
 package com.bergerkiller.bukkit.tc.attachments.helper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Supplier;
 
 import com.bergerkiller.bukkit.common.math.Matrix4x4;
@@ -72,6 +74,20 @@ public abstract class AttachmentUpdateTransformHelper {
      */
     public abstract void start(Attachment attachment, Matrix4x4 initialTransform);
 
+    /**
+     * Schedules an attachment for updating the transformation. The number of attachments
+     * in the tree is used to balance the work between threads.
+     *
+     * @param attachment The attachment to update the transform of
+     * @param initialTransform Initial transformation matrix relative
+     *                         to which the attachment is placed.
+     * @param nodeCount Number of attachments in the tree, including the attachment itself.
+     *                  -1 if unknown.
+     */
+    public void start(Attachment attachment, Matrix4x4 initialTransform, int nodeCount) {
+        start(attachment, initialTransform);
+    }
+
     /**
      * Finishes processing all the tasks previously started using
      * {@link #start(Attachment, Matrix4x4)}.
@@ -119,39 +135,171 @@ public abstract class AttachmentUpdateTransformHelper {
         }
     }
 
+    /**
+     * Updates the attachment trees of all trains on a pool of threads. Large trees, and trees
+     * of unknown size, are scheduled right away using the recursive task of the tree, which forks
+     * the updates of the children onto other threads. Small trees are collected until {@link #finish()}.
+     * Then they are grouped into chunks of about the same number of attachments, each updated
+     * by a single task, so that the work handed to other threads is neither too fine-grained
+     * nor too unbalanced. The pool is work-stealing, so idle threads take over tasks of busy ones.
+     */
     private static final class AttachmentUpdateHelperMultiThreaded extends AttachmentUpdateTransformHelper {
-        private final List<ForkJoinTask<Void>> pendingTasks;
+        /** Number of chunks created per thread, so that threads finishing early can steal work */
+        private static final int CHUNKS_PER_THREAD = 4;
+        /** Minimum number of attachments per chunk, below which scheduling costs more than it gains */
+        private static final int MIN_CHUNK_COST = 64;
+        /** Trees with at least this many attachments are started right away, and split across threads on their own */
+        private static final int IMMEDIATE_TREE_COST = 256;
+        private final List<ForkJoinTask<?>> pendingTasks;
+        private final ArrayList<Attachment> pendingRoots;
+        private final ArrayList<Matrix4x4> pendingTransforms;
+        private int[] pendingCosts;
+        private long pendingTotalCost;
         private final ForkJoinPool pool;
+        private final int parallelism;
 
         public AttachmentUpdateHelperMultiThreaded(int parallelism) {
-            pendingTasks = new ArrayList<ForkJoinTask<Void>>();
+            pendingTasks = new ArrayList<ForkJoinTask<?>>();
+            pendingRoots = new ArrayList<Attachment>();
+            pendingTransforms = new ArrayList<Matrix4x4>();
+            pendingCosts = new int[64];
+            pendingTotalCost = 0;
             pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, false);
+            this.parallelism = parallelism;
         }
 
         @Override
         public void start(Attachment attachment, Matrix4x4 initialTransform) {
-            // Create or retrieve the task used for updating
-            ForkJoinTask<Void> task = attachment.getInternalState().updateTransformRecurseAsync(
-                    attachment,
-                    initialTransform,
-                    activeChangeHandler);
+            start(attachment, initialTransform, -1);
+        }
 
-            // Schedule it
-            pendingTasks.add(task);
-            pool.execute(task);
+        @Override
+        public void start(Attachment attachment, Matrix4x4 initialTransform, int nodeCount) {
+            // Large trees and trees of unknown size start updating while the other trains are visited
+            if (nodeCount < 0 || nodeCount >= IMMEDIATE_TREE_COST) {
+                scheduleTask(attachment.getInternalState().updateTransformRecurseAsync(
+                        attachment,
+                        initialTransform,
+                        activeChangeHandler));
+                return;
+            }
+
+            // Small trees are grouped together into chunks once all trees are known
+            int index = pendingRoots.size();
+            if (index == pendingCosts.length) {
+                pendingCosts = Arrays.copyOf(pendingCosts, index * 2);
+            }
+            pendingRoots.add(attachment);
+            pendingTransforms.add(initialTransform);
+            pendingCosts[index] = nodeCount;
+            pendingTotalCost += Math.max(1, nodeCount);
         }
 
         @Override
         public void finish() {
             try {
+                schedulePending();
+
                 // Wait for all tasks to finish. Do in reverse order for better performance.
+                // All tasks must be done before the pending trees are cleared, so only
+                // throw errors of failed tasks after all of them finished.
                 for (int i = pendingTasks.size() - 1; i >= 0; i--) {
-                    pendingTasks.get(i).join();
+                    pendingTasks.get(i).quietlyJoin();
+                }
+                for (ForkJoinTask<?> task : pendingTasks) {
+                    if (task.isCompletedAbnormally()) {
+                        task.join(); // Throws
+                    }
                 }
             } finally {
                 pendingTasks.clear();
+                pendingRoots.clear();
+                pendingTransforms.clear();
+                pendingTotalCost = 0;
                 activeChangeHandler.sync();
             }
         }
+
+        private void schedulePending() {
+            int numRoots = pendingRoots.size();
+            if (numRoots == 0) {
+                return;
+            }
+
+            // Cost each chunk should have so all threads get several chunks
+            long targetCost = Math.max(MIN_CHUNK_COST, pendingTotalCost / (parallelism * CHUNKS_PER_THREAD));
+
+            // Split trees (in the order they were started) into chunks of roughly the target cost
+            // Trees that are big on their own are updated recursively
+            int chunkStart = 0;
+            long chunkCost = 0;
+            for (int i = 0; i < numRoots; i++) {
+                int cost = pendingCosts[i];
+                if (cost >= targetCost) {
+                    scheduleChunk(chunkStart, i);
+                    chunkCost = 0;
+                    chunkStart = i + 1;
+
+                    Attachment root = pendingRoots.get(i);
+                    scheduleTask(root.getInternalState().updateTransformRecurseAsync(
+                            root,
+                            pendingTransforms.get(i),
+                            activeChangeHandler));
+                } else if ((chunkCost += cost) >= targetCost) {
+                    scheduleChunk(chunkStart, i + 1);
+                    chunkCost = 0;
+                    chunkStart = i + 1;
+                }
+            }
+            scheduleChunk(chunkStart, numRoots);
+        }
+
+        private void scheduleChunk(int startIndex, int endIndex) {
+            if (startIndex < endIndex) {
+                scheduleTask(new UpdateChunkTask(startIndex, endIndex));
+            }
+        }
+
+        private void scheduleTask(ForkJoinTask<?> task) {
+            pendingTasks.add(task);
+            pool.execute(task);
+        }
+
+        /**
+         * Updates several small attachment trees, one after the other, on the same thread
+         */
+        private final class UpdateChunkTask extends RecursiveAction {
+            private static final long serialVersionUID = -3196302471640271840L;
+            private final int startIndex, endIndex;
+
+            public UpdateChunkTask(int startIndex, int endIndex) {
+                this.startIndex = startIndex;
+                this.endIndex = endIndex;
+            }
+
+            @Override
+            protected void compute() {
+                ArrayList<Attachment> pendingUpdates = new ArrayList<>();
+                for (int i = startIndex; i < endIndex; i++) {
+                    Attachment root = pendingRoots.get(i);
+                    root.getInternalState().updateTransform(
+                            root,
+                            pendingTransforms.get(i),
+                            activeChangeHandler);
+                    pendingUpdates.addAll(root.getChildren());
+
+                    // Breadth-first, same as the single-threaded helper
+                    for (int index = 0; index < pendingUpdates.size(); index++) {
+                        Attachment attachment = pendingUpdates.get(index);
+                        attachment.getInternalState().updateTransform(
+                                attachment,
+                                attachment.getParent().getTransform(),
+                                activeChangeHandler);
+                        pendingUpdates.addAll(attachment.getChildren());
+                    }
+                    pendingUpdates.clear();
+                }
+            }
+        }
     }
 }
@@ -494,6 +494,33 @@ public class SelectorCondition {
             this.lastAny = lastAny;
         }
 
+        /**
+         * Gets the text elements in between the * wildcards
+         *
+         * @return elements
+         */
+        public String[] getElements() {
+            return this.elements;
+        }
+
+        /**
+         * Gets whether the expression starts with a * wildcard
+         *
+         * @return True if the first element can be preceded by any text
+         */
+        public boolean isFirstAny() {
+            return this.firstAny;
+        }
+
+        /**
+         * Gets whether the expression ends with a * wildcard
+         *
+         * @return True if the last element can be followed by any text
+         */
+        public boolean isLastAny() {
+            return this.lastAny;
+        }
+
         @Override
         public boolean matchesAnyText(Collection<String> values) throws SelectorException {
             for (String value : values) {
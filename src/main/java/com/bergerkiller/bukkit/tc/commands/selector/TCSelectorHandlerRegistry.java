@@ -167,7 +167,8 @@ public class TCSelectorHandlerRegistry extends SelectorHandlerRegistry {
         conditions = new ArrayList<>(conditions);
 
         // Stream the properties of all trains on the server
-        Stream<TrainProperties> stream = TrainPropertiesStore.getAll().stream();
+        // If a train name is specified, only stream the trains the name index finds
+        Stream<TrainProperties> stream = findNameCandidates(conditions).stream();
 
         // Filter trains by world and/or the location coordinates of the carts
         // Mutates the conditions list to remove the matchers used
@@ -204,6 +205,30 @@ public class TCSelectorHandlerRegistry extends SelectorHandlerRegistry {
         return result;
     }
 
+    /**
+     * Uses the train name index to find the trains that might match a name condition.
+     * If no (supported) name condition is specified, returns all trains.
+     * The conditions are not modified, so the name is still checked afterwards.
+     *
+     * @param conditions Selector conditions
+     * @return train properties to check the conditions against
+     */
+    private static Collection<TrainProperties> findNameCandidates(List<SelectorCondition> conditions) {
+        for (SelectorCondition condition : conditions) {
+            if (!condition.getKey().equals("name") && !condition.getKey().equals("train")) {
+                continue;
+            }
+            if (condition.getClass() == SelectorCondition.class) {
+                return TrainPropertiesStore.findNameCandidates(new String[] { condition.getValue() }, false, false);
+            } else if (condition instanceof SelectorCondition.SelectorConditionWildcardText) {
+                SelectorCondition.SelectorConditionWildcardText wildcard = (SelectorCondition.SelectorConditionWildcardText) condition;
+                return TrainPropertiesStore.findNameCandidates(wildcard.getElements(),
+                        wildcard.isFirstAny(), wildcard.isLastAny());
+            }
+        }
+        return TrainPropertiesStore.getAll();
+    }
+
     /**
      * Checks the registry what options are compatible to be specified
      *
@@ -31,6 +31,8 @@ import com.bergerkiller.bukkit.tc.controller.components.RailTracker.TrackedRail;
 import com.bergerkiller.bukkit.tc.controller.components.RailTracker.TrackedRailWalker;
 import com.bergerkiller.bukkit.tc.controller.components.RailTrackerGroup;
 import com.bergerkiller.bukkit.tc.controller.type.MinecartMemberChest;
+import com.bergerkiller.bukkit.tc.debug.profiler.ProfilerPhase;
+import com.bergerkiller.bukkit.tc.debug.profiler.TrainPhysicsProfiler;
 import com.bergerkiller.bukkit.tc.controller.type.MinecartMemberFurnace;
 import com.bergerkiller.bukkit.tc.controller.status.TrainStatus;
 import com.bergerkiller.bukkit.tc.controller.status.TrainStatusProvider;
@@ -1190,7 +1192,9 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
 
     public void updateDirection() {
         /* Timings: updateDirection  (Train Physics) */
-        {
+        final TrainPhysicsProfiler profiler = traincarts.getTrainUpdateController().getProfiler();
+        final long profilerStart = profiler.begin();
+        try {
             if (this.size() == 1) {
                 this.refreshRailTrackerIfChanged();
                 this.head().updateDirection();
@@ -1224,6 +1228,8 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
                     }
                 }
             }
+        } finally {
+            profiler.end(ProfilerPhase.UPDATE_DIRECTION, this, profilerStart);
         }
     }
 
@@ -1774,6 +1780,16 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
         return ObstacleTracker.minimumSpeedLimit(obstacles, deceleration);
     }
 
+    private void refreshSignTracker() {
+        TrainPhysicsProfiler profiler = traincarts.getTrainUpdateController().getProfiler();
+        long profilerStart = profiler.begin();
+        try {
+            this.getSignTracker().refresh();
+        } finally {
+            profiler.end(ProfilerPhase.SIGN_TRACKER_REFRESH, this, profilerStart);
+        }
+    }
+
     private void tickActions() {
         /* Timings: tickActions  (Train Physics) */
         {
@@ -1782,6 +1798,17 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
     }
 
     protected void doPhysics(TrainCarts plugin) {
+        doPhysics(plugin, 1);
+    }
+
+    /**
+     * Performs the physics of this train
+     *
+     * @param plugin TrainCarts plugin instance
+     * @param tickScale Number of ticks of movement to simulate. Is higher than 1 when
+     *                  the train is idle and skipped updating for a number of ticks.
+     */
+    protected void doPhysics(TrainCarts plugin, int tickScale) {
         // NOP if unloaded
         // This should never happen, so remove the group as a precaution
         // Somehow it got re-added again.
@@ -1857,6 +1884,7 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
             double speedlimit = this.getProperties().getSpeedLimit();
             double realtimeFactor = this.getProperties().hasRealtimePhysics()
                     ? plugin.getTrainUpdateController().getRealtimeFactor() : 1.0;
+            realtimeFactor *= tickScale;
 
             if ((realtimeFactor*totalforce) > 0.4 && (realtimeFactor*speedlimit) > 0.4) {
                 this.updateStepCount = (int) Math.ceil((realtimeFactor*speedlimit) / 0.4);
@@ -1947,7 +1975,7 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
 
             // Update direction and executed actions prior to updates
             this.updateDirection();
-            this.getSignTracker().refresh();
+            this.refreshSignTracker();
 
             // Perform block change Minecart logic, also take care of potential new block changes
             for (MinecartMember<?> member : this) {
@@ -1961,7 +1989,7 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
                     member.checkMissing();
                 }
             }
-            this.getSignTracker().refresh();
+            this.refreshSignTracker();
 
             this.updateDirection();
             if (!this.doConnectionCheck()) {
@@ -2049,7 +2077,13 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
             /* Timings: getSpeedAhead  (Train Physics) */
             {
                 if (isFirstUpdateStep()) {
-                    this.obstacleTracker.update(forwardMovingSpeed / getUpdateSpeedFactor());
+                    TrainPhysicsProfiler profiler = traincarts.getTrainUpdateController().getProfiler();
+                    long profilerStart = profiler.begin();
+                    try {
+                        this.obstacleTracker.update(forwardMovingSpeed / getUpdateSpeedFactor());
+                    } finally {
+                        profiler.end(ProfilerPhase.OBSTACLE_TRACKER_UPDATE, this, profilerStart);
+                    }
                 }
                 double limitedSpeed = this.obstacleTracker.getSpeedLimit();
 
@@ -2073,9 +2107,15 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
             // Perform the rail post-movement logic
             /* Timings: onPhysicsPostMove  (Train Physics) */
             {
-                for (MinecartMember<?> member : this) {
-                    member.onPhysicsPostMove();
-                    if (this.breakPhysics) return true;
+                TrainPhysicsProfiler profiler = traincarts.getTrainUpdateController().getProfiler();
+                long profilerStart = profiler.begin();
+                try {
+                    for (MinecartMember<?> member : this) {
+                        member.onPhysicsPostMove();
+                        if (this.breakPhysics) return true;
+                    }
+                } finally {
+                    profiler.end(ProfilerPhase.PHYSICS_POST_MOVE, this, profilerStart);
                 }
             }
 
@@ -5,6 +5,7 @@ import com.bergerkiller.bukkit.common.utils.StreamUtil;
 import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.Util;
+import com.bergerkiller.bukkit.tc.controller.global.TrainTickScheduler;
 import com.bergerkiller.bukkit.tc.controller.spawnable.SpawnableGroup;
 import com.bergerkiller.bukkit.tc.controller.spawnable.SpawnableMember;
 import com.bergerkiller.bukkit.tc.events.GroupCreateEvent;
@@ -35,15 +36,24 @@ public class MinecartGroupStore extends ArrayList<MinecartMember<?>> {
     public static void doFixedTick(TrainCarts plugin) {
         try (ImplicitlySharedSet<MinecartGroup> groups_copy = groups.clone()) {
             try {
-                for (MinecartGroup group : groups_copy) {
-                    // Tick the train
-                    group.doPhysics(plugin);
-
-                    // Perform post-tick physics for all Minecarts in the train
-                    for (MinecartMember<?> member : group) {
-                        if (!member.isUnloaded()) {
-                            member.getEntity().doPostTick();
-                        }
+                // When enabled, only trains that matter update every tick
+                // Idle trains are polled afterwards, while within the tick budget
+                TrainTickScheduler scheduler = plugin.getTrainUpdateController().getTickScheduler();
+                Collection<MinecartGroup> groupsToTick = groups_copy;
+                if (scheduler.isEnabled() && plugin.getTrainUpdateController().isTicking()) {
+                    groupsToTick = scheduler.schedule(groups_copy);
+                } else {
+                    scheduler = null;
+                }
+
+                for (MinecartGroup group : groupsToTick) {
+                    doFixedTick(plugin, scheduler, group);
+                }
+
+                if (scheduler != null) {
+                    MinecartGroup group;
+                    while ((group = scheduler.pollIdle()) != null) {
+                        doFixedTick(plugin, scheduler, group);
                     }
                 }
             } catch (Throwable t) {
@@ -52,6 +62,22 @@ public class MinecartGroupStore extends ArrayList<MinecartMember<?>> {
         }
     }
 
+    private static void doFixedTick(TrainCarts plugin, TrainTickScheduler scheduler, MinecartGroup group) {
+        // Tick the train
+        if (scheduler == null) {
+            group.doPhysics(plugin);
+        } else {
+            group.doPhysics(plugin, scheduler.consumeTickScale(group));
+        }
+
+        // Perform post-tick physics for all Minecarts in the train
+        for (MinecartMember<?> member : group) {
+            if (!member.isUnloaded()) {
+                member.getEntity().doPostTick();
+            }
+        }
+    }
+
     /**
      * Executes the Entity doPostTick() on all trains.
      * This ensures minecart entities are moved to the correct chunk they are in.
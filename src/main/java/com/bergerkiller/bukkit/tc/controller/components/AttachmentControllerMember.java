@@ -84,6 +84,7 @@ public class AttachmentControllerMember
     protected final ToggledState networkInvalid = new ToggledState();
     private boolean attached = false;
     private boolean hidden = false;
+    private boolean transformsCulled = false;
 
     private long animationCurrentTime = 0;
     private double animationDeltaTime = 0.0;
@@ -506,6 +507,7 @@ public class AttachmentControllerMember
      * @return New seat for this passenger
      */
     public synchronized CartAttachmentSeat findNewSeatForEntity(Entity passenger) {
+        this.updateCulledTransforms(); // Seat positions are used
         SeatHint seatHint = this.seatHints.get(passenger);
         List<CartAttachmentSeat> sortedSeats;
         if (seatHint != null && !seatHint.isExpired()) {
@@ -554,6 +556,7 @@ public class AttachmentControllerMember
             return this.seatAttachments;
         }
 
+        this.updateCulledTransforms();
         Matrix4x4 cameraTransform = new Matrix4x4();
         cameraTransform.translateRotate(eyeLocation);
         cameraTransform.invert();
@@ -624,7 +627,9 @@ public class AttachmentControllerMember
         AttachmentViewer attachmentViewer = asAttachmentViewer(viewer);
         viewers.put(viewer, attachmentViewer);
         if (!this.hidden) {
-            HelperMethods.makeVisibleRecursive(this.getRootAttachment(), true, attachmentViewer);
+            Attachment root = this.getRootAttachment();
+            this.updateCulledTransforms();
+            HelperMethods.makeVisibleRecursive(root, true, attachmentViewer);
         }
     }
 
@@ -732,8 +737,52 @@ public class AttachmentControllerMember
     public synchronized void syncPrePositionUpdate(AttachmentUpdateTransformHelper updater) {
         if (isAttached()) {
             syncPrePositionUpdate();
-            updater.start(getRootAttachment(), getLiveTransform());
+            Attachment root = getRootAttachment();
+            if (TCConfig.attachmentCullingEnabled && canCullTransforms()) {
+                this.transformsCulled = true;
+            } else {
+                this.transformsCulled = false;
+                updater.start(root, getLiveTransform(), this.flattenedAttachments.size());
+            }
+        }
+    }
+
+    /**
+     * Gets whether the transforms of the attachments are not being updated right now,
+     * because no player can see them. See {@link TCConfig#attachmentCullingEnabled}.
+     *
+     * @return True if the attachment transforms are culled and possibly outdated
+     */
+    public boolean isTransformsCulled() {
+        return this.transformsCulled;
+    }
+
+    /**
+     * If the transforms of the attachments were culled because nobody was viewing them,
+     * computes them again right away. Should be called before using the transforms of
+     * attachments of carts nobody might be viewing.
+     */
+    public synchronized void updateCulledTransforms() {
+        if (this.transformsCulled) {
+            this.transformsCulled = false;
+            if (this.rootAttachment != null && !this.isUnloadedOrDead()) {
+                this.plugin.getTrainUpdateController().computeAttachmentTransform(
+                        this.rootAttachment, this.getLiveTransform());
+                this.flattenedAttachments.forEach(a -> a.onMove(true));
+            }
+        }
+    }
+
+    private boolean canCullTransforms() {
+        if (!this.viewers.isEmpty() || this.teleporting || this.rootAttachment == null) {
+            return false;
+        }
+        for (Attachment attachment : this.flattenedAttachments) {
+            if (attachment.isTransformRequiredWithoutViewers()) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
@@ -834,7 +883,8 @@ public class AttachmentControllerMember
         this.member.getEntity().setVelocityChanged(false);
 
         // Perform actual movement, which sends movement update packets
-        if (this.rootAttachment != null) {
+        // Nobody sees the attachments when transforms are culled, so this can be skipped
+        if (this.rootAttachment != null && !this.transformsCulled) {
             this.flattenedAttachments.forEach(a -> a.onMove(absolute));
         }
     }
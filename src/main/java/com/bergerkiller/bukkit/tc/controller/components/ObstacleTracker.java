@@ -2,6 +2,7 @@ package com.bergerkiller.bukkit.tc.controller.components;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,6 +10,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.bukkit.Location;
+import org.bukkit.block.Block;
 import org.bukkit.util.Vector;
 
 import com.bergerkiller.bukkit.common.bases.IntVector3;
@@ -21,12 +23,12 @@ import com.bergerkiller.bukkit.tc.controller.status.TrainStatus;
 import com.bergerkiller.bukkit.tc.controller.status.TrainStatusProvider;
 import com.bergerkiller.bukkit.tc.events.MutexZoneConflictEvent;
 import com.bergerkiller.bukkit.tc.properties.TrainProperties;
+import com.bergerkiller.bukkit.tc.rails.TrackOccupancyIndex;
 import com.bergerkiller.bukkit.tc.signactions.mutex.MutexZone;
 import com.bergerkiller.bukkit.tc.signactions.mutex.MutexZoneCacheWorld;
 import com.bergerkiller.bukkit.tc.signactions.mutex.MutexZoneSlot;
 import com.bergerkiller.bukkit.tc.signactions.mutex.MutexZoneSlot.EnteredGroup;
 import com.bergerkiller.bukkit.tc.utils.ForwardChunkArea;
-import com.bergerkiller.bukkit.tc.utils.TrackWalkingPoint;
 
 /**
  * Checks the rails ahead of the train for any obstacles that exist there.
@@ -46,6 +48,7 @@ public class ObstacleTracker implements TrainStatusProvider {
     private ObstacleSpeedLimit lastObstacleSpeedLimit = ObstacleSpeedLimit.NONE;
     private List<MutexZone> enteredMutexZones = Collections.emptyList();
     private int tickCounter = 0;
+    private final TrackLookAheadCache lookAheadCache = new TrackLookAheadCache();
 
     public ObstacleTracker(MinecartGroup group) {
         this.group = group;
@@ -62,6 +65,17 @@ public class ObstacleTracker implements TrainStatusProvider {
         return this.waitDistanceLastSpeedLimit;
     }
 
+    /**
+     * Gets whether the train has entered one or more mutex zones, or whether its speed
+     * is currently limited by an obstacle up ahead. Such trains are waiting on something,
+     * and must keep updating every tick to resume in time.
+     *
+     * @return True if in a mutex zone or limited by an obstacle
+     */
+    public boolean isWaitingOrInMutexZone() {
+        return !this.enteredMutexZones.isEmpty() || this.lastObstacleSpeedLimit.hasLimit();
+    }
+
     /**
      * Gets the number of obstacle tracker update ticks that have elapsed since the group's
      * creation. This counter can be used by obstacles to check whether group has seen
@@ -344,7 +358,7 @@ public class ObstacleTracker implements TrainStatusProvider {
             boolean checkTrains, boolean checkRailObstacles, double trainDistance
     ) {
         // Find obstacles. Update the mutex zone found (train status)
-        ObstacleFinder finder = new ObstacleFinder(Math.min(2000.0, searchAheadDistance),
+        ObstacleFinder finder = new ObstacleFinder(lookAheadCache, Math.min(2000.0, searchAheadDistance),
                                                    checkTrains, checkRailObstacles, trainDistance);
         List<Obstacle> obstacles = finder.search();
         this.enteredMutexZones = finder.enteredMutexZones;
@@ -363,7 +377,7 @@ public class ObstacleTracker implements TrainStatusProvider {
      * @return obstacle that was detected, null if there is no obstacle
      */
     public List<Obstacle> findObstaclesAhead(double distance, boolean checkTrains, boolean checkRailObstacles, double trainDistance) {
-        return (new ObstacleFinder(distance, checkTrains, checkRailObstacles, trainDistance)).search();
+        return (new ObstacleFinder(new TrackLookAheadCache(), distance, checkTrains, checkRailObstacles, trainDistance)).search();
     }
 
     /**
@@ -427,6 +441,7 @@ public class ObstacleTracker implements TrainStatusProvider {
         final double mutexHardDistance;
         final double mutexSoftDistance;
         final double checkDistance;
+        final TrackLookAheadCache lookAheadCache;
 
         // If rail obstacles are found which impose a 0-speed speed limit, this is set to the distance
         // away from the train these are found. Is used to not add too many obstacles that fall after
@@ -448,7 +463,8 @@ public class ObstacleTracker implements TrainStatusProvider {
         // Resulting obstacles
         List<Obstacle> obstacles = new ArrayList<>();
 
-        public ObstacleFinder(double distance, boolean checkTrains, boolean checkRailObstacles, double trainDistance) {
+        public ObstacleFinder(TrackLookAheadCache lookAheadCache, double distance, boolean checkTrains, boolean checkRailObstacles, double trainDistance) {
+            this.lookAheadCache = lookAheadCache;
             this.distance = distance;
             this.checkTrains = checkTrains;
             this.checkRailObstacles = checkRailObstacles;
@@ -483,11 +499,28 @@ public class ObstacleTracker implements TrainStatusProvider {
                 return Collections.emptyList();
             }
 
+            // Track walked in previous ticks is re-used, only the rail the train is on is walked again
             RailState startState = group.head().discoverRail();
             startState.setMember(null); // Make sure this is NOT used for prediction
-            TrackWalkingPoint iter = new TrackWalkingPoint(startState);
-            if (group.getProperties().isWaitPredicted()) {
-                iter.setFollowPredictedPath(group.head());
+            TrackLookAheadCache.Cursor iter = lookAheadCache.walk(startState,
+                    group.getProperties().isWaitPredicted() ? group.head() : null);
+
+            // Rails of other trains can not be reached along the track sooner than their straight-line
+            // distance. Members on rails don't have to be checked until that distance is reached.
+            // Only search as far as the track is normally walked. Past that, members are checked as usual.
+            double nearestTrainDistance = 0.0;
+            if (checkTrains) {
+                RailPath.Position headPos = startState.position();
+                double maxTrainDistance = Math.min(TrackOccupancyIndex.MAX_SEARCH_DISTANCE, checkDistance);
+                TrackOccupancyIndex.Occupant nearestTrain = group.head().railLookup().getTrackOccupancy().findNearest(
+                        headPos.posX, headPos.posY, headPos.posZ, maxTrainDistance, group);
+                if (nearestTrain == null) {
+                    nearestTrainDistance = maxTrainDistance;
+                } else {
+                    nearestTrainDistance = MathUtil.distance(headPos.posX, headPos.posY, headPos.posZ,
+                            nearestTrain.posX, nearestTrain.posY, nearestTrain.posZ);
+                }
+                nearestTrainDistance -= 1.0; // Inaccuracy
             }
 
             while ((iter.movedTotal <= (checkDistance + currentMutexSpacing) || iter.getPredictedRemainingBlockDistance() > 0.0) && iter.moveFull()) {
@@ -497,13 +530,13 @@ public class ObstacleTracker implements TrainStatusProvider {
 
                 // Refresh that we've visited this rail/position block, keeping the area loaded for this tick
                 if (forwardChunks != null) {
-                    forwardChunks.addBlock(iter.state.railBlock());
+                    forwardChunks.addBlock(iter.state().railBlock());
                 }
 
                 if (checkRailObstacles) {
                     // Check last smart mutex still valid for the current rail
                     MutexZone prevMutex = currentMutex;
-                    if (currentMutex != null && !currentMutex.containsBlock(iter.state.positionOfflineBlock().getPosition())) {
+                    if (currentMutex != null && !currentMutex.containsBlock(iter.state().positionOfflineBlock().getPosition())) {
                         // Exited the mutex zone
                         currentMutex = null;
                         currentMutexSpacing = 0.0;
@@ -517,7 +550,7 @@ public class ObstacleTracker implements TrainStatusProvider {
                         double railSpeedLimit = iter.getPredictedSpeedLimit();
                         if (railSpeedLimit < lastRailSpeedLimit) {
                             lastRailSpeedLimit = railSpeedLimit;
-                            obstacles.add(new RailObstacle(distanceFromFront, railSpeedLimit, iter.state.railPiece()));
+                            obstacles.add(new RailObstacle(distanceFromFront, railSpeedLimit, iter.state().railPiece()));
                             if (railSpeedLimit <= 0.0) {
                                 closestHardRailObstacle = distanceFromFront;
                                 checkForNewHardObstacles = false;
@@ -529,7 +562,7 @@ public class ObstacleTracker implements TrainStatusProvider {
                     if (currentMutex == null) {
                         boolean checkForNewMutexes = (checkForNewHardObstacles && distanceFromFront < mutexSoftDistance);
                         if (prevMutex != null || checkForNewMutexes) {
-                            MutexZoneCacheWorld.MutexZoneResult newMutexResult = mutexZones.get(iter);
+                            MutexZoneCacheWorld.MutexZoneResult newMutexResult = mutexZones.get(iter.state().position(), iter.endOfPath());
                             if (newMutexResult != null) {
                                 // If checking for soft mutexes, always allow if its within range
                                 // If not, it must be the same slot / expanded smart mutex zone to count
@@ -558,21 +591,22 @@ public class ObstacleTracker implements TrainStatusProvider {
                 }
 
                 // Only check for trains on the rails when a wait distance is set
-                if (!checkTrains) {
+                // Skip rails that end before any other train could be reached
+                if (!checkTrains || iter.getMovedTotalAtEnd() < nearestTrainDistance) {
                     continue;
                 }
 
                 // Check all other minecarts on the same rails to see if they are too close
                 Location state_position = null;
                 Location member_position = null;
-                for (MinecartMember<?> member : iter.state.railPiece().members()) {
+                for (MinecartMember<?> member : iter.state().railPiece().members()) {
                     if (member.isUnloaded() || member.getEntity().isRemoved() || member.getGroup() == group) {
                         continue;
                     }
 
                     // Retrieve & re-use (readonly)
                     if (state_position == null) {
-                        state_position = iter.state.positionLocation();
+                        state_position = iter.state().positionLocation();
                     }
 
                     // Member center position & re-use (readonly)
@@ -588,7 +622,7 @@ public class ObstacleTracker implements TrainStatusProvider {
                         Vector delta = new Vector(member_position.getX() - state_position.getX(),
                                                   member_position.getY() - state_position.getY(),
                                                   member_position.getZ() - state_position.getZ());
-                        if (delta.dot(iter.state.motionVector()) < 0.0) {
+                        if (delta.dot(iter.state().motionVector()) < 0.0) {
                             continue;
                         }
                     }
@@ -605,7 +639,7 @@ public class ObstacleTracker implements TrainStatusProvider {
                         speedAhead = 0.0; // In case of negative max speed (???)
                     }
 
-                    if (speedAhead > 1e-6 && iter.state.position().motDot(member_velocity) < 0.0) {
+                    if (speedAhead > 1e-6 && iter.state().position().motDot(member_velocity) < 0.0) {
                         // If moving towards me, assume speed of 0. If too close, will slow down to a stop.
                         obstacles.add(new TrainObstacle(distanceFromFront + distanceToMember, trainDistance, 0.0, member));
                     } else {
@@ -621,23 +655,28 @@ public class ObstacleTracker implements TrainStatusProvider {
             if (currentMutex != null) {
                 // Exceeding 64 blocks we enable the loop filter, as we probably reached an infinite loop of sorts...
                 double enabledLoopFilterLimit = iter.movedTotal + 64.0;
+                HashSet<Block> loopFilter = null;
                 while (!currentMutexGroup.isOccupiedFully() && iter.moveFull()) {
+                    if (loopFilter != null && !loopFilter.add(iter.state().railBlock())) {
+                        break; // Rails crossed twice
+                    }
                     if (iter.movedTotal >= enabledLoopFilterLimit) {
                         enabledLoopFilterLimit = Double.MAX_VALUE;
-                        iter.setLoopFilter(true);
+                        loopFilter = new HashSet<Block>();
+                        loopFilter.add(iter.state().railBlock());
                     }
 
                     // Refresh that we've visited this rail/position block, keeping the area loaded for this tick
                     if (forwardChunks != null) {
-                        forwardChunks.addBlock(iter.state.railBlock());
+                        forwardChunks.addBlock(iter.state().railBlock());
                     }
 
                     // Check still within mutex. If not, abort.
                     // Do check whether perhaps a different mutex zone with the same slot as the previous
                     // one exists at this position. In that case, continue looking.
-                    IntVector3 currBlockPos = iter.state.positionOfflineBlock().getPosition();
+                    IntVector3 currBlockPos = iter.state().positionOfflineBlock().getPosition();
                     if (!currentMutex.containsBlock(currBlockPos)) {
-                        MutexZoneCacheWorld.MutexZoneResult otherMutex = mutexZones.get(iter);
+                        MutexZoneCacheWorld.MutexZoneResult otherMutex = mutexZones.get(iter.state().position(), iter.endOfPath());
                         if (otherMutex == null || otherMutex.zone.slot != currentMutex.slot) {
                             break;
                         }
@@ -664,10 +703,10 @@ public class ObstacleTracker implements TrainStatusProvider {
          * @param iter
          * @return True if more track is requested
          */
-        private boolean updateCurrentMutex(TrackWalkingPoint iter) {
+        private boolean updateCurrentMutex(TrackLookAheadCache.Cursor iter) {
             MutexZoneSlot.EnterResult result;
             result = currentMutexGroup.enter(currentMutex.type,                      /* Mutex zone slot type */
-                                             iter.state.railPiece().blockPosition(), /* Rail block */
+                                             iter.state().railPiece().blockPosition(), /* Rail block */
                                              currentMutexHard);                      /* Really needs to enter it */
 
             // Track mutex zones we have entered or are approaching (train status!)
@@ -20,6 +20,8 @@ import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
 import com.bergerkiller.bukkit.tc.controller.components.RailPath.Position;
 import com.bergerkiller.bukkit.tc.rails.RailLookup;
+import com.bergerkiller.bukkit.tc.rails.TrackOccupancyIndex;
+import com.bergerkiller.bukkit.tc.rails.WorldRailLookup;
 import com.bergerkiller.bukkit.tc.rails.type.RailType;
 import com.bergerkiller.bukkit.tc.utils.TrackWalkingPoint;
 
@@ -33,6 +35,7 @@ public class RailTrackerGroup extends RailTracker {
     private final MinecartGroup owner;
     private final ArrayList<TrackedRail> prevRails = new ArrayList<TrackedRail>();
     private final ArrayList<TrackedRail> rails = new ArrayList<TrackedRail>();
+    private TrackOccupancyIndex trackOccupancy = null;
 
     public RailTrackerGroup(MinecartGroup owner) {
         this.owner = owner;
@@ -46,6 +49,7 @@ public class RailTrackerGroup extends RailTracker {
         this.rails.forEach(TrackedRail::handleMemberRemove);
         this.rails.clear();
         this.prevRails.clear();
+        this.updateTrackOccupancy();
     }
 
     /**
@@ -269,6 +273,26 @@ public class RailTrackerGroup extends RailTracker {
                     }
                 }
             }
+
+            // Refresh the rails occupied by this train in the world's track occupancy index
+            this.updateTrackOccupancy();
+        }
+    }
+
+    private void updateTrackOccupancy() {
+        TrackOccupancyIndex newTrackOccupancy = null;
+        if (!this.rails.isEmpty()) {
+            WorldRailLookup railLookup = this.rails.get(0).state.railPiece().railLookup();
+            if (railLookup.isValid()) {
+                newTrackOccupancy = railLookup.getTrackOccupancy();
+            }
+        }
+        if (this.trackOccupancy != null && this.trackOccupancy != newTrackOccupancy) {
+            this.trackOccupancy.remove(this.owner);
+        }
+        this.trackOccupancy = newTrackOccupancy;
+        if (newTrackOccupancy != null) {
+            newTrackOccupancy.update(this.owner, this.rails);
         }
     }
 
@@ -0,0 +1,255 @@
+package com.bergerkiller.bukkit.tc.controller.components;
+
+import java.util.ArrayList;
+import java.util.Objects;
+
+import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+import com.bergerkiller.bukkit.tc.rails.WorldRailLookup;
+import com.bergerkiller.bukkit.tc.utils.TrackWalkingPoint;
+
+/**
+ * Remembers the track walked ahead of a train by the {@link ObstacleTracker}, so that
+ * the same track does not have to be walked again every tick. Every tick only the
+ * rail the head of the train is on is walked. The remembered track from the rail after that
+ * onwards is re-used, and is only walked further when more track is needed.<br>
+ * <br>
+ * The remembered track is discarded when rails or the signs along them change in the world of
+ * the train (see {@link WorldRailLookup#getTrackChangeCounter()}), when sign redstone power changes,
+ * when the train is no longer on it, when the destination of the train changes, and
+ * every {@link #MAX_AGE_TICKS} ticks to pick up changes in the predicted path
+ * that do not involve rails.
+ */
+final class TrackLookAheadCache {
+    /** Number of ticks after which the track ahead is always walked again */
+    private static final int MAX_AGE_TICKS = 10;
+    /** Maximum number of remembered steps that can be skipped when the train moves forwards */
+    private static final int MAX_SKIPPED_STEPS = 16;
+
+    private final ArrayList<Step> steps = new ArrayList<>();
+    private int startIndex = 0;
+    private TrackWalkingPoint walker = null;
+    private boolean walkerEnded = true;
+    private WorldRailLookup trackChangeLookup = null;
+    private int trackChangeCounter = 0;
+    private int age = 0;
+    private MinecartMember<?> predictedMember = null;
+    private String predictedDestination = null;
+
+    /**
+     * Discards all remembered track
+     */
+    public void reset() {
+        steps.clear();
+        startIndex = 0;
+        walker = null;
+        walkerEnded = true;
+        trackChangeLookup = null;
+        predictedMember = null;
+        predictedDestination = null;
+    }
+
+    /**
+     * Starts walking the track from the rail state the head of a train is at
+     *
+     * @param startState Rail state of the head of the train
+     * @param predictedMember Member to follow the predicted path of, null to not predict
+     * @return Cursor to walk the track ahead with
+     */
+    public Cursor walk(RailState startState, MinecartMember<?> predictedMember) {
+        TrackWalkingPoint headWalker = new TrackWalkingPoint(startState);
+        if (predictedMember != null) {
+            headWalker.setFollowPredictedPath(predictedMember);
+        }
+
+        // The first moveFull() does not move, and returns the start position itself
+        if (!headWalker.moveFull()) {
+            reset();
+            return new Cursor(null, 0.0, 0.0);
+        }
+        Step headStep = new Step(headWalker);
+        double headRemainingBlockDistance = headWalker.getPredictedRemainingBlockDistance();
+
+        String destination = (predictedMember == null) ? null : predictedMember.getProperties().getDestination();
+        WorldRailLookup currentTrackChangeLookup = startState.railPiece().railLookup();
+        int currentTrackChangeCounter = currentTrackChangeLookup.getTrackChangeCounter();
+        boolean valid = (++age < MAX_AGE_TICKS)
+                && !steps.isEmpty()
+                && currentTrackChangeLookup == this.trackChangeLookup
+                && currentTrackChangeCounter == this.trackChangeCounter
+                && predictedMember == this.predictedMember
+                && Objects.equals(destination, this.predictedDestination);
+
+        this.trackChangeLookup = currentTrackChangeLookup;
+        this.trackChangeCounter = currentTrackChangeCounter;
+        this.predictedMember = predictedMember;
+        this.predictedDestination = destination;
+
+        if (!headWalker.moveFull()) {
+            // End of the track right after the rail the train is on
+            reset();
+            return new Cursor(headStep, 0.0, headRemainingBlockDistance);
+        }
+
+        // Find the rail after the head of the train in the remembered track
+        if (valid) {
+            int endIndex = Math.min(steps.size(), startIndex + MAX_SKIPPED_STEPS);
+            for (int i = startIndex; i < endIndex; i++) {
+                Step step = steps.get(i);
+                if (step.state.isSameRails(headWalker.state)
+                        && step.state.position().motDot(headWalker.state.position()) > 0.0
+                ) {
+                    if (i > 0 && i >= (steps.size() >> 1)) {
+                        steps.subList(0, i).clear();
+                        i = 0;
+                    }
+                    startIndex = i;
+                    return new Cursor(headStep, step.distance - headWalker.movedTotal, headRemainingBlockDistance);
+                }
+            }
+        }
+
+        // Remember the track again, starting with the rail after the head of the train
+        steps.clear();
+        steps.add(new Step(headWalker));
+        startIndex = 0;
+        walker = headWalker;
+        walkerEnded = false;
+        age = 0;
+        return new Cursor(headStep, 0.0, headRemainingBlockDistance);
+    }
+
+    private Step getStep(int index) {
+        while (index >= steps.size()) {
+            if (walkerEnded || !walker.moveFull()) {
+                walkerEnded = true;
+                return null;
+            }
+            steps.add(new Step(walker));
+        }
+        return steps.get(index);
+    }
+
+    /**
+     * A single rail walked ahead of a train
+     */
+    static final class Step {
+        /** Rail state at the start of the rail */
+        public final RailState state;
+        /** Absolute position of the end of the rail path, from the state position */
+        public final RailPath.Position endOfPath;
+        /** Distance walked to reach this rail, in the walking point's own distance */
+        public final double distance;
+        /** Predicted speed limit on this rail */
+        public final double speedLimit;
+        /** Predicted remaining distance of a block handler, see {@link TrackWalkingPoint#getPredictedRemainingBlockDistance()} */
+        public final double remainingBlockDistance;
+
+        public Step(TrackWalkingPoint walker) {
+            this.state = walker.state.clone();
+            this.endOfPath = walker.currentRailPath.getEndOfPath(walker.state.railBlock(), walker.state.position());
+            this.distance = walker.movedTotal;
+            this.speedLimit = walker.getPredictedSpeedLimit();
+            this.remainingBlockDistance = walker.getPredictedRemainingBlockDistance();
+        }
+    }
+
+    /**
+     * Walks the track ahead of the train one rail at a time. Works like
+     * {@link TrackWalkingPoint#moveFull()}, with the first call returning the rail
+     * the head of the train is on.
+     */
+    final class Cursor {
+        private final Step headStep;
+        private final double distanceOffset;
+        private Step current;
+        private int index;
+        private double remainingBlockDistance;
+        /** Distance moved since the head of the train, like {@link TrackWalkingPoint#movedTotal} */
+        public double movedTotal;
+
+        private Cursor(Step headStep, double distanceOffset, double headRemainingBlockDistance) {
+            this.headStep = headStep;
+            this.distanceOffset = distanceOffset;
+            this.current = null;
+            this.index = -1;
+            this.movedTotal = 0.0;
+            this.remainingBlockDistance = headRemainingBlockDistance;
+        }
+
+        /**
+         * Moves to the next rail
+         *
+         * @return True if there was a next rail, False if the end of the track was reached
+         */
+        public boolean moveFull() {
+            if (index == -1) {
+                if (headStep == null) {
+                    return false;
+                }
+                index = startIndex;
+                current = headStep;
+                return true;
+            }
+            if (headStep == null) {
+                return false;
+            }
+
+            Step next = getStep(index);
+            if (next == null) {
+                return false;
+            }
+            index++;
+            current = next;
+            movedTotal = next.distance - distanceOffset;
+            remainingBlockDistance = next.remainingBlockDistance;
+            return true;
+        }
+
+        /**
+         * Gets the distance moved since the head of the train once the end of the current
+         * rail is reached. Walks the next rail if needed.
+         *
+         * @return moved total at the end of the current rail, or MAX_VALUE if unknown
+         */
+        public double getMovedTotalAtEnd() {
+            Step next = (index == -1 || headStep == null) ? null : getStep(index);
+            return (next == null) ? Double.MAX_VALUE : (next.distance - distanceOffset);
+        }
+
+        /**
+         * Gets the rail state at the start of the current rail. Should not be modified.
+         *
+         * @return current rail state
+         */
+        public RailState state() {
+            return current.state;
+        }
+
+        /**
+         * Gets the absolute position at the end of the path of the current rail
+         *
+         * @return end of path position
+         */
+        public RailPath.Position endOfPath() {
+            return current.endOfPath;
+        }
+
+        /**
+         * See {@link TrackWalkingPoint#getPredictedSpeedLimit()}
+         *
+         * @return predicted speed limit of the current rail
+         */
+        public double getPredictedSpeedLimit() {
+            return current.speedLimit;
+        }
+
+        /**
+         * See {@link TrackWalkingPoint#getPredictedRemainingBlockDistance()}
+         *
+         * @return predicted remaining block distance
+         */
+        public double getPredictedRemainingBlockDistance() {
+            return remainingBlockDistance;
+        }
+    }
+}
@@ -4,15 +4,17 @@ import com.bergerkiller.bukkit.common.protocol.CommonPacket;
 import com.bergerkiller.bukkit.common.protocol.PlayerGameInfo;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.utils.CircularFIFOQueue;
+import com.bergerkiller.bukkit.tc.utils.PacketBundleBuffer;
 import com.bergerkiller.generated.net.minecraft.network.protocol.PacketHandle;
 import com.bergerkiller.generated.net.minecraft.network.protocol.game.ClientboundBundlePacketHandle;
 import com.bergerkiller.generated.net.minecraft.network.protocol.game.PacketPlayOutEntityDestroyHandle;
 import org.bukkit.entity.Player;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.concurrent.locks.StampedLock;
 
 /**
@@ -22,15 +24,14 @@ import java.util.concurrent.locks.StampedLock;
  * it uses the ordinary base asynchronous FIFO queue.
  */
 class BundlerPacketQueue extends PacketQueue {
-    private static final int MAX_PACKETS_PER_BUNDLE = 4095;
     private final StampedLock lock = new StampedLock();
     private final AtomicInteger bufferIndex = new AtomicInteger(Integer.MIN_VALUE);
     private final ArrayList<Object> fallbackBuffer = new ArrayList<>();
-    private Object[] buffer;
+    private final PacketBundleBuffer bundleBuffer = new PacketBundleBuffer(256);
+    private final Consumer<List<Object>> bundleSender = this::sendBundle;
 
-    protected BundlerPacketQueue(TrainCarts plugin, Player player, PlayerGameInfo playerGameInfo, CircularFIFOQueue<CommonPacket> queue) {
-        super(plugin, player, playerGameInfo, queue);
-        this.buffer = new Object[256];
+    protected BundlerPacketQueue(TrainCarts plugin, Player player, PlayerGameInfo playerGameInfo, CircularFIFOQueue<CommonPacket> queue, PacketQueueDispatcher dispatcher) {
+        super(plugin, player, playerGameInfo, queue, dispatcher);
     }
 
     /**
@@ -55,57 +56,37 @@ class BundlerPacketQueue extends PacketQueue {
     public void stopBundling() {
         long writeLock = lock.writeLock();
         try {
-            int numBufferPackets = Math.min(buffer.length, bufferIndex.getAndSet(Integer.MIN_VALUE));
+            int numBufferPackets = Math.min(bundleBuffer.capacity(), bufferIndex.getAndSet(Integer.MIN_VALUE));
             if (numBufferPackets > 0) {
-                int numPackets = numBufferPackets + fallbackBuffer.size();
-
-                // Copy all packets over into a new array
-                // Do so in reverse, and while an element is unset, yield()
-                // until the other thread finished writing to it. Because we
-                // iterate in reverse we reduce the number of yield()s required.
-                Object[] bundlePackets = new Object[numPackets];
-                for (int i = numBufferPackets - 1; i >= 0; --i) {
-                    Object rawPacket;
-                    while ((rawPacket = buffer[i]) == null) {
-                        Thread.yield();
-                    }
-                    bundlePackets[i] = rawPacket;
-                }
-
-                if (fallbackBuffer.isEmpty()) {
-                    // Only copied the buffer, so fill it with nulls again
-                    Arrays.fill(buffer, 0, numPackets, null);
-                } else {
-                    // Buffer was too small. Copy the extra packets over, then resize
-                    // the buffer to be bigger.
-                    for (int i = buffer.length, j = 0; i < numPackets; i++, j++) {
-                        bundlePackets[i] = fallbackBuffer.get(j);
+                // Other threads might still be writing to the buffer. Wait for them.
+                bundleBuffer.awaitWritten(numBufferPackets);
+
+                int numPackets = numBufferPackets;
+                if (!fallbackBuffer.isEmpty()) {
+                    // Buffer was too small. Grow it, then copy the extra packets over.
+                    numPackets += fallbackBuffer.size();
+                    bundleBuffer.ensureCapacity(numPackets);
+                    Object[] buffer = bundleBuffer.array();
+                    for (int i = numBufferPackets, j = 0; i < numPackets; i++, j++) {
+                        buffer[i] = fallbackBuffer.get(j);
                     }
                     fallbackBuffer.clear();
                     fallbackBuffer.trimToSize();
-                    buffer = new Object[numPackets * 2];
                 }
 
-                if (numPackets > MAX_PACKETS_PER_BUNDLE) {
-                    // If more than 4095 packets split it up into multiple bundles, as clients
-                    // otherwise error out
-                    int i = 0;
-                    do {
-                        int endIndex = Math.min(i + MAX_PACKETS_PER_BUNDLE, numPackets);
-                        Object[] singleBundlePackets = Arrays.copyOfRange(bundlePackets, i, endIndex);
-                        super.send(ClientboundBundlePacketHandle.createNew(Arrays.asList(singleBundlePackets)));
-                        i = endIndex;
-                    } while (i < numPackets);
-                } else {
-                    // Send all of them at once in a single bundle packet (ideal)
-                    super.send(ClientboundBundlePacketHandle.createNew(Arrays.asList(bundlePackets)));
-                }
+                // If more than 4095 packets split it up into multiple bundles, as clients
+                // otherwise error out. Ideally, all of them are sent in a single bundle.
+                bundleBuffer.drainBundles(numPackets, PacketBundleBuffer.MAX_PACKETS_PER_BUNDLE, bundleSender);
             }
         } finally {
             lock.unlockWrite(writeLock);
         }
     }
 
+    private void sendBundle(List<Object> packets) {
+        super.send(ClientboundBundlePacketHandle.createNew(packets));
+    }
+
     @Override
     public void syncBegin() {
         super.syncBegin();
@@ -125,31 +106,52 @@ class BundlerPacketQueue extends PacketQueue {
 
     @Override
     public void send(CommonPacket packet) {
-        handleSend(packet.getHandle(), () -> super.send(packet));
+        handleSend(packet.getHandle(), packet, false);
     }
 
     @Override
     public void send(PacketHandle packet) {
-        handleSend(packet.getRaw(), () -> super.send(packet));
+        handleSend(packet.getRaw(), packet, false);
     }
 
     @Override
     public void sendSilent(CommonPacket packet) {
-        handleSend(packet.getHandle(), () -> super.sendSilent(packet));
+        handleSend(packet.getHandle(), packet, true);
     }
 
     @Override
     public void sendSilent(PacketHandle packet) {
-        handleSend(packet.getRaw(), () -> super.sendSilent(packet));
+        handleSend(packet.getRaw(), packet, true);
+    }
+
+    /**
+     * Sends a packet to the base asynchronous FIFO queue, when not bundling.
+     * Avoids creating a capturing lambda for every packet sent.
+     *
+     * @param packet CommonPacket or PacketHandle that was sent
+     * @param silent Whether the packet was sent silently
+     */
+    private void sendUnbundled(Object packet, boolean silent) {
+        if (packet instanceof CommonPacket) {
+            if (silent) {
+                super.sendSilent((CommonPacket) packet);
+            } else {
+                super.send((CommonPacket) packet);
+            }
+        } else if (silent) {
+            super.sendSilent((PacketHandle) packet);
+        } else {
+            super.send((PacketHandle) packet);
+        }
     }
 
-    private void handleSend(Object rawPacket, Runnable fallbackAction) {
+    private void handleSend(Object rawPacket, Object packet, boolean silent) {
         // Most common case: try to put it in the buffer without any locks
         // If this index is outside the range of the buffer or is negative, then
         // we need to use a read lock to properly guarantee order.
         int index = bufferIndex.getAndIncrement();
         if (index >= 0) {
-            Object[] buffer = this.buffer;
+            Object[] buffer = bundleBuffer.array();
             if (index < buffer.length) {
                 Iterable<Object> bundleSubPackets = PacketHandle.tryUnwrapBundlePacket(rawPacket);
                 if (bundleSubPackets != null) {
@@ -157,7 +159,7 @@ class BundlerPacketQueue extends PacketQueue {
                     if (iter.hasNext()) {
                         buffer[index] = iter.next();
                         while (iter.hasNext()) {
-                            handleSend(iter.next(), fallbackAction);
+                            handleSend(iter.next(), packet, silent);
                         }
                     } else {
                         // Empty bundle??? We already advanced the index though, so something must be put
@@ -180,7 +182,7 @@ class BundlerPacketQueue extends PacketQueue {
 
             // Try to put in the buffer again. If buffer is full, put it into the slower fallback list
             if (index >= 0) {
-                Object[] buffer = this.buffer;
+                Object[] buffer = bundleBuffer.array();
                 Iterable<Object> bundleSubPackets = PacketHandle.tryUnwrapBundlePacket(rawPacket);
                 if (bundleSubPackets != null) {
                     Iterator<Object> iter = bundleSubPackets.iterator();
@@ -224,7 +226,7 @@ class BundlerPacketQueue extends PacketQueue {
 
             // Queue is not actually buffering for the bundle packet. Send to the fallback.
             bufferIndex.set(Integer.MIN_VALUE); // Don't drift
-            fallbackAction.run();
+            sendUnbundled(packet, silent);
         } finally {
             lock.unlockRead(readLock);
         }
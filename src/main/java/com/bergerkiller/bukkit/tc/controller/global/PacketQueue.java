@@ -2,8 +2,14 @@ package com.bergerkiller.bukkit.tc.controller.global;
 
 import com.bergerkiller.bukkit.common.internal.CommonCapabilities;
 import com.bergerkiller.bukkit.common.protocol.PlayerGameInfo;
+import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.TrainCarts;
+import org.bukkit.Location;
 import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.bergerkiller.bukkit.common.controller.VehicleMountController;
 import com.bergerkiller.bukkit.common.protocol.CommonPacket;
@@ -32,7 +38,16 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
     private final PlayerGameInfo playerGameInfo;
     private final double armorStandButtOffset;
     private final CircularFIFOQueue<CommonPacket> queue;
+    private final PacketQueueDispatcher dispatcher;
     private volatile Thread thread;
+    private boolean drainScheduled = false; // Synchronized by the queue wake callback
+    private final AtomicInteger pendingPackets = new AtomicInteger();
+    private final Object drainLock = new Object();
+    private volatile boolean drainAwaited = false;
+    private final Metrics metrics = new Metrics();
+    // Eye position and look direction of the player, refreshed before every network sync
+    private double eyeX = Double.NaN, eyeY, eyeZ;
+    private double lookX, lookY, lookZ;
 
     /**
      * Creates a new functional packet queue for a player
@@ -42,16 +57,29 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
      * @return Packet queue
      */
     public static PacketQueue create(TrainCarts plugin, Player player) {
+        return create(plugin, player, null);
+    }
+
+    /**
+     * Creates a new functional packet queue for a player
+     *
+     * @param plugin Main TrainCarts plugin instance
+     * @param player The Player
+     * @param dispatcher Dispatcher that decides on what threads packets are sent.
+     *                   Null to use a writer thread of this queue's own.
+     * @return Packet queue
+     */
+    public static PacketQueue create(TrainCarts plugin, Player player, PacketQueueDispatcher dispatcher) {
         PlayerGameInfo playerGameInfo = PlayerGameInfo.of(player);
         CircularFIFOQueue<CommonPacket> fifoQueue = new CircularFIFOQueueStampedRW<>();
 
         // Since Minecraft 1.19.4 we can send Bundle packets so that all packets arrive in the same tick
         // If supported by the server AND the player, use these.
         if (CommonCapabilities.HAS_BUNDLE_PACKET && playerGameInfo.evaluateVersion(">=", "1.19.4")) {
-            return new BundlerPacketQueue(plugin, player, playerGameInfo, fifoQueue);
+            return new BundlerPacketQueue(plugin, player, playerGameInfo, fifoQueue, dispatcher);
         }
 
-        return new PacketQueue(plugin, player, playerGameInfo, fifoQueue);
+        return new PacketQueue(plugin, player, playerGameInfo, fifoQueue, dispatcher);
     }
 
     /**
@@ -74,16 +102,18 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
         this.vmc = PlayerUtil.getVehicleMountController(player);
         this.playerGameInfo = PlayerGameInfo.of(player);
         this.queue = CircularFIFOQueue.forward(this::processPacket);
+        this.dispatcher = null;
         this.thread = null;
         this.armorStandButtOffset = AttachmentViewer.super.getArmorStandButtOffset();
     }
 
-    protected PacketQueue(TrainCarts plugin, Player player, PlayerGameInfo playerGameInfo, CircularFIFOQueue<CommonPacket> queue) {
+    protected PacketQueue(TrainCarts plugin, Player player, PlayerGameInfo playerGameInfo, CircularFIFOQueue<CommonPacket> queue, PacketQueueDispatcher dispatcher) {
         this.plugin = plugin;
         this.player = player;
         this.vmc = PlayerUtil.getVehicleMountController(player);
         this.playerGameInfo = playerGameInfo;
         this.queue = queue;
+        this.dispatcher = (dispatcher != null && dispatcher.isShared()) ? dispatcher : null;
         this.queue.setWakeCallback(this::startProcessingPackets);
         this.thread = null;
         this.armorStandButtOffset = AttachmentViewer.super.getArmorStandButtOffset();
@@ -109,6 +139,30 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
         return armorStandButtOffset;
     }
 
+    @Override
+    public int getMovementUpdateInterval(double x, double y, double z) {
+        if (Double.isNaN(eyeX)) {
+            return 1; // Not synchronized yet
+        }
+
+        double dx = x - eyeX;
+        double dy = y - eyeY;
+        double dz = z - eyeZ;
+        double distanceSq = dx * dx + dy * dy + dz * dz;
+        double fullRateDistance = TCConfig.networkInterestFullRateDistance;
+        if (distanceSq <= (fullRateDistance * fullRateDistance)) {
+            return 1;
+        }
+
+        double reducedRateDistance = TCConfig.networkInterestReducedRateDistance;
+        if (distanceSq > (reducedRateDistance * reducedRateDistance)
+                || (dx * lookX + dy * lookY + dz * lookZ) < 0.0
+        ) {
+            return TCConfig.networkInterestDistantInterval; // Far away or behind the player
+        }
+        return TCConfig.networkInterestReducedRateInterval;
+    }
+
     @Override
     public VehicleMountController getVehicleMountController() {
         return vmc;
@@ -116,22 +170,31 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
 
     @Override
     public void send(PacketHandle packet) {
-        queue.put(packet.toCommonPacket());
+        enqueue(packet.toCommonPacket());
     }
 
     @Override
     public void send(CommonPacket packet) {
-        queue.put(packet);
+        enqueue(packet);
     }
 
     @Override
     public void sendSilent(CommonPacket packet) {
-        queue.put(new SilentCommonPacket(packet.getHandle(), packet.getType()));
+        enqueue(new SilentCommonPacket(packet.getHandle(), packet.getType()));
     }
 
     @Override
     public void sendSilent(PacketHandle packet) {
-        queue.put(new SilentCommonPacket(packet.getRaw(), packet.getPacketType()));
+        enqueue(new SilentCommonPacket(packet.getRaw(), packet.getPacketType()));
+    }
+
+    /**
+     * Gets the queue depth and drain latency metrics of this queue
+     *
+     * @return metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     /// -------------- Smoothcoasters support integration -----------------
@@ -148,7 +211,7 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
         }
         if (plugin.getSmoothCoastersAPI().getVersion(player) < 5) {
             // Cannot use bundle packets with V4 because of a race condition
-            queue.put(PacketPlayOutCustomPayloadHandle.createNew(channel, message).toCommonPacket());
+            enqueue(PacketPlayOutCustomPayloadHandle.createNew(channel, message).toCommonPacket());
         } else {
             send(PacketPlayOutCustomPayloadHandle.createNew(channel, message));
         }
@@ -164,8 +227,26 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
      * Waits until all packets have been processed. Might do more stuff in preparation.
      */
     public void syncBegin() {
-        while (!this.queue.isEmpty()) {
-            Thread.yield(); // Eh.
+        int depth = pendingPackets.get();
+        if (depth > 0) {
+            long startTime = System.nanoTime();
+            awaitDrained();
+            metrics.record(depth, System.nanoTime() - startTime);
+        } else {
+            metrics.record(0, 0L);
+        }
+
+        if (TCConfig.networkInterestEnabled) {
+            Location eye = player.getEyeLocation();
+            Vector look = eye.getDirection();
+            eyeX = eye.getX();
+            eyeY = eye.getY();
+            eyeZ = eye.getZ();
+            lookX = look.getX();
+            lookY = look.getY();
+            lookZ = look.getZ();
+        } else {
+            eyeX = Double.NaN;
         }
     }
 
@@ -175,8 +256,37 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
     public void syncEnd() {
     }
 
+    /**
+     * Waits until all packets queued so far have been sent to the player
+     */
+    private void awaitDrained() {
+        synchronized (drainLock) {
+            drainAwaited = true;
+            try {
+                // Timeout guards against the writer dying, or the queue being aborted
+                while (pendingPackets.get() > 0 && !queue.isAborted()) {
+                    drainLock.wait(50);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                drainAwaited = false;
+            }
+        }
+    }
+
+    private void enqueue(CommonPacket packet) {
+        pendingPackets.incrementAndGet();
+        queue.put(packet);
+    }
+
     private void startProcessingPackets() {
-        if (thread == null && !queue.isAborted()) {
+        if (dispatcher != null) {
+            if (!drainScheduled && !queue.isAborted()) {
+                drainScheduled = true;
+                scheduleDrain();
+            }
+        } else if (thread == null && !queue.isAborted()) {
             Thread newThread = new Thread(this::processPacketsThread, "TC-PacketWriterThread-" + player.getEntityId());
             newThread.setDaemon(true);
             this.thread = newThread;
@@ -197,8 +307,48 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
         }
     }
 
+    private void drainPackets() {
+        final CircularFIFOQueue<CommonPacket> queue = this.queue;
+        for (int i = 0; i < PacketQueueDispatcher.MAX_PACKETS_PER_DRAIN; i++) {
+            try {
+                processPacket(queue.take(0));
+            } catch (EmptyQueueException e) {
+                if (queue.runIfEmpty(() -> drainScheduled = false)) {
+                    return;
+                }
+            }
+        }
+
+        // Give the queues of other players a turn before continuing
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        try {
+            dispatcher.execute(this::drainPackets);
+        } catch (RejectedExecutionException ex) {
+            // Dispatcher was shut down, send the remaining packets right away
+            drainScheduled = false;
+            while (true) {
+                try {
+                    processPacket(queue.take(0));
+                } catch (EmptyQueueException e) {
+                    break;
+                }
+            }
+        }
+    }
+
     private void processPacket(CommonPacket packet) {
-        PacketUtil.sendPacket(player, packet, !(packet instanceof SilentCommonPacket));
+        try {
+            PacketUtil.sendPacket(player, packet, !(packet instanceof SilentCommonPacket));
+        } finally {
+            if (pendingPackets.decrementAndGet() == 0 && drainAwaited) {
+                synchronized (drainLock) {
+                    drainLock.notifyAll();
+                }
+            }
+        }
     }
 
     @Override
@@ -222,6 +372,97 @@ public class PacketQueue implements AttachmentViewer, me.m56738.smoothcoasters.a
         return "PacketQueue{player=" + player + "}";
     }
 
+    /**
+     * Tracks the number of packets still queued when a network sync begins, and how long
+     * it took to send them all to the player. Is only updated and read on the main thread.
+     */
+    public static final class Metrics {
+        private int lastDepth = 0;
+        private int maxDepth = 0;
+        private long syncCount = 0;
+        private long drainCount = 0;
+        private long totalDrainNanos = 0;
+        private long maxDrainNanos = 0;
+
+        private void record(int depth, long drainNanos) {
+            syncCount++;
+            lastDepth = depth;
+            maxDepth = Math.max(maxDepth, depth);
+            if (depth > 0) {
+                drainCount++;
+                totalDrainNanos += drainNanos;
+                maxDrainNanos = Math.max(maxDrainNanos, drainNanos);
+            }
+        }
+
+        /**
+         * Gets the number of packets still queued when the last network sync began
+         *
+         * @return last queue depth
+         */
+        public int getLastDepth() {
+            return lastDepth;
+        }
+
+        /**
+         * Gets the maximum number of packets still queued when a network sync began
+         *
+         * @return maximum queue depth
+         */
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        /**
+         * Gets the number of network syncs that had to wait for queued packets to be sent
+         *
+         * @return number of syncs that waited
+         */
+        public long getDrainCount() {
+            return drainCount;
+        }
+
+        /**
+         * Gets the fraction of network syncs that had to wait for queued packets to be sent
+         *
+         * @return fraction of syncs that waited [0 ... 1]
+         */
+        public double getDrainFraction() {
+            return (syncCount == 0) ? 0.0 : ((double) drainCount / (double) syncCount);
+        }
+
+        /**
+         * Gets the average time a network sync waited for queued packets to be sent,
+         * of the syncs that had to wait.
+         *
+         * @return average drain latency in milliseconds
+         */
+        public double getAverageDrainMillis() {
+            return (drainCount == 0) ? 0.0 : ((double) totalDrainNanos / (double) drainCount / 1e6);
+        }
+
+        /**
+         * Gets the longest time a network sync waited for queued packets to be sent
+         *
+         * @return maximum drain latency in milliseconds
+         */
+        public double getMaxDrainMillis() {
+            return (double) maxDrainNanos / 1e6;
+        }
+
+        /**
+         * Resets all metrics
+         */
+        public void reset() {
+            lastDepth = 0;
+            maxDepth = 0;
+            syncCount = 0;
+            drainCount = 0;
+            totalDrainNanos = 0;
+            maxDrainNanos = 0;
+        }
+    }
+
     private static final class SilentCommonPacket extends CommonPacket {
 
         public SilentCommonPacket(Object packetHandle, PacketType packetType) {
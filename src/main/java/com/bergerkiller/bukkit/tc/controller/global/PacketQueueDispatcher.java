@@ -0,0 +1,124 @@
+package com.bergerkiller.bukkit.tc.controller.global;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides on what threads the packets queued up in {@link PacketQueue PacketQueues}
+ * are sent to the players. By default every player gets its own writer thread, which
+ * is started when packets are queued and stops again when idle. Alternatively, all
+ * queues can be drained on a shared fixed pool of worker threads, or on virtual threads
+ * when the JVM supports them (Java 21 and later).
+ */
+public final class PacketQueueDispatcher {
+    /** Maximum number of packets sent by a pooled drain task before giving other queues a turn */
+    static final int MAX_PACKETS_PER_DRAIN = 256;
+    private final Mode mode;
+    private final ExecutorService executor;
+
+    private PacketQueueDispatcher(Mode mode, ExecutorService executor) {
+        this.mode = mode;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the mode in which packets are dispatched
+     *
+     * @return dispatch mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets whether queues are drained by tasks submitted to {@link #execute(Runnable)},
+     * rather than by a writer thread of their own
+     *
+     * @return True if queues are drained on shared threads
+     */
+    public boolean isShared() {
+        return executor != null;
+    }
+
+    /**
+     * Schedules a task that drains a packet queue. Only used when {@link #isShared()}.
+     *
+     * @param task Drain task
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Stops all worker threads. Packets still queued are sent first.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Creates a new dispatcher
+     *
+     * @param modeName Name of the {@link Mode}, case-insensitive. Unknown names use THREAD.
+     * @param poolSize Number of worker threads of the POOL mode, -1 to use the number of processors
+     * @param logger Logger to log a warning to when the mode is not supported
+     * @return new dispatcher
+     */
+    public static PacketQueueDispatcher create(String modeName, int poolSize, Logger logger) {
+        Mode mode;
+        try {
+            mode = Mode.valueOf(modeName.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException ex) {
+            logger.log(Level.WARNING, "Unknown packet queue dispatcher mode: " + modeName + ", using THREAD");
+            mode = Mode.THREAD;
+        }
+
+        if (mode == Mode.VIRTUAL) {
+            try {
+                ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                return new PacketQueueDispatcher(Mode.VIRTUAL, executor);
+            } catch (Throwable t) {
+                logger.log(Level.WARNING, "Virtual threads are not supported by this JVM, using a thread pool instead");
+                mode = Mode.POOL;
+            }
+        }
+
+        if (mode == Mode.POOL) {
+            int numThreads = (poolSize > 0) ? poolSize : Runtime.getRuntime().availableProcessors();
+            final AtomicInteger threadCounter = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads, task -> {
+                Thread thread = new Thread(task, "TC-PacketWriterPool-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            return new PacketQueueDispatcher(Mode.POOL, executor);
+        }
+
+        return new PacketQueueDispatcher(Mode.THREAD, null);
+    }
+
+    /**
+     * Way in which the packets queued up are sent to the players
+     */
+    public static enum Mode {
+        /** Every player has its own writer thread */
+        THREAD,
+        /** All players share a fixed pool of writer threads */
+        POOL,
+        /** Every queue is drained on a virtual thread */
+        VIRTUAL
+    }
+}
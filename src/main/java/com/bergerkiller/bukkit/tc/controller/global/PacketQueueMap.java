@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
+import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import org.bukkit.entity.Player;
 
@@ -17,6 +18,7 @@ public class PacketQueueMap {
     private final TrainCarts plugin;
     private final FastIdentityHashMap<Player, PacketQueue> queues = new FastIdentityHashMap<>();
     private final List<PacketQueue> queuesList = new ArrayList<>();
+    private PacketQueueDispatcher dispatcher = null;
 
     public PacketQueueMap(TrainCarts plugin) {
         this.plugin = plugin;
@@ -32,7 +34,7 @@ public class PacketQueueMap {
         PacketQueue queue = queues.get(player);
         if (queue == null) {
             if (player.isOnline()) {
-                queue = PacketQueue.create(plugin, player);
+                queue = PacketQueue.create(plugin, player, getDispatcher());
                 queues.put(player, queue);
                 queuesList.add(queue);
             } else {
@@ -55,6 +57,31 @@ public class PacketQueueMap {
         }
     }
 
+    /**
+     * Gets the dispatcher that decides on what threads the packets of the queues
+     * are sent. Is created the first time using the configured mode.
+     *
+     * @return dispatcher
+     */
+    public synchronized PacketQueueDispatcher getDispatcher() {
+        if (dispatcher == null) {
+            dispatcher = PacketQueueDispatcher.create(TCConfig.packetQueueDispatcher,
+                    TCConfig.packetQueuePoolSize, plugin.getLogger());
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Stops the worker threads of the dispatcher, if any were started.
+     * Should be called when the plugin disables, after all packets have been sent.
+     */
+    public synchronized void disable() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+            dispatcher = null;
+        }
+    }
+
     /**
      * Runs an action on all currently existing player queues
      *
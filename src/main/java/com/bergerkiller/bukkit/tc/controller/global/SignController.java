@@ -405,6 +405,7 @@ public class SignController implements LibraryComponent, Listener {
         // If not cancelled, update later so the true text is known
         if (newSignEntry != null && !event.isCancelled()) {
             newSignEntry.updateRedstoneLater();
+            newSignEntry.notifyTrackChanged();
         }
     }
 
@@ -803,6 +804,19 @@ public class SignController implements LibraryComponent, Listener {
 
             //TODO: Change event for changed text?
 
+            // Trains that predicted the track ahead must look at this sign again
+            if (frontChanged || backChanged) {
+                notifyTrackChanged();
+            }
+
+            // Text other than the header can decide what sign action is used
+            if (frontChanged) {
+                front.invalidateSignAction();
+            }
+            if (backChanged) {
+                back.invalidateSignAction();
+            }
+
             // Refresh last-known state
             if ((frontChanged || backChanged) || (signLastState == null && !sign.isRemoved())) {
                 this.updateLastSignState();
@@ -846,10 +860,19 @@ public class SignController implements LibraryComponent, Listener {
                 handleDestroy(frontText, !frontText);
                 updateSignFacing();
                 updateLastSignState();
+                notifyTrackChanged();
                 return true;
             }
         }
 
+        /**
+         * Tells the rail lookup of the world that the track around this sign changed.
+         * Speed limits and switched rails that trains predicted ahead could be different now.
+         */
+        void notifyTrackChanged() {
+            RailLookup.forWorldIfInitialized(world.getWorld()).notifyTrackChanged();
+        }
+
         /**
          * Handles destruction of this sign. This informs sign actions and the offline sign metadata
          * store that the sign has been removed.
@@ -987,7 +1010,8 @@ public class SignController implements LibraryComponent, Listener {
             private final GetLineFunction lineFunc;
             public String headerLine;
             private SignActionHeader cachedHeader;
-            private boolean cachedHasSignAction;
+            private SignAction cachedAction;
+            private int cachedActionCounter;
             public boolean powered;
             public boolean activated;
 
@@ -996,7 +1020,7 @@ public class SignController implements LibraryComponent, Listener {
                 this.lineFunc = lineFunc;
                 this.headerLine = lineFunc.getLine(sign, 0);
                 this.cachedHeader = SignActionHeader.parse(Util.cleanSignLine(headerLine));
-                this.cachedHasSignAction = this.checkHasSignAction(this.cachedHeader);
+                this.cachedActionCounter = -1; // Looked up when first needed
                 this.powered = false; // Initialized later on
                 this.activated = false; // Activated when neighbouring chunks load as well
             }
@@ -1008,18 +1032,39 @@ public class SignController implements LibraryComponent, Listener {
                 } else {
                     this.headerLine = headerLine;
                     SignActionHeader header = this.cachedHeader = SignActionHeader.parse(Util.cleanSignLine(headerLine));
-                    this.cachedHasSignAction = this.checkHasSignAction(header);
+                    this.cachedActionCounter = -1;
                     return header;
                 }
             }
 
             public boolean hasSignAction() {
-                //getHeader(); // This only works because we always call getHeader() prior...
-                return cachedHasSignAction;
+                return getSignAction() != null;
+            }
+
+            /**
+             * Gets the SignAction that matches the text on this side of the sign. Is cached
+             * until the sign text changes, or sign actions are registered or un-registered.
+             *
+             * @return SignAction, or null if this side has no sign action
+             */
+            public SignAction getSignAction() {
+                SignActionHeader header = getHeader();
+                int counter = SignAction.getRegistrationCounter();
+                if (this.cachedActionCounter != counter) {
+                    TrackedSign trackedSign = TrackedSign.forRealSign(sign, front, RailPiece.NONE /* ignore */);
+                    trackedSign.setCachedHeader(header);
+                    this.cachedAction = trackedSign.getAction();
+                    this.cachedActionCounter = counter;
+                }
+                return this.cachedAction;
             }
 
-            private boolean checkHasSignAction(SignActionHeader header) {
-                return SignAction.getSignAction(this.createSignActionEvent(header, RailPiece.NONE /* ignore */)) != null;
+            /**
+             * Forgets the sign action that was cached, so that it is looked up again.
+             * Must be called when text other than the header changes.
+             */
+            public void invalidateSignAction() {
+                this.cachedActionCounter = -1;
             }
 
             public void setInitialPower(boolean powered) {
@@ -1054,16 +1099,21 @@ public class SignController implements LibraryComponent, Listener {
 
                 // Fire a REDSTONE_CHANGE event afterwards at all times
                 SignAction.executeAll(info, SignActionType.REDSTONE_CHANGE);
+                notifyTrackChanged();
             }
 
             public void setRedstonePowerChanged(SignActionHeader header) {
                 SignActionEvent info = createSignActionEvent(header, null /* discover */);
                 SignAction.executeAll(info, SignActionType.REDSTONE_CHANGE);
+                notifyTrackChanged();
             }
 
             private SignActionEvent createSignActionEvent(SignActionHeader header, RailPiece rail) {
                 TrackedSign trackedSign = TrackedSign.forRealSign(sign, front, rail);
                 trackedSign.setCachedHeader(header);
+                if (header == this.cachedHeader && this.cachedActionCounter == SignAction.getRegistrationCounter()) {
+                    trackedSign.setCachedAction(this.cachedAction);
+                }
                 return new SignActionEvent(trackedSign);
             }
         }
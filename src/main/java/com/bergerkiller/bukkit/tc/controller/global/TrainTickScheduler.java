@@ -0,0 +1,211 @@
+package com.bergerkiller.bukkit.tc.controller.global;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import com.bergerkiller.bukkit.common.entity.type.CommonMinecart;
+import com.bergerkiller.bukkit.tc.TCConfig;
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
+
+/**
+ * Decides which trains perform physics in the current tick. Trains that matter
+ * (moving, executing actions, waiting for mutex zones or obstacles, carrying passengers
+ * or having players nearby) update every tick. Idle trains, like trains parked at a station,
+ * only update once every few ticks. When they do, their timestep is scaled by the number of
+ * ticks that elapsed, using the same mechanism as realtime physics.<br>
+ * <br>
+ * Idle trains that are due to update are additionally subjected to a per-tick time budget.
+ * When the budget is used up, the remaining idle trains are postponed to the next tick,
+ * most-overdue first.
+ */
+public class TrainTickScheduler {
+    /** Number of ticks between re-checking whether players are near an idle train */
+    private static final int PLAYER_CHECK_INTERVAL = 20;
+    /** Idle trains overdue by this factor of the idle interval ignore the time budget */
+    private static final int FORCE_UPDATE_FACTOR = 4;
+
+    private final Map<MinecartGroup, GroupState> states = new IdentityHashMap<>();
+    private final List<MinecartGroup> active = new ArrayList<>();
+    private final List<GroupState> dueIdle = new ArrayList<>();
+    private int dueIdleIndex = 0;
+    private long budgetEndTime = 0L;
+    private int tick = 0;
+
+    /**
+     * Gets whether the adaptive tick scheduler is enabled in the configuration.
+     * If not, all trains should be updated every tick.
+     *
+     * @return True if enabled
+     */
+    public boolean isEnabled() {
+        return TCConfig.tickSchedulerEnabled;
+    }
+
+    /**
+     * Ranks all the groups specified and starts a new tick. Returns the groups
+     * that must update this tick. Afterwards, {@link #pollIdle()} should be called to
+     * retrieve the idle groups that should also update this tick, while within budget.
+     *
+     * @param groups All the groups on the server
+     * @return Groups that must update this tick, in the same order as the input
+     */
+    public List<MinecartGroup> schedule(Collection<MinecartGroup> groups) {
+        budgetEndTime = (TCConfig.tickSchedulerBudget >= 0.0)
+                ? (System.nanoTime() + (long) (TCConfig.tickSchedulerBudget * 1000000.0)) : Long.MAX_VALUE;
+        active.clear();
+        dueIdle.clear();
+        dueIdleIndex = 0;
+        ++tick;
+
+        final int interval = Math.max(1, TCConfig.tickSchedulerIdleInterval);
+        for (MinecartGroup group : groups) {
+            GroupState state = states.get(group);
+            if (state == null) {
+                state = new GroupState(group);
+                states.put(group, state);
+            }
+            state.lastSeenTick = tick;
+            state.pendingTicks++;
+
+            state.active = isActive(state);
+            if (state.active) {
+                active.add(group);
+            } else if (state.pendingTicks >= interval) {
+                dueIdle.add(state);
+            }
+        }
+
+        // Forget about groups that no longer exist
+        if (states.size() > groups.size()) {
+            Iterator<GroupState> iter = states.values().iterator();
+            while (iter.hasNext()) {
+                if (iter.next().lastSeenTick != tick) {
+                    iter.remove();
+                }
+            }
+        }
+
+        // Most overdue idle trains first
+        if (dueIdle.size() > 1) {
+            dueIdle.sort(Comparator.comparingInt((GroupState s) -> -s.pendingTicks));
+        }
+
+        return active;
+    }
+
+    /**
+     * Gets the next idle group that should be updated this tick. Returns null when
+     * there are no more idle groups to update, or the time budget for this tick has
+     * been used up.
+     *
+     * @return Next idle group to update, or null if done
+     */
+    public MinecartGroup pollIdle() {
+        if (dueIdleIndex >= dueIdle.size()) {
+            return null;
+        }
+        GroupState state = dueIdle.get(dueIdleIndex);
+        int forceThreshold = FORCE_UPDATE_FACTOR * Math.max(1, TCConfig.tickSchedulerIdleInterval);
+        if (state.pendingTicks < forceThreshold && System.nanoTime() >= budgetEndTime) {
+            return null;
+        }
+        dueIdleIndex++;
+        return state.group;
+    }
+
+    /**
+     * Gets the number of ticks the physics of a group should simulate when updated
+     * right now, and resets it. This is 1 for groups that update every tick, and
+     * higher for idle groups that skipped ticks. When an idle group becomes active,
+     * the skipped ticks are discarded: it was stationary while idle, so there is
+     * no movement to catch up on.
+     *
+     * @param group Group that is about to be updated
+     * @return tick scale
+     */
+    public int consumeTickScale(MinecartGroup group) {
+        GroupState state = states.get(group);
+        if (state == null) {
+            return 1;
+        }
+        int scale = state.active ? 1 : Math.max(1, state.pendingTicks);
+        state.pendingTicks = 0;
+        return scale;
+    }
+
+    /**
+     * Gets the number of trains that are currently updated every tick
+     *
+     * @return active train count
+     */
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * Gets the number of trains that are currently updated at a reduced rate
+     *
+     * @return idle train count
+     */
+    public int getIdleCount() {
+        return states.size() - active.size();
+    }
+
+    private boolean isActive(GroupState state) {
+        MinecartGroup group = state.group;
+        if (group.isEmpty() || group.isUnloaded()) {
+            return true; // Let physics handle the cleanup right away
+        }
+        if (group.isMoving()
+                || group.getActions().hasAction()
+                || group.getObstacleTracker().isWaitingOrInMutexZone()
+                || group.hasPassenger()
+        ) {
+            state.nextPlayerCheckTick = 0; // Re-check as soon as it becomes idle
+            return true;
+        }
+
+        // Checking for nearby players is more expensive, do it less often
+        if (tick >= state.nextPlayerCheckTick) {
+            state.nextPlayerCheckTick = tick + PLAYER_CHECK_INTERVAL;
+            state.playersNearby = hasPlayersNearby(group);
+        }
+        return state.playersNearby;
+    }
+
+    private static boolean hasPlayersNearby(MinecartGroup group) {
+        World world = group.getWorld();
+        if (world == null) {
+            return false;
+        }
+        CommonMinecart<?> entity = group.head().getEntity();
+        double maxDistSq = TCConfig.tickSchedulerPlayerDistance * TCConfig.tickSchedulerPlayerDistance;
+        for (Player player : world.getPlayers()) {
+            if (entity.loc.distanceSquared(player) <= maxDistSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class GroupState {
+        public final MinecartGroup group;
+        public boolean active = true;
+        public int pendingTicks = 0;
+        public int lastSeenTick = 0;
+        public int nextPlayerCheckTick = 0;
+        public boolean playersNearby = false;
+
+        public GroupState(MinecartGroup group) {
+            this.group = group;
+        }
+    }
+}
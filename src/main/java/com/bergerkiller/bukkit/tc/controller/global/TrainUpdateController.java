@@ -18,6 +18,8 @@ import com.bergerkiller.bukkit.tc.attachments.helper.AttachmentUpdateTransformHe
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroupStore;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+import com.bergerkiller.bukkit.tc.debug.profiler.ProfilerPhase;
+import com.bergerkiller.bukkit.tc.debug.profiler.TrainPhysicsProfiler;
 import com.bergerkiller.bukkit.tc.properties.TrainProperties;
 
 /**
@@ -38,6 +40,8 @@ public class TrainUpdateController {
     private TrainUpdateTask updateTask = null;
     private TrainNetworkSyncTask networkSyncTask = null;
     private AttachmentUpdateTransformHelper updateTransformHelper;
+    private final TrainPhysicsProfiler profiler = new TrainPhysicsProfiler();
+    private final TrainTickScheduler tickScheduler = new TrainTickScheduler();
 
     public TrainUpdateController(TrainCarts plugin) {
         this.plugin = plugin;
@@ -66,6 +70,27 @@ public class TrainUpdateController {
         return realtimeFactor;
     }
 
+    /**
+     * Gets the profiler that measures the time spent in the different phases
+     * of train physics and network synchronization. Used by
+     * <i>/train debug profile</i>.
+     *
+     * @return train physics profiler
+     */
+    public TrainPhysicsProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Gets the scheduler that decides which trains perform physics every tick,
+     * and which idle trains update at a reduced rate.
+     *
+     * @return train tick scheduler
+     */
+    public TrainTickScheduler getTickScheduler() {
+        return tickScheduler;
+    }
+
     public int getTickDivider() {
         return this.tickUpdateDivider;
     }
@@ -159,19 +184,25 @@ public class TrainUpdateController {
         {
             // First do a pre-movement update for all trains
             for (MinecartGroup group : groups) {
+                long profilerStart = profiler.begin();
                 try {
                     group.getAttachments().syncPrePositionUpdate(updateTransformHelper);
                 } catch (Throwable ex) {
                     syncFail(group, ex);
+                } finally {
+                    profiler.end(ProfilerPhase.ATTACHMENT_SYNC, group, profilerStart);
                 }
             }
 
             // Sync
+            long profilerStart = profiler.begin();
             updateTransformHelper.finish();
+            profiler.end(ProfilerPhase.ATTACHMENT_SYNC, profilerStart);
         }
 
         // Post-updates
         for (MinecartGroup group : groups) {
+            long profilerStart = profiler.begin();
             try {
                 if (positionSync) {
                     group.getAttachments().syncPositionAbsolute();
@@ -180,6 +211,8 @@ public class TrainUpdateController {
                 }
             } catch (Throwable t) {
                 syncFail(group, t);
+            } finally {
+                profiler.end(ProfilerPhase.ATTACHMENT_SYNC, group, profilerStart);
             }
         }
     }
@@ -209,6 +242,9 @@ public class TrainUpdateController {
             }
             lastTick = currentTime;
 
+            // Completes the profiled information of the previous tick
+            profiler.nextTick();
+
             // Refresh whether or not trains are allowed to tick
             if (++ctr >= tickUpdateDivider) {
                 ctr = 0;
@@ -249,7 +285,9 @@ public class TrainUpdateController {
                 plugin.getEffectLoopPlayerController().updateSync();
             } finally {
                 // Send the bundler packets / cleanup
+                long profilerStart = profiler.begin();
                 packetQueues.forAllQueues(PacketQueue::syncEnd);
+                profiler.end(ProfilerPhase.PACKET_FLUSH, profilerStart);
             }
         }
     }
@@ -1,6 +1,14 @@
 package com.bergerkiller.bukkit.tc.debug;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
 
 import com.bergerkiller.bukkit.tc.commands.annotations.CommandTargetTrain;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
@@ -30,7 +38,11 @@ import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.commands.annotations.CommandRequiresPermission;
 import com.bergerkiller.bukkit.tc.controller.MinecartMemberStore;
+import com.bergerkiller.bukkit.tc.controller.global.PacketQueue;
+import com.bergerkiller.bukkit.tc.controller.global.PacketQueueMap;
 import com.bergerkiller.bukkit.tc.controller.global.SignControllerWorld;
+import com.bergerkiller.bukkit.tc.debug.profiler.TrainPhysicsProfiler;
+import com.bergerkiller.bukkit.tc.offline.train.OfflineGroupRestoreQueue;
 import com.bergerkiller.bukkit.tc.debug.types.DebugToolTypeListDestinations;
 import com.bergerkiller.bukkit.tc.debug.types.DebugToolTypeRails;
 import com.bergerkiller.bukkit.tc.debug.types.DebugToolTypeTrackDistance;
@@ -267,6 +279,134 @@ public class DebugCommands {
                 (TCConfig.logTrainSplitting ? "ENABLED" : (ChatColor.RED + "DISABLED")));
     }
 
+    @CommandRequiresPermission(Permission.DEBUG_COMMAND_DEBUG)
+    @Command("train debug profile start|enable")
+    @CommandDescription("Starts profiling the time spent in the different phases of train physics")
+    private void commandDebugProfileStart(
+            final CommandSender sender,
+            final TrainCarts traincarts
+    ) {
+        traincarts.getTrainUpdateController().getProfiler().setEnabled(true);
+        sender.sendMessage(ChatColor.GREEN + "Train physics profiling started. Use " + ChatColor.WHITE +
+                "/train debug profile" + ChatColor.GREEN + " to view the results");
+    }
+
+    @CommandRequiresPermission(Permission.DEBUG_COMMAND_DEBUG)
+    @Command("train debug profile stop|disable")
+    @CommandDescription("Stops profiling train physics. Results remain available until started again.")
+    private void commandDebugProfileStop(
+            final CommandSender sender,
+            final TrainCarts traincarts
+    ) {
+        traincarts.getTrainUpdateController().getProfiler().setEnabled(false);
+        sender.sendMessage(ChatColor.YELLOW + "Train physics profiling stopped");
+    }
+
+    @CommandRequiresPermission(Permission.DEBUG_COMMAND_DEBUG)
+    @Command("train debug profile reset")
+    @CommandDescription("Clears all the train physics profiling results recorded so far")
+    private void commandDebugProfileReset(
+            final CommandSender sender,
+            final TrainCarts traincarts
+    ) {
+        traincarts.getTrainUpdateController().getProfiler().reset();
+        sender.sendMessage(ChatColor.YELLOW + "Train physics profiling results cleared");
+    }
+
+    @CommandRequiresPermission(Permission.DEBUG_COMMAND_DEBUG)
+    @Command("train debug profile")
+    @CommandDescription("Shows the percentiles of the time spent in the different phases of train physics")
+    private void commandDebugProfileShow(
+            final CommandSender sender,
+            final TrainCarts traincarts,
+            final @Flag("trains") Integer maxTrains
+    ) {
+        TrainPhysicsProfiler profiler = traincarts.getTrainUpdateController().getProfiler();
+        if (!profiler.isEnabled()) {
+            sender.sendMessage(ChatColor.RED + "Train physics profiling is not running. Results shown are " +
+                    "of the previous run. Use /train debug profile start to start profiling.");
+        }
+        for (String line : profiler.summarize(maxTrains != null ? maxTrains : 5)) {
+            sender.sendMessage(line);
+        }
+    }
+
+    @CommandRequiresPermission(Permission.DEBUG_COMMAND_DEBUG)
+    @Command("train debug profile dump")
+    @CommandDescription("Writes all train physics profiling results to a file")
+    private void commandDebugProfileDump(
+            final CommandSender sender,
+            final TrainCarts traincarts
+    ) {
+        String fileName = "profile-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".txt";
+        File file = new File(traincarts.getDataFile("profiles"), fileName);
+        try {
+            traincarts.getTrainUpdateController().getProfiler().dump(file);
+            sender.sendMessage(ChatColor.GREEN + "Train physics profiling results written to " +
+                    ChatColor.WHITE + file.getAbsolutePath());
+        } catch (IOException ex) {
+            traincarts.getLogger().log(Level.SEVERE, "Failed to write profiling results", ex);
+            sender.sendMessage(ChatColor.RED + "Failed to write profiling results: " + ex.getMessage());
+        }
+    }
+
+    @CommandRequiresPermission(Permission.DEBUG_COMMAND_DEBUG)
+    @Command("train debug packetqueue")
+    @CommandDescription("Shows the number of packets still queued for players when trains are synchronized, and how long it took to send them")
+    private void commandDebugPacketQueueShow(
+            final CommandSender sender,
+            final TrainCarts traincarts,
+            final @Flag("reset") boolean reset
+    ) {
+        PacketQueueMap packetQueues = traincarts.getPacketQueueMap();
+        List<PacketQueue> queues = new ArrayList<>();
+        packetQueues.forAllQueues(queues::add);
+        queues.sort(Comparator.comparingDouble((PacketQueue q) -> q.getMetrics().getMaxDrainMillis()).reversed());
+
+        sender.sendMessage(ChatColor.YELLOW + "Packet queue dispatcher: " + ChatColor.WHITE +
+                packetQueues.getDispatcher().getMode() + ChatColor.YELLOW + " (" + queues.size() + " players)");
+        for (PacketQueue queue : queues) {
+            PacketQueue.Metrics metrics = queue.getMetrics();
+            sender.sendMessage(ChatColor.GREEN + queue.getName() + ChatColor.YELLOW +
+                    ": depth " + ChatColor.WHITE + metrics.getLastDepth() +
+                    ChatColor.YELLOW + " (max " + ChatColor.WHITE + metrics.getMaxDepth() + ChatColor.YELLOW + ")" +
+                    ", drain " + ChatColor.WHITE + String.format("%.3f", metrics.getAverageDrainMillis()) +
+                    ChatColor.YELLOW + " ms avg, " + ChatColor.WHITE + String.format("%.3f", metrics.getMaxDrainMillis()) +
+                    ChatColor.YELLOW + " ms max, waited " + ChatColor.WHITE +
+                    String.format("%.1f", 100.0 * metrics.getDrainFraction()) + "%" + ChatColor.YELLOW + " of syncs");
+            if (reset) {
+                metrics.reset();
+            }
+        }
+        if (reset) {
+            sender.sendMessage(ChatColor.YELLOW + "Packet queue metrics cleared");
+        }
+    }
+
+    @CommandRequiresPermission(Permission.DEBUG_COMMAND_DEBUG)
+    @Command("train debug restorequeue")
+    @CommandDescription("Shows the number of trains waiting to be restored after their chunks loaded, and how long they waited")
+    private void commandDebugRestoreQueueShow(
+            final CommandSender sender,
+            final TrainCarts traincarts,
+            final @Flag("reset") boolean reset
+    ) {
+        OfflineGroupRestoreQueue queue = traincarts.getOfflineGroups().getRestoreQueue();
+        OfflineGroupRestoreQueue.Metrics metrics = queue.getMetrics();
+        sender.sendMessage(ChatColor.YELLOW + "Restore queue " +
+                (TCConfig.restoreQueueEnabled ? "enabled" : "disabled") +
+                ": length " + ChatColor.WHITE + queue.size() +
+                ChatColor.YELLOW + " (max " + ChatColor.WHITE + metrics.getMaxLength() + ChatColor.YELLOW + ")" +
+                ", restored " + ChatColor.WHITE + metrics.getRestoredCount() +
+                ChatColor.YELLOW + " trains, latency " + ChatColor.WHITE + String.format("%.3f", metrics.getAverageLatencyMillis()) +
+                ChatColor.YELLOW + " ms avg, " + ChatColor.WHITE + String.format("%.3f", metrics.getMaxLatencyMillis()) +
+                ChatColor.YELLOW + " ms max");
+        if (reset) {
+            metrics.reset();
+            sender.sendMessage(ChatColor.YELLOW + "Restore queue metrics cleared");
+        }
+    }
+
     @CommandRequiresPermission(Permission.DEBUG_COMMAND_DEBUG)
     @Command("train debug fix signs")
     @CommandDescription("Forcibly recalculates all cached sign information near the player")
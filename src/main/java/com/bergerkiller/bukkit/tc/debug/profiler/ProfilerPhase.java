@@ -0,0 +1,45 @@
+package com.bergerkiller.bukkit.tc.debug.profiler;
+
+/**
+ * A phase of the per-tick train update that is measured by the
+ * {@link TrainPhysicsProfiler}.
+ */
+public enum ProfilerPhase {
+    /** MinecartGroup.updateDirection() */
+    UPDATE_DIRECTION("updateDirection"),
+    /** SignTrackerGroup.refresh() during physics */
+    SIGN_TRACKER_REFRESH("SignTracker.refresh"),
+    /** ObstacleTracker.update() (wait distance, mutex zones) */
+    OBSTACLE_TRACKER_UPDATE("ObstacleTracker.update"),
+    /** MinecartMember.onPhysicsPostMove() of all members */
+    PHYSICS_POST_MOVE("onPhysicsPostMove"),
+    /** Attachment transform computation and position synchronization */
+    ATTACHMENT_SYNC("attachmentSync"),
+    /** Flushing of the queued up packets to players at the end of the tick */
+    PACKET_FLUSH("packetFlush");
+
+    private static final ProfilerPhase[] VALUES = values();
+    private final String name;
+
+    private ProfilerPhase(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the display name of this phase, as shown in the profile output
+     *
+     * @return phase name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets all phases. Do not modify the returned array.
+     *
+     * @return phases
+     */
+    public static ProfilerPhase[] all() {
+        return VALUES;
+    }
+}
@@ -0,0 +1,87 @@
+package com.bergerkiller.bukkit.tc.debug.profiler;
+
+import java.util.Arrays;
+
+/**
+ * Stores a fixed-size window of the most recent nanosecond samples,
+ * of which percentiles can be computed.
+ */
+public final class RollingSamples {
+    private final long[] samples;
+    private int index = 0;
+    private int count = 0;
+
+    public RollingSamples(int window) {
+        this.samples = new long[Math.max(1, window)];
+    }
+
+    /**
+     * Adds a new sample, overwriting the oldest sample when the window is full
+     *
+     * @param value Sample value
+     */
+    public void add(long value) {
+        samples[index] = value;
+        if (++index == samples.length) {
+            index = 0;
+        }
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    /**
+     * Gets the number of samples currently stored
+     *
+     * @return sample count
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Removes all samples
+     */
+    public void clear() {
+        index = 0;
+        count = 0;
+    }
+
+    /**
+     * Computes the sorted snapshot of all samples currently stored.
+     * Use {@link #percentile(long[], double)} on the result to query multiple
+     * percentiles without sorting each time.
+     *
+     * @return sorted samples
+     */
+    public long[] sorted() {
+        long[] copy = Arrays.copyOf(samples, count);
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    /**
+     * Computes a single percentile of the samples currently stored
+     *
+     * @param p Percentile, 0.0 - 1.0
+     * @return percentile sample value, 0 if there are no samples
+     */
+    public long percentile(double p) {
+        return percentile(sorted(), p);
+    }
+
+    /**
+     * Gets the value at a percentile of sorted samples (nearest-rank)
+     *
+     * @param sorted Sorted samples, see {@link #sorted()}
+     * @param p Percentile, 0.0 - 1.0
+     * @return percentile sample value, 0 if there are no samples
+     */
+    public static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0L;
+        }
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+    }
+}
@@ -0,0 +1,333 @@
+package com.bergerkiller.bukkit.tc.debug.profiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.bukkit.World;
+
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
+
+/**
+ * Low-overhead profiler of the different per-tick phases of train physics and
+ * network synchronization. When disabled, {@link #begin()} returns 0 and
+ * {@link #end(ProfilerPhase, MinecartGroup, long)} does nothing, so the instrumentation
+ * costs next to nothing. When enabled, nanosecond totals are recorded per phase,
+ * per world and per train, and the per-tick totals are stored in rolling windows
+ * from which percentiles are computed.<br>
+ * <br>
+ * All methods must be called from the main thread.
+ */
+public final class TrainPhysicsProfiler {
+    /** Number of ticks of history kept for phases and worlds (one minute) */
+    public static final int PHASE_WINDOW = 20 * 60;
+    /** Number of ticks of history kept for individual trains (ten seconds) */
+    public static final int TRAIN_WINDOW = 20 * 10;
+    private static final int NUM_PHASES = ProfilerPhase.all().length;
+    private static final String NO_WORLD = "(none)";
+
+    private boolean enabled = false;
+    private int tick = 0;
+    private long startTimeMillis = System.currentTimeMillis();
+    private final long[] phaseTickTotal = new long[NUM_PHASES];
+    private final long[] phaseTotal = new long[NUM_PHASES];
+    private final RollingSamples[] phaseSamples = new RollingSamples[NUM_PHASES];
+    private final RollingSamples tickSamples = new RollingSamples(PHASE_WINDOW);
+    private final Map<MinecartGroup, TrainStats> trains = new IdentityHashMap<>();
+    private final Map<String, WorldStats> worlds = new HashMap<>();
+
+    public TrainPhysicsProfiler() {
+        for (int i = 0; i < NUM_PHASES; i++) {
+            phaseSamples[i] = new RollingSamples(PHASE_WINDOW);
+        }
+    }
+
+    /**
+     * Gets whether profiling is currently enabled
+     *
+     * @return True if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether profiling is enabled. Enabling it after it was disabled
+     * resets all previously recorded information.
+     *
+     * @param enabled Whether enabled
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            reset();
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * Resets all the recorded information
+     */
+    public void reset() {
+        tick = 0;
+        startTimeMillis = System.currentTimeMillis();
+        for (int i = 0; i < NUM_PHASES; i++) {
+            phaseTickTotal[i] = 0L;
+            phaseTotal[i] = 0L;
+            phaseSamples[i].clear();
+        }
+        tickSamples.clear();
+        trains.clear();
+        worlds.clear();
+    }
+
+    /**
+     * Starts measuring a phase. The returned value must be passed to
+     * {@link #end(ProfilerPhase, MinecartGroup, long)} once the phase completes.
+     *
+     * @return start time, or 0 if profiling is disabled
+     */
+    public long begin() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Ends measuring a phase that is not attributed to a particular train
+     *
+     * @param phase Phase that was measured
+     * @param startTime Start time returned by {@link #begin()}
+     */
+    public void end(ProfilerPhase phase, long startTime) {
+        if (startTime != 0L) {
+            phaseTickTotal[phase.ordinal()] += System.nanoTime() - startTime;
+        }
+    }
+
+    /**
+     * Ends measuring a phase performed for a train
+     *
+     * @param phase Phase that was measured
+     * @param group Train the phase was performed for
+     * @param startTime Start time returned by {@link #begin()}
+     */
+    public void end(ProfilerPhase phase, MinecartGroup group, long startTime) {
+        if (startTime != 0L) {
+            long duration = System.nanoTime() - startTime;
+            phaseTickTotal[phase.ordinal()] += duration;
+
+            TrainStats train = trains.get(group);
+            if (train == null) {
+                train = new TrainStats();
+                trains.put(group, train);
+            }
+            train.record(group, phase, duration, tick);
+
+            WorldStats world = worlds.get(train.world);
+            if (world == null) {
+                world = new WorldStats();
+                worlds.put(train.world, world);
+            }
+            world.record(phase, duration);
+        }
+    }
+
+    /**
+     * Completes the current tick, storing the per-tick totals in the rolling windows.
+     * Should be called once every tick.
+     */
+    public void nextTick() {
+        if (!enabled) {
+            return;
+        }
+
+        long total = 0L;
+        for (int i = 0; i < NUM_PHASES; i++) {
+            long value = phaseTickTotal[i];
+            phaseTickTotal[i] = 0L;
+            phaseTotal[i] += value;
+            phaseSamples[i].add(value);
+            total += value;
+        }
+        tickSamples.add(total);
+
+        for (WorldStats world : worlds.values()) {
+            world.nextTick();
+        }
+
+        // Trains that have not been updated for a long time are forgotten (removed/unloaded)
+        Iterator<TrainStats> iter = trains.values().iterator();
+        while (iter.hasNext()) {
+            TrainStats train = iter.next();
+            if (train.lastTick == tick) {
+                train.nextTick();
+            } else if ((tick - train.lastTick) > TRAIN_WINDOW) {
+                iter.remove();
+            }
+        }
+
+        tick++;
+    }
+
+    /**
+     * Produces a human-readable summary of the recorded information
+     *
+     * @param maxTrains Maximum number of most expensive trains to include
+     * @return summary lines
+     */
+    public List<String> summarize(int maxTrains) {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ENGLISH, "Profiled %d ticks over %.1f s (times in ms)",
+                tick, (System.currentTimeMillis() - startTimeMillis) / 1000.0));
+        lines.add(String.format(Locale.ENGLISH, "%-24s %8s %8s %8s %8s %10s",
+                "phase (per tick)", "p50", "p95", "p99", "max", "total"));
+        for (ProfilerPhase phase : ProfilerPhase.all()) {
+            lines.add(formatRow(phase.getName(), phaseSamples[phase.ordinal()], phaseTotal[phase.ordinal()]));
+        }
+        long grandTotal = 0L;
+        for (long t : phaseTotal) {
+            grandTotal += t;
+        }
+        lines.add(formatRow("(all phases)", tickSamples, grandTotal));
+
+        lines.add(String.format(Locale.ENGLISH, "%-24s %8s %8s %8s %8s %10s",
+                "world (per tick)", "p50", "p95", "p99", "max", "total"));
+        worlds.entrySet().stream()
+                .sorted(Comparator.comparingLong(e -> -e.getValue().sumTotal()))
+                .forEachOrdered(e -> lines.add(formatRow(e.getKey(), e.getValue().samples, e.getValue().sumTotal())));
+
+        lines.add(String.format(Locale.ENGLISH, "%-24s %8s %8s %8s %8s %10s",
+                "train (per tick)", "p50", "p95", "p99", "max", "total"));
+        // Computing a percentile sorts the samples, so only do that once for every train
+        final Map<TrainStats, Long> trainP95 = new IdentityHashMap<>(trains.size());
+        for (TrainStats train : trains.values()) {
+            trainP95.put(train, train.samples.percentile(0.95));
+        }
+        trains.values().stream()
+                .sorted(Comparator.comparingLong(t -> -trainP95.get(t)))
+                .limit(maxTrains)
+                .forEachOrdered(t -> lines.add(formatRow(t.name, t.samples, t.sumTotal())));
+        return lines;
+    }
+
+    /**
+     * Writes a full dump of all recorded information to a file. Unlike
+     * {@link #summarize(int)} this includes all trains, and the per-phase
+     * totals of every train and world.
+     *
+     * @param file File to write to
+     * @throws IOException If writing fails
+     */
+    public void dump(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            for (String line : summarize(Integer.MAX_VALUE)) {
+                writer.println(line);
+            }
+
+            writer.println();
+            writer.println("Per-phase totals (ms):");
+            StringBuilder header = new StringBuilder(String.format(Locale.ENGLISH, "%-32s", "world/train"));
+            for (ProfilerPhase phase : ProfilerPhase.all()) {
+                header.append(String.format(Locale.ENGLISH, " %22s", phase.getName()));
+            }
+            writer.println(header);
+            for (Map.Entry<String, WorldStats> e : worlds.entrySet()) {
+                writer.println(formatPhaseTotals("world " + e.getKey(), e.getValue().total));
+            }
+            for (TrainStats train : trains.values()) {
+                writer.println(formatPhaseTotals(train.name + " [" + train.world + "]", train.total));
+            }
+        }
+    }
+
+    private static String formatRow(String name, RollingSamples samples, long total) {
+        long[] sorted = samples.sorted();
+        return String.format(Locale.ENGLISH, "%-24s %8.3f %8.3f %8.3f %8.3f %10.1f",
+                name,
+                toMillis(RollingSamples.percentile(sorted, 0.50)),
+                toMillis(RollingSamples.percentile(sorted, 0.95)),
+                toMillis(RollingSamples.percentile(sorted, 0.99)),
+                toMillis(RollingSamples.percentile(sorted, 1.0)),
+                toMillis(total));
+    }
+
+    private static String formatPhaseTotals(String name, long[] totals) {
+        StringBuilder str = new StringBuilder(String.format(Locale.ENGLISH, "%-32s", name));
+        for (long total : totals) {
+            str.append(String.format(Locale.ENGLISH, " %22.3f", toMillis(total)));
+        }
+        return str.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / 1000000.0;
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0L;
+        for (long v : values) {
+            sum += v;
+        }
+        return sum;
+    }
+
+    private static final class TrainStats {
+        public String name = "";
+        public String world = NO_WORLD;
+        public final long[] total = new long[NUM_PHASES];
+        public final RollingSamples samples = new RollingSamples(TRAIN_WINDOW);
+        public long tickTotal = 0L;
+        public int lastTick = -1;
+
+        public void record(MinecartGroup group, ProfilerPhase phase, long duration, int tick) {
+            if (lastTick != tick) {
+                lastTick = tick;
+                name = group.getProperties().getTrainName();
+                World w = group.isEmpty() ? null : group.getWorld();
+                world = (w == null) ? NO_WORLD : w.getName();
+            }
+            total[phase.ordinal()] += duration;
+            tickTotal += duration;
+        }
+
+        public void nextTick() {
+            samples.add(tickTotal);
+            tickTotal = 0L;
+        }
+
+        public long sumTotal() {
+            return sum(total);
+        }
+    }
+
+    private static final class WorldStats {
+        public final long[] total = new long[NUM_PHASES];
+        public final RollingSamples samples = new RollingSamples(PHASE_WINDOW);
+        public long tickTotal = 0L;
+
+        public void record(ProfilerPhase phase, long duration) {
+            total[phase.ordinal()] += duration;
+            tickTotal += duration;
+        }
+
+        public void nextTick() {
+            samples.add(tickTotal);
+            tickTotal = 0L;
+        }
+
+        public long sumTotal() {
+            return sum(total);
+        }
+    }
+}
@@ -41,6 +41,7 @@ public class OfflineGroupManager implements TrainCarts.Provider {
     private Map<String, OfflineGroup> containedTrains = new HashMap<>();
     private HashSet<UUID> containedMinecarts = new HashSet<>();
     private final OfflineWorldMap<OfflineGroupWorldLiveImpl> worlds = new OfflineWorldMap<OfflineGroupWorldLiveImpl>();
+    private final OfflineGroupRestoreQueue restoreQueue = new OfflineGroupRestoreQueue();
 
     public OfflineGroupManager(TrainCarts plugin) {
         this.plugin = plugin;
@@ -116,7 +117,11 @@ public class OfflineGroupManager implements TrainCarts.Provider {
                         if (group.testFullyLoaded()) {
                             //a participant to be restored
                             if (group.updateLoadedChunks(map)) {
-                                map.restoreGroup(group);
+                                if (TCConfig.restoreQueueEnabled) {
+                                    restoreQueue.add(group);
+                                } else {
+                                    map.restoreGroup(group);
+                                }
                             } else {
                                 //add it again
                                 map.add(group);
@@ -128,6 +133,51 @@ public class OfflineGroupManager implements TrainCarts.Provider {
         }
     }
 
+    /**
+     * Gets the queue of groups waiting to be restored as trains, used when
+     * {@link TCConfig#restoreQueueEnabled} is set.
+     *
+     * @return restore queue
+     */
+    public OfflineGroupRestoreQueue getRestoreQueue() {
+        return restoreQueue;
+    }
+
+    /**
+     * Restores the groups in the restore queue closest to players, up to the maximum
+     * number of carts that can be restored per tick. Should be called every tick.
+     */
+    public synchronized void processRestoreQueue() {
+        processRestoreQueue(TCConfig.restoreQueueMaxCartsPerTick);
+    }
+
+    /**
+     * Restores all groups in the restore queue right away. Used when the restore queue
+     * is disabled, so that no groups are left waiting in it.
+     */
+    public synchronized void flushRestoreQueue() {
+        processRestoreQueue(Integer.MAX_VALUE);
+    }
+
+    private void processRestoreQueue(int maxCarts) {
+        restoreQueue.poll(maxCarts, group -> {
+            // Make sure the group wasn't removed, renamed or restored in the meantime
+            OfflineGroupWorldLiveImpl map = worlds.get(group.world);
+            if (map == null || !map.canRestoreGroups() || !map.getGroups().contains(group)) {
+                return false;
+            }
+
+            // Chunks could have unloaded again. If so, wait for them to load again.
+            if (group.updateLoadedChunks(map)) {
+                map.restoreGroup(group);
+                return true;
+            } else {
+                map.add(group);
+                return false;
+            }
+        });
+    }
+
     public synchronized void unloadChunk(Chunk chunk) {
         // This chunk is still referenced in existing groups
         // Make sure to mark this chunks as unloaded, as at this point Bukkit still
@@ -506,6 +556,7 @@ public class OfflineGroupManager implements TrainCarts.Provider {
     }
 
     public synchronized void deinit() {
+        restoreQueue.clear();
         worlds.clear();
         containedMinecarts.clear();
         containedTrains.clear();
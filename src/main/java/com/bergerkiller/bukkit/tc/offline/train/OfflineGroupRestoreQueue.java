@@ -0,0 +1,231 @@
+package com.bergerkiller.bukkit.tc.offline.train;
+
+import com.bergerkiller.bukkit.common.offline.OfflineWorld;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Queues up the offline groups whose chunks have all loaded in, so that they are restored
+ * as trains spread out over several ticks, rather than all at once when a player enters an
+ * area with a lot of trains. The groups closest to a player are restored first.<br>
+ * <br>
+ * Is only used on the main thread while holding the lock of the {@link OfflineGroupManager}.
+ */
+public final class OfflineGroupRestoreQueue {
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<OfflineGroup, Entry> entriesByGroup = new IdentityHashMap<>();
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * Gets the number of groups waiting to be restored
+     *
+     * @return queue length
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets whether no groups are waiting to be restored
+     *
+     * @return True if empty
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Gets the queue length and restore latency metrics of this queue
+     *
+     * @return metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Adds a group to be restored. Does nothing if the group is already queued.
+     *
+     * @param group Offline group to restore
+     */
+    void add(OfflineGroup group) {
+        if (!entriesByGroup.containsKey(group)) {
+            Entry entry = new Entry(group, System.nanoTime());
+            entries.add(entry);
+            entriesByGroup.put(group, entry);
+            metrics.recordLength(entries.size());
+        }
+    }
+
+    /**
+     * Removes all queued groups
+     */
+    void clear() {
+        entries.clear();
+        entriesByGroup.clear();
+    }
+
+    /**
+     * Restores queued groups in order of distance to the nearest player on the same world.
+     * Groups are restored until the total number of carts restored reaches a limit.
+     * At least one group is always restored, so that very long trains are restored too.
+     * Groups for which the restorer returns false are removed from the queue without
+     * counting towards the limit.
+     *
+     * @param maxCarts Maximum number of carts to restore
+     * @param restorer Restores a group, returns whether the group was restored
+     */
+    void poll(int maxCarts, Predicate<OfflineGroup> restorer) {
+        // Prioritize by (squared) chunk distance to the nearest player
+        Map<OfflineWorld, List<Player>> playersByWorld = new HashMap<>();
+        poll(maxCarts, group -> computeDistance(group, playersByWorld), restorer);
+    }
+
+    /**
+     * Restores queued groups in order of priority, lowest value first. Otherwise the same as
+     * {@link #poll(int, Predicate)}. Groups added to the queue by the restorer are
+     * restored after all groups that were queued before.
+     *
+     * @param maxCarts Maximum number of carts to restore
+     * @param priority Computes the priority of a group, lower values are restored first
+     * @param restorer Restores a group, returns whether the group was restored
+     */
+    void poll(int maxCarts, ToLongFunction<OfflineGroup> priority, Predicate<OfflineGroup> restorer) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        if (entries.size() > 1) {
+            for (Entry entry : entries) {
+                entry.priority = priority.applyAsLong(entry.group);
+            }
+            entries.sort(Comparator.comparingLong(e -> e.priority));
+        }
+
+        // Walk the sorted entries from the front, and remove all polled entries at once after
+        int polled = 0;
+        int remainingCarts = maxCarts;
+        try {
+            while (polled < entries.size() && remainingCarts > 0) {
+                Entry entry = entries.get(polled++);
+                entriesByGroup.remove(entry.group);
+                if (restorer.test(entry.group)) {
+                    metrics.recordRestored(System.nanoTime() - entry.queuedTime);
+                    remainingCarts -= entry.group.members.length;
+                }
+            }
+        } finally {
+            entries.subList(0, polled).clear();
+        }
+    }
+
+    private static long computeDistance(OfflineGroup group, Map<OfflineWorld, List<Player>> playersByWorld) {
+        if (group.members.length == 0) {
+            return Long.MAX_VALUE;
+        }
+
+        List<Player> players = playersByWorld.computeIfAbsent(group.world, w -> {
+            World world = w.getLoadedWorld();
+            return (world == null) ? Collections.<Player>emptyList() : world.getPlayers();
+        });
+
+        OfflineMember member = group.members[0];
+        long distance = Long.MAX_VALUE;
+        for (Player player : players) {
+            long dx = (player.getLocation().getBlockX() >> 4) - member.cx;
+            long dz = (player.getLocation().getBlockZ() >> 4) - member.cz;
+            distance = Math.min(distance, dx * dx + dz * dz);
+        }
+        return distance;
+    }
+
+    private static final class Entry {
+        public final OfflineGroup group;
+        public final long queuedTime;
+        public long priority;
+
+        public Entry(OfflineGroup group, long queuedTime) {
+            this.group = group;
+            this.queuedTime = queuedTime;
+            this.priority = 0;
+        }
+    }
+
+    /**
+     * Tracks the number of groups waiting to be restored, and how long it took since
+     * all chunks of a group were loaded until it was restored as a train.
+     */
+    public static final class Metrics {
+        private int maxLength = 0;
+        private long restoredCount = 0;
+        private long totalLatencyNanos = 0;
+        private long maxLatencyNanos = 0;
+
+        private void recordLength(int length) {
+            maxLength = Math.max(maxLength, length);
+        }
+
+        private void recordRestored(long latencyNanos) {
+            restoredCount++;
+            totalLatencyNanos += latencyNanos;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+        }
+
+        /**
+         * Gets the maximum number of groups that were waiting to be restored at one time
+         *
+         * @return maximum queue length
+         */
+        public int getMaxLength() {
+            return maxLength;
+        }
+
+        /**
+         * Gets the number of groups that were restored from the queue
+         *
+         * @return restored group count
+         */
+        public long getRestoredCount() {
+            return restoredCount;
+        }
+
+        /**
+         * Gets the average time groups waited in the queue before being restored
+         *
+         * @return average restore latency in milliseconds
+         */
+        public double getAverageLatencyMillis() {
+            return (restoredCount == 0) ? 0.0 : ((double) totalLatencyNanos / restoredCount / 1.0e6);
+        }
+
+        /**
+         * Gets the longest time a group waited in the queue before being restored
+         *
+         * @return maximum restore latency in milliseconds
+         */
+        public double getMaxLatencyMillis() {
+            return (double) maxLatencyNanos / 1.0e6;
+        }
+
+        /**
+         * Resets all metrics
+         */
+        public void reset() {
+            maxLength = 0;
+            restoredCount = 0;
+            totalLatencyNanos = 0;
+            maxLatencyNanos = 0;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.bergerkiller.bukkit.tc.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores, for every node of a {@link PathWorld}, the next connection to take towards
+ * every named destination node. All information is stored in int-indexed arrays, so that
+ * looking up the connection to take at a switcher is a simple array read.<br>
+ * <br>
+ * A table is created in two steps. {@link #snapshot(Collection, int)} copies the graph
+ * into arrays and must be called on the main thread. {@link #build()} then computes the
+ * routes and can be called on another thread. The table is only valid for as long as
+ * the graph of the world has not changed since the snapshot was made,
+ * see {@link #getGraphVersion()}.
+ */
+final class PathNextHopTable {
+    /** Stored as the next hop for nodes that can not reach a destination */
+    private static final short UNREACHABLE = -1;
+
+    private final int graphVersion;
+    private final PathNode[] nodes;
+    private final PathConnection[][] connections;
+    private final int[] destinations;
+    private final int[] destinationIndexByNode;
+    private short[][] nextHop;
+    private double[][] distance;
+
+    private PathNextHopTable(int graphVersion, PathNode[] nodes, PathConnection[][] connections, int[] destinations) {
+        this.graphVersion = graphVersion;
+        this.nodes = nodes;
+        this.connections = connections;
+        this.destinations = destinations;
+        this.destinationIndexByNode = new int[nodes.length];
+        Arrays.fill(this.destinationIndexByNode, -1);
+        for (int d = 0; d < destinations.length; d++) {
+            this.destinationIndexByNode[destinations[d]] = d;
+        }
+    }
+
+    /**
+     * Gets the version of the graph of the world at the time this table was created
+     *
+     * @return graph version
+     */
+    public int getGraphVersion() {
+        return graphVersion;
+    }
+
+    /**
+     * Gets the number of destinations this table stores routes for
+     *
+     * @return destination count
+     */
+    public int getDestinationCount() {
+        return destinations.length;
+    }
+
+    /**
+     * Checks whether this table stores the route between two nodes. If this returns
+     * false, the route must be computed some other way.
+     *
+     * @param from Start node
+     * @param destination Destination node
+     * @return True if the route from the node to the destination is stored
+     */
+    public boolean contains(PathNode from, PathNode destination) {
+        return nodeIndex(from) != -1 && destinationIndex(destination) != -1;
+    }
+
+    /**
+     * Gets the connection to take from a node to reach a destination, with as distance
+     * the total distance towards the destination. Only valid if
+     * {@link #contains(PathNode, PathNode)} returns true.
+     *
+     * @param from Start node
+     * @param destination Destination node
+     * @return connection, or null if the destination can not be reached or from == destination
+     */
+    public PathConnection findConnection(PathNode from, PathNode destination) {
+        int n = nodeIndex(from);
+        int d = destinationIndex(destination);
+        int hop = nextHop[d][n];
+        if (hop == UNREACHABLE) {
+            return null;
+        }
+        return new PathConnection(destination, distance[d][n], connections[n][hop].junctionName);
+    }
+
+    /**
+     * Gets all the connections to take from a node to reach a destination. Only valid if
+     * {@link #contains(PathNode, PathNode)} returns true.
+     *
+     * @param from Start node
+     * @param destination Destination node
+     * @return route, or an empty array if the destination can not be reached or from == destination
+     */
+    public PathConnection[] findRoute(PathNode from, PathNode destination) {
+        int n = nodeIndex(from);
+        int d = destinationIndex(destination);
+        short[] hops = nextHop[d];
+        List<PathConnection> route = new ArrayList<>();
+        int hop;
+        while (n != -1 && (hop = hops[n]) != UNREACHABLE) {
+            PathConnection connection = connections[n][hop];
+            route.add(connection);
+            n = nodeIndex(connection.destination);
+        }
+        return route.toArray(new PathConnection[0]);
+    }
+
+    private int nodeIndex(PathNode node) {
+        int index = node.routingTableIndex;
+        return (index >= 0 && index < nodes.length && nodes[index] == node) ? index : -1;
+    }
+
+    private int destinationIndex(PathNode node) {
+        int index = nodeIndex(node);
+        return (index == -1) ? -1 : destinationIndexByNode[index];
+    }
+
+    /**
+     * Copies the graph formed by the nodes specified into a new table. Must be called
+     * on the main thread. Afterwards, {@link #build()} must be called before the table can be used.
+     *
+     * @param worldNodes All the nodes of a world
+     * @param graphVersion Current graph version of the world
+     * @return new table, to be built
+     */
+    public static PathNextHopTable snapshot(Collection<PathNode> worldNodes, int graphVersion) {
+        PathNode[] nodes = worldNodes.toArray(new PathNode[0]);
+        PathConnection[][] connections = new PathConnection[nodes.length][];
+        int numDestinations = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            PathNode node = nodes[i];
+            node.routingTableIndex = i;
+            connections[i] = node.getNeighbours().toArray(new PathConnection[0]);
+            if (!node.getNames().isEmpty()) {
+                numDestinations++;
+            }
+        }
+        int[] destinations = new int[numDestinations];
+        numDestinations = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            if (!nodes[i].getNames().isEmpty()) {
+                destinations[numDestinations++] = i;
+            }
+        }
+        return new PathNextHopTable(graphVersion, nodes, connections, destinations);
+    }
+
+    /**
+     * Computes the next hop towards all destinations, for all nodes. Runs Dijkstra's algorithm
+     * over the reversed graph once for every destination. Does not access the live
+     * graph, and can be called on another thread.
+     *
+     * @return this table
+     */
+    public PathNextHopTable build() {
+        final int numNodes = nodes.length;
+
+        // Index the connections, and the reverse connections in compressed sparse row form
+        Map<PathNode, Integer> indexByNode = new IdentityHashMap<>(numNodes);
+        for (int i = 0; i < numNodes; i++) {
+            indexByNode.put(nodes[i], i);
+        }
+        int[] incomingStart = new int[numNodes + 1];
+        int numConnections = 0;
+        for (PathConnection[] nodeConnections : connections) {
+            for (PathConnection connection : nodeConnections) {
+                Integer to = indexByNode.get(connection.destination);
+                if (to != null) {
+                    incomingStart[to + 1]++;
+                    numConnections++;
+                }
+            }
+        }
+        for (int i = 0; i < numNodes; i++) {
+            incomingStart[i + 1] += incomingStart[i];
+        }
+        int[] incomingFrom = new int[numConnections];
+        short[] incomingSlot = new short[numConnections];
+        double[] incomingDistance = new double[numConnections];
+        int[] fill = Arrays.copyOf(incomingStart, numNodes);
+        for (int from = 0; from < numNodes; from++) {
+            PathConnection[] nodeConnections = connections[from];
+            for (int slot = 0; slot < nodeConnections.length; slot++) {
+                Integer to = indexByNode.get(nodeConnections[slot].destination);
+                if (to != null) {
+                    int i = fill[to]++;
+                    incomingFrom[i] = from;
+                    incomingSlot[i] = (short) slot;
+                    incomingDistance[i] = nodeConnections[slot].distance;
+                }
+            }
+        }
+
+        // Run the search for every destination
+        short[][] nextHop = new short[destinations.length][];
+        double[][] distance = new double[destinations.length][];
+        Heap heap = new Heap(numConnections + 1);
+        for (int d = 0; d < destinations.length; d++) {
+            short[] hops = new short[numNodes];
+            double[] dist = new double[numNodes];
+            Arrays.fill(hops, UNREACHABLE);
+            Arrays.fill(dist, Double.MAX_VALUE);
+            dist[destinations[d]] = 0.0;
+
+            heap.clear();
+            heap.push(destinations[d], 0.0);
+            while (!heap.isEmpty()) {
+                double currDist = heap.peekDistance();
+                int curr = heap.pop();
+                if (dist[curr] < currDist) {
+                    continue; // Outdated entry
+                }
+                for (int i = incomingStart[curr], end = incomingStart[curr + 1]; i < end; i++) {
+                    int from = incomingFrom[i];
+                    double newDist = currDist + incomingDistance[i];
+                    if (newDist < dist[from]) {
+                        dist[from] = newDist;
+                        hops[from] = incomingSlot[i];
+                        heap.push(from, newDist);
+                    }
+                }
+            }
+
+            nextHop[d] = hops;
+            distance[d] = dist;
+        }
+
+        this.nextHop = nextHop;
+        this.distance = distance;
+        return this;
+    }
+
+    /**
+     * Binary min-heap of node indices sorted by distance. Entries are never updated,
+     * instead duplicate entries are pushed and outdated ones are skipped when popped.
+     */
+    private static final class Heap {
+        private int[] nodes;
+        private double[] distances;
+        private int size;
+
+        public Heap(int capacity) {
+            this.nodes = new int[Math.max(1, capacity)];
+            this.distances = new double[this.nodes.length];
+            this.size = 0;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public double peekDistance() {
+            return distances[0];
+        }
+
+        public void push(int node, double distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (distances[parent] <= distance) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        public int pop() {
+            int result = nodes[0];
+            int lastNode = nodes[--size];
+            double lastDistance = distances[size];
+            int i = 0;
+            int half = size >> 1;
+            while (i < half) {
+                int child = (i << 1) + 1;
+                if (child + 1 < size && distances[child + 1] < distances[child]) {
+                    child++;
+                }
+                if (lastDistance <= distances[child]) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            distances[i] = lastDistance;
+            return result;
+        }
+    }
+}
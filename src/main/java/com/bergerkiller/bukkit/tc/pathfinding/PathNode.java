@@ -15,13 +15,10 @@ public class PathNode {
     private final Set<String> names = new HashSet<>();
     private final List<PathConnection> neighbors = new ArrayList<>(3);
     public int index;
+    /** Index of this node in the {@link PathNextHopTable} of the world */
+    int routingTableIndex = -1;
     private boolean isRailSwitchable;
 
-    // Used while calculating paths to avoid infinite recursion
-    private PathSearchOperation lastSearch = null;
-    private PathSearchResult lastSearchResult = null;
-    private double lastSearchStartDistance = Double.MAX_VALUE;
-
     protected PathNode(PathWorld world, BlockLocation location) {
         this.world = world;
         this.location = location;
@@ -29,9 +26,7 @@ public class PathNode {
     }
 
     public static void clearAll() {
-        for (PathWorld world : TrainCarts.plugin.getPathProvider().getWorlds()) {
-            world.clearAll();
-        }
+        TrainCarts.plugin.getPathProvider().clearAll();
     }
 
     /**
@@ -120,17 +115,11 @@ public class PathNode {
      * @return the route taken, or an empty array if none could be found or this == destination
      */
     public PathConnection[] findRoute(PathNode destination) {
-        PathSearchResult result = findBestPath(destination);
-        if (result.found) {
-            List<PathConnection> route = new ArrayList<>();
-            while (result.connection != null) {
-                route.add(result.connection);
-                result = result.next;
-            }
-            return route.toArray(new PathConnection[0]);
-        } else {
-            return new PathConnection[0];
+        PathNextHopTable nextHopTable = world.getNextHopTable();
+        if (nextHopTable != null && nextHopTable.contains(this, destination)) {
+            return nextHopTable.findRoute(this, destination);
         }
+        return world.getRouteTable(destination).getRoute(this).toArray(new PathConnection[0]);
     }
 
     /**
@@ -140,64 +129,28 @@ public class PathNode {
      * @return A connection, or null if none could be found or this == destination
      */
     public PathConnection findConnection(PathNode destination) {
-        PathSearchResult result = findBestPath(destination);
-        if (result.found && result.connection != null) {
-            return new PathConnection(destination, result.distance, result.connection.junctionName);
+        PathNextHopTable nextHopTable = world.getNextHopTable();
+        if (nextHopTable != null && nextHopTable.contains(this, destination)) {
+            return nextHopTable.findConnection(this, destination);
+        }
+        PathRouteTable.Route route = world.getRouteTable(destination).get(this);
+        if (route != null && route.connection != null) {
+            return new PathConnection(destination, route.distance, route.connection.junctionName);
         } else {
             return null;
         }
     }
 
-    private PathSearchResult findBestPath(PathNode destination) {
-        PathSearchResult result = findBestPath(new PathSearchOperation(destination), 0.0);
-        if (result == PathSearchResult.DUMMY_NOT_FOUND) {
-            result = PathSearchResult.missing(this, destination);
-        }
-        result.cache();
-        return result;
-    }
-
-    private PathSearchResult findBestPath(PathSearchOperation search, double startDistance) {
-        // Shortcut to quit early
-        if (startDistance > search.maxTotalDistance) {
-            return PathSearchResult.DUMMY_NOT_FOUND;
-        }
-
-        // Either we recursively hit ourselves and the last search wasn't finished yet,
-        // in which case it is set to DUMMY_NOT_FOUND. Or we had completed the search before and
-        // already have the remainder of the trip. Either way, stop searching.
-        if (this.lastSearch == search && startDistance > this.lastSearchStartDistance) {
-            return PathSearchResult.DUMMY_NOT_FOUND;
-        } else {
-            this.lastSearch = search;
-            this.lastSearchStartDistance = startDistance;
-        }
-
-        // If destination == this, return instantly with 0 distance
-        if (this == search.destination) {
-            return search.acceptResult(startDistance, this.lastSearchResult = PathSearchResult.self(this));
-        }
-
-        // First time hitting this node. Initiate a new search of its neighbours.
-        // Seed the initial result before it is known as not-found to avoid infinite recursion.
-        // Before we proceed, see if a path to this same destination was already cached.
-        // If so, we can simply try to use that
-        {
-            PathSearchResult result = this.lastSearchResult = this.world.findCachedSearchResult(this, search.destination);
-            if (result != PathSearchResult.DUMMY_NOT_FOUND) {
-                return search.acceptResult(startDistance, result);
-            }
-        }
-
-        // Ask all neighbouring nodes for the same destination, recursively
-        for (PathConnection neighbour : this.neighbors) {
-            PathSearchResult neigh_result = neighbour.destination.findBestPath(search, startDistance + neighbour.distance);
-            if (neigh_result.found) {
-                this.lastSearchResult = PathSearchResult.chain(this, search.destination, neighbour, neigh_result);
-            }
-        }
-
-        return this.lastSearchResult;
+    /**
+     * Adds a neighbour connection to this node
+     *
+     * @param to        the node to make a connection with
+     * @param distance  of the connection
+     * @param junctionName of the connection
+     * @return The connection that was made
+     */
+    public PathConnection addNeighbour(final PathNode to, final double distance, final String junctionName) {
+        return addNeighbour(to, distance, junctionName, true);
     }
 
     /**
@@ -206,9 +159,11 @@ public class PathNode {
      * @param to        the node to make a connection with
      * @param distance  of the connection
      * @param junctionName of the connection
+     * @param rerouteDestination whether to re-route the node connected to, if not already
+     *                           done recently. Is false during incremental re-routing.
      * @return The connection that was made
      */
-    public PathConnection addNeighbour(final PathNode to, final double distance, final String junctionName) {
+    PathConnection addNeighbour(final PathNode to, final double distance, final String junctionName, boolean rerouteDestination) {
         PathConnection conn;
         Iterator<PathConnection> iter = this.neighbors.iterator();
         while (iter.hasNext()) {
@@ -220,37 +175,114 @@ public class PathNode {
                 } else {
                     // Higher distance is contained - remove old element
                     iter.remove();
+                    world.onConnectionRemoved(this, conn);
                     break;
                 }
             }
         }
         // Add a new one
         conn = new PathConnection(to, distance, junctionName);
-        addNeighbourFast(conn);
-        world.getProvider().scheduleNodeIfNotRecentlyRouted(to);
-        world.markChanged();
+        this.neighbors.add(conn);
+        world.onConnectionAdded(this, conn);
+        if (rerouteDestination) {
+            world.getProvider().scheduleNodeIfNotRecentlyRouted(to);
+        }
+        world.markChanged(this);
         return conn;
     }
 
+    /**
+     * Replaces all connections of this node into a junction with a single new connection.
+     * If the connection is unchanged, nothing happens.
+     *
+     * @param junctionName Name of the junction
+     * @param to Node the junction now leads to, null if it leads to no node
+     * @param distance Distance to the node
+     */
+    void replaceNeighbours(String junctionName, PathNode to, double distance) {
+        boolean unchanged = true;
+        int numInJunction = 0;
+        for (PathConnection conn : this.neighbors) {
+            if (conn.junctionName.equals(junctionName)) {
+                numInJunction++;
+                unchanged &= (conn.destination == to && conn.distance == distance);
+            }
+        }
+        if (unchanged && numInJunction == ((to == null) ? 0 : 1)) {
+            return;
+        }
+
+        Iterator<PathConnection> iter = this.neighbors.iterator();
+        while (iter.hasNext()) {
+            PathConnection conn = iter.next();
+            if (conn.junctionName.equals(junctionName)) {
+                iter.remove();
+                world.onConnectionRemoved(this, conn);
+            }
+        }
+        if (to != null) {
+            addNeighbour(to, distance, junctionName, false);
+        } else {
+            world.markChanged(this);
+        }
+    }
+
+    /**
+     * Adds a neighbour connection without checking for existing connections
+     * to the same node. Used when loading the nodes from file.<br>
+     * <br>
+     * Does not invalidate the route tables of the world. The caller must call
+     * {@link PathWorld#invalidateRouteTables()} once all connections are added.
+     *
+     * @param connection Connection to add
+     */
     protected void addNeighbourFast(PathConnection connection) {
         this.neighbors.add(connection);
     }
 
+    /**
+     * Replaces the switcher state, names and connections of this node with the ones
+     * specified. Used when applying changes stored in the journal file.
+     *
+     * @param switcher Whether the node is covered by a switcher sign
+     * @param names New destination names of the node
+     * @param connections New connections of the node
+     */
+    void loadState(boolean switcher, Collection<String> names, Collection<PathConnection> connections) {
+        this.isRailSwitchable = switcher;
+        for (String name : new ArrayList<>(this.names)) {
+            if (!names.contains(name)) {
+                this.names.remove(name);
+                world.removeNodeName(this, name);
+            }
+        }
+        for (String name : names) {
+            if (this.names.add(name)) {
+                world.addNodeName(this, name);
+            }
+        }
+        this.neighbors.clear();
+        this.neighbors.addAll(connections);
+        world.invalidateRouteTables();
+    }
+
     /**
      * Clears the destinations known from this node to other nodes. The
      * connection from those other nodes to this node are forgotten too.
      */
     public void clear() {
+        world.onConnectionsRemoved(this);
         this.neighbors.clear();
         for (PathNode node : world.getNodes()) {
             Iterator<PathConnection> iter = node.neighbors.iterator();
             while (iter.hasNext()) {
                 if (iter.next().destination == this) {
                     iter.remove();
+                    world.markChanged(node);
                 }
             }
         }
-        world.markChanged();
+        world.markChanged(this);
     }
 
     /**
@@ -277,11 +309,29 @@ public class PathNode {
     }
 
     /**
-     * Removes this node and all names associated with it.
+     * Removes this node and all names associated with it. The junctions of other nodes
+     * that connected to this node are walked again, as they now lead past this node.
      */
     public void remove() {
+        List<PathNode> incomingNodes = new ArrayList<>();
+        List<String> incomingJunctions = new ArrayList<>();
+        for (PathNode node : world.getNodes()) {
+            if (node != this) {
+                for (PathConnection conn : node.neighbors) {
+                    if (conn.destination == this) {
+                        incomingNodes.add(node);
+                        incomingJunctions.add(conn.junctionName);
+                    }
+                }
+            }
+        }
+
         this.clear();
         world.removeFromMapping(this);
+
+        for (int i = 0; i < incomingNodes.size(); i++) {
+            world.getProvider().rerouteJunction(incomingNodes.get(i), incomingJunctions.get(i));
+        }
     }
 
     /**
@@ -399,6 +449,7 @@ public class PathNode {
         // Remove all the reachable nodes we have collected, deleting the entire network
         // Schedule all these nodes for path finding
         for (PathNode node : reachable) {
+            world.onConnectionsRemoved(node);
             node.neighbors.clear();
             world.removeFromMapping(node);
             world.getProvider().discoverFromRail(node.location);
@@ -440,7 +491,10 @@ public class PathNode {
         if (PathProvider.DEBUG_MODE && !this.isRailSwitchable) {
             world.getTrainCarts().log(Level.INFO, "NODE AT " + this.location.toString() + " ADDED SWITCHER");
         }
-        this.isRailSwitchable = true;
+        if (!this.isRailSwitchable) {
+            this.isRailSwitchable = true;
+            world.markChanged(this);
+        }
     }
 
     /**
@@ -502,42 +556,4 @@ public class PathNode {
             world.addNodeName(this, name);
         }
     }
-
-    /**
-     * A single, unique, search operation and its state information
-     */
-    private static class PathSearchOperation {
-        /** Destination node being reached */
-        public final PathNode destination;
-        /**
-         * Maximum distance allowed for a valid search result. Avoids navigating
-         * paths that are longer than other paths that are already found.
-         */
-        public double maxTotalDistance = Double.MAX_VALUE;
-
-        public PathSearchOperation(PathNode destination) {
-            this.destination = destination;
-        }
-
-        /**
-         * Notifies that a search resulted in a solution, and wants to check whether
-         * the total distance is lower than any previous result (or no result).
-         *
-         * @param startDistance Distance before this part of the result was found
-         * @param result Part of the search path solution
-         * @return input result if accepted (or not found, unchanged), DUMMY_NOT_FOUND if not accepted
-         */
-        public PathSearchResult acceptResult(double startDistance, PathSearchResult result) {
-            if (!result.found) {
-                return result;
-            }
-            double total = startDistance + result.distance;
-            if (total < maxTotalDistance) {
-                maxTotalDistance = total;
-                return result;
-            } else {
-                return PathSearchResult.DUMMY_NOT_FOUND;
-            }
-        }
-    }
 }
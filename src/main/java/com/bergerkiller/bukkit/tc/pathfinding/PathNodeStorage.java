@@ -0,0 +1,484 @@
+package com.bergerkiller.bukkit.tc.pathfinding;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.bergerkiller.bukkit.common.BlockLocation;
+
+/**
+ * Stores the path finding nodes and their connections on disk.<br>
+ * <br>
+ * The main file starts with a table of all the strings used (world names, destination
+ * names and junction names), which are referred to by index. This is followed by one
+ * section per world. The nodes of a section are sorted by coordinates, and each node's
+ * coordinates are stored as the difference with the previous node. Sections are only
+ * decoded once the world is first used, see {@link #loadWorld(PathWorld)}.<br>
+ * <br>
+ * Between full saves, changed nodes are appended to a journal file next to the main file.
+ * Each journal record stores the full state of a single node, or that it was removed.
+ * When loading, the journal records are applied after the section of the world is decoded.
+ */
+final class PathNodeStorage {
+    /** Identifies the file format. Legacy files are compressed, and never start with this. */
+    private static final int MAGIC = 0x54435046; // TCPF
+    private static final int VERSION = 1;
+    private static final byte RECORD_NODE = 1;
+    private static final byte RECORD_REMOVED = 2;
+    private static final byte FLAG_SWITCHER = 0x1;
+
+    private final File file;
+    private final File journalFile;
+    private String[] strings = new String[0];
+    private final Map<String, byte[]> pendingSections = new HashMap<>();
+    private final Map<String, List<byte[]>> pendingJournal = new HashMap<>();
+
+    public PathNodeStorage(File file) {
+        this.file = file;
+        this.journalFile = new File(file.getPath() + ".journal");
+    }
+
+    /**
+     * Checks whether a file is stored in this format, rather than the legacy format
+     *
+     * @param file File to check
+     * @return True if the file exists and is stored in this format
+     */
+    public static boolean isStoredInFormat(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream stream = new DataInputStream(new FileInputStream(file))) {
+            return stream.readInt() == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the names of the worlds of which information was read, but which have
+     * not been loaded yet
+     *
+     * @return pending world names
+     */
+    public Collection<String> getPendingWorlds() {
+        Set<String> names = new LinkedHashSet<>(pendingSections.keySet());
+        names.addAll(pendingJournal.keySet());
+        return names;
+    }
+
+    /**
+     * Discards the information read of worlds that have not been loaded yet
+     */
+    public void clearPending() {
+        pendingSections.clear();
+        pendingJournal.clear();
+    }
+
+    /**
+     * Gets the size of the journal file. Once this grows too large compared to the
+     * main file, a full save should be done instead.
+     *
+     * @return journal file size in bytes
+     */
+    public long getJournalLength() {
+        return journalFile.length();
+    }
+
+    /**
+     * Gets the size of the main file
+     *
+     * @return file size in bytes
+     */
+    public long getLength() {
+        return file.length();
+    }
+
+    /**
+     * Reads the string table and the (still encoded) world sections of the main file,
+     * and all records of the journal. Nodes are not created until
+     * {@link #loadWorld(PathWorld)} is called.
+     *
+     * @throws IOException If the main file could not be read
+     */
+    public void read() throws IOException {
+        pendingSections.clear();
+        pendingJournal.clear();
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(data));
+        if (stream.readInt() != MAGIC) {
+            throw new IOException("Not a path finding node file");
+        }
+        int version = stream.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported path finding node file version: " + version);
+        }
+
+        String[] strings = new String[readVarInt(stream)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = stream.readUTF().intern();
+        }
+        this.strings = strings;
+
+        int numWorlds = readVarInt(stream);
+        for (int i = 0; i < numWorlds; i++) {
+            String worldName = strings[readVarInt(stream)];
+            int length = readVarInt(stream);
+            int offset = data.length - stream.available();
+            pendingSections.put(worldName, Arrays.copyOfRange(data, offset, offset + length));
+            stream.skipBytes(length);
+        }
+
+        readJournal();
+    }
+
+    private void readJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return;
+        }
+        byte[] data = Files.readAllBytes(journalFile.toPath());
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(data));
+        while (stream.available() > 0) {
+            byte[] record;
+            String worldName;
+            try {
+                int length = stream.readInt();
+                if (length <= 0 || length > stream.available()) {
+                    break; // Truncated record at the end, written while the server crashed
+                }
+                record = new byte[length];
+                stream.readFully(record);
+                DataInputStream recordStream = new DataInputStream(new ByteArrayInputStream(record));
+                recordStream.readByte();
+                worldName = recordStream.readUTF();
+            } catch (IOException ex) {
+                break; // Corrupt record at the end, the rest of the journal can not be trusted
+            }
+            pendingJournal.computeIfAbsent(worldName, n -> new ArrayList<>()).add(record);
+        }
+    }
+
+    /**
+     * Creates the nodes and connections of a world that were read, if any, and applies
+     * the journal records of this world. Should be called right after the world was created.
+     *
+     * @param world World to load
+     * @throws IOException If the information read is corrupt
+     */
+    public void loadWorld(PathWorld world) throws IOException {
+        byte[] section = pendingSections.remove(world.getName());
+        if (section != null) {
+            decodeSection(world, new DataInputStream(new ByteArrayInputStream(section)));
+        }
+        List<byte[]> journal = pendingJournal.remove(world.getName());
+        if (journal != null) {
+            for (byte[] record : journal) {
+                applyJournalRecord(world, new DataInputStream(new ByteArrayInputStream(record)));
+            }
+        }
+    }
+
+    private void decodeSection(PathWorld world, DataInput stream) throws IOException {
+        PathNode[] nodes = new PathNode[readVarInt(stream)];
+        int x = 0, y = 0, z = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            x += readZigZag(stream);
+            y += readZigZag(stream);
+            z += readZigZag(stream);
+            PathNode node = world.getOrLoadNode(new BlockLocation(world.getName(), x, y, z));
+            int flags = stream.readByte();
+            if ((flags & FLAG_SWITCHER) != 0) {
+                node.addSwitcher();
+            }
+            for (int n = readVarInt(stream); n > 0; n--) {
+                node.addName(strings[readVarInt(stream)]);
+            }
+            nodes[i] = node;
+        }
+        for (PathNode node : nodes) {
+            for (int n = readVarInt(stream); n > 0; n--) {
+                int index = readVarInt(stream);
+                PathNode destination;
+                if (index == 0) {
+                    // Connection to a node on another world
+                    String worldName = strings[readVarInt(stream)];
+                    BlockLocation loc = new BlockLocation(worldName,
+                            readZigZag(stream), readZigZag(stream), readZigZag(stream));
+                    destination = world.getProvider().getWorld(worldName).getOrLoadNode(loc);
+                } else {
+                    destination = nodes[index - 1];
+                }
+                double distance = stream.readDouble();
+                String junctionName = strings[readVarInt(stream)];
+                node.addNeighbourFast(new PathConnection(destination, distance, junctionName));
+            }
+        }
+        world.invalidateRouteTables();
+    }
+
+    private void applyJournalRecord(PathWorld world, DataInput stream) throws IOException {
+        byte type = stream.readByte();
+        stream.readUTF(); // World name, already known
+        BlockLocation location = new BlockLocation(world.getName(), stream.readInt(), stream.readInt(), stream.readInt());
+        if (type == RECORD_REMOVED) {
+            PathNode node = world.getNodeAtRail(location);
+            if (node != null) {
+                node.clear();
+                world.removeFromMapping(node);
+            }
+        } else if (type == RECORD_NODE) {
+            PathNode node = world.getOrLoadNode(location);
+            boolean switcher = stream.readBoolean();
+            List<String> names = new ArrayList<>();
+            for (int n = stream.readInt(); n > 0; n--) {
+                names.add(stream.readUTF().intern());
+            }
+            List<PathConnection> connections = new ArrayList<>();
+            for (int n = stream.readInt(); n > 0; n--) {
+                String worldName = stream.readUTF();
+                BlockLocation destLoc = new BlockLocation(worldName, stream.readInt(), stream.readInt(), stream.readInt());
+                PathNode destination = world.getName().equals(worldName) ? world.getOrLoadNode(destLoc)
+                        : world.getProvider().getWorld(worldName).getOrLoadNode(destLoc);
+                double distance = stream.readDouble();
+                String junctionName = stream.readUTF().intern();
+                connections.add(new PathConnection(destination, distance, junctionName));
+            }
+            node.loadState(switcher, names, connections);
+        } else {
+            throw new IOException("Unknown journal record type: " + type);
+        }
+    }
+
+    /**
+     * Writes all nodes of the loaded worlds to the main file, and clears the journal.
+     * The sections and journal records of worlds that have not been loaded yet are
+     * copied over unchanged.
+     *
+     * @param worlds All loaded worlds
+     * @throws IOException If writing fails
+     */
+    public void writeAll(Collection<PathWorld> worlds) throws IOException {
+        Map<String, Integer> stringTable = new LinkedHashMap<>();
+        List<String> sectionWorlds = new ArrayList<>();
+        List<byte[]> sections = new ArrayList<>();
+        if (!pendingSections.isEmpty()) {
+            // Sections not yet loaded refer to strings by their index in the table read,
+            // so start with that same table to copy them without decoding.
+            for (String str : strings) {
+                stringTable.put(str, stringTable.size());
+            }
+            for (Map.Entry<String, byte[]> pending : pendingSections.entrySet()) {
+                intern(stringTable, pending.getKey());
+                sectionWorlds.add(pending.getKey());
+                sections.add(pending.getValue());
+            }
+        }
+        for (PathWorld world : worlds) {
+            if (world.getNodes().isEmpty()) {
+                continue;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            encodeSection(world, new DataOutputStream(bytes), stringTable);
+            intern(stringTable, world.getName());
+            sectionWorlds.add(world.getName());
+            sections.add(bytes.toByteArray());
+        }
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            writeVarInt(stream, stringTable.size());
+            for (String str : stringTable.keySet()) {
+                stream.writeUTF(str);
+            }
+            writeVarInt(stream, sections.size());
+            for (int i = 0; i < sections.size(); i++) {
+                writeVarInt(stream, stringTable.get(sectionWorlds.get(i)));
+                writeVarInt(stream, sections.get(i).length);
+                stream.write(sections.get(i));
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        this.strings = stringTable.keySet().toArray(new String[0]);
+
+        if (pendingJournal.isEmpty()) {
+            journalFile.delete();
+        } else {
+            try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile)))) {
+                for (List<byte[]> records : pendingJournal.values()) {
+                    for (byte[] record : records) {
+                        stream.writeInt(record.length);
+                        stream.write(record);
+                    }
+                }
+            }
+        }
+    }
+
+    private void encodeSection(PathWorld world, DataOutput stream, Map<String, Integer> stringTable) throws IOException {
+        PathNode[] nodes = world.getNodes().toArray(new PathNode[0]);
+        Arrays.sort(nodes, Comparator.<PathNode>comparingInt(n -> n.location.x)
+                .thenComparingInt(n -> n.location.z)
+                .thenComparingInt(n -> n.location.y));
+
+        writeVarInt(stream, nodes.length);
+        int x = 0, y = 0, z = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            PathNode node = nodes[i];
+            node.index = i;
+            writeZigZag(stream, node.location.x - x);
+            writeZigZag(stream, node.location.y - y);
+            writeZigZag(stream, node.location.z - z);
+            x = node.location.x;
+            y = node.location.y;
+            z = node.location.z;
+            stream.writeByte(node.containsSwitcher() ? FLAG_SWITCHER : 0);
+            writeVarInt(stream, node.getNames().size());
+            for (String name : node.getNames()) {
+                writeVarInt(stream, intern(stringTable, name));
+            }
+        }
+        for (PathNode node : nodes) {
+            writeVarInt(stream, node.getNeighbours().size());
+            for (PathConnection connection : node.getNeighbours()) {
+                PathNode destination = connection.destination;
+                if (destination.getWorld() == world && destination.index >= 0 && destination.index < nodes.length
+                        && nodes[destination.index] == destination
+                ) {
+                    writeVarInt(stream, destination.index + 1);
+                } else {
+                    writeVarInt(stream, 0);
+                    writeVarInt(stream, intern(stringTable, destination.location.world));
+                    writeZigZag(stream, destination.location.x);
+                    writeZigZag(stream, destination.location.y);
+                    writeZigZag(stream, destination.location.z);
+                }
+                stream.writeDouble(connection.distance);
+                writeVarInt(stream, intern(stringTable, connection.junctionName));
+            }
+        }
+    }
+
+    /**
+     * Appends the current state of the nodes specified to the journal. Nodes that are no
+     * longer part of their world are written as removed.
+     *
+     * @param changedNodes Nodes that changed since the last save
+     * @throws IOException If writing fails
+     */
+    public void appendJournal(Collection<PathNode> changedNodes) throws IOException {
+        if (changedNodes.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordsStream = new DataOutputStream(records);
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        for (PathNode node : changedNodes) {
+            recordBytes.reset();
+            DataOutputStream record = new DataOutputStream(recordBytes);
+            PathNode current = node.getWorld().getNodeAtRail(node.location);
+            if (current != node && current != null) {
+                continue; // Replaced by a different node, which is written instead
+            }
+            boolean removed = (current == null);
+            record.writeByte(removed ? RECORD_REMOVED : RECORD_NODE);
+            record.writeUTF(node.location.world);
+            record.writeInt(node.location.x);
+            record.writeInt(node.location.y);
+            record.writeInt(node.location.z);
+            if (!removed) {
+                record.writeBoolean(node.containsSwitcher());
+                record.writeInt(node.getNames().size());
+                for (String name : node.getNames()) {
+                    record.writeUTF(name);
+                }
+                record.writeInt(node.getNeighbours().size());
+                for (PathConnection connection : node.getNeighbours()) {
+                    BlockLocation destLoc = connection.destination.location;
+                    record.writeUTF(destLoc.world);
+                    record.writeInt(destLoc.x);
+                    record.writeInt(destLoc.y);
+                    record.writeInt(destLoc.z);
+                    record.writeDouble(connection.distance);
+                    record.writeUTF(connection.junctionName);
+                }
+            }
+            recordsStream.writeInt(recordBytes.size());
+            recordBytes.writeTo(recordsStream);
+        }
+
+        if (records.size() == 0) {
+            return;
+        }
+        try (FileOutputStream stream = new FileOutputStream(journalFile, true)) {
+            records.writeTo(stream);
+        }
+    }
+
+    private static int intern(Map<String, Integer> stringTable, String str) {
+        Integer index = stringTable.get(str);
+        if (index == null) {
+            index = stringTable.size();
+            stringTable.put(str, index);
+        }
+        return index;
+    }
+
+    private static void writeVarInt(DataOutput stream, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            stream.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput stream) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 28) {
+                throw new IOException("Variable-length integer is too long");
+            }
+            b = stream.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void writeZigZag(DataOutput stream, int value) throws IOException {
+        writeVarInt(stream, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readZigZag(DataInput stream) throws IOException {
+        int value = readVarInt(stream);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
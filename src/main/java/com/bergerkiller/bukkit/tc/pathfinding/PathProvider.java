@@ -3,8 +3,6 @@ package com.bergerkiller.bukkit.tc.pathfinding;
 import com.bergerkiller.bukkit.common.BlockLocation;
 import com.bergerkiller.bukkit.common.Task;
 import com.bergerkiller.bukkit.common.config.CompressedDataReader;
-import com.bergerkiller.bukkit.common.config.CompressedDataWriter;
-import com.bergerkiller.bukkit.common.utils.StringUtil;
 import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.controller.components.RailJunction;
@@ -28,12 +26,13 @@ import org.bukkit.command.ConsoleCommandSender;
 import org.bukkit.entity.Player;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -75,11 +74,42 @@ public class PathProvider extends Task implements TrainCarts.Provider {
      * Once no more operations are being done, then this set is cleared.
      */
     private Set<PathNode> scheduledNodesSinceIdle = new HashSet<>();
+    /**
+     * Junctions of existing nodes that must be walked again, because a node was added or removed
+     * along the way. Unlike pending nodes, only the connections of these junctions are
+     * re-calculated, and finding another node does not cause that node to be re-routed.
+     */
+    private Map<PathNode, Set<String>> pendingJunctions = new LinkedHashMap<>();
+    /**
+     * Nodes found by walking from a newly added node, mapped to the new nodes that found them.
+     * All junctions of these nodes are walked again, except those that already connect to the
+     * new node. See {@link #isJunctionAffectedByNewNodes(PathNode, String, Set)}.
+     */
+    private Map<PathNode, Set<PathNode>> pendingFoundNodes = new LinkedHashMap<>();
+    /**
+     * Whether all nodes are currently being re-routed. While true, newly found nodes
+     * are re-routed entirely, rather than incrementally.
+     */
+    private boolean isReroutingAll = false;
+    /**
+     * Nodes and junctions revisited by incremental re-routing since it fell idle
+     */
+    private Set<PathNode> incrementalNodesRevisited = new HashSet<>();
+    private int incrementalJunctionsRevisited = 0;
+    private IncrementalRerouteStatistics lastIncrementalStatistics = IncrementalRerouteStatistics.NONE;
     /**
      * People to notify when the routes have finished calculating
      */
     private Set<CommandSender> sendersToNotifyOfCompletion = new HashSet<>();
     private boolean hasChanges = false;
+    /** Set when information of worlds not loaded was discarded, which the journal can't record */
+    private boolean isFullSaveRequired = false;
+    /**
+     * Reads and writes the destinations file. Worlds stored in it are only loaded once they are
+     * first accessed using {@link #getWorld(String)}.
+     */
+    private PathNodeStorage storage = null;
+    private boolean isLoadingNodes = false;
     private int maxProcessingPerTick = DEFAULT_MAX_PROCESSING_PER_TICK;
 
     public PathProvider(TrainCarts plugin) {
@@ -201,18 +231,56 @@ public class PathProvider extends Task implements TrainCarts.Provider {
     public void enable(String filename) {
         this.start(1, 1);
 
+        load(filename);
+
+        if (TCConfig.rerouteOnStartup) {
+            reroute();
+        }
+    }
+
+    /**
+     * Clears all path data and reads it from file. Files of the legacy format are read
+     * in full, and are converted the next time the path data is saved. Otherwise, the
+     * path data of worlds is only loaded once they are first used.
+     *
+     * @param filename Destinations file
+     */
+    void load(String filename) {
+        // clear all previous data by clearing the worlds mapping
+        worlds.clear();
+
+        File file = new File(filename);
+        storage = new PathNodeStorage(file);
+        if (PathNodeStorage.isStoredInFormat(file)) {
+            // Only reads the file, worlds are loaded when first used
+            try {
+                storage.read();
+            } catch (IOException ex) {
+                getTrainCarts().getLogger().log(Level.SEVERE, "Failed to read path finding nodes from " + filename, ex);
+            }
+        } else if (file.exists()) {
+            // Legacy format, is converted to the new format the next time it is saved
+            isLoadingNodes = true;
+            try {
+                readLegacy(filename);
+            } finally {
+                isLoadingNodes = false;
+            }
+        }
+
+        hasChanges = false;
+    }
+
+    private void readLegacy(String filename) {
         new CompressedDataReader(filename) {
             public void read(DataInputStream stream) throws IOException {
-                // clear all previous data by clearing the worlds mapping
-                worlds.clear();
-
                 // Initializing the nodes
                 int count = stream.readInt();
                 PathNode[] parr = new PathNode[count];
                 for (int i = 0; i < count; i++) {
                     String name = stream.readUTF();
                     BlockLocation loc = new BlockLocation(stream.readUTF(), stream.readInt(), stream.readInt(), stream.readInt());
-                    parr[i] = getWorld(loc.world).addNode(loc);
+                    parr[i] = getWorld(loc.world).getOrLoadNode(loc);
                     if (name.isEmpty()) {
                         // No name, is a switcher
                         parr[i].addSwitcher();
@@ -235,87 +303,100 @@ public class PathProvider extends Task implements TrainCarts.Provider {
                         node.addNeighbourFast(new PathConnection(parr[stream.readInt()], stream));
                     }
                 }
-
-                // Cancel all scheduled (pending) nodes
-                pendingNodes.clear();
-                scheduledNodesSinceIdle.clear();
+                for (PathWorld world : getLoadedWorlds()) {
+                    world.invalidateRouteTables();
+                }
             }
         }.read();
-
-        hasChanges = false;
-
-        if (TCConfig.rerouteOnStartup) {
-            reroute();
-        }
     }
 
     public void disable() {
         this.stop();
 
-        for (PathWorld world : this.getWorlds()) {
+        for (PathWorld world : this.worlds.values()) {
             world.clearAll();
         }
+        this.worlds.clear();
+        this.storage = null;
     }
 
+    /**
+     * Saves the path finding nodes to file. Usually only the nodes that changed since the
+     * previous save are appended to a journal. All nodes are written out again if this is required,
+     * or when the journal has grown large. When not autosaving, all nodes are written out
+     * if the journal is not empty. Worlds that have not been used are copied over
+     * without loading them.
+     *
+     * @param autosave Whether this is an autosave, in which case nothing is done if nothing changed
+     * @param filename Destinations file
+     */
     public void save(boolean autosave, String filename) {
         if (autosave && !hasChanges) {
             return;
         }
-        new CompressedDataWriter(filename) {
-            public void write(DataOutputStream stream) throws IOException {
-                // Compute and write total amount of nodes
-                int totalNodeCount = 0;
-                for (PathWorld world : getWorlds()) {
-                    totalNodeCount += world.getNodes().size();
-                }
-                stream.writeInt(totalNodeCount);
-
-                // Generate indices
-                int i = 0;
-                for (PathWorld world : getWorlds()) {
-                    for (PathNode node : world.getNodes()) {
-                        node.index = i;
-                        if (node.containsSwitcher()) {
-                            if (node.getNames().isEmpty()) {
-                                // Only switcher sign, write an empty String
-                                stream.writeUTF("");
-                            } else {
-                                // Switcher and destination sign are both at the same block
-                                // To indicate that, write the switcher name fallback in addition to the names
-                                stream.writeUTF(SWITCHER_NAME_FALLBACK + "\n" + StringUtil.join("\n", node.getNames()));
-                            }
-                        } else {
-                            // Only destination sign(s), write names
-                            stream.writeUTF(StringUtil.join("\n", node.getNames()));
-                        }
-                        stream.writeUTF(node.location.world);
-                        stream.writeInt(node.location.x);
-                        stream.writeInt(node.location.y);
-                        stream.writeInt(node.location.z);
-                        i++;
-                    }
-                }
 
-                // Write out connections
-                for (PathWorld world : getWorlds()) {
-                    for (PathNode node : world.getNodes()) {
-                        stream.writeInt(node.getNeighbours().size());
-                        for (PathConnection conn : node.getNeighbours()) {
-                            conn.writeTo(stream);
-                        }
-                    }
+        if (storage == null) {
+            storage = new PathNodeStorage(new File(filename));
+        }
+
+        boolean fullSave = !PathNodeStorage.isStoredInFormat(new File(filename))
+                || storage.getJournalLength() > (storage.getLength() / 2)
+                || (!autosave && storage.getJournalLength() > 0)
+                || isFullSaveRequired;
+        for (PathWorld world : this.worlds.values()) {
+            fullSave |= world.isFullSaveRequired();
+        }
+
+        List<PathNode> changedNodes = new ArrayList<>();
+        for (PathWorld world : this.worlds.values()) {
+            changedNodes.addAll(world.takeChangedNodes());
+        }
+
+        try {
+            if (fullSave) {
+                storage.writeAll(this.worlds.values());
+            } else {
+                storage.appendJournal(changedNodes);
+            }
+            hasChanges = false;
+            if (fullSave) {
+                isFullSaveRequired = false;
+            }
+        } catch (IOException ex) {
+            getTrainCarts().getLogger().log(Level.SEVERE, "Failed to save path finding nodes to " + filename, ex);
+            for (PathNode node : changedNodes) {
+                node.getWorld().markChanged(node);
+            }
+            if (fullSave) {
+                for (PathWorld world : this.worlds.values()) {
+                    world.markAllChanged();
                 }
             }
-        }.write();
-        hasChanges = false;
+        }
     }
-    
+
     /**
-     * Gets a collection of worlds on which path data is stored
+     * Gets a collection of all worlds on which path data is stored. The path data of worlds
+     * that have not been used yet is loaded first.
      * 
      * @return worlds
      */
     public Collection<PathWorld> getWorlds() {
+        if (storage != null) {
+            for (String worldName : new ArrayList<>(storage.getPendingWorlds())) {
+                getWorld(worldName);
+            }
+        }
+        return this.worlds.values();
+    }
+
+    /**
+     * Gets a collection of worlds on which path data is loaded. Worlds of which
+     * path data is stored, but which have not been used yet, are not included.
+     *
+     * @return loaded worlds
+     */
+    public Collection<PathWorld> getLoadedWorlds() {
         return this.worlds.values();
     }
 
@@ -326,7 +407,27 @@ public class PathProvider extends Task implements TrainCarts.Provider {
      * @return PathWorld instance for the world with worldName
      */
     public PathWorld getWorld(String worldName) {
-        return this.worlds.computeIfAbsent(worldName, name -> new PathWorld(this, name));
+        PathWorld world = this.worlds.get(worldName);
+        if (world == null) {
+            world = new PathWorld(this, worldName);
+            this.worlds.put(worldName, world);
+            if (storage != null) {
+                loadWorld(world);
+            }
+        }
+        return world;
+    }
+
+    private void loadWorld(PathWorld world) {
+        boolean wasLoadingNodes = isLoadingNodes;
+        isLoadingNodes = true;
+        try {
+            storage.loadWorld(world);
+        } catch (IOException ex) {
+            getTrainCarts().getLogger().log(Level.SEVERE, "Failed to load path finding nodes of world " + world.getName(), ex);
+        } finally {
+            isLoadingNodes = wasLoadingNodes;
+        }
     }
 
     /**
@@ -343,15 +444,21 @@ public class PathProvider extends Task implements TrainCarts.Provider {
      * Clears all node information on all worlds
      */
     public void clearAll() {
-        for (PathWorld world : getWorlds()) {
+        if (storage != null) {
+            storage.clearPending();
+        }
+        for (PathWorld world : this.worlds.values()) {
             world.clearAll();
         }
+        isFullSaveRequired = true;
+        hasChanges = true;
     }
 
     /**
      * Starts rerouting all nodes on all worlds
      */
     public void reroute() {
+        this.isReroutingAll = true;
         for (PathWorld world : getWorlds()) {
             world.rerouteAll();
         }
@@ -365,7 +472,10 @@ public class PathProvider extends Task implements TrainCarts.Provider {
         this.pendingDiscovery.clear();
         this.pendingNodes.clear();
         this.pendingOperations.clear();
+        this.pendingJunctions.clear();
+        this.pendingFoundNodes.clear();
         this.scheduledNodesSinceIdle.clear();
+        this.isReroutingAll = false;
     }
 
     /**
@@ -375,6 +485,16 @@ public class PathProvider extends Task implements TrainCarts.Provider {
         this.hasChanges = true;
     }
 
+    /**
+     * Gets whether path finding nodes are currently being loaded from file.
+     * Changes made while loading do not have to be saved again.
+     *
+     * @return True if loading nodes
+     */
+    protected boolean isLoadingNodes() {
+        return this.isLoadingNodes;
+    }
+
     /**
      * Tells this Path Provider to start calculating all neighboring paths from the node specified
      *
@@ -408,6 +528,62 @@ public class PathProvider extends Task implements TrainCarts.Provider {
         }
     }
 
+    /**
+     * Schedules a single junction of a node to be walked again, replacing the connections
+     * of the node into that junction with what is found. Nodes found are not re-routed
+     * themselves. Is used when a node is added or removed somewhere along the junction.
+     *
+     * @param node Node whose junction to walk again
+     * @param junctionName Name of the junction to walk
+     */
+    public void rerouteJunction(PathNode node, String junctionName) {
+        pendingJunctions.computeIfAbsent(node, n -> new LinkedHashSet<>()).add(junctionName);
+    }
+
+    /**
+     * Schedules the junctions of a node found by walking from a newly added node to be
+     * walked again. Junctions that did not connect to any node before, such as a dead-end
+     * spur the new node was placed on, can now find the new node. Junctions connecting to
+     * other nodes might pass the new node. Only junctions that already connect to the new
+     * node are not walked again.
+     *
+     * @param foundNode Node that was found
+     * @param newNode The newly added node that found it
+     */
+    void rerouteFoundNode(PathNode foundNode, PathNode newNode) {
+        pendingFoundNodes.computeIfAbsent(foundNode, n -> new HashSet<>()).add(newNode);
+    }
+
+    /**
+     * Checks whether a junction of a node must be walked again, after the node was found
+     * by walking from one or more newly added nodes. This is the case unless the node
+     * already connects to one of the new nodes through the junction.
+     *
+     * @param node Node that was found
+     * @param junctionName Name of the junction of the node
+     * @param newNodes The newly added nodes that found the node
+     * @return True if the junction must be walked again
+     */
+    static boolean isJunctionAffectedByNewNodes(PathNode node, String junctionName, Set<PathNode> newNodes) {
+        for (PathConnection connection : node.getNeighbours()) {
+            if (connection.junctionName.equals(junctionName) && newNodes.contains(connection.destination)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of nodes and junctions that were walked again by the last completed
+     * incremental re-routing. Incremental re-routing is performed when a single node
+     * is added or removed, and no full re-route is in progress.
+     *
+     * @return incremental re-routing statistics
+     */
+    public IncrementalRerouteStatistics getLastIncrementalRerouteStatistics() {
+        return lastIncrementalStatistics;
+    }
+
     /**
      * Tells this Path Provider to schedule new destination and switcher sign discovery, starting at a particular
      * rails block. This rail location must have signs that switch or declare a destination, otherwise
@@ -438,7 +614,8 @@ public class PathProvider extends Task implements TrainCarts.Provider {
      * @return True if processing is being performed, False if not
      */
     public boolean isProcessing() {
-        return !pendingDiscovery.isEmpty() || !pendingOperations.isEmpty() || !pendingNodes.isEmpty();
+        return !pendingDiscovery.isEmpty() || !pendingOperations.isEmpty() || !pendingNodes.isEmpty()
+                || !pendingJunctions.isEmpty() || !pendingFoundNodes.isEmpty();
     }
 
     @Override
@@ -456,6 +633,18 @@ public class PathProvider extends Task implements TrainCarts.Provider {
 
     @Override
     public void run() {
+        // Important: rail information cached while walking the track must be removed again afterwards,
+        // or we risk running out of memory. Only remove what was newly cached, so that the rail
+        // information of trains elsewhere on the server does not have to be re-calculated.
+        RailLookup.beginTemporaryAccess();
+        try {
+            runRouting();
+        } finally {
+            RailLookup.endTemporaryAccess();
+        }
+    }
+
+    private void runRouting() {
         if (this.pendingOperations.isEmpty() && !this.pendingDiscovery.isEmpty()) {
             addNewlyDiscovered();
         }
@@ -464,6 +653,21 @@ public class PathProvider extends Task implements TrainCarts.Provider {
         }
         if (this.pendingOperations.isEmpty()) {
             this.scheduledNodesSinceIdle.clear();
+            if (this.pendingDiscovery.isEmpty()) {
+                this.isReroutingAll = false;
+            }
+            if (!this.incrementalNodesRevisited.isEmpty()) {
+                this.lastIncrementalStatistics = new IncrementalRerouteStatistics(
+                        this.incrementalNodesRevisited.size(), this.incrementalJunctionsRevisited);
+                this.incrementalNodesRevisited.clear();
+                this.incrementalJunctionsRevisited = 0;
+                if (DEBUG_MODE) {
+                    getTrainCarts().log(Level.INFO, "INCREMENTAL REROUTE REVISITED " + this.lastIncrementalStatistics);
+                }
+            }
+            for (PathWorld world : this.worlds.values()) {
+                world.updateNextHopTable();
+            }
             {
                 List<CommandSender> senders = new ArrayList<>(this.sendersToNotifyOfCompletion);
                 this.sendersToNotifyOfCompletion.clear();
@@ -499,10 +703,6 @@ public class PathProvider extends Task implements TrainCarts.Provider {
                 break; // Ran out of time
             }
         }
-
-        // Important: wipe any rail and sign caches we have polluted with temporary block data
-        // This will momentarily cause the plugin to run slower, but we must do this or risk out of memory!
-        RailLookup.forceRecalculation();
     }
 
     // Discovers new switchers and destination signs. Stops upon the first new node found.
@@ -540,60 +740,126 @@ public class PathProvider extends Task implements TrainCarts.Provider {
         } while ((System.currentTimeMillis() - startTime) <= this.maxProcessingPerTick);
     }
 
-    private void addPendingNodes() {
+    /**
+     * Schedules path finding operations for all nodes and junctions that were
+     * scheduled to be walked (again) since the last time this was called.
+     */
+    void addPendingNodes() {
         if (!this.pendingNodes.isEmpty()) {
+            OperationMode mode = this.isReroutingAll ? OperationMode.FULL : OperationMode.INCREMENTAL_NODE;
             for (PathNode node : this.pendingNodes) {
-                Block startRail = node.location.getBlock();
-                RailType startType = RailType.getType(startRail);
-                if (startType == RailType.NONE) {
-                    // Track type can not be identified
-                    continue;
+                scheduleJunctions(node, null, null, mode);
+            }
+            this.pendingNodes.clear();
+        }
+        if (!this.pendingJunctions.isEmpty()) {
+            for (Map.Entry<PathNode, Set<String>> entry : this.pendingJunctions.entrySet()) {
+                PathNode node = entry.getKey();
+                if (node.getWorld().getNodeAtRail(node.location) == node) {
+                    scheduleJunctions(node, entry.getValue(), null, OperationMode.INCREMENTAL_JUNCTION);
                 }
-                if (node.containsSwitcher()) {
-                    if (DEBUG_MODE) {
-                        getTrainCarts().log(Level.INFO, "NODE " + node.getDisplayName() + " CONTAINS A SWITCHER, BRANCHING OFF");
-                    }
-
-                    // Check north-east-south-west for possible routes
-                    // Skip PAST the switcher sign rails, to avoid problems
-                    for (RailJunction junc : startType.getJunctions(startRail)) {
-                        RailState state = startType.takeJunction(startRail, junc);
-                        if (state != null) {
-                            scheduleNode(node, state, junc);
+            }
+            this.pendingJunctions.clear();
+        }
+        if (!this.pendingFoundNodes.isEmpty()) {
+            for (Map.Entry<PathNode, Set<PathNode>> entry : this.pendingFoundNodes.entrySet()) {
+                PathNode node = entry.getKey();
+                if (node.getWorld().getNodeAtRail(node.location) == node) {
+                    Set<String> excludedNames = new HashSet<>();
+                    for (PathConnection connection : node.getNeighbours()) {
+                        if (!isJunctionAffectedByNewNodes(node, connection.junctionName, entry.getValue())) {
+                            excludedNames.add(connection.junctionName);
                         }
                     }
-                } else {
-                    // Only check available routes
-                    RailState state1 = new RailState();
-                    state1.setRailPiece(RailPiece.create(startType, startRail));
-                    state1.position().setLocation(startType.getSpawnLocation(startRail, BlockFace.NORTH));
-                    if (!RailType.loadRailInformation(state1)) {
-                        continue;
-                    }
+                    scheduleJunctions(node, null, excludedNames, OperationMode.INCREMENTAL_JUNCTION);
+                }
+            }
+            this.pendingFoundNodes.clear();
+        }
+    }
 
-                    // Snap onto rails
-                    state1.loadRailLogic().getPath().snap(state1.position(), state1.railBlock());
-
-                    // Find junctions
-                    Block railBlock = state1.railBlock();
-                    List<RailJunction> junctions = state1.railPiece().getJunctions();
-                    if (!junctions.isEmpty()) {
-                        // Create opposite direction state
-                        RailState state2 = state1.clone();
-                        state2.position().invertMotion();
-                        state2.initEnterDirection();
-
-                        // Walk both states to the end of the path
-                        state1.loadRailLogic().getPath().move(state1, Double.MAX_VALUE);
-                        state2.loadRailLogic().getPath().move(state2, Double.MAX_VALUE);
-
-                        // Schedule the junctions of the rails matching these positions
-                        scheduleNode(node, state1, findBestJunction(junctions, railBlock, state1.position()));
-                        scheduleNode(node, state2, findBestJunction(junctions, railBlock, state2.position()));
-                    }
+    /**
+     * Schedules path finding operations from a node into all, or some, of its junctions
+     *
+     * @param node Node to walk from
+     * @param junctionNames Names of the junctions to walk, null to walk all of them
+     * @param excludedNames Names of the junctions not to walk, null to exclude none
+     * @param mode Mode of the operations to schedule
+     */
+    void scheduleJunctions(PathNode node, Set<String> junctionNames, Set<String> excludedNames, OperationMode mode) {
+        Set<String> scheduledNames = new HashSet<>();
+        scheduleJunctions(node, junctionNames, excludedNames, mode, scheduledNames);
+
+        // Connections into junctions that could not be walked again no longer exist
+        if (mode == OperationMode.INCREMENTAL_JUNCTION) {
+            Set<String> walkedNames = junctionNames;
+            if (walkedNames == null) {
+                walkedNames = new HashSet<>();
+                for (PathConnection connection : node.getNeighbours()) {
+                    walkedNames.add(connection.junctionName);
+                }
+            }
+            for (String junctionName : walkedNames) {
+                if (!scheduledNames.contains(junctionName)
+                        && (excludedNames == null || !excludedNames.contains(junctionName))
+                ) {
+                    node.replaceNeighbours(junctionName, null, 0.0);
                 }
             }
-            this.pendingNodes.clear();
+        }
+    }
+
+    private void scheduleJunctions(PathNode node, Set<String> junctionNames, Set<String> excludedNames,
+                                   OperationMode mode, Set<String> scheduledNames
+    ) {
+        Block startRail = node.location.getBlock();
+        RailType startType = RailType.getType(startRail);
+        if (startType == RailType.NONE) {
+            // Track type can not be identified
+            return;
+        }
+        if (node.containsSwitcher()) {
+            if (DEBUG_MODE) {
+                getTrainCarts().log(Level.INFO, "NODE " + node.getDisplayName() + " CONTAINS A SWITCHER, BRANCHING OFF");
+            }
+
+            // Check north-east-south-west for possible routes
+            // Skip PAST the switcher sign rails, to avoid problems
+            for (RailJunction junc : startType.getJunctions(startRail)) {
+                RailState state = startType.takeJunction(startRail, junc);
+                if (state != null) {
+                    scheduleNode(node, state, junc, junctionNames, excludedNames, mode, scheduledNames);
+                }
+            }
+        } else {
+            // Only check available routes
+            RailState state1 = new RailState();
+            state1.setRailPiece(RailPiece.create(startType, startRail));
+            state1.position().setLocation(startType.getSpawnLocation(startRail, BlockFace.NORTH));
+            if (!RailType.loadRailInformation(state1)) {
+                return;
+            }
+
+            // Snap onto rails
+            state1.loadRailLogic().getPath().snap(state1.position(), state1.railBlock());
+
+            // Find junctions
+            Block railBlock = state1.railBlock();
+            List<RailJunction> junctions = state1.railPiece().getJunctions();
+            if (!junctions.isEmpty()) {
+                // Create opposite direction state
+                RailState state2 = state1.clone();
+                state2.position().invertMotion();
+                state2.initEnterDirection();
+
+                // Walk both states to the end of the path
+                state1.loadRailLogic().getPath().move(state1, Double.MAX_VALUE);
+                state2.loadRailLogic().getPath().move(state2, Double.MAX_VALUE);
+
+                // Schedule the junctions of the rails matching these positions
+                scheduleNode(node, state1, findBestJunction(junctions, railBlock, state1.position()), junctionNames, excludedNames, mode, scheduledNames);
+                scheduleNode(node, state2, findBestJunction(junctions, railBlock, state2.position()), junctionNames, excludedNames, mode, scheduledNames);
+            }
         }
     }
 
@@ -613,24 +879,55 @@ public class PathProvider extends Task implements TrainCarts.Provider {
         return best;
     }
 
-    private void scheduleNode(PathNode node, RailState state, RailJunction junction) {
+    private void scheduleNode(PathNode node, RailState state, RailJunction junction,
+                              Set<String> junctionNames, Set<String> excludedNames,
+                              OperationMode mode, Set<String> scheduledNames
+    ) {
+        if (junctionNames != null && !junctionNames.contains(junction.name())) {
+            return;
+        }
+        if (excludedNames != null && excludedNames.contains(junction.name())) {
+            return;
+        }
         if (!state.railPiece().offlineWorld().isLoaded()) {
             return;
         }
-        pendingOperations.offer(new PathFindOperation(this, node, state, junction));
+        scheduledNames.add(junction.name());
+        if (mode != OperationMode.FULL) {
+            incrementalNodesRevisited.add(node);
+            incrementalJunctionsRevisited++;
+        }
+        pendingOperations.offer(new PathFindOperation(this, node, state, junction, mode));
+    }
+
+    /**
+     * The way the results of a path find operation are processed
+     */
+    static enum OperationMode {
+        /** Found nodes are connected, and re-routed themselves if not already done recently */
+        FULL,
+        /**
+         * Found nodes are connected. The junctions of the found nodes are walked again,
+         * as they might now find the start node, instead of a node beyond it or none at all.
+         */
+        INCREMENTAL_NODE,
+        /** The found node replaces the connections of the start node into the junction */
+        INCREMENTAL_JUNCTION
     }
 
     private static class PathFindOperation {
         private final TrackWalkingPoint p;
         private final PathNode startNode;
         private final String junctionName;
+        private final OperationMode mode;
         private final PathRoutingHandler.PathRouteEvent routeEvent; // re-used
 
-        public PathFindOperation(PathProvider provider, PathNode startNode, RailState state, RailJunction junction) {
+        public PathFindOperation(PathProvider provider, PathNode startNode, RailState state, RailJunction junction, OperationMode mode) {
             this.p = new TrackWalkingPoint(state);
             this.p.setLoopFilter(true);
             this.junctionName = junction.name();
             this.startNode = startNode;
+            this.mode = mode;
             this.routeEvent = new PathRoutingHandler.PathRouteEvent(provider, state.railWorld());
 
             // Include distance from spawn position of rails, to the junction start
@@ -652,6 +949,9 @@ public class PathProvider extends Task implements TrainCarts.Provider {
                 return true; // Abort. World not available.
             }
             if (!this.p.moveFull()) {
+                if (this.mode == OperationMode.INCREMENTAL_JUNCTION) {
+                    this.startNode.replaceNeighbours(this.junctionName, null, 0.0);
+                }
                 return true;
             }
 
@@ -673,7 +973,16 @@ public class PathProvider extends Task implements TrainCarts.Provider {
                 }
 
                 // Add neighbour
-                this.startNode.addNeighbour(foundNode, totalDistance, this.getJunctionName());
+                if (this.mode == OperationMode.FULL) {
+                    this.startNode.addNeighbour(foundNode, totalDistance, this.getJunctionName());
+                } else if (this.mode == OperationMode.INCREMENTAL_NODE) {
+                    this.startNode.addNeighbour(foundNode, totalDistance, this.getJunctionName(), false);
+
+                    // Junctions of the found node that dead-ended or lead past the start node must now find the start node
+                    routeEvent.provider().rerouteFoundNode(foundNode, this.startNode);
+                } else {
+                    this.startNode.replaceNeighbours(this.getJunctionName(), foundNode, totalDistance);
+                }
                 if (DEBUG_MODE) {
                     routeEvent.provider().getTrainCarts().log(Level.INFO, "MADE CONNECTION FROM " +
                             startNode.getDisplayName() + " TO " + foundNode.getDisplayName());
@@ -683,6 +992,9 @@ public class PathProvider extends Task implements TrainCarts.Provider {
 
             // If route blocked, finish routing here
             if (routeEvent.isBlocked()) {
+                if (this.mode == OperationMode.INCREMENTAL_JUNCTION) {
+                    this.startNode.replaceNeighbours(this.junctionName, null, 0.0);
+                }
                 return true;
             }
 
@@ -711,4 +1023,25 @@ public class PathProvider extends Task implements TrainCarts.Provider {
             return  PathRailInfo.NONE;
         }
     }
+
+    /**
+     * The number of nodes and junctions that were walked again by incremental re-routing
+     */
+    public static final class IncrementalRerouteStatistics {
+        public static final IncrementalRerouteStatistics NONE = new IncrementalRerouteStatistics(0, 0);
+        /** Number of distinct nodes of which one or more junctions were walked */
+        public final int nodes;
+        /** Number of junctions walked, each producing at most one connection (edge) */
+        public final int edges;
+
+        public IncrementalRerouteStatistics(int nodes, int edges) {
+            this.nodes = nodes;
+            this.edges = edges;
+        }
+
+        @Override
+        public String toString() {
+            return nodes + " nodes, " + edges + " edges";
+        }
+    }
 }
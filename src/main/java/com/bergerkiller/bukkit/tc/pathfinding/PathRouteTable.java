@@ -0,0 +1,228 @@
+package com.bergerkiller.bukkit.tc.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Stores the shortest route from every node of a {@link PathWorld} towards a single
+ * destination node. The table is filled in one pass using Dijkstra's algorithm over
+ * the reversed connection graph, starting at the destination. Every node that can reach
+ * the destination stores the total distance and the first connection to take.<br>
+ * <br>
+ * Tables are owned by the PathWorld and are dropped when a change to the graph could
+ * alter the routes stored inside. See {@link #isAffectedByNewConnection(PathNode, PathConnection)},
+ * {@link #isAffectedByRemovedConnection(PathNode, PathConnection)} and {@link #isAffectedByRemovedNode(PathNode)}.
+ */
+final class PathRouteTable {
+    private final PathNode destination;
+    private final Map<PathNode, Route> routes;
+
+    private PathRouteTable(PathNode destination, Map<PathNode, Route> routes) {
+        this.destination = destination;
+        this.routes = routes;
+    }
+
+    /**
+     * Gets the destination node all routes in this table lead to
+     *
+     * @return destination
+     */
+    public PathNode getDestination() {
+        return destination;
+    }
+
+    /**
+     * Gets the number of nodes that can reach the destination, including the
+     * destination itself
+     *
+     * @return reachable node count
+     */
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * Gets the route from a node to the destination of this table
+     *
+     * @param node Start node
+     * @return route, or null if the destination can not be reached from the node
+     */
+    public Route get(PathNode node) {
+        return routes.get(node);
+    }
+
+    /**
+     * Gets the total distance from a node to the destination of this table
+     *
+     * @param node Start node
+     * @return distance, or Double.MAX_VALUE if the destination can not be reached
+     */
+    public double getDistance(PathNode node) {
+        Route route = routes.get(node);
+        return (route == null) ? Double.MAX_VALUE : route.distance;
+    }
+
+    /**
+     * Gets all the connections to take to go from a node to the destination
+     *
+     * @param node Start node
+     * @return connections in order, or an empty list if not reachable or node is the destination
+     */
+    public List<PathConnection> getRoute(PathNode node) {
+        Route route = routes.get(node);
+        if (route == null || route.connection == null) {
+            return Collections.emptyList();
+        }
+        List<PathConnection> result = new ArrayList<>();
+        while (route != null && route.connection != null) {
+            result.add(route.connection);
+            route = routes.get(route.connection.destination);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether a newly added connection could produce a shorter route than
+     * is stored in this table. If so, this table is outdated.
+     *
+     * @param from Node the connection was added to
+     * @param connection The connection that was added
+     * @return True if this table is affected by the new connection
+     */
+    public boolean isAffectedByNewConnection(PathNode from, PathConnection connection) {
+        Route next = routes.get(connection.destination);
+        return next != null && (next.distance + connection.distance) < getDistance(from);
+    }
+
+    /**
+     * Checks whether removing a single connection changes routes stored in this table.
+     * This is only the case if the route from the node uses the connection.
+     *
+     * @param from Node the connection was removed from
+     * @param connection The connection that was removed
+     * @return True if this table is affected by the removal
+     */
+    public boolean isAffectedByRemovedConnection(PathNode from, PathConnection connection) {
+        Route route = routes.get(from);
+        return route != null && route.connection == connection;
+    }
+
+    /**
+     * Checks whether removing all connections from and to a node changes routes
+     * stored in this table. Only when the node can reach the destination can it be part
+     * of a stored route, or its own route be removed.
+     *
+     * @param node Node whose connections were removed
+     * @return True if this table is affected by the removal
+     */
+    public boolean isAffectedByRemovedNode(PathNode node) {
+        return routes.containsKey(node);
+    }
+
+    /**
+     * Computes the route table towards a destination
+     *
+     * @param destination Destination node
+     * @param reverseConnections All connections in the world, mapped by the destination node
+     *                           of the connection. See {@link #computeReverseConnections(Collection)}
+     * @return route table
+     */
+    public static PathRouteTable compute(PathNode destination, Map<PathNode, List<ReverseConnection>> reverseConnections) {
+        Map<PathNode, Route> routes = new IdentityHashMap<>();
+        PriorityQueue<QueuedRoute> queue = new PriorityQueue<>();
+        routes.put(destination, new Route(null, 0.0));
+        queue.add(new QueuedRoute(destination, 0.0));
+
+        QueuedRoute current;
+        while ((current = queue.poll()) != null) {
+            Route currentRoute = routes.get(current.node);
+            if (currentRoute.distance < current.distance) {
+                continue; // Outdated entry, a shorter route was found after queueing
+            }
+
+            List<ReverseConnection> incoming = reverseConnections.get(current.node);
+            if (incoming == null) {
+                continue;
+            }
+            for (ReverseConnection rev : incoming) {
+                double distance = current.distance + rev.connection.distance;
+                Route existing = routes.get(rev.from);
+                if (existing == null || distance < existing.distance) {
+                    routes.put(rev.from, new Route(rev.connection, distance));
+                    queue.add(new QueuedRoute(rev.from, distance));
+                }
+            }
+        }
+
+        return new PathRouteTable(destination, routes);
+    }
+
+    /**
+     * Maps all the connections of the nodes specified by the node they connect to
+     *
+     * @param nodes All nodes
+     * @return reverse connection mapping
+     */
+    public static Map<PathNode, List<ReverseConnection>> computeReverseConnections(Collection<PathNode> nodes) {
+        Map<PathNode, List<ReverseConnection>> result = new IdentityHashMap<>(nodes.size());
+        for (PathNode node : nodes) {
+            for (PathConnection connection : node.getNeighbours()) {
+                List<ReverseConnection> list = result.get(connection.destination);
+                if (list == null) {
+                    list = new ArrayList<>(3);
+                    result.put(connection.destination, list);
+                }
+                list.add(new ReverseConnection(node, connection));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The route from a node to the destination of the table
+     */
+    public static final class Route {
+        /** First connection to take. Null if the node is the destination itself. */
+        public final PathConnection connection;
+        /** Total distance to the destination */
+        public final double distance;
+
+        public Route(PathConnection connection, double distance) {
+            this.connection = connection;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * A connection, together with the node it is a connection of
+     */
+    public static final class ReverseConnection {
+        public final PathNode from;
+        public final PathConnection connection;
+
+        public ReverseConnection(PathNode from, PathConnection connection) {
+            this.from = from;
+            this.connection = connection;
+        }
+    }
+
+    private static final class QueuedRoute implements Comparable<QueuedRoute> {
+        public final PathNode node;
+        public final double distance;
+
+        public QueuedRoute(PathNode node, double distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(QueuedRoute o) {
+            return Double.compare(this.distance, o.distance);
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package com.bergerkiller.bukkit.tc.pathfinding;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
 
 import org.bukkit.block.Block;
 
+import com.bergerkiller.bukkit.common.AsyncTask;
 import com.bergerkiller.bukkit.common.BlockLocation;
 import com.bergerkiller.bukkit.common.collections.BlockMap;
+import com.bergerkiller.bukkit.common.utils.CommonUtil;
+import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 
 /**
@@ -19,19 +29,87 @@ public class PathWorld implements TrainCarts.Provider {
     private final String _name;
     private final BlockMap<PathNode> _blockNodes;
     private final Map<String, PathNode> _nodes;
-    private final Map<PathFromToKey, PathSearchResult> _cachedSearchResults;
+    private final Map<PathNode, PathRouteTable> _routeTables;
+    private Map<PathNode, List<PathRouteTable.ReverseConnection>> _reverseConnections;
+    private int _graphVersion;
+    private volatile PathNextHopTable _nextHopTable;
+    private CompletableFuture<Void> _nextHopTableBuild;
+    private final Set<PathNode> _changedNodes;
+    private boolean _fullSaveRequired;
+
+    /** Maximum number of destinations for which route tables are kept at one time */
+    private static final int MAX_ROUTE_TABLES = 128;
 
     public PathWorld(PathProvider provider, String worldName) {
         _provider = provider;
         _name = worldName;
         _blockNodes = new BlockMap<>();
         _nodes = new HashMap<>();
-        _cachedSearchResults = new HashMap<>();
+        _routeTables = new LinkedHashMap<PathNode, PathRouteTable>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PathNode, PathRouteTable> eldest) {
+                return size() > MAX_ROUTE_TABLES;
+            }
+        };
+        _reverseConnections = null;
+        _graphVersion = 0;
+        _nextHopTable = null;
+        _nextHopTableBuild = null;
+        _changedNodes = new LinkedHashSet<>();
+        _fullSaveRequired = false;
+    }
+
+    /**
+     * Marks a single node as changed, so that it is written to the journal next save
+     *
+     * @param node Node that changed
+     */
+    protected void markChanged(PathNode node) {
+        _graphVersion++;
+        if (!_provider.isLoadingNodes()) {
+            _changedNodes.add(node);
+            _provider.markChanged();
+        }
     }
 
-    protected void markChanged() {
-        _cachedSearchResults.clear();
-        _provider.markChanged();
+    /**
+     * Marks all nodes of this world as changed. The next save will rewrite all
+     * path finding information, rather than writing the changed nodes to the journal.
+     */
+    protected void markAllChanged() {
+        _graphVersion++;
+        if (!_provider.isLoadingNodes()) {
+            _changedNodes.clear();
+            _fullSaveRequired = true;
+            _provider.markChanged();
+        }
+    }
+
+    /**
+     * Gets whether all nodes of this world must be written out again
+     *
+     * @return True if a full save is required
+     */
+    protected boolean isFullSaveRequired() {
+        return _fullSaveRequired;
+    }
+
+    /**
+     * Gets all the nodes that changed since the last time this method was called,
+     * and resets the changes. Nodes that have since been removed are included.
+     *
+     * @return changed nodes
+     */
+    protected List<PathNode> takeChangedNodes() {
+        _fullSaveRequired = false;
+        if (_changedNodes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<PathNode> result = new ArrayList<>(_changedNodes);
+        _changedNodes.clear();
+        return result;
     }
 
     @Override
@@ -96,7 +174,24 @@ public class PathWorld implements TrainCarts.Provider {
         PathNode node = new PathNode(this, location);
         addToMapping(node);
         _provider.scheduleNode(node);
-        markChanged();
+        markChanged(node);
+        return node;
+    }
+
+    /**
+     * Gets the node at a rail location, creating it if it does not exist yet.
+     * Unlike {@link #getOrCreateAtRail(BlockLocation)} this does not schedule the
+     * node for routing. Used when loading the nodes from file.
+     *
+     * @param location Rail block location
+     * @return node at this location
+     */
+    protected PathNode getOrLoadNode(BlockLocation location) {
+        PathNode node = getNodeAtRail(location);
+        if (node == null) {
+            node = new PathNode(this, location);
+            addToMapping(node);
+        }
         return node;
     }
 
@@ -105,24 +200,25 @@ public class PathWorld implements TrainCarts.Provider {
             _provider.discoverFromRail(location);
         }
         clearAll();
-        markChanged();
+        markAllChanged();
     }
 
     public void clearAll() {
         _nodes.clear();
         _blockNodes.clear();
-        markChanged();
+        invalidateRouteTables();
+        markAllChanged();
     }
 
     protected void addNodeName(PathNode node, String name) {
         _nodes.put(name, node);
-        markChanged();
+        markChanged(node);
     }
 
     protected void removeNodeName(PathNode node, String name) {
         PathNode removed = _nodes.remove(name);
         if (removed == node) {
-            markChanged();
+            markChanged(node);
         } else if (removed != null) {
             _nodes.put(name, removed); // restore
         }
@@ -134,7 +230,7 @@ public class PathWorld implements TrainCarts.Provider {
         }
         _blockNodes.put(node.location, node);
         _nodes.put(node.location.toString(), node);
-        markChanged();
+        markChanged(node);
     }
 
     protected void removeFromMapping(PathNode node) {
@@ -144,42 +240,132 @@ public class PathWorld implements TrainCarts.Provider {
                 _nodes.put(name, removed); // restore
             }
         }
+        _routeTables.remove(node);
         PathNode removed = _blockNodes.remove(node.location);
         if (removed != null && removed != node) {
             _blockNodes.put(node.location, removed); // restore
         } else if (removed != null) {
             _nodes.remove(node.location.toString());
         }
-        markChanged();
+        markChanged(node);
     }
 
-    protected PathSearchResult findCachedSearchResult(PathNode node, PathNode destination) {
-        return _cachedSearchResults.getOrDefault(new PathFromToKey(node, destination),
-                PathSearchResult.DUMMY_NOT_FOUND);
+    /**
+     * Gets the table of shortest routes from all nodes towards a destination node.
+     * If not already available, it is computed.
+     *
+     * @param destination Destination node
+     * @return route table
+     */
+    protected PathRouteTable getRouteTable(PathNode destination) {
+        PathRouteTable table = _routeTables.get(destination);
+        if (table == null) {
+            if (_reverseConnections == null) {
+                _reverseConnections = PathRouteTable.computeReverseConnections(getNodes());
+            }
+            table = PathRouteTable.compute(destination, _reverseConnections);
+            _routeTables.put(destination, table);
+        }
+        return table;
     }
 
-    protected void cacheSearchResult(PathSearchResult result) {
-        _cachedSearchResults.put(new PathFromToKey(result.node, result.destination), result);
+    /**
+     * Called after a connection was added to a node. Drops only the route tables
+     * for which the new connection offers a shorter route.
+     *
+     * @param node Node the connection was added to
+     * @param connection Connection that was added
+     */
+    protected void onConnectionAdded(PathNode node, PathConnection connection) {
+        _reverseConnections = null;
+        _routeTables.values().removeIf(table -> table.isAffectedByNewConnection(node, connection));
     }
 
-    private static final class PathFromToKey {
-        private final PathNode node;
-        private final PathNode destination;
+    /**
+     * Called after a single connection was removed from a node. Drops only the route
+     * tables that route through the connection.
+     *
+     * @param node Node the connection was removed from
+     * @param connection Connection that was removed
+     */
+    protected void onConnectionRemoved(PathNode node, PathConnection connection) {
+        _reverseConnections = null;
+        _routeTables.values().removeIf(table -> table.isAffectedByRemovedConnection(node, connection));
+    }
 
-        public PathFromToKey(PathNode node, PathNode destination) {
-            this.node = node;
-            this.destination = destination;
-        }
+    /**
+     * Called before or after all connections from and to a node are removed.
+     * Drops only the route tables that include a route through the node.
+     *
+     * @param node Node whose connections are removed
+     */
+    protected void onConnectionsRemoved(PathNode node) {
+        _reverseConnections = null;
+        _routeTables.values().removeIf(table -> table.isAffectedByRemovedNode(node));
+    }
 
-        @Override
-        public int hashCode() {
-            return node.hashCode() + 31 * destination.hashCode();
+    /**
+     * Drops all route tables, forcing them to be re-computed when next needed
+     */
+    protected void invalidateRouteTables() {
+        _graphVersion++;
+        _reverseConnections = null;
+        _routeTables.clear();
+    }
+
+    /**
+     * Gets the next-hop routing table of this world, if enabled and up to date
+     * with the current graph of nodes.
+     *
+     * @return next-hop table, or null if not available
+     */
+    protected PathNextHopTable getNextHopTable() {
+        PathNextHopTable table = _nextHopTable;
+        return (table != null && table.getGraphVersion() == _graphVersion) ? table : null;
+    }
+
+    /**
+     * Starts rebuilding the next-hop routing table of this world in the background, if
+     * enabled and the graph changed since the current table was built. Once built, the new
+     * table replaces the old one in a single step. Should be called by the path provider
+     * when it is done routing, so that no half-routed graph is used.
+     */
+    protected void updateNextHopTable() {
+        if (!TCConfig.pathFindingRoutingTable) {
+            _nextHopTable = null;
+            return;
         }
 
-        @Override
-        public boolean equals(Object o) {
-            PathFromToKey other = (PathFromToKey) o;
-            return node == other.node && destination == other.destination;
+        PathNextHopTable current = _nextHopTable;
+        if (current != null && current.getGraphVersion() == _graphVersion) {
+            return; // Up to date
+        }
+        if (_nextHopTableBuild != null && !_nextHopTableBuild.isDone()) {
+            return; // Wait for the previous build to finish, which rebuilds if still outdated
         }
+
+        final PathNextHopTable table = PathNextHopTable.snapshot(getNodes(), _graphVersion);
+        _nextHopTableBuild = CompletableFuture.runAsync(() -> {
+            _nextHopTable = table.build();
+
+            // If the graph changed while building, the table is outdated already
+            // Rebuild it on the main thread, unless routing is busy and will do so once done
+            CommonUtil.nextTick(() -> {
+                if (table.getGraphVersion() != _graphVersion && !_provider.isProcessing()) {
+                    updateNextHopTable();
+                }
+            });
+        }, runnable -> {
+            AsyncTask task = new AsyncTask("TrainCarts-PathRoutingTableBuilder") {
+                @Override
+                public void run() {
+                    runnable.run();
+                }
+            };
+            task.start();
+        }).exceptionally(t -> {
+            getTrainCarts().getLogger().log(Level.SEVERE, "Failed to build routing table of world " + _name, t);
+            return null;
+        });
     }
 }
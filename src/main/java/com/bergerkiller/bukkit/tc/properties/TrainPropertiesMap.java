@@ -3,22 +3,35 @@ package com.bergerkiller.bukkit.tc.properties;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
 
 import com.bergerkiller.bukkit.common.utils.StringUtil;
 
 /**
  * Stores the train properties mapped by train name. Also stores a relaxed-name mapping
- * where all train names are lower-cased without style characters, as a backup.
+ * where all train names are lower-cased without style characters, as a backup.<br>
+ * <br>
+ * To speed up wildcard name matching, the train names are indexed by the trigrams
+ * (three-character sequences) they contain. Names that include chat style characters
+ * are not indexed, but are always returned as candidates, as these can be matched
+ * with the style characters stripped.
  */
 class TrainPropertiesMap {
-    private Map<String, TrainProperties> trainProperties = new TreeMap<>();
+    private NavigableMap<String, TrainProperties> trainProperties = new TreeMap<>();
     // This makes the train names all-lowercase and without chat style characters
     // It allows for people to select trains by a mixed-case or styled name
     private Map<String, List<TrainProperties>> trainPropertiesRelaxed = new TreeMap<>();
+    // Train names containing chat style characters, which are not trigram-indexed
+    private Map<String, TrainProperties> trainPropertiesStyled = new HashMap<>();
+    // Maps every trigram to the names of the trains that contain it
+    private Map<String, Set<String>> trigramIndex = new HashMap<>();
 
     public Collection<TrainProperties> values() {
         return Collections.unmodifiableCollection(trainProperties.values());
@@ -37,13 +50,81 @@ class TrainPropertiesMap {
         return trainProperties.containsKey(trainName);
     }
 
+    /**
+     * Finds the train properties whose train name might match a wildcard expression.
+     * The results must still be checked using {@link TrainProperties#matchName(String[], boolean, boolean)}
+     * or a similar matcher, as this only returns the candidates found using the name index.
+     * Candidates are returned sorted by train name.
+     *
+     * @param elements Expression elements, the text between the * wildcards
+     * @param firstAny Whether the expression starts with a wildcard
+     * @param lastAny Whether the expression ends with a wildcard
+     * @return candidate train properties
+     */
+    public Collection<TrainProperties> findNameCandidates(String[] elements, boolean firstAny, boolean lastAny) {
+        // Without a leading wildcard the name must start with the first element
+        if (!firstAny && elements.length > 0 && !elements[0].isEmpty()) {
+            String prefix = elements[0];
+            Collection<TrainProperties> result;
+            if (elements.length == 1) {
+                TrainProperties exact = trainProperties.get(prefix);
+                result = (exact == null) ? Collections.emptyList() : Collections.singletonList(exact);
+            } else {
+                result = trainProperties.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+            }
+            return withStyledCandidates(result);
+        }
+
+        // Find the longest piece of text that must be contained in the name
+        String longest = "";
+        for (String element : elements) {
+            if (element.length() > longest.length()) {
+                longest = element;
+            }
+        }
+        if (longest.length() < 3) {
+            return values();
+        }
+
+        // Use the smallest set of names containing one of the trigrams of this text
+        Set<String> smallest = null;
+        for (int i = 0; i <= longest.length() - 3; i++) {
+            Set<String> names = trigramIndex.get(longest.substring(i, i + 3));
+            if (names == null) {
+                return withStyledCandidates(Collections.emptyList());
+            } else if (smallest == null || names.size() < smallest.size()) {
+                smallest = names;
+            }
+        }
+
+        TreeMap<String, TrainProperties> result = new TreeMap<>(trainPropertiesStyled);
+        for (String name : smallest) {
+            result.put(name, trainProperties.get(name));
+        }
+        return result.values();
+    }
+
+    private Collection<TrainProperties> withStyledCandidates(Collection<TrainProperties> candidates) {
+        if (trainPropertiesStyled.isEmpty()) {
+            return candidates;
+        }
+
+        TreeMap<String, TrainProperties> result = new TreeMap<>(trainPropertiesStyled);
+        for (TrainProperties properties : candidates) {
+            result.put(properties.getTrainName(), properties);
+        }
+        return result.values();
+    }
+
     public void add(String trainName, TrainProperties properties) {
         TrainProperties previous = trainProperties.put(trainName, properties);
         if (previous != null) {
             previous.removed = true;
             removeFromRelaxedMappings(trainName, previous);
+            removeFromNameIndex(trainName);
         }
         properties.removed = false;
+        addToNameIndex(trainName, properties);
 
         String relaxed = createRelaxedKey(trainName);
         List<TrainProperties> prevAtRelaxedKey = trainPropertiesRelaxed.put(relaxed,
@@ -60,6 +141,7 @@ class TrainPropertiesMap {
         if (properties != null) {
             properties.removed = true;
             removeFromRelaxedMappings(trainName, properties);
+            removeFromNameIndex(trainName);
         }
         return properties;
     }
@@ -68,6 +150,31 @@ class TrainPropertiesMap {
         trainProperties.values().forEach(p -> p.removed = true);
         trainProperties.clear();
         trainPropertiesRelaxed.clear();
+        trainPropertiesStyled.clear();
+        trigramIndex.clear();
+    }
+
+    private void addToNameIndex(String trainName, TrainProperties properties) {
+        if (!StringUtil.stripChatStyle(trainName).equals(trainName)) {
+            trainPropertiesStyled.put(trainName, properties);
+            return;
+        }
+        for (int i = 0; i <= trainName.length() - 3; i++) {
+            trigramIndex.computeIfAbsent(trainName.substring(i, i + 3), t -> new HashSet<>()).add(trainName);
+        }
+    }
+
+    private void removeFromNameIndex(String trainName) {
+        if (trainPropertiesStyled.remove(trainName) != null) {
+            return;
+        }
+        for (int i = 0; i <= trainName.length() - 3; i++) {
+            String trigram = trainName.substring(i, i + 3);
+            Set<String> names = trigramIndex.get(trigram);
+            if (names != null && names.remove(trainName) && names.isEmpty()) {
+                trigramIndex.remove(trigram);
+            }
+        }
     }
 
     private void removeFromRelaxedMappings(String trainName, TrainProperties properties) {
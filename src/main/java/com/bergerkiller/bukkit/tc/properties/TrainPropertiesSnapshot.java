@@ -0,0 +1,137 @@
+package com.bergerkiller.bukkit.tc.properties;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.bergerkiller.bukkit.common.config.ConfigurationNode;
+import com.bergerkiller.bukkit.common.config.yaml.YamlPath;
+
+/**
+ * Stores a copy of the configuration of all trains as of the last save, so that the
+ * train properties can be written to disk asynchronously. Tracks which trains changed
+ * since, so that only the configuration of those trains is copied again on the next save.
+ */
+class TrainPropertiesSnapshot {
+    // Names of trains whose configuration changed since the last save
+    private final Set<String> changedTrainNames = new HashSet<>();
+    private boolean allTrainsChanged = true;
+    // Set when writing to disk failed, and the copies have to be written again
+    private volatile boolean writeFailed = false;
+    private final Map<String, ConfigurationNode> trainConfigs = new LinkedHashMap<>();
+
+    /**
+     * Forgets all copies, so that the configuration of all trains is copied on the next save
+     */
+    public void reset() {
+        changedTrainNames.clear();
+        trainConfigs.clear();
+        allTrainsChanged = true;
+        writeFailed = false;
+    }
+
+    /**
+     * Marks the configuration of all trains as changed
+     */
+    public void markAllChanged() {
+        allTrainsChanged = true;
+    }
+
+    /**
+     * Marks the train whose configuration contains a changed path as changed
+     *
+     * @param path Path relative to the root of the train properties configuration
+     */
+    public void markChanged(YamlPath path) {
+        // The first path component is the train name
+        while (path.depth() > 1) {
+            path = path.parent();
+        }
+        if (path.depth() == 0) {
+            allTrainsChanged = true;
+        } else {
+            changedTrainNames.add(path.name());
+        }
+    }
+
+    /**
+     * Gets whether the last {@link #write(File, Map)} failed. If so, the trains must be
+     * written again, even when no train changed since.
+     *
+     * @return True if the last write failed
+     */
+    public boolean isWriteFailed() {
+        return writeFailed;
+    }
+
+    /**
+     * Copies the configuration of the trains that changed since the last update. Must be
+     * called on the main thread.
+     *
+     * @param config Train properties configuration, with the trains by name
+     * @return Copies of the configuration of all trains by train name
+     */
+    public Map<String, ConfigurationNode> update(ConfigurationNode config) {
+        if (allTrainsChanged) {
+            trainConfigs.clear();
+            for (ConfigurationNode node : config.getNodes()) {
+                trainConfigs.put(node.getName(), node.clone());
+            }
+        } else {
+            for (String trainName : changedTrainNames) {
+                if (config.contains(trainName)) {
+                    trainConfigs.put(trainName, config.getNode(trainName).clone());
+                } else {
+                    trainConfigs.remove(trainName);
+                }
+            }
+        }
+        allTrainsChanged = false;
+        changedTrainNames.clear();
+        writeFailed = false;
+        return new LinkedHashMap<>(trainConfigs);
+    }
+
+    /**
+     * Writes the configuration of trains to file. The configuration is first written to
+     * a temporary file, which then replaces the original file. This way a crash during
+     * saving won't corrupt the file. Can be called from another thread.
+     *
+     * @param file File to write to
+     * @param trainConfigs Configuration of all trains by train name, as returned by
+     *                     {@link #update(ConfigurationNode)}
+     * @throws IOException If writing failed. The original file is left as it was.
+     */
+    public void write(File file, Map<String, ConfigurationNode> trainConfigs) throws IOException {
+        try {
+            ConfigurationNode root = new ConfigurationNode();
+            for (Map.Entry<String, ConfigurationNode> entry : trainConfigs.entrySet()) {
+                entry.getValue().cloneIntoExcept(root.getNode(entry.getKey()), Collections.emptySet());
+            }
+            byte[] data = root.toString().getBytes(StandardCharsets.UTF_8);
+
+            File tempFile = new File(file.getPath() + ".tmp");
+            try (FileOutputStream stream = new FileOutputStream(tempFile)) {
+                stream.write(data);
+                stream.getFD().sync();
+            }
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException ex) {
+            writeFailed = true;
+            throw ex;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.bergerkiller.bukkit.tc.properties;
 
+import com.bergerkiller.bukkit.common.AsyncTask;
 import com.bergerkiller.bukkit.common.config.ConfigurationNode;
 import com.bergerkiller.bukkit.common.config.FileConfiguration;
+import com.bergerkiller.bukkit.common.utils.CommonUtil;
 import com.bergerkiller.bukkit.common.utils.StreamUtil;
 import com.bergerkiller.bukkit.tc.CollisionMode;
 import com.bergerkiller.bukkit.tc.TrainCarts;
@@ -14,7 +16,11 @@ import com.bergerkiller.bukkit.tc.properties.standard.type.TrainNameFormat;
 
 import org.bukkit.entity.Player;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -26,6 +32,9 @@ public class TrainPropertiesStore extends LinkedHashSet<CartProperties> {
     private static final long serialVersionUID = 1L;
     private static final String propertiesFile = "TrainProperties.yml";
     private static FileConfiguration config = null;
+    private static File configFile = null;
+    private static final TrainPropertiesSnapshot savedSnapshot = new TrainPropertiesSnapshot();
+    private static CompletableFuture<Void> currentSaveOperation = CompletableFuture.completedFuture(null);
     private static DefaultPropertiesLookup defaultProperties = null;
     private static TrainPropertiesMap trainProperties = new TrainPropertiesMap();
 
@@ -50,13 +59,28 @@ public class TrainPropertiesStore extends LinkedHashSet<CartProperties> {
             final String[] elements = expression.split("\\*", -1);
             final boolean first = expression.startsWith("*");
             final boolean last = expression.endsWith("*");
-            return trainProperties.values().stream()
+            return trainProperties.findNameCandidates(elements, first, last).stream()
                     .filter(p -> p.matchName(elements, first, last))
                     .collect(StreamUtil.toUnmodifiableList());
         }
         return Collections.emptySet();
     }
 
+    /**
+     * Finds the train properties whose train name, or train name without chat style
+     * characters, might match a wildcard expression. Uses an index of the train names,
+     * so that not all trains have to be checked. The returned candidates must still be
+     * matched against the expression.
+     *
+     * @param elements Expression elements, the text between the * wildcards
+     * @param firstAny Whether the expression starts with a wildcard
+     * @param lastAny Whether the expression ends with a wildcard
+     * @return candidate train properties, sorted by train name
+     */
+    public static Collection<TrainProperties> findNameCandidates(String[] elements, boolean firstAny, boolean lastAny) {
+        return trainProperties.findNameCandidates(elements, firstAny, lastAny);
+    }
+
     /**
      * Renames a TrainProperties instance
      *
@@ -364,6 +388,7 @@ public class TrainPropertiesStore extends LinkedHashSet<CartProperties> {
         config.clear();
         CartPropertiesStore.clearAllCarts();
         hasChanges = true;
+        savedSnapshot.markAllChanged();
     }
 
     /**
@@ -373,6 +398,8 @@ public class TrainPropertiesStore extends LinkedHashSet<CartProperties> {
      */
     public static void load(TrainCarts traincarts) {
         loadDefaults(traincarts);
+        waitForSaveCompletion(traincarts);
+        configFile = traincarts.getDataFile(propertiesFile);
         config = new FileConfiguration(traincarts, propertiesFile);
         config.load();
         if (fixDeprecation(config)) {
@@ -395,9 +422,13 @@ public class TrainPropertiesStore extends LinkedHashSet<CartProperties> {
             prop.onConfigurationChanged(true);
         }
         hasChanges = false;
+        savedSnapshot.reset();
 
-        // Add a change listener which will set hasChanges to true
-        config.addChangeListener((path) -> hasChanges = true);
+        // Add a change listener which will set hasChanges to true, and tracks what train changed
+        config.addChangeListener((path) -> {
+            hasChanges = true;
+            savedSnapshot.markChanged(path);
+        });
     }
 
     /**
@@ -476,21 +507,68 @@ public class TrainPropertiesStore extends LinkedHashSet<CartProperties> {
     }
 
     /**
-     * Saves all Train Properties to disk
+     * Saves all Train Properties to disk. Only the configuration of trains that changed
+     * since the previous save is copied on the main thread, after which the file is
+     * written asynchronously. If not auto-saving, waits for the file to be written.
      */
     public static void save(boolean autosave) {
-        if (autosave && !hasChanges) {
+        if (autosave && !hasChanges && !savedSnapshot.isWriteFailed()) {
             return;
         }
 
+        // Wait for a previous save to complete
+        if (!currentSaveOperation.isDone()) {
+            if (autosave) {
+                return; // Skip saving this time, previous save is still going on for some reason
+            } else if (!waitForSaveCompletion(TrainCarts.plugin)) {
+                return; // Save got stuck
+            }
+        }
+
         // Delete properties from the configuration when the train no longer exists
         List<TrainProperties> removedTrainProperties = trainProperties.values().stream()
                 .filter(prop -> !prop.hasHolder() && !prop.getTrainCarts().getOfflineGroups().contains(prop.getTrainName()))
                 .collect(Collectors.toList());
         removedTrainProperties.forEach(prop -> remove(prop.getTrainName()));
 
-        config.save();
+        // Copy the configuration of trains that changed. Configuration of trains that did
+        // not change is re-used from the previous save.
+        final Map<String, ConfigurationNode> trainConfigs = savedSnapshot.update(config);
         hasChanges = false;
+
+        // Then in an asynchronous task write it all to disk
+        final TrainCarts traincarts = TrainCarts.plugin;
+        final File file = configFile;
+        currentSaveOperation = CommonUtil.runCheckedAsync(() -> {
+            savedSnapshot.write(file, trainConfigs);
+        }, runnable -> {
+            AsyncTask task = new AsyncTask("TrainCarts-PropertiesSaver") {
+                @Override
+                public void run() {
+                    runnable.run();
+                }
+            };
+            task.start();
+        }).exceptionally(t -> {
+            traincarts.getLogger().log(Level.SEVERE, "Failed to save train properties to disk", t);
+            return null; // Written again next time
+        });
+
+        // If not auto-saving, wait for saving to complete
+        if (!autosave) {
+            waitForSaveCompletion(traincarts);
+        }
+    }
+
+    private static boolean waitForSaveCompletion(TrainCarts traincarts) {
+        try {
+            currentSaveOperation.get(30, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            traincarts.log(Level.SEVERE, "Failed to save train properties: save timed out");
+            return false;
+        } catch (Throwable t) { /* already logged */ }
+
+        return true;
     }
 
     /**
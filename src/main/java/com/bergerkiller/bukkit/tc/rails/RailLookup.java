@@ -53,6 +53,8 @@ public final class RailLookup {
     static int lifeTimerAtPosition = LIFE_TIMER_START;
     /** Stores the (every tick incrementing) future tick when cached information expires */
     static int verifyTimer = LIFE_TIMER_START;
+    /** Whether buckets created right now should be removed again when temporary access ends */
+    static boolean temporaryAccess = false;
 
     // Constant arrays used for initialization checks
     static final DetectorRegion[] NO_DETECTOR_REGIONS = new DetectorRegion[0];
@@ -186,6 +188,7 @@ public final class RailLookup {
 
         // Now forcefully unload stuff
         byWorld.values().forEach(lookup -> lookup.unloadRailType(type));
+        byWorld.values().forEach(WorldRailLookupImpl::notifyTrackChanged);
     }
 
     /**
@@ -201,6 +204,27 @@ public final class RailLookup {
         lifeTimer = LIFE_TIMER_START + TCConfig.cacheExpireTicks + TCConfig.cacheVerificationTicks;
         lifeTimerAtPosition = LIFE_TIMER_START;
         verifyTimer = ++lifeTimer + TCConfig.cacheVerificationTicks;
+        byWorld.values().forEach(WorldRailLookupImpl::notifyTrackChanged);
+    }
+
+    /**
+     * Starts temporary access of the rail cache. All rail information that is newly cached
+     * from now on is removed again by {@link #endTemporaryAccess()}. This is used when
+     * walking large amounts of track that trains are not on, such as during path finding,
+     * to avoid growing the cache without having to wipe all of it afterwards.
+     */
+    public static void beginTemporaryAccess() {
+        temporaryAccess = true;
+    }
+
+    /**
+     * Ends temporary access of the rail cache started with {@link #beginTemporaryAccess()}.
+     * Rail information that was newly cached since then is removed, while rail information
+     * that was already cached before is kept.
+     */
+    public static void endTemporaryAccess() {
+        temporaryAccess = false;
+        byWorld.values().forEach(WorldRailLookupImpl::removeTemporaryBuckets);
     }
 
     /**
@@ -421,7 +445,7 @@ public final class RailLookup {
 
         // Cached properties parsed using sign lines
         private SignActionHeader cachedHeader = null;
-        private boolean cachedActionSet = false;
+        private int cachedActionCounter = -1;
         private SignAction cachedAction = null;
 
         TrackedSign(Sign sign, Block signBlock, RailPiece rail) {
@@ -561,14 +585,40 @@ public final class RailLookup {
          * @return SignAction of this sign
          */
         public SignAction getAction() {
-            if (cachedActionSet) {
+            if (hasCachedAction()) {
                 return cachedAction;
             } else {
-                cachedActionSet = true;
-                return cachedAction = SignAction.getSignAction(this.createEvent(SignActionType.NONE));
+                int counter = SignAction.getRegistrationCounter();
+                SignAction action = SignAction.getSignAction(this.createEvent(SignActionType.NONE));
+                this.cachedAction = action;
+                this.cachedActionCounter = counter;
+                return action;
             }
         }
 
+        /**
+         * Gets whether the SignAction of this sign was looked up before, and sign actions
+         * have not been registered or un-registered since. If true, {@link #getAction()}
+         * returns instantly.
+         *
+         * @return True if the sign action is cached
+         */
+        public boolean hasCachedAction() {
+            return cachedActionCounter == SignAction.getRegistrationCounter();
+        }
+
+        /**
+         * Sets this TrackedSign to use a particular SignAction, instead of looking one up
+         * the next time {@link #getAction()} is called. The action should have been looked
+         * up for the same sign text, with the current registered sign actions.
+         *
+         * @param action SignAction to cache, null if the sign has no action
+         */
+        public void setCachedAction(SignAction action) {
+            this.cachedAction = action;
+            this.cachedActionCounter = SignAction.getRegistrationCounter();
+        }
+
         /**
          * Gets the RailPiece rail that activates this sign
          *
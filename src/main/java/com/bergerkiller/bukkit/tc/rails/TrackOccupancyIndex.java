@@ -0,0 +1,308 @@
+package com.bergerkiller.bukkit.tc.rails;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
+import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+import com.bergerkiller.bukkit.tc.controller.components.RailPath;
+import com.bergerkiller.bukkit.tc.controller.components.RailTracker.TrackedRail;
+import com.bergerkiller.bukkit.tc.utils.LongBlockCoordinateMap;
+import com.bergerkiller.bukkit.tc.utils.LongBlockCoordinates;
+
+/**
+ * Tracks what trains occupy what rail blocks of a single World. Is refreshed every tick
+ * by the rail tracker of every train, and indexes the occupied rails both by rail block and by
+ * chunk. This allows finding the trains nearest to a position without having to check
+ * the members of every rail piece in between.<br>
+ * <br>
+ * The distances used by this index are straight-line distances to the positions on the track
+ * the rails were occupied at. These are never larger than the distance along the track, so if no
+ * train is found within a certain distance, then no train can be reached along the track within
+ * that distance either.<br>
+ * <br>
+ * This index is not multi-thread safe and all access must be done from the main
+ * Bukkit thread.
+ */
+public final class TrackOccupancyIndex {
+    /** Maximum distance searched by {@link #findNearest(double, double, double, double, MinecartGroup)} */
+    public static final double MAX_SEARCH_DISTANCE = 256.0;
+    private final LongBlockCoordinateMap<List<Occupant>> byRail = new LongBlockCoordinateMap<>();
+    private final LongBlockCoordinateMap<List<Occupant>> byChunk = new LongBlockCoordinateMap<>();
+    private final IdentityHashMap<MinecartGroup, Occupant[]> byGroup = new IdentityHashMap<>();
+
+    /**
+     * Gets the number of trains that occupy rails in this index
+     *
+     * @return train count
+     */
+    public int getTrainCount() {
+        return byGroup.size();
+    }
+
+    /**
+     * Gets the trains occupying a single rail block
+     *
+     * @param railBlock Rail block coordinates
+     * @return occupants of the rail block, empty list if none
+     */
+    public List<Occupant> getOccupants(IntVector3 railBlock) {
+        return getOccupants(railBlock.x, railBlock.y, railBlock.z);
+    }
+
+    /**
+     * Gets the trains occupying a single rail block
+     *
+     * @param x X-coordinate of the rail block
+     * @param y Y-coordinate of the rail block
+     * @param z Z-coordinate of the rail block
+     * @return occupants of the rail block, empty list if none
+     */
+    public List<Occupant> getOccupants(int x, int y, int z) {
+        List<Occupant> occupants = byRail.get(x, y, z);
+        return (occupants == null) ? Collections.emptyList() : Collections.unmodifiableList(occupants);
+    }
+
+    /**
+     * Finds the rail occupied by a train nearest to a position. The straight-line
+     * distance to the position on the track the rail was occupied at is used.<br>
+     * <br>
+     * Only the chunks within the maximum distance are checked, nearest chunks first.
+     * The search stops as soon as a train is found closer than the chunks not checked yet,
+     * so callers should pass the distance they actually need.
+     *
+     * @param x X-coordinate of the position
+     * @param y Y-coordinate of the position
+     * @param z Z-coordinate of the position
+     * @param maxDistance Maximum distance to look for trains, limited to {@link #MAX_SEARCH_DISTANCE}
+     * @param ignoredGroup Train to ignore, such as the train looking for trains near itself. Can be null.
+     * @return nearest occupant, or null if no train is within the maximum distance
+     */
+    public Occupant findNearest(double x, double y, double z, double maxDistance, MinecartGroup ignoredGroup) {
+        if (byGroup.isEmpty() || (byGroup.size() == 1 && byGroup.containsKey(ignoredGroup))) {
+            return null;
+        }
+
+        maxDistance = Math.min(maxDistance, MAX_SEARCH_DISTANCE);
+        int cx = MathUtil.toChunk(x);
+        int cz = MathUtil.toChunk(z);
+        int chunkRadius = Math.max(
+                Math.max(cx - MathUtil.toChunk(x - maxDistance), MathUtil.toChunk(x + maxDistance) - cx),
+                Math.max(cz - MathUtil.toChunk(z - maxDistance), MathUtil.toChunk(z + maxDistance) - cz));
+
+        // Check rings of chunks around the chunk of the position, nearest first
+        NearestSearch search = new NearestSearch(x, y, z, maxDistance, ignoredGroup);
+        search.check(byChunk.get(cx, 0, cz));
+        for (int r = 1; r <= chunkRadius; r++) {
+            // Chunks of this ring are at least this far away horizontally
+            double ringDistance = Math.min(
+                    Math.min(x - ((cx - r + 1) << 4), ((cx + r) << 4) - x),
+                    Math.min(z - ((cz - r + 1) << 4), ((cz + r) << 4) - z));
+            if (search.nearest != null && search.nearestDistanceSq <= (ringDistance * ringDistance)) {
+                break;
+            }
+            for (int d = -r; d <= r; d++) {
+                search.check(byChunk.get(cx + d, 0, cz - r));
+                search.check(byChunk.get(cx + d, 0, cz + r));
+            }
+            for (int d = -r + 1; d < r; d++) {
+                search.check(byChunk.get(cx - r, 0, cz + d));
+                search.check(byChunk.get(cx + r, 0, cz + d));
+            }
+        }
+        return search.nearest;
+    }
+
+    /**
+     * API Note: you should never have to call this function. It's used internally by the
+     * rail tracker of a train.<br>
+     * <br>
+     * Updates the rails occupied by a train. If the rails did not change since the previous
+     * update, nothing is done.
+     *
+     * @param group Train
+     * @param rails Rails occupied by the members of the train
+     */
+    public void update(MinecartGroup group, List<TrackedRail> rails) {
+        Occupant[] prev = byGroup.get(group);
+        if (prev != null && isSameRails(prev, rails)) {
+            return;
+        }
+
+        Occupant[] occupants = new Occupant[rails.size()];
+        for (int i = 0; i < occupants.length; i++) {
+            TrackedRail rail = rails.get(i);
+            RailPath.Position position = rail.state.position();
+            occupants[i] = new Occupant(group, rail.member, rail.state.railPiece().blockPosition(),
+                    position.posX, position.posY, position.posZ);
+        }
+        update(group, occupants);
+    }
+
+    /**
+     * Replaces the rails occupied by a train
+     *
+     * @param group Train
+     * @param occupants Rails occupied by the members of the train, empty to remove the train
+     */
+    void update(MinecartGroup group, Occupant[] occupants) {
+        Occupant[] prev = byGroup.get(group);
+        if (prev != null) {
+            removeAll(prev);
+        }
+        if (occupants.length == 0) {
+            byGroup.remove(group);
+            return;
+        }
+
+        for (Occupant occupant : occupants) {
+            add(byRail, occupant.getRailKey(), occupant);
+            add(byChunk, occupant.getChunkKey(), occupant);
+        }
+        byGroup.put(group, occupants);
+    }
+
+    /**
+     * API Note: you should never have to call this function. It's used internally by the
+     * rail tracker of a train.<br>
+     * <br>
+     * Removes all rails occupied by a train, for example when the train unloads
+     *
+     * @param group Train
+     */
+    public void remove(MinecartGroup group) {
+        Occupant[] prev = byGroup.remove(group);
+        if (prev != null) {
+            removeAll(prev);
+        }
+    }
+
+    /**
+     * Removes all occupied rails from this index
+     */
+    void clear() {
+        byRail.clearAndTrim();
+        byChunk.clearAndTrim();
+        byGroup.clear();
+    }
+
+    private void removeAll(Occupant[] occupants) {
+        for (Occupant occupant : occupants) {
+            remove(byRail, occupant.getRailKey(), occupant);
+            remove(byChunk, occupant.getChunkKey(), occupant);
+        }
+    }
+
+    private static boolean isSameRails(Occupant[] occupants, List<TrackedRail> rails) {
+        if (occupants.length != rails.size()) {
+            return false;
+        }
+        for (int i = 0; i < occupants.length; i++) {
+            TrackedRail rail = rails.get(i);
+            Occupant occupant = occupants[i];
+            RailPath.Position position = rail.state.position();
+            if (occupant.member != rail.member
+                    || !occupant.railBlock.equals(rail.state.railPiece().blockPosition())
+                    || occupant.posX != position.posX
+                    || occupant.posY != position.posY
+                    || occupant.posZ != position.posZ
+            ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void add(LongBlockCoordinateMap<List<Occupant>> map, long key, Occupant occupant) {
+        List<Occupant> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>(2);
+            map.put(key, list);
+        }
+        list.add(occupant);
+    }
+
+    private static void remove(LongBlockCoordinateMap<List<Occupant>> map, long key, Occupant occupant) {
+        List<Occupant> list = map.get(key);
+        if (list != null && list.remove(occupant) && list.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * Keeps track of the nearest occupant found while searching chunks
+     */
+    private static final class NearestSearch {
+        private final double x, y, z;
+        private final MinecartGroup ignoredGroup;
+        public Occupant nearest = null;
+        public double nearestDistanceSq;
+
+        public NearestSearch(double x, double y, double z, double maxDistance, MinecartGroup ignoredGroup) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.ignoredGroup = ignoredGroup;
+            this.nearestDistanceSq = maxDistance * maxDistance;
+        }
+
+        public void check(List<Occupant> occupants) {
+            if (occupants == null) {
+                return;
+            }
+            for (Occupant occupant : occupants) {
+                if (occupant.group == ignoredGroup) {
+                    continue;
+                }
+                double dx = occupant.posX - x;
+                double dy = occupant.posY - y;
+                double dz = occupant.posZ - z;
+                double distanceSq = dx * dx + dy * dy + dz * dz;
+                if (distanceSq <= nearestDistanceSq) {
+                    nearestDistanceSq = distanceSq;
+                    nearest = occupant;
+                }
+            }
+        }
+    }
+
+    /**
+     * A single rail block occupied by a member of a train
+     */
+    public static final class Occupant {
+        /** Train occupying the rail */
+        public final MinecartGroup group;
+        /** Member of the train occupying the rail */
+        public final MinecartMember<?> member;
+        /** Coordinates of the rail block */
+        public final IntVector3 railBlock;
+        /** Position on the track of the rail block where the rail is occupied */
+        public final double posX, posY, posZ;
+
+        Occupant(MinecartGroup group, MinecartMember<?> member, IntVector3 railBlock, double posX, double posY, double posZ) {
+            this.group = group;
+            this.member = member;
+            this.railBlock = railBlock;
+            this.posX = posX;
+            this.posY = posY;
+            this.posZ = posZ;
+        }
+
+        private long getRailKey() {
+            return LongBlockCoordinates.map(railBlock.x, railBlock.y, railBlock.z);
+        }
+
+        private long getChunkKey() {
+            return LongBlockCoordinates.map(MathUtil.toChunk(posX), 0, MathUtil.toChunk(posZ));
+        }
+
+        @Override
+        public String toString() {
+            return "Occupant{train=" + group.getProperties().getTrainName() + ", rail=" + railBlock + "}";
+        }
+    }
+}
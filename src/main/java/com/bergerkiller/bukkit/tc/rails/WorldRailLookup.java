@@ -9,6 +9,7 @@ import org.bukkit.block.Block;
 import com.bergerkiller.bukkit.common.bases.IntVector3;
 import com.bergerkiller.bukkit.common.offline.OfflineBlock;
 import com.bergerkiller.bukkit.common.offline.OfflineWorld;
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
 import com.bergerkiller.bukkit.tc.controller.components.RailPiece;
 import com.bergerkiller.bukkit.tc.controller.components.RailState;
@@ -82,6 +83,31 @@ public interface WorldRailLookup {
      */
     SignControllerWorld getSignController();
 
+    /**
+     * Gets the index of the rails occupied by trains in this world. Can be used to
+     * efficiently find the trains near a position.
+     *
+     * @return track occupancy index
+     * @see TrackOccupancyIndex#findNearest(double, double, double, double, MinecartGroup)
+     */
+    TrackOccupancyIndex getTrackOccupancy();
+
+    /**
+     * Gets a counter that is incremented every time the track of this world changes. This
+     * happens when cached rails are found to be missing or are forced to be re-verified, when
+     * all cached information is recalculated, and when signs next to the track change text
+     * or redstone power. Can be used to check whether track walked before, and the signs
+     * along it, could have changed since.
+     *
+     * @return track change counter
+     */
+    int getTrackChangeCounter();
+
+    /**
+     * Increments the {@link #getTrackChangeCounter() track change counter} of this world
+     */
+    void notifyTrackChanged();
+
     /**
      * Gets whether this World Rail Lookup is still valid, and can be used. This will return false
      * when the world it represents has unloaded, or the plugin shut down.
@@ -6,11 +6,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -27,6 +26,7 @@ import com.bergerkiller.bukkit.common.utils.BlockUtil;
 import com.bergerkiller.bukkit.common.utils.MathUtil;
 import com.bergerkiller.bukkit.common.utils.WorldUtil;
 import com.bergerkiller.bukkit.common.wrappers.BlockData;
+import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
 import com.bergerkiller.bukkit.tc.controller.components.RailPath;
@@ -38,6 +38,8 @@ import com.bergerkiller.bukkit.tc.rails.RailLookup.TrackedSign;
 import com.bergerkiller.bukkit.tc.rails.type.RailType;
 import com.bergerkiller.bukkit.tc.signactions.mutex.MutexZoneCache;
 import com.bergerkiller.bukkit.tc.signactions.mutex.MutexZoneCacheWorld;
+import com.bergerkiller.bukkit.tc.utils.LongBlockCoordinateMap;
+import com.bergerkiller.bukkit.tc.utils.LongBlockCoordinates;
 
 /**
  * Retrieves and caches rails and information about rails, mapped to
@@ -70,25 +72,42 @@ final class WorldRailLookupImpl implements WorldRailLookup {
     private static final Material SIGN_POST_TYPE = getMaterial("LEGACY_SIGN_POST");
     private static BlockFace[] SIGN_FACES_ORDERED = {BlockFace.UP, BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST, BlockFace.DOWN};
 
+    // Expiry timer wheel. Must be a power of two.
+    private static final int EXPIRY_WHEEL_SIZE = 256;
+    // Maximum number of buckets checked for expiry every tick
+    private static final int EXPIRY_CHECKS_PER_TICK = 4096;
+    // Ticks after which buckets that are expired but can not be purged are checked again
+    private static final int EXPIRY_RECHECK_TICKS = 20;
+    // Value of Bucket expiry_tick when not scheduled in the expiry wheel
+    private static final int EXPIRY_NOT_SCHEDULED = Integer.MIN_VALUE;
+
     // Per-world data
     private final TrainCarts traincarts;
     private World world;
     private OfflineWorld offlineWorld;
-    private Map<IntVector3, Bucket> cache;
-    private List<Bucket> cacheValues;
+    private LongBlockCoordinateMap<Bucket> cache;
+    private final List<Bucket>[] expiryWheel;
+    private int expiryTick;
+    private int expirySlotIndex;
     private MutexZoneCacheWorld mutexZones;
+    private final TrackOccupancyIndex trackOccupancy = new TrackOccupancyIndex();
     private SignControllerWorld signController;
     private int ticksWithEmptyCache;
+    private Set<Bucket> temporaryBuckets;
+    private int trackChangeCounter = 0;
 
     WorldRailLookupImpl(TrainCarts traincarts, World world) {
         this.traincarts = traincarts;
         this.offlineWorld = OfflineWorld.of(world);
         this.world = world;
-        this.cache = new HashMap<>();
-        this.cacheValues = new ArrayList<>();
+        this.cache = new LongBlockCoordinateMap<>();
+        this.expiryWheel = createExpiryWheel();
+        this.expiryTick = RailLookup.lifeTimer - TCConfig.cacheExpireTicks - TCConfig.cacheVerificationTicks;
+        this.expirySlotIndex = 0;
         this.mutexZones = MutexZoneCache.forWorld(this.offlineWorld);
         this.signController = traincarts.getSignController().forWorldSkipInitialization(this.world);
         this.ticksWithEmptyCache = 0;
+        this.temporaryBuckets = Collections.emptySet();
     }
 
     /**
@@ -118,11 +137,26 @@ final class WorldRailLookupImpl implements WorldRailLookup {
         return this.mutexZones;
     }
 
+    @Override
+    public TrackOccupancyIndex getTrackOccupancy() {
+        return this.trackOccupancy;
+    }
+
     @Override
     public SignControllerWorld getSignController() {
         return this.signController;
     }
 
+    @Override
+    public int getTrackChangeCounter() {
+        return this.trackChangeCounter;
+    }
+
+    @Override
+    public void notifyTrackChanged() {
+        ++this.trackChangeCounter;
+    }
+
     @Override
     public boolean isValid() {
         return this.world != null;
@@ -162,34 +196,35 @@ final class WorldRailLookupImpl implements WorldRailLookup {
     void close() {
         if (!cache.isEmpty()) {
             forAllBuckets(b -> b.rail_life = RailLookup.LIFE_TIMER_DELETED);
-            cache.clear();
-            cacheValues.clear();
         }
-        cache = Collections.emptyMap(); // Free memory
-        cacheValues = Collections.emptyList(); // Free memory
+        cache.clearAndTrim(); // Free memory
+        for (List<Bucket> slot : expiryWheel) {
+            slot.clear();
+        }
+        trackOccupancy.clear();
         world = null; // Forces errors / checking
     }
 
     @Override
     public RailPiece[] findAtStatePosition(RailState state) {
-        IntVector3 coordinates;
+        int x, y, z;
         {
             RailPath.Position pos = state.position();
+            x = MathUtil.floor(pos.posX);
+            y = MathUtil.floor(pos.posY);
+            z = MathUtil.floor(pos.posZ);
             if (pos.relative) {
                 // This is practically not used!
-                coordinates = state.railPiece().blockPosition().add(MathUtil.floor(pos.posX),
-                                                                    MathUtil.floor(pos.posY),
-                                                                    MathUtil.floor(pos.posZ));
-            } else {
-                coordinates = new IntVector3(MathUtil.floor(pos.posX),
-                                             MathUtil.floor(pos.posY),
-                                             MathUtil.floor(pos.posZ));
+                IntVector3 railPosition = state.railPiece().blockPosition();
+                x += railPosition.x;
+                y += railPosition.y;
+                z += railPosition.z;
             }
         }
 
         // If already in the cache, compute/return it right-away
         // During computation the original bucket may get deleted (if rail type was NONE)
-        IntVector3 cacheKey = createCacheKey(coordinates);
+        long cacheKey = LongBlockCoordinates.map(x, y, z);
         Bucket inCache = cache.get(cacheKey);
         if (inCache != null) {
             return inCache.getRailsAtPosition();
@@ -199,14 +234,14 @@ final class WorldRailLookupImpl implements WorldRailLookup {
         // with rail type NONE and proceed from there, it results in a bucket to be created
         // that is then just thrown away again. It's better to do an at-position search first,
         // and if any of the found rails match with the position block, we use that one.
-        return discoverBucketsAtPositionBlock(cacheKey, offlineWorld.getBlockAt(coordinates));
+        return discoverBucketsAtPositionBlock(cacheKey, offlineWorld.getBlockAt(x, y, z));
     }
 
     @Override
     public RailPiece[] findAtBlockPosition(OfflineBlock positionBlock) {
         // If already in the cache, compute/return it right-away
         // During computation the original bucket may get deleted (if rail type was NONE)
-        IntVector3 cacheKey = createCacheKey(positionBlock);
+        long cacheKey = createCacheKey(positionBlock);
         Bucket inCache = cache.get(cacheKey);
         if (inCache != null) {
             return inCache.getRailsAtPosition();
@@ -223,7 +258,7 @@ final class WorldRailLookupImpl implements WorldRailLookup {
     public RailLookup.CachedRailPiece lookupCachedRailPieceIfCached(final OfflineBlock railOfflineBlock,
                                                                     final RailType railType
     ) {
-        IntVector3 cacheKey = createCacheKey(railOfflineBlock);
+        long cacheKey = createCacheKey(railOfflineBlock);
         Bucket inCache = cache.get(cacheKey);
         if (inCache != null) {
             RailType inCacheType = inCache.type();
@@ -244,7 +279,7 @@ final class WorldRailLookupImpl implements WorldRailLookup {
 
     @Override
     public List<RailLookup.CachedRailPiece> lookupCachedRailPieces(final OfflineBlock railOfflineBlock) {
-        IntVector3 cacheKey = createCacheKey(railOfflineBlock);
+        long cacheKey = createCacheKey(railOfflineBlock);
         Bucket inCache = cache.get(cacheKey);
         if (inCache == null) {
             return Collections.emptyList();
@@ -273,7 +308,7 @@ final class WorldRailLookupImpl implements WorldRailLookup {
                                     final RailType railType
     ) {
         // First try to find it in the cache, and if none exists, initialize a new one.
-        IntVector3 cacheKey = createCacheKey(railOfflineBlock);
+        long cacheKey = createCacheKey(railOfflineBlock);
         Bucket inCache = cache.get(cacheKey);
         if (inCache == null) {
             if (!railType.isRegistered()) {
@@ -408,11 +443,11 @@ final class WorldRailLookupImpl implements WorldRailLookup {
     }
 
     private void forAllBuckets(Consumer<Bucket> callback) {
-        for (Bucket bucket : cacheValues) {
+        cache.forEachValue(bucket -> {
             for (Bucket next = bucket; next != null; next = next.next) {
                 callback.accept(next);
             }
-        }
+        });
     }
 
     /**
@@ -440,35 +475,168 @@ final class WorldRailLookupImpl implements WorldRailLookup {
         }, false);
     }
 
+    /**
+     * Removes all buckets that were created while temporary access was active, see
+     * {@link RailLookup#beginTemporaryAccess()}. Buckets that existed before are kept.
+     * Buckets that have since been given state that must be preserved, like members,
+     * are kept as well.
+     */
+    void removeTemporaryBuckets() {
+        final Set<Bucket> buckets = this.temporaryBuckets;
+        if (!buckets.isEmpty()) {
+            this.temporaryBuckets = Collections.emptySet();
+
+            // Only the buckets at the blocks of the temporary buckets have to be checked
+            Set<Bucket> heads = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Bucket bucket : buckets) {
+                Bucket head = cache.get(createCacheKey(bucket.blockPosition()));
+                if (head != null && heads.add(head)) {
+                    refreshBucket(head, b -> !buckets.contains(b), false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes buckets that have not been accessed since the dead timeout. Only the buckets
+     * whose life timer expired are checked, which are found using a timer wheel indexed by
+     * the dead timeout. At most {@link #EXPIRY_CHECKS_PER_TICK} buckets are checked every tick,
+     * remaining buckets are checked the tick after.
+     *
+     * @param deadTimeout Life timer value below which buckets are expired
+     */
     void update(int deadTimeout) {
-        refreshBuckets(b -> b.checkStillValid(deadTimeout), false);
+        if (deadTimeout < expiryTick || (deadTimeout - expiryTick) >= EXPIRY_WHEEL_SIZE) {
+            // Life timer was reset or changed a lot, re-schedule all buckets
+            rescheduleAllExpiry(deadTimeout);
+        }
+
+        int remainingChecks = EXPIRY_CHECKS_PER_TICK;
+        final Predicate<Bucket> validChecker = b -> b.checkStillValid(deadTimeout);
+        while (expiryTick <= deadTimeout) {
+            List<Bucket> slot = expiryWheel[expiryTick & (EXPIRY_WHEEL_SIZE - 1)];
+            while (expirySlotIndex < slot.size()) {
+                if (--remainingChecks < 0) {
+                    return; // Continue next tick
+                }
+                Bucket bucket = slot.get(expirySlotIndex);
+                if (bucket.expiry_tick > deadTimeout) {
+                    expirySlotIndex++; // Expires after the wheel turned around again
+                    continue;
+                }
+
+                // Remove from the slot by swapping in the last bucket
+                int lastIndex = slot.size() - 1;
+                slot.set(expirySlotIndex, slot.get(lastIndex));
+                slot.remove(lastIndex);
+                bucket.expiry_tick = EXPIRY_NOT_SCHEDULED;
+
+                // Ignore buckets that have since been replaced or removed
+                long cacheKey = createCacheKey(bucket.blockPosition());
+                if (cache.get(cacheKey) == bucket) {
+                    Bucket head = refreshBucket(bucket, validChecker, false);
+                    if (head != null) {
+                        scheduleExpiry(head, deadTimeout, deadTimeout + EXPIRY_RECHECK_TICKS);
+                    }
+                }
+            }
+            expirySlotIndex = 0;
+            expiryTick++;
+        }
+    }
+
+    /**
+     * Schedules a bucket stored in the cache to be checked once it expires
+     *
+     * @param bucket Bucket to schedule
+     */
+    private void scheduleExpiry(Bucket bucket) {
+        scheduleExpiry(bucket, expiryTick - 1, expiryTick);
+    }
+
+    /**
+     * Schedules a bucket stored in the cache to be checked once the bucket or any of
+     * the buckets in its chain expires. If it has already expired, which happens when it
+     * can not be purged, it is checked again at the recheck tick specified.
+     *
+     * @param bucket Bucket to schedule
+     * @param currentTick Last dead timeout tick that was checked
+     * @param recheckTick Tick at which to check again, if already expired
+     */
+    private void scheduleExpiry(Bucket bucket, int currentTick, int recheckTick) {
+        if (bucket.expiry_tick != EXPIRY_NOT_SCHEDULED) {
+            return; // Already scheduled
+        }
+        int tick = Integer.MAX_VALUE;
+        for (Bucket b = bucket; b != null; b = b.next) {
+            tick = Math.min(tick, Math.max(b.rail_life, b.rails_at_position_life) + 1);
+        }
+        if (tick <= currentTick) {
+            tick = recheckTick;
+        }
+        bucket.expiry_tick = tick;
+        expiryWheel[tick & (EXPIRY_WHEEL_SIZE - 1)].add(bucket);
+    }
+
+    private void rescheduleAllExpiry(int deadTimeout) {
+        for (List<Bucket> slot : expiryWheel) {
+            for (Bucket bucket : slot) {
+                bucket.expiry_tick = EXPIRY_NOT_SCHEDULED;
+            }
+            slot.clear();
+        }
+        expiryTick = deadTimeout;
+        expirySlotIndex = 0;
+        cache.forEachValue(bucket -> scheduleExpiry(bucket, deadTimeout - 1, deadTimeout));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Bucket>[] createExpiryWheel() {
+        List<Bucket>[] wheel = new List[EXPIRY_WHEEL_SIZE];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        return wheel;
     }
 
     private void refreshBuckets(Predicate<Bucket> validChecker, boolean ignoreCanBePurged) {
-        for (ListIterator<Bucket> iter = cacheValues.listIterator(); iter.hasNext();) {
-            Bucket bucket = iter.next();
-            if (validChecker.test(bucket) || (!ignoreCanBePurged && !bucket.canBePurged(bucket.next == null))) {
-                // Only remove invalid buckets from the next chain
+        List<Bucket> heads = new ArrayList<>(cache.size());
+        cache.forEachValue(heads::add);
+        for (Bucket bucket : heads) {
+            refreshBucket(bucket, validChecker, ignoreCanBePurged);
+        }
+    }
+
+    /**
+     * Removes invalid buckets stored at the block of a bucket stored in the cache
+     *
+     * @param bucket Bucket stored in the cache
+     * @param validChecker Checks whether buckets are still valid
+     * @param ignoreCanBePurged Whether to ignore immutable buckets (members, metadata)
+     * @return Bucket now stored in the cache at this block, or null if all were removed
+     */
+    private Bucket refreshBucket(Bucket bucket, Predicate<Bucket> validChecker, boolean ignoreCanBePurged) {
+        if (validChecker.test(bucket) || (!ignoreCanBePurged && !bucket.canBePurged(bucket.next == null))) {
+            // Only remove invalid buckets from the next chain
+            bucket.removeInvalidBucketsFromChain(validChecker, ignoreCanBePurged);
+            return bucket;
+        }
+
+        // If bucket has a next value, put that one in instead. Remove if all dead.
+        long cacheKey = createCacheKey(bucket.blockPosition());
+        while (true) {
+            bucket.rail_life = RailLookup.LIFE_TIMER_DELETED;
+            bucket = bucket.next;
+            if (bucket == null) {
+                // No more buckets, remove entirely
+                cache.remove(cacheKey);
+                return null;
+            } else if (validChecker.test(bucket) || (!ignoreCanBePurged && !bucket.canBePurged(true))) {
+                // Set this one, instead. Do remove further next entries that aren't valid
                 bucket.removeInvalidBucketsFromChain(validChecker, ignoreCanBePurged);
-            } else {
-                // If bucket has a next value, put that one in instead. Remove if all dead.
-                IntVector3 cacheKey = createCacheKey(bucket.blockPosition());
-                while (true) {
-                    bucket.rail_life = RailLookup.LIFE_TIMER_DELETED;
-                    bucket = bucket.next;
-                    if (bucket == null) {
-                        // No more buckets, remove entirely
-                        iter.remove();
-                        cache.remove(cacheKey);
-                        break;
-                    } else if (validChecker.test(bucket) || (!ignoreCanBePurged && !bucket.canBePurged(true))) {
-                        // Set this one, instead. Do remove further next entries that aren't valid
-                        bucket.removeInvalidBucketsFromChain(validChecker, ignoreCanBePurged);
-                        iter.set(bucket);
-                        cache.put(cacheKey, bucket);
-                        break;
-                    }
-                }
+                cache.put(cacheKey, bucket);
+                scheduleExpiry(bucket);
+                return bucket;
             }
         }
     }
@@ -488,7 +656,9 @@ final class WorldRailLookupImpl implements WorldRailLookup {
 
     @Override
     public Collection<IntVector3> getBlockIndex() {
-        return this.cache.keySet();
+        List<IntVector3> blocks = new ArrayList<>(this.cache.size());
+        this.cache.forEachValue(bucket -> blocks.add(bucket.blockPosition()));
+        return blocks;
     }
 
     /**
@@ -500,13 +670,12 @@ final class WorldRailLookupImpl implements WorldRailLookup {
      * @return Bucket
      */
     private Bucket getOrCreateAtCoordinates(IntVector3 coordinates) {
-        IntVector3 cacheKey = createCacheKey(coordinates);
+        long cacheKey = createCacheKey(coordinates);
         Bucket bucket = this.cache.get(cacheKey);
         if (bucket == null) {
             bucket = new Bucket(this.offlineWorld.getBlockAt(coordinates),
                                  BlockUtil.getBlock(this.world, coordinates));
-            this.cache.put(cacheKey, bucket);
-            this.cacheValues.add(bucket);
+            addToCache(cacheKey, bucket);
         }
         return bucket;
     }
@@ -522,7 +691,7 @@ final class WorldRailLookupImpl implements WorldRailLookup {
      * @param positionOfflineBlock
      * @return List of buckets of rails at this block position
      */
-    private Bucket[] discoverBucketsAtPositionBlock(IntVector3 cacheKey, OfflineBlock positionOfflineBlock) {
+    private Bucket[] discoverBucketsAtPositionBlock(long cacheKey, OfflineBlock positionOfflineBlock) {
         // Query the registered Rail Types for whether they exist at this position
         Block positionBlock = positionOfflineBlock.getLoadedBlock();
         if (positionBlock == null) {
@@ -590,9 +759,9 @@ final class WorldRailLookupImpl implements WorldRailLookup {
         return NO_RAILS_AT_POSITION;
     }
 
-    private void addToCache(IntVector3 cacheKey, Bucket bucket) {
+    private void addToCache(long cacheKey, Bucket bucket) {
         cache.put(cacheKey, bucket);
-        cacheValues.add(bucket);
+        scheduleExpiry(bucket);
     }
 
     /**
@@ -601,8 +770,8 @@ final class WorldRailLookupImpl implements WorldRailLookup {
      * @param block Offline Block
      * @return Cache lookup key
      */
-    private static IntVector3 createCacheKey(OfflineBlock block) {
-        return block.getPosition();
+    private static long createCacheKey(OfflineBlock block) {
+        return createCacheKey(block.getPosition());
     }
 
     /**
@@ -611,8 +780,8 @@ final class WorldRailLookupImpl implements WorldRailLookup {
      * @param coordinates Block Coordinates
      * @return Cache lookup key
      */
-    private static IntVector3 createCacheKey(IntVector3 coordinates) {
-        return coordinates;
+    private static long createCacheKey(IntVector3 coordinates) {
+        return LongBlockCoordinates.map(coordinates.x, coordinates.y, coordinates.z);
     }
 
     /**
@@ -651,6 +820,12 @@ final class WorldRailLookupImpl implements WorldRailLookup {
          */
         public Bucket[] rails_at_position;
 
+        /**
+         * Dead timeout tick at which this bucket is next checked for expiry, if this
+         * bucket is stored in the cache. EXPIRY_NOT_SCHEDULED if not scheduled.
+         */
+        public int expiry_tick = EXPIRY_NOT_SCHEDULED;
+
         // Initializes a new Bucket for a non-rail use, with RailType NONE
         // This is used when using a block position to find rails that have minecarts near it
         // If at a later time a rail block is found anyway, then this bucket is discarded and
@@ -667,6 +842,12 @@ final class WorldRailLookupImpl implements WorldRailLookup {
             this.rail_life = RailLookup.lifeTimer;
             this.rails_at_position_life = 0; // Needs to be calculated
             this.rails_at_position = NO_RAILS_AT_POSITION;
+            if (RailLookup.temporaryAccess) {
+                if (temporaryBuckets.isEmpty()) {
+                    temporaryBuckets = Collections.newSetFromMap(new IdentityHashMap<>());
+                }
+                temporaryBuckets.add(this);
+            }
         }
 
         /**
@@ -744,21 +925,7 @@ final class WorldRailLookupImpl implements WorldRailLookup {
                 newBucket.next = this;
             }
 
-            // Replace or add to cache values mapping
-            {
-                boolean found = false;
-                for (ListIterator<Bucket> iter = cacheValues.listIterator(); iter.hasNext();) {
-                    if (iter.next() == this) {
-                        iter.set(newBucket);
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    cacheValues.add(newBucket);
-                }
-            }
-            cache.put(createCacheKey(newBucket.blockPosition()), newBucket);
+            addToCache(createCacheKey(newBucket.blockPosition()), newBucket);
 
             return newBucket;
         }
@@ -930,6 +1097,7 @@ final class WorldRailLookupImpl implements WorldRailLookup {
                 // Clear all signs with a special array that indicates signs couldn't be calculated
                 // If the rail type exists in the future, recalculates the signs properly
                 this.signs = RailLookup.MISSING_RAILS_NO_SIGNS;
+                notifyTrackChanged();
 
                 // This sadly will result in another cache lookup, but as it only occurs when rails
                 // go missing, it's not a big problem. We must return false so that during at-position
@@ -970,6 +1138,7 @@ final class WorldRailLookupImpl implements WorldRailLookup {
         public void forceCacheVerification() {
             this.rail_life = RailLookup.LIFE_TIMER_START;
             this.signs = RailLookup.MISSING_RAILS_NO_SIGNS;
+            notifyTrackChanged();
         }
     }
 
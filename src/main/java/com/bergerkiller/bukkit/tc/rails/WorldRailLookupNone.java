@@ -46,6 +46,20 @@ final class WorldRailLookupNone implements WorldRailLookup {
         throw new UnsupportedOperationException("World Rail Lookup cache is closed");
     }
 
+    @Override
+    public TrackOccupancyIndex getTrackOccupancy() {
+        throw new UnsupportedOperationException("World Rail Lookup cache is closed");
+    }
+
+    @Override
+    public int getTrackChangeCounter() {
+        return 0;
+    }
+
+    @Override
+    public void notifyTrackChanged() {
+    }
+
     @Override
     public boolean isValid() {
         return false;
@@ -41,10 +41,12 @@ import java.util.logging.Level;
 public abstract class SignAction {
     private static List<SignAction> actions = Collections.emptyList();
     private static List<SignAction> actionsWithLoadedChangedHandler = Collections.emptyList();
+    private static int registrationCounter = 0;
 
     public static void init() {
         actions = new ArrayList<>();
         actionsWithLoadedChangedHandler = new ArrayList<>();
+        registrationCounter++;
         register(new SignActionStation());
         register(new SignActionLauncher());
         register(new SignActionSwitcher());
@@ -84,6 +86,18 @@ public abstract class SignAction {
     public static void deinit() {
         actions = Collections.emptyList();
         actionsWithLoadedChangedHandler = Collections.emptyList();
+        registrationCounter++;
+    }
+
+    /**
+     * Gets a counter that is incremented every time a sign action is registered or
+     * un-registered. Sign actions cached for signs should be looked up again when
+     * this counter changes.
+     *
+     * @return registration counter
+     */
+    public static int getRegistrationCounter() {
+        return registrationCounter;
     }
 
     /**
@@ -93,6 +107,17 @@ public abstract class SignAction {
      * @return sign action, or null if not found
      */
     public static SignAction getSignAction(SignActionEvent event) {
+        // If the tracked sign already knows the action matching its text, only check that one
+        // The text might have changed since, and verification depends on the type of action
+        // that is performed, so both are checked again.
+        TrackedSign trackedSign = event.getTrackedSign();
+        if (trackedSign != null && trackedSign.hasCachedAction()) {
+            SignAction action = trackedSign.getAction();
+            if (action != null && action.match(event) && action.verify(event)) {
+                return action;
+            }
+        }
+
         for (SignAction action : actions) {
             if (action.match(event) && action.verify(event)) {
                 return action;
@@ -144,6 +169,7 @@ public abstract class SignAction {
             }
 
             // TrackedSign stores a SignAction too - make sure this is wiped
+            registrationCounter++;
             RailLookup.forceRecalculation();
         }
         return action;
@@ -151,7 +177,9 @@ public abstract class SignAction {
 
     public static void unregister(SignAction action) {
         if (actions.isEmpty()) return;
-        actions.remove(action);
+        if (actions.remove(action)) {
+            registrationCounter++;
+        }
         actionsWithLoadedChangedHandler.remove(action);
     }
 
@@ -32,6 +32,14 @@ public abstract class MutexZone {
     public abstract boolean containsBlock(IntVector3 block);
     public abstract boolean isNearby(IntVector3 block, int radius);
     public abstract void forAllContainedChunks(ChunkCoordConsumer action);
+
+    /**
+     * Marks all blocks of this mutex zone that are inside the chunk of a bitmap
+     *
+     * @param bitmap Chunk bitmap to update
+     */
+    protected abstract void addToBitmap(MutexZoneChunkBitmap bitmap);
+
     public abstract long showDebugColorSeed();
     public abstract void showDebug(Player player, Color color);
     protected abstract void setLeversDown(boolean down);
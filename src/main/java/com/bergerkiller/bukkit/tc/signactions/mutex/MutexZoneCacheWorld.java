@@ -41,6 +41,7 @@ public class MutexZoneCacheWorld {
     protected final Map<SignSidePositionKey, MutexZone> bySignPosition = new HashMap<>();
     protected final Map<PathingSignKey, MutexZonePath> byPathingKey = new HashMap<>();
     private final LongHashMap<MutexZone[]> byChunk = new LongHashMap<>();
+    private final LongHashMap<MutexZoneChunkBitmap> bitmapByChunk = new LongHashMap<>();
     private final Set<MutexZone> newZonesLive = new HashSet<>();
     private List<MutexZone> newZones = Collections.emptyList();
 
@@ -57,10 +58,25 @@ public class MutexZoneCacheWorld {
     }
 
     public MovingPoint track(IntVector3 blockPosition) {
-        return new MovingPoint(byChunk::get, blockPosition.getChunkX(), blockPosition.getChunkZ());
+        return new MovingPoint(new MutexZoneByChunkGetter() {
+            @Override
+            public MutexZone[] getAt(int cx, int cz) {
+                return byChunk.get(cx, cz);
+            }
+
+            @Override
+            public MutexZoneChunkBitmap getBitmapAt(int cx, int cz) {
+                return bitmapByChunk.get(cx, cz);
+            }
+        }, blockPosition.getChunkX(), blockPosition.getChunkZ());
     }
 
     public MutexZone find(IntVector3 position) {
+        MutexZoneChunkBitmap bitmap = bitmapByChunk.get(position.getChunkX(), position.getChunkZ());
+        if (bitmap == null || !bitmap.get(position.x, position.y, position.z)) {
+            return null;
+        }
+
         MutexZone[] inChunk = byChunk.get(position.getChunkX(), position.getChunkZ());
         if (inChunk != null) {
             for (MutexZone zone : inChunk) {
@@ -172,9 +188,33 @@ public class MutexZoneCacheWorld {
                 atChunk[len] = zone;
                 byChunk.put(key, atChunk);
             }
+
+            // Mark the blocks of the zone in the chunk's bitmap
+            MutexZoneChunkBitmap bitmap = bitmapByChunk.get(key);
+            if (bitmap == null) {
+                bitmap = new MutexZoneChunkBitmap(cx, cz);
+                bitmapByChunk.put(key, bitmap);
+            }
+            zone.addToBitmap(bitmap);
         });
     }
 
+    /**
+     * Marks a single block as contained by a mutex zone. Used by growing mutex zones
+     * when the block is inside chunks the zone is already mapped in.
+     *
+     * @param block Block newly contained by a mutex zone
+     */
+    protected void addBlockToBitmap(IntVector3 block) {
+        long key = MathUtil.longHashToLong(block.getChunkX(), block.getChunkZ());
+        MutexZoneChunkBitmap bitmap = bitmapByChunk.get(key);
+        if (bitmap == null) {
+            bitmap = new MutexZoneChunkBitmap(block.getChunkX(), block.getChunkZ());
+            bitmapByChunk.put(key, bitmap);
+        }
+        bitmap.set(block.x, block.y, block.z);
+    }
+
     private void unmapFromChunks(MutexZone zone) {
         zone.forAllContainedChunks((cx, cz) -> {
             long key = MathUtil.longHashToLong(cx, cz);
@@ -187,6 +227,20 @@ public class MutexZoneCacheWorld {
                     }
                 }
                 byChunk.put(key, atChunk);
+
+                // Zones can overlap, so re-mark the blocks of the remaining zones
+                MutexZoneChunkBitmap bitmap = bitmapByChunk.get(key);
+                if (bitmap == null) {
+                    bitmap = new MutexZoneChunkBitmap(cx, cz);
+                    bitmapByChunk.put(key, bitmap);
+                } else {
+                    bitmap.clear();
+                }
+                for (MutexZone remaining : atChunk) {
+                    remaining.addToBitmap(bitmap);
+                }
+            } else {
+                bitmapByChunk.remove(key);
             }
         });
     }
@@ -234,6 +288,7 @@ public class MutexZoneCacheWorld {
         bySignPosition.clear();
         byPathingKey.clear();
         byChunk.clear();
+        bitmapByChunk.clear();
     }
 
     public void onTick() {
@@ -272,10 +327,13 @@ public class MutexZoneCacheWorld {
      * blocks that don't change chunk coordinates often.
      */
     public static final class MovingPoint {
+        /** Maximum number of blocks a ray can cross for the bitmap to be checked first */
+        private static final int MAX_BITMAP_CHECKED_BLOCKS = 64;
         private final MutexZoneByChunkGetter byChunkGetter;
         private int chunkX;
         private int chunkZ;
         private MutexZone[] chunkZones;
+        private MutexZoneChunkBitmap chunkBitmap;
 
         public MovingPoint(MutexZoneByChunkGetter byChunkGetter, int chunkX, int chunkZ) {
             this.byChunkGetter = byChunkGetter;
@@ -284,6 +342,7 @@ public class MutexZoneCacheWorld {
 
             MutexZone[] zones = byChunkGetter.getAt(chunkX, chunkZ);
             this.chunkZones = (zones == null) ? NO_ZONES : zones;
+            this.chunkBitmap = byChunkGetter.getBitmapAt(chunkX, chunkZ);
         }
 
         /**
@@ -316,6 +375,12 @@ public class MutexZoneCacheWorld {
             p1.assertAbsolute();
             p2.assertAbsolute();
 
+            // Mutex zones only count when the ray crosses one of their blocks. If the blocks
+            // around the ray contain no mutex zones at all, there is no need to hit-test the zones.
+            if (!mayContainZones(p1, p2)) {
+                return null;
+            }
+
             int cx1 = MathUtil.toChunk(p1.posX);
             int cz1 = MathUtil.toChunk(p1.posZ);
             int cx2 = MathUtil.toChunk(p2.posX);
@@ -411,12 +476,41 @@ public class MutexZoneCacheWorld {
                     zones = NO_ZONES;
                 }
                 this.chunkZones = zones;
+                this.chunkBitmap = byChunkGetter.getBitmapAt(cx, cz);
                 return zones;
             } else {
                 return this.chunkZones;
             }
         }
 
+        boolean mayContainZones(RailPath.Position p1, RailPath.Position p2) {
+            // Include blocks the ray only touches the side of
+            final double eps = 1e-4;
+            int minX = MathUtil.floor(Math.min(p1.posX, p2.posX) - eps);
+            int minY = MathUtil.floor(Math.min(p1.posY, p2.posY) - eps);
+            int minZ = MathUtil.floor(Math.min(p1.posZ, p2.posZ) - eps);
+            int maxX = MathUtil.floor(Math.max(p1.posX, p2.posX) + eps);
+            int maxY = MathUtil.floor(Math.max(p1.posY, p2.posY) + eps);
+            int maxZ = MathUtil.floor(Math.max(p1.posZ, p2.posZ) + eps);
+            if ((maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1) > MAX_BITMAP_CHECKED_BLOCKS) {
+                return true; // Very long rail, just hit-test the zones
+            }
+
+            for (int cz = (minZ >> 4); cz <= (maxZ >> 4); cz++) {
+                for (int cx = (minX >> 4); cx <= (maxX >> 4); cx++) {
+                    MutexZone[] zones = findZonesInChunk(cx, cz);
+                    if (chunkBitmap == null) {
+                        if (zones.length > 0) {
+                            return true;
+                        }
+                    } else if (chunkBitmap.getAny(minX, minY, minZ, maxX, maxY, maxZ)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
         /**
          * Checks whether there are any mutex zones nearby the current chunk
          * this moving point is tracking. This checks whether there are mutex
@@ -443,6 +537,18 @@ public class MutexZoneCacheWorld {
     @FunctionalInterface
     public interface MutexZoneByChunkGetter {
         MutexZone[] getAt(int cx, int cz);
+
+        /**
+         * Gets the bitmap of blocks contained by the mutex zones in a chunk.
+         * If null is returned, all mutex zones in the chunk are hit-tested.
+         *
+         * @param cx Chunk X-coordinate
+         * @param cz Chunk Z-coordinate
+         * @return bitmap, or null if not available
+         */
+        default MutexZoneChunkBitmap getBitmapAt(int cx, int cz) {
+            return null;
+        }
     }
 
     /**
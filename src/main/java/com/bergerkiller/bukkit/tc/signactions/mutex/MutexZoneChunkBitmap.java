@@ -0,0 +1,158 @@
+package com.bergerkiller.bukkit.tc.signactions.mutex;
+
+import java.util.Arrays;
+
+/**
+ * Stores for every block of a single chunk whether a mutex zone contains it.
+ * Is used to quickly rule out mutex zones while walking track, without having
+ * to test the bounding boxes of all mutex zones in the chunk. Storage is
+ * allocated per 16x16x16 section, sections without mutex zones use no memory.
+ */
+public final class MutexZoneChunkBitmap {
+    private static final int SECTION_LONGS = 4096 / 64;
+    private final int cx, cz;
+    private int minSection = 0;
+    private long[][] sections = new long[0][];
+
+    public MutexZoneChunkBitmap(int cx, int cz) {
+        this.cx = cx;
+        this.cz = cz;
+    }
+
+    public int getChunkX() {
+        return cx;
+    }
+
+    public int getChunkZ() {
+        return cz;
+    }
+
+    /**
+     * Gets whether a mutex zone contains a block. The x/z-coordinates
+     * must be within this chunk.
+     *
+     * @param x X-coordinate of the block
+     * @param y Y-coordinate of the block
+     * @param z Z-coordinate of the block
+     * @return True if a mutex zone contains the block
+     */
+    public boolean get(int x, int y, int z) {
+        int sectionIndex = (y >> 4) - minSection;
+        if (sectionIndex < 0 || sectionIndex >= sections.length) {
+            return false;
+        }
+        long[] section = sections[sectionIndex];
+        if (section == null) {
+            return false;
+        }
+        int bit = index(x, y, z);
+        return (section[bit >> 6] & (1L << bit)) != 0L;
+    }
+
+    /**
+     * Gets whether a mutex zone contains any of the blocks inside a cuboid area.
+     * The area is clipped to this chunk.
+     *
+     * @param minX Minimum X-coordinate of the area (inclusive)
+     * @param minY Minimum Y-coordinate of the area (inclusive)
+     * @param minZ Minimum Z-coordinate of the area (inclusive)
+     * @param maxX Maximum X-coordinate of the area (inclusive)
+     * @param maxY Maximum Y-coordinate of the area (inclusive)
+     * @param maxZ Maximum Z-coordinate of the area (inclusive)
+     * @return True if a mutex zone contains any of the blocks
+     */
+    public boolean getAny(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        minX = Math.max(minX, cx << 4);
+        minZ = Math.max(minZ, cz << 4);
+        maxX = Math.min(maxX, (cx << 4) + 15);
+        maxZ = Math.min(maxZ, (cz << 4) + 15);
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    if (get(x, y, z)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks a block as contained by a mutex zone. The x/z-coordinates
+     * must be within this chunk.
+     *
+     * @param x X-coordinate of the block
+     * @param y Y-coordinate of the block
+     * @param z Z-coordinate of the block
+     */
+    public void set(int x, int y, int z) {
+        long[] section = getOrCreateSection(y >> 4);
+        int bit = index(x, y, z);
+        section[bit >> 6] |= (1L << bit);
+    }
+
+    /**
+     * Marks all blocks inside a cuboid area as contained by a mutex zone.
+     * The area is clipped to this chunk.
+     *
+     * @param minX Minimum X-coordinate of the area (inclusive)
+     * @param minY Minimum Y-coordinate of the area (inclusive)
+     * @param minZ Minimum Z-coordinate of the area (inclusive)
+     * @param maxX Maximum X-coordinate of the area (inclusive)
+     * @param maxY Maximum Y-coordinate of the area (inclusive)
+     * @param maxZ Maximum Z-coordinate of the area (inclusive)
+     */
+    public void setAll(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        minX = Math.max(minX, cx << 4);
+        minZ = Math.max(minZ, cz << 4);
+        maxX = Math.min(maxX, (cx << 4) + 15);
+        maxZ = Math.min(maxZ, (cz << 4) + 15);
+        if (minX > maxX || minZ > maxZ) {
+            return;
+        }
+        for (int y = minY; y <= maxY; y++) {
+            long[] section = getOrCreateSection(y >> 4);
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    int bit = index(x, y, z);
+                    section[bit >> 6] |= (1L << bit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears all blocks, so that no blocks are contained by a mutex zone
+     */
+    public void clear() {
+        minSection = 0;
+        sections = new long[0][];
+    }
+
+    private long[] getOrCreateSection(int sectionY) {
+        if (sections.length == 0) {
+            minSection = sectionY;
+            sections = new long[1][];
+        } else if (sectionY < minSection) {
+            long[][] newSections = new long[sections.length + (minSection - sectionY)][];
+            System.arraycopy(sections, 0, newSections, minSection - sectionY, sections.length);
+            sections = newSections;
+            minSection = sectionY;
+        } else if (sectionY >= minSection + sections.length) {
+            sections = Arrays.copyOf(sections, sectionY - minSection + 1);
+        }
+
+        int sectionIndex = sectionY - minSection;
+        long[] section = sections[sectionIndex];
+        if (section == null) {
+            section = new long[SECTION_LONGS];
+            sections[sectionIndex] = section;
+        }
+        return section;
+    }
+
+    private static int index(int x, int y, int z) {
+        return ((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF);
+    }
+}
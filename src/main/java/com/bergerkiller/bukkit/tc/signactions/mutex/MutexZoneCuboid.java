@@ -60,6 +60,11 @@ public class MutexZoneCuboid extends MutexZone {
         }
     }
 
+    @Override
+    protected void addToBitmap(MutexZoneChunkBitmap bitmap) {
+        bitmap.setAll(start.x, start.y, start.z, end.x, end.y, end.z);
+    }
+
     @Override
     public long showDebugColorSeed() {
         return MathUtil.longHashToLong(start.hashCode(), end.hashCode());
@@ -5,6 +5,7 @@ import com.bergerkiller.bukkit.common.math.OrientedBoundingBox;
 import com.bergerkiller.bukkit.common.offline.OfflineBlock;
 import com.bergerkiller.bukkit.common.utils.CommonUtil;
 import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.common.wrappers.LongHashMap;
 import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.Util;
@@ -37,6 +38,7 @@ public class MutexZonePath extends MutexZone {
     private final double spacing;
     private final double maxDistance;
     private final Set<IntVector3> blocks = new LinkedHashSet<>(128);
+    private final LongHashMap<List<IntVector3>> blocksByChunk = new LongHashMap<>();
     private int tickLastUsed;
     private int minX, minY, minZ, maxX, maxY, maxZ;
     private int minCX, minCZ, maxCX, maxCZ;
@@ -194,6 +196,15 @@ public class MutexZonePath extends MutexZone {
             return;
         }
 
+        // Group by chunk so the bitmap of a chunk is filled without visiting all blocks
+        long chunkKey = MathUtil.longHashToLong(block.getChunkX(), block.getChunkZ());
+        List<IntVector3> blocksAtChunk = blocksByChunk.get(chunkKey);
+        if (blocksAtChunk == null) {
+            blocksAtChunk = new ArrayList<>();
+            blocksByChunk.put(chunkKey, blocksAtChunk);
+        }
+        blocksAtChunk.add(block);
+
         // Update cubes for hit-testing
         updateBB(block);
 
@@ -243,9 +254,13 @@ public class MutexZonePath extends MutexZone {
             }
         }
 
-        // If changed, and the sign is still mapped (sanity check), update chunks
-        if (chunksChanged && world != null && world.byPathingKey.get(key) == this) {
-            world.addNewChunks(this);
+        // If the sign is still mapped (sanity check), update chunks or the block bitmap
+        if (world != null && world.byPathingKey.get(key) == this) {
+            if (chunksChanged) {
+                world.addNewChunks(this);
+            } else {
+                world.addBlockToBitmap(block);
+            }
         }
     }
 
@@ -280,6 +295,16 @@ public class MutexZonePath extends MutexZone {
         }
     }
 
+    @Override
+    protected void addToBitmap(MutexZoneChunkBitmap bitmap) {
+        List<IntVector3> blocksAtChunk = blocksByChunk.get(bitmap.getChunkX(), bitmap.getChunkZ());
+        if (blocksAtChunk != null) {
+            for (IntVector3 block : blocksAtChunk) {
+                bitmap.set(block.x, block.y, block.z);
+            }
+        }
+    }
+
     @Override
     public long showDebugColorSeed() {
         return signBlock.hashCode();
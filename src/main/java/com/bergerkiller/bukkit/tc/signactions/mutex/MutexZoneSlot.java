@@ -4,6 +4,7 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -11,12 +12,14 @@ import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
+import com.bergerkiller.bukkit.tc.TCConfig;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.Util;
 import com.bergerkiller.bukkit.tc.offline.train.format.OfflineDataBlock;
 import com.bergerkiller.bukkit.tc.properties.TrainProperties;
 import com.bergerkiller.bukkit.tc.properties.TrainPropertiesStore;
 import com.bergerkiller.bukkit.tc.signactions.mutex.railslot.MutexRailSlot;
+import com.bergerkiller.bukkit.tc.signactions.mutex.railslot.MutexRailSlotBitsets;
 import com.bergerkiller.bukkit.tc.signactions.mutex.railslot.MutexRailSlotMap;
 import org.bukkit.block.Block;
 
@@ -39,6 +42,9 @@ public class MutexZoneSlot {
     private static final int TICK_DELAY_CLEAR_AUTOMATIC = 6; // Tick delay until a group is fully cleared from a mutex (and lever toggles up)
     private final String name;
     private final List<EnteredGroup> entered = new ArrayList<>(2);
+    private final MutexRailSlotBitsets enteredRailBitsets = new MutexRailSlotBitsets();
+    private final List<LoadedEnteredGroup> grantRequests = new ArrayList<>();
+    private final MutexRailSlotBitsets grantRailBitsets = new MutexRailSlotBitsets();
     private List<MutexZone> zones;
     private List<String> statements;
     private int tickLastHardEntered = 0;
@@ -150,6 +156,67 @@ public class MutexZoneSlot {
                 this.setLevers(false);
             }
         }
+        if (!grantRequests.isEmpty()) {
+            resolveGrantRequests();
+        }
+    }
+
+    /**
+     * Resolves all requests to enter this slot submitted this tick when
+     * {@link TCConfig#mutexBatchedGrants} is enabled. Requests are granted in order of
+     * how long the group has waited, and then by distance to the mutex zone. A request is
+     * granted if none of its rails are locked by the groups that already have access, or by
+     * the requests that go before it. Rejected requests are submitted again next tick.
+     */
+    private void resolveGrantRequests() {
+        List<LoadedEnteredGroup> requests = new ArrayList<>(grantRequests.size());
+        for (LoadedEnteredGroup request : grantRequests) {
+            request.grantRequested = false;
+            if (!request.granted && entered.contains(request)) {
+                request.occupiedRails.clearOldRails(request.probeTick); // Only the rails submitted last
+                requests.add(request);
+            }
+        }
+        grantRequests.clear();
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        // Sort by priority. The train name makes the order the same regardless of
+        // the order in which the trains submitted their requests.
+        requests.sort(Comparator.<LoadedEnteredGroup>comparingInt(r -> -r.age())
+                .thenComparingDouble(r -> r.distanceToMutex)
+                .thenComparing(LoadedEnteredGroup::getTrainName));
+
+        // Index the rails of the groups that have access, followed by those of the requests
+        List<MutexRailSlotMap> maps = new ArrayList<>(entered.size());
+        for (EnteredGroup enteredGroup : entered) {
+            if (!requests.contains(enteredGroup)) {
+                maps.add(enteredGroup.occupiedRails);
+            }
+        }
+        int numHolders = maps.size();
+        if (numHolders >= MutexRailSlotBitsets.MAX_MAPS) {
+            return; // Too many to index. Try again once some groups have left.
+        }
+        int count = Math.min(numHolders + requests.size(), MutexRailSlotBitsets.MAX_MAPS);
+        for (int i = numHolders; i < count; i++) {
+            maps.add(requests.get(i - numHolders).occupiedRails);
+        }
+        MutexRailSlotBitsets bitsets = this.grantRailBitsets;
+        bitsets.rebuild(maps.toArray(new MutexRailSlotMap[count]));
+
+        // Requests past the index limit wait until a later tick
+        long blocking = (numHolders == 0) ? 0L : (-1L >>> (64 - numHolders));
+        for (int i = numHolders; i < count; i++) {
+            LoadedEnteredGroup request = requests.get(i - numHolders);
+            if (!bitsets.isLockedByAny(request.occupiedRails, blocking)) {
+                request.granted = true;
+            }
+
+            // Granted or not, requests that go later can not use the same rails
+            blocking |= 1L << i;
+        }
     }
 
     /**
@@ -265,6 +332,35 @@ public class MutexZoneSlot {
         return enteredGroup;
     }
 
+    /**
+     * Gets a bitset of the indices of entered groups that might have locked a rail block.
+     * Other entered groups have certainly not locked it. Groups with an index beyond 63
+     * are not included, and must always be checked.
+     *
+     * @param rail Rail block
+     * @return bitset of entered group indices
+     */
+    private long getEnteredGroupsLocking(IntVector3 rail) {
+        List<EnteredGroup> entered = this.entered;
+        int count = Math.min(entered.size(), MutexRailSlotBitsets.MAX_MAPS);
+        MutexRailSlotBitsets bitsets = this.enteredRailBitsets;
+
+        // Entered groups are added and removed in many places, so check the index is up to date
+        boolean upToDate = (bitsets.size() == count);
+        for (int i = 0; upToDate && i < count; i++) {
+            upToDate = (bitsets.get(i) == entered.get(i).occupiedRails);
+        }
+        if (!upToDate) {
+            MutexRailSlotMap[] maps = new MutexRailSlotMap[count];
+            for (int i = 0; i < count; i++) {
+                maps[i] = entered.get(i).occupiedRails;
+            }
+            bitsets.rebuild(maps);
+        }
+
+        return bitsets.getLocking(rail);
+    }
+
     private void setLevers(boolean down) {
         for (MutexZone zone : this.zones) {
             zone.setLevers(down);
@@ -395,6 +491,8 @@ public class MutexZoneSlot {
         public boolean active = true;
         /** Distance from the front of the train to where this slot was first encountered */
         public double distanceToMutex;
+        /** Whether the group was given access to enter, when {@link TCConfig#mutexBatchedGrants} is enabled */
+        protected boolean granted = false;
         /** The rail coordinates locked by the group that have positions within the mutex */
         protected final MutexRailSlotMap occupiedRails;
         /**
@@ -420,6 +518,7 @@ public class MutexZoneSlot {
             this.hardEnter = copy.hardEnter;
             this.active = copy.active;
             this.distanceToMutex = copy.distanceToMutex;
+            this.granted = copy.granted;
             this.occupiedRails = copy.occupiedRails;
             this.otherGroupsToDeactivate = copy.otherGroupsToDeactivate;
             this.groupsDeactivatingMe = copy.groupsDeactivatingMe;
@@ -480,6 +579,8 @@ public class MutexZoneSlot {
         public int occupiedTick;
         /** If a mutex conflict occurred, stores the event details of the conflict */
         private MutexZoneConflictEvent conflict = null;
+        /** Whether the group is waiting for its request to enter to be resolved this tick */
+        private boolean grantRequested = false;
 
         public LoadedEnteredGroup(MutexZoneSlot slot, MinecartGroup group, double distanceToMutex, int creationTick, int nowTicks) {
             super(distanceToMutex);
@@ -593,6 +694,19 @@ public class MutexZoneSlot {
                 // This is important when resolving the order of restoring trains when a train
                 // leaves the mutex zone, and the zone contains smart mutexes.
                 boolean addedNewSlot = this.occupiedRails.add(type, railBlock, this.probeTick);
+                if (addedNewSlot || type == MutexZoneSlotType.NORMAL) {
+                    slot.enteredRailBitsets.add(this.occupiedRails, railBlock);
+                }
+
+                // With batched grants, a group that was not given access yet only submits its rails.
+                // All requests are resolved at the same time at the end of the tick.
+                if (TCConfig.mutexBatchedGrants && !this.granted && !this.hardEnter) {
+                    if (!this.grantRequested) {
+                        this.grantRequested = true;
+                        slot.grantRequests.add(this);
+                    }
+                    return EnterResult.OCCUPIED_DISCOVER;
+                }
 
                 // If already occupied fully a previous tick/previous update, and this was not
                 // cancelled by deactivate(), then we can skip all the expensive logic down below.
@@ -612,10 +726,20 @@ public class MutexZoneSlot {
 
             // Remove all soft-entered groups that share rails in common (or if null, any and all)
             // If we find another group that already hard-entered the mutex, cancel.
-            for (EnteredGroup enteredGroup : slot.entered) {
+            // Only the groups that might have locked this rail have to be checked.
+            long lockingGroups = slot.getEnteredGroupsLocking(railBlock);
+            List<EnteredGroup> slotEntered = slot.entered;
+            for (int enteredIndex = 0; enteredIndex < slotEntered.size(); enteredIndex++) {
+                EnteredGroup enteredGroup = slotEntered.get(enteredIndex);
                 if (enteredGroup == this) {
                     continue;
                 }
+                if (enteredIndex < MutexRailSlotBitsets.MAX_MAPS && (lockingGroups & (1L << enteredIndex)) == 0L) {
+                    continue; // Has not locked this rail, so containsVerify() would return false
+                }
+                if (enteredGroup instanceof LoadedEnteredGroup && ((LoadedEnteredGroup) enteredGroup).grantRequested) {
+                    continue; // Waiting for batched grants, has not been given access
+                }
                 if (!enteredGroup.active) {
                     // If this inactive group has been waiting longer than this group, and it's path
                     // intersects with a block this group uses, cancel. This other group has priority
@@ -702,6 +826,7 @@ public class MutexZoneSlot {
 
         private void deactivate(IntVector3 conflictRail) {
             this.active = false;
+            this.granted = false;
             this.occupiedRails.clearConflict(conflictRail);
             this.occupiedTick = this.probeTick;
             if (!this.otherGroupsToDeactivate.isEmpty()) {
@@ -0,0 +1,141 @@
+package com.bergerkiller.bukkit.tc.signactions.mutex.railslot;
+
+import java.util.Arrays;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.tc.utils.LongBlockCoordinateMap;
+import com.bergerkiller.bukkit.tc.utils.LongBlockCoordinates;
+
+/**
+ * Indexes the rail blocks locked by up to 64 {@link MutexRailSlotMap} instances
+ * of the same mutex zone slot. Every rail block maps to a bitset with a bit set
+ * for every map (by index) that might have locked it. This way only the trains that
+ * might have locked a rail block have to be checked when another train tries to
+ * enter it.<br>
+ * <br>
+ * Rails removed from the maps are not removed from the index, so the bitsets can
+ * contain more maps than truly lock the rail. They never contain fewer.
+ */
+public final class MutexRailSlotBitsets {
+    /** Maximum number of rail slot maps that can be indexed */
+    public static final int MAX_MAPS = 64;
+    private static final MutexRailSlotMap[] NO_MAPS = new MutexRailSlotMap[0];
+    private final LongBlockCoordinateMap<long[]> byRail = new LongBlockCoordinateMap<>();
+    private MutexRailSlotMap[] maps = NO_MAPS;
+    private long fullyLocked = 0L;
+    private long lockingAny = 0L;
+
+    /**
+     * Gets the number of rail slot maps indexed
+     *
+     * @return map count
+     */
+    public int size() {
+        return maps.length;
+    }
+
+    /**
+     * Gets the rail slot map indexed at a bit index
+     *
+     * @param index Bit index
+     * @return rail slot map
+     */
+    public MutexRailSlotMap get(int index) {
+        return maps[index];
+    }
+
+    /**
+     * Re-indexes all the rails locked by the rail slot maps specified
+     *
+     * @param maps Rail slot maps to index, the index in the array is the bit index.
+     *             At most {@link #MAX_MAPS} can be specified.
+     */
+    public void rebuild(MutexRailSlotMap[] maps) {
+        if (maps.length > MAX_MAPS) {
+            throw new IllegalArgumentException("Too many rail slot maps: " + maps.length);
+        }
+        this.maps = Arrays.copyOf(maps, maps.length);
+        this.byRail.clear();
+        this.fullyLocked = 0L;
+        this.lockingAny = 0L;
+        for (int i = 0; i < maps.length; i++) {
+            long bit = 1L << i;
+            if (maps[i].isFullyLocked()) {
+                fullyLocked |= bit;
+            }
+            for (MutexRailSlot slot : maps[i].lockedRails()) {
+                addBit(slot.rail(), bit);
+                lockingAny |= bit;
+            }
+        }
+    }
+
+    /**
+     * Registers a rail block that was newly added to one of the indexed rail slot maps.
+     * If the map is not indexed, does nothing.
+     *
+     * @param map Rail slot map the rail was added to
+     * @param rail Rail block that was added
+     */
+    public void add(MutexRailSlotMap map, IntVector3 rail) {
+        MutexRailSlotMap[] maps = this.maps;
+        for (int i = 0; i < maps.length; i++) {
+            if (maps[i] == map) {
+                long bit = 1L << i;
+                if (map.isFullyLocked()) {
+                    fullyLocked |= bit;
+                }
+                addBit(rail, bit);
+                lockingAny |= bit;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the bits of all indexed rail slot maps that might lock a rail block.
+     * Includes the maps that lock the full mutex zone slot.
+     *
+     * @param rail Rail block
+     * @return bitset of rail slot map indices
+     */
+    public long getLocking(IntVector3 rail) {
+        long[] bits = byRail.get(rail.x, rail.y, rail.z);
+        return (bits == null) ? fullyLocked : (bits[0] | fullyLocked);
+    }
+
+    /**
+     * Gets whether any of the indexed rail slot maps in a bitset might lock one of the rails
+     * locked by another rail slot map. Maps that lock the full mutex zone slot share rails
+     * with every map that locks at least one rail.
+     *
+     * @param map Rail slot map whose locked rails to check
+     * @param mask Bitset of the indexed rail slot maps to check against
+     * @return True if one of the maps in the mask might lock the same rails
+     */
+    public boolean isLockedByAny(MutexRailSlotMap map, long mask) {
+        mask &= lockingAny;
+        if (mask == 0L) {
+            return false;
+        }
+        if ((fullyLocked & mask) != 0L || map.isFullyLocked()) {
+            return !map.lockedRails().isEmpty();
+        }
+        for (MutexRailSlot slot : map.lockedRails()) {
+            if ((getLocking(slot.rail()) & mask) != 0L) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addBit(IntVector3 rail, long bit) {
+        long key = LongBlockCoordinates.map(rail.x, rail.y, rail.z);
+        long[] bits = byRail.get(key);
+        if (bits == null) {
+            byRail.put(key, new long[] { bit });
+        } else {
+            bits[0] |= bit;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import com.bergerkiller.bukkit.tc.signactions.mutex.MutexZoneSlotType;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -147,6 +148,15 @@ public class MutexRailSlotMap {
         return false;
     }
 
+    /**
+     * Gets all rail slots that are currently locked
+     *
+     * @return locked rail slots
+     */
+    Collection<MutexRailSlot> lockedRails() {
+        return rails.values();
+    }
+
     public boolean isSmartLocked(IntVector3 rail) {
         return rails.containsKey(rail);
     }
@@ -8,9 +8,14 @@ import com.bergerkiller.bukkit.tc.events.SignActionEvent;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class Statement {
     private static List<Statement> statements = new ArrayList<>();
+    private static final int MAX_COMPILED_CACHE_SIZE = 4096;
+    private static final Map<String, Compiled> compiledCache = new ConcurrentHashMap<>();
+    private static final Map<String, Compiled> compiledMultipleCache = new ConcurrentHashMap<>();
 
     public static String[] parseArray(String text) {
         return text.split(";", -1);
@@ -42,6 +47,7 @@ public abstract class Statement {
 
     public static void deinit() {
         statements.clear();
+        clearCompiledCache();
     }
 
     public static <T extends Statement> T register(T statement) {
@@ -60,9 +66,60 @@ public abstract class Statement {
         }
 
         statements.add(index, statement);
+        clearCompiledCache();
         return statement;
     }
 
+    /**
+     * Compiles statement text so that it can be evaluated quickly, any number of times.
+     * The text is matched against the registered statements only once, and the result is
+     * cached until statements are registered or the statement shortcuts change.
+     *
+     * @param text Statement text
+     * @return Compiled statement
+     */
+    public static Compiled compile(String text) {
+        return compileCached(compiledCache, text, text);
+    }
+
+    /**
+     * Compiles a statement in the format used by {@link #hasMultiple(MinecartMember, MinecartGroup, Iterable, SignActionEvent)},
+     * which can be preceeded with &amp; or |. This logic prefix is omitted from the statement compiled.
+     *
+     * @param text Statement text, must not be empty
+     * @return Compiled statement
+     */
+    private static Compiled compileMultiplePart(String text) {
+        Compiled compiled = compiledMultipleCache.get(text);
+        if (compiled == null) {
+            char logic = text.charAt(0);
+            String statementText = (logic == '&' || logic == '|') ? text.substring(1) : text;
+            compiled = compileCached(compiledMultipleCache, text, statementText);
+        }
+        return compiled;
+    }
+
+    private static Compiled compileCached(Map<String, Compiled> cache, String key, String text) {
+        Compiled compiled = cache.get(key);
+        if (compiled == null) {
+            compiled = new Compiled(text);
+            if (cache.size() >= MAX_COMPILED_CACHE_SIZE) {
+                cache.clear(); // Avoid memory leaks when lots of different text is evaluated
+            }
+            cache.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Clears all statements compiled with {@link #compile(String)}, so that they are
+     * compiled again the next time. Must be called when the statement shortcuts change.
+     */
+    public static void clearCompiledCache() {
+        compiledCache.clear();
+        compiledMultipleCache.clear();
+    }
+
     public static boolean has(MinecartMember<?> member, String text, SignActionEvent event) {
         return has(member, null, text, event);
     }
@@ -83,7 +140,7 @@ public abstract class Statement {
      * @return True if successful, False if not
      */
     public static boolean has(MinecartMember<?> member, MinecartGroup group, String text, SignActionEvent event) {
-        return Matcher.of(text).withMember(member).withGroup(group).withSignEvent(event).match();
+        return compile(text).evaluate(member, group, event);
     }
 
     public static boolean hasMultiple(MinecartMember<?> member, Iterable<String> statementTexts, SignActionEvent event) {
@@ -113,15 +170,8 @@ public abstract class Statement {
         boolean match = true;
         for (String statementText : statementTexts) {
             if (!statementText.isEmpty()) {
-                boolean isLogicAnd = true;
-                if (statementText.startsWith("&")) {
-                    isLogicAnd = true;
-                    statementText = statementText.substring(1);
-                } else if (statementText.startsWith("|")) {
-                    isLogicAnd = false;
-                    statementText = statementText.substring(1);
-                }
-                boolean result = Statement.has(member, group, statementText, event);
+                boolean isLogicAnd = (statementText.charAt(0) != '|');
+                boolean result = compileMultiplePart(statementText).evaluate(member, group, event);
                 if (isLogicAnd) {
                     match &= result;
                 } else {
@@ -210,10 +260,117 @@ public abstract class Statement {
         return false;
     }
 
+    /**
+     * Handles a statement with array syntax. The text array is shared by all evaluations of
+     * the same compiled statement, and must not be modified.
+     *
+     * @param member MinecartMember
+     * @param text Array elements following the @
+     * @param event Sign event, can be null
+     * @return Result
+     */
     public boolean handleArray(MinecartMember<?> member, String[] text, SignActionEvent event) {
         return false;
     }
 
+    /**
+     * Statement text that has been matched against the registered statements. Evaluating it
+     * does no more parsing or matching of text. Create one using {@link Statement#compile(String)}.
+     */
+    public static final class Compiled {
+        private static final Statement[] NO_STATEMENTS = new Statement[0];
+        private final String text;
+        private final boolean inverted;
+        private final String[] array;
+        private final Statement[] statements;
+        private final boolean[] statementIsArray;
+
+        private Compiled(String inputText) {
+            boolean inv = false;
+            String text = TCConfig.statementShortcuts.replace(inputText);
+            while (!text.isEmpty() && text.charAt(0) == '!') {
+                text = text.substring(1);
+                inv = !inv;
+            }
+            this.text = text;
+            this.inverted = inv;
+            if (text.isEmpty()) {
+                this.array = null;
+                this.statements = NO_STATEMENTS;
+                this.statementIsArray = new boolean[0];
+                return;
+            }
+
+            // Find all statements that can handle this text, in the order they are tried
+            String lowerText = text.toLowerCase();
+            int idx = lowerText.indexOf('@');
+            String arrayText = idx == -1 ? null : lowerText.substring(0, idx);
+            this.array = idx == -1 ? null : parseArray(text.substring(idx + 1));
+            List<Statement> matched = new ArrayList<>(2);
+            List<Boolean> matchedIsArray = new ArrayList<>(2);
+            for (Statement statement : Statement.statements) {
+                if (arrayText != null && statement.matchArray(arrayText)) {
+                    matched.add(statement);
+                    matchedIsArray.add(Boolean.TRUE);
+                } else if (statement.match(lowerText)) {
+                    matched.add(statement);
+                    matchedIsArray.add(Boolean.FALSE);
+                }
+            }
+            this.statements = matched.toArray(NO_STATEMENTS);
+            this.statementIsArray = new boolean[matchedIsArray.size()];
+            for (int i = 0; i < this.statementIsArray.length; i++) {
+                this.statementIsArray[i] = matchedIsArray.get(i).booleanValue();
+            }
+        }
+
+        /**
+         * Evaluates this statement for a member or group.
+         * If both member and group are null, then only statements that require no train
+         * will function. Statements that do will return false.
+         *
+         * @param member to use, or null to use group
+         * @param group  to use, or null to use member
+         * @param event  to parse
+         * @return True if successful, False if not
+         */
+        public boolean evaluate(MinecartMember<?> member, MinecartGroup group, SignActionEvent event) {
+            return evaluate(member, group, event, null);
+        }
+
+        private boolean evaluate(MinecartMember<?> member, MinecartGroup group, SignActionEvent signEvent, Matcher matcher) {
+            boolean inv = this.inverted;
+            for (int i = 0; i < statements.length; i++) {
+                Statement statement = statements[i];
+                if (matcher != null) {
+                    matcher.lastStatement = statement;
+                    matcher.lastStatementIsArray = true;
+                }
+                if (signEvent == null && statement.requiredEvent()) {
+                    continue;
+                }
+                if (statementIsArray[i]) {
+                    if (member != null) {
+                        return statement.handleArray(member, array, signEvent) != inv;
+                    } else if (group != null) {
+                        return statement.handleArray(group, array, signEvent) != inv;
+                    } else if (!statement.requiresTrain()) {
+                        return statement.handleArray((MinecartMember<?>) null, array, signEvent) != inv;
+                    }
+                } else {
+                    if (member != null) {
+                        return statement.handle(member, text, signEvent) != inv;
+                    } else if (group != null) {
+                        return statement.handle(group, text, signEvent) != inv;
+                    } else if (!statement.requiresTrain()) {
+                        return statement.handle((MinecartMember<?>) null, text, signEvent) != inv;
+                    }
+                }
+            }
+            return inv;
+        }
+    }
+
     /**
      * Matches input text to find the statement and evaluate it against a group, member and/or
      * with sign context information.
@@ -303,49 +460,7 @@ public abstract class Statement {
             this.lastStatement = null;
             this.lastStatementIsArray = false;
 
-            boolean inv = false;
-            String text = TCConfig.statementShortcuts.replace(this.text);
-            while (!text.isEmpty() && text.charAt(0) == '!') {
-                text = text.substring(1);
-                inv = !inv;
-            }
-            if (text.isEmpty()) {
-                return inv;
-            }
-            String lowerText = text.toLowerCase();
-            int idx = lowerText.indexOf('@');
-            String arrayText = idx == -1 ? null : lowerText.substring(0, idx);
-            String[] array = idx == -1 ? null : parseArray(text.substring(idx + 1));
-            for (Statement statement : statements) {
-                if (arrayText != null && statement.matchArray(arrayText)) {
-                    this.lastStatement = statement;
-                    this.lastStatementIsArray = true;
-                    if (signEvent == null && statement.requiredEvent()) {
-                        continue;
-                    }
-                    if (member != null) {
-                        return statement.handleArray(member, array, signEvent) != inv;
-                    } else if (group != null) {
-                        return statement.handleArray(group, array, signEvent) != inv;
-                    } else if (!statement.requiresTrain()) {
-                        return statement.handleArray((MinecartMember<?>) null, array, signEvent) != inv;
-                    }
-                } else if (statement.match(lowerText)) {
-                    this.lastStatement = statement;
-                    this.lastStatementIsArray = true;
-                    if (signEvent == null && statement.requiredEvent()) {
-                        continue;
-                    }
-                    if (member != null) {
-                        return statement.handle(member, text, signEvent) != inv;
-                    } else if (group != null) {
-                        return statement.handle(group, text, signEvent) != inv;
-                    } else if (!statement.requiresTrain()) {
-                        return statement.handle((MinecartMember<?>) null, text, signEvent) != inv;
-                    }
-                }
-            }
-            return inv;
+            return compile(this.text).evaluate(member, group, signEvent, this);
         }
     }
 }
@@ -0,0 +1,220 @@
+package com.bergerkiller.bukkit.tc.utils;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Maps {@link LongBlockCoordinates} keys to values. Uses open addressing with linear
+ * probing in primitive arrays, so that no key objects have to be created to look up a value.
+ * Null values can not be stored, as null marks an empty slot.<br>
+ * <br>
+ * This map is not multi-thread safe.
+ *
+ * @param <V> Value type
+ */
+public final class LongBlockCoordinateMap<V> {
+    private static final int MIN_CAPACITY = 16;
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    public LongBlockCoordinateMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongBlockCoordinateMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        this.resizeThreshold = (capacity >> 1) + (capacity >> 2); // 0.75 load factor
+    }
+
+    /**
+     * Gets the number of values stored
+     *
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets whether no values are stored
+     *
+     * @return True if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the value stored for a block
+     *
+     * @param x X-coordinate of the block
+     * @param y Y-coordinate of the block
+     * @param z Z-coordinate of the block
+     * @return value, or null if none is stored
+     */
+    public V get(int x, int y, int z) {
+        return get(LongBlockCoordinates.map(x, y, z));
+    }
+
+    /**
+     * Gets the value stored for a key
+     *
+     * @param key Block coordinates key
+     * @return value, or null if none is stored
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        final long[] keys = this.keys;
+        final Object[] values = this.values;
+        final int mask = this.mask;
+        int i = hash(key) & mask;
+        Object value;
+        while ((value = values[i]) != null) {
+            if (keys[i] == key) {
+                return (V) value;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Stores a value for a key
+     *
+     * @param key Block coordinates key
+     * @param value Value to store, can not be null
+     * @return previous value stored, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value can not be null");
+        }
+
+        int i = hash(key) & mask;
+        Object existing;
+        while ((existing = values[i]) != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return (V) existing;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the value stored for a key
+     *
+     * @param key Block coordinates key
+     * @return value that was removed, or null if none was stored
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        final long[] keys = this.keys;
+        final Object[] values = this.values;
+        final int mask = this.mask;
+        int i = hash(key) & mask;
+        Object value;
+        while ((value = values[i]) != null) {
+            if (keys[i] == key) {
+                // Shift entries of the same probe sequence back into the freed slot,
+                // so that lookups never need to skip over removed entries
+                int free = i;
+                int next = (i + 1) & mask;
+                while (values[next] != null) {
+                    int home = hash(keys[next]) & mask;
+                    if (((next - home) & mask) >= ((next - free) & mask)) {
+                        keys[free] = keys[next];
+                        values[free] = values[next];
+                        free = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                values[free] = null;
+                size--;
+                return (V) value;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Removes all values
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * Removes all values and frees the memory used by the map
+     */
+    public void clearAndTrim() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * Calls a consumer for all values stored, in no particular order.
+     * The map should not be modified while iterating.
+     *
+     * @param action Consumer to call for each value
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (Object value : values) {
+            if (value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            Object value = oldValues[i];
+            if (value != null) {
+                int j = hash(oldKeys[i]) & mask;
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = value;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        // Block coordinates of rails are close together, mix all bits into the low bits
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < Integer.MAX_VALUE / 2 && ((capacity >> 1) + (capacity >> 2)) < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
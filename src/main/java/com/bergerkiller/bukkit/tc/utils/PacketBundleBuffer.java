@@ -0,0 +1,101 @@
+package com.bergerkiller.bukkit.tc.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Buffer that collects the packets sent to a single player during a tick, so they can be
+ * sent in one or more Bundle packets. The same buffer is re-used every tick, and only
+ * grows when more packets are sent in a tick than ever before.<br>
+ * <br>
+ * The lists of packets handed out by {@link #drainBundles(int, int, Consumer)} are exact-size
+ * copies. These are kept by the bundle packet until the network encodes it, which happens
+ * asynchronously, so those can not be re-used.
+ */
+public final class PacketBundleBuffer {
+    /**
+     * Maximum number of packets the client accepts in a single bundle. Clients disconnect
+     * when receiving a bundle with more than 4096 packets.
+     */
+    public static final int MAX_PACKETS_PER_BUNDLE = 4095;
+    private Object[] buffer;
+
+    public PacketBundleBuffer(int initialCapacity) {
+        this.buffer = new Object[initialCapacity];
+    }
+
+    /**
+     * Gets the array packets are written to by index. The same array is returned
+     * until {@link #ensureCapacity(int)} grows it.
+     *
+     * @return buffer array
+     */
+    public Object[] array() {
+        return buffer;
+    }
+
+    /**
+     * Gets the number of packets that can be written to {@link #array()}
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Makes sure the buffer can hold a number of packets. If it can not, the buffer
+     * is grown to twice that number, keeping the packets written so far.
+     *
+     * @param count Number of packets
+     */
+    public void ensureCapacity(int count) {
+        if (count > buffer.length) {
+            buffer = Arrays.copyOf(buffer, count * 2);
+        }
+    }
+
+    /**
+     * Waits until the packets at the first indices of the buffer were written by other threads.
+     * Checks in reverse, so that little waiting is needed.
+     *
+     * @param count Number of packets that must be written
+     */
+    public void awaitWritten(int count) {
+        Object[] buffer = this.buffer;
+        for (int i = Math.min(count, buffer.length) - 1; i >= 0; --i) {
+            while (buffer[i] == null) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Hands the packets at the first indices of the buffer to a consumer, in order, split
+     * into as few bundles as possible. The bundles are made about the same size, so that
+     * no tiny bundle is sent after a full one. After this the buffer is cleared so that it
+     * can be re-used.
+     *
+     * @param count Number of packets in the buffer
+     * @param maxPerBundle Maximum number of packets per bundle
+     * @param sink Consumer of the lists of packets of every bundle
+     */
+    public void drainBundles(int count, int maxPerBundle, Consumer<List<Object>> sink) {
+        if (count <= 0) {
+            return;
+        }
+
+        Object[] buffer = this.buffer;
+        int numBundles = (count + maxPerBundle - 1) / maxPerBundle;
+        int perBundle = (count + numBundles - 1) / numBundles;
+        try {
+            for (int start = 0; start < count; start += perBundle) {
+                int end = Math.min(start + perBundle, count);
+                sink.accept(Arrays.asList(Arrays.copyOfRange(buffer, start, end)));
+            }
+        } finally {
+            Arrays.fill(buffer, 0, count, null);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.bergerkiller.bukkit.tc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.common.config.ConfigurationNode;
+import com.bergerkiller.bukkit.common.math.Matrix4x4;
+import com.bergerkiller.bukkit.tc.attachments.api.Attachment;
+import com.bergerkiller.bukkit.tc.attachments.api.AttachmentInternalState;
+import com.bergerkiller.bukkit.tc.attachments.api.AttachmentViewer;
+import com.bergerkiller.bukkit.tc.attachments.helper.AttachmentUpdateTransformHelper;
+
+/**
+ * Measures how the computation of attachment transforms of many trains
+ * scales with the number of threads used.
+ */
+public class AttachmentTransformSchedulingTest {
+
+    @Ignore
+    @Test
+    public void testScaling() {
+        final int attachmentsPerTrain = 1000;
+        final int numTicks = 200;
+        for (int numTrains : new int[] { 1, 10, 100 }) {
+            List<Attachment> roots = new ArrayList<>();
+            List<Matrix4x4> transforms = new ArrayList<>();
+            for (int i = 0; i < numTrains; i++) {
+                roots.add(createTree(attachmentsPerTrain, 4));
+                Matrix4x4 transform = new Matrix4x4();
+                transform.translate(i, 0.0, 0.0);
+                transforms.add(transform);
+            }
+
+            // Reference result computed on a single thread
+            AttachmentUpdateTransformHelper reference = AttachmentUpdateTransformHelper.create(1);
+            update(reference, roots, transforms);
+            Vector expected = lastLeaf(roots.get(roots.size() - 1)).getTransform().toVector();
+
+            for (int parallelism : new int[] { 1, 2, 4, 8, 16, 32 }) {
+                AttachmentUpdateTransformHelper helper = AttachmentUpdateTransformHelper.create(parallelism);
+                for (int tick = 0; tick < numTicks; tick++) {
+                    update(helper, roots, transforms); // Warmup
+                }
+                long start = System.nanoTime();
+                for (int tick = 0; tick < numTicks; tick++) {
+                    update(helper, roots, transforms);
+                }
+                long time = System.nanoTime() - start;
+                assertEquals(expected, lastLeaf(roots.get(roots.size() - 1)).getTransform().toVector());
+
+                System.out.println("Trains: " + numTrains + " x " + attachmentsPerTrain + " attachments" +
+                        ", threads: " + parallelism +
+                        ", time per tick: " + (time / numTicks / 1000) + " us");
+            }
+        }
+    }
+
+    private static void update(AttachmentUpdateTransformHelper helper, List<Attachment> roots, List<Matrix4x4> transforms) {
+        for (int i = 0; i < roots.size(); i++) {
+            helper.start(roots.get(i), transforms.get(i), countNodes(roots.get(i)));
+        }
+        helper.finish();
+    }
+
+    private static Attachment createTree(int numNodes, int branching) {
+        List<Attachment> nodes = new ArrayList<>(numNodes);
+        nodes.add(new TestAttachment());
+        for (int i = 1; i < numNodes; i++) {
+            TestAttachment child = new TestAttachment();
+            child.getInternalState().position.transform.translate(0.0, 0.1, 0.2);
+            child.getInternalState().position.transform.rotateY(i);
+            nodes.get((i - 1) / branching).addChild(child);
+            nodes.add(child);
+        }
+        return nodes.get(0);
+    }
+
+    private static int countNodes(Attachment attachment) {
+        int count = 1;
+        for (Attachment child : attachment.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    private static Attachment lastLeaf(Attachment attachment) {
+        while (!attachment.getChildren().isEmpty()) {
+            attachment = attachment.getChildren().get(attachment.getChildren().size() - 1);
+        }
+        return attachment;
+    }
+
+    private static final class TestAttachment implements Attachment {
+        private final AttachmentInternalState state = new AttachmentInternalState();
+
+        @Override
+        public AttachmentInternalState getInternalState() {
+            return state;
+        }
+
+        @Override
+        public void onAttached() {
+        }
+
+        @Override
+        public void onDetached() {
+        }
+
+        @Override
+        public void onLoad(ConfigurationNode config) {
+        }
+
+        @Override
+        public void onTransformChanged(Matrix4x4 transform) {
+        }
+
+        @Override
+        public void onTick() {
+        }
+
+        @Override
+        public void onMove(boolean absolute) {
+        }
+
+        @Override
+        public void makeVisible(Player viewer) {
+        }
+
+        @Override
+        public void makeHidden(Player viewer) {
+        }
+
+        @Override
+        public Collection<Player> getViewers() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Collection<AttachmentViewer> getAttachmentViewers() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -13,10 +13,14 @@ import java.util.Random;
 import java.util.TreeMap;
 import java.util.stream.IntStream;
 
+import static org.junit.Assert.*;
+
 import org.junit.Ignore;
 import org.junit.Test;
 
 import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.tc.utils.LongBlockCoordinateMap;
+import com.bergerkiller.bukkit.tc.utils.LongBlockCoordinates;
 
 /**
  * Evaluates the performance of the RailCache and in particular
@@ -90,6 +94,84 @@ public class RailCacheHashingTest {
         //Object2ObjectOpenCustomHashMap
     }
     
+    @Test
+    public void testLongBlockCoordinateMap() {
+        // Compares against a HashMap while randomly adding and removing blocks close together,
+        // which exercises the re-ordering of entries when removing them
+        Random random = new Random(1234);
+        LongBlockCoordinateMap<IntVector3> map = new LongBlockCoordinateMap<>();
+        HashMap<IntVector3, IntVector3> expected = new HashMap<>();
+        for (int n = 0; n < 200000; n++) {
+            IntVector3 block = new IntVector3(random.nextInt(64) - 32, random.nextInt(16) - 64, random.nextInt(64) - 32);
+            long key = LongBlockCoordinates.map(block.x, block.y, block.z);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(block), map.remove(key));
+            } else {
+                assertEquals(expected.put(block, block), map.put(key, block));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int x = -32; x < 32; x++) {
+            for (int y = -64; y < -48; y++) {
+                for (int z = -32; z < 32; z++) {
+                    assertEquals(expected.get(new IntVector3(x, y, z)), map.get(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Ignore
+    @Test
+    public void testRailCacheLookupPerformance() throws IOException {
+        String contents = Files.readString(Path.of("hashtest/eruvedozig.txt"));
+        List<IntVector3> blocks = Arrays.stream(contents.split("\n")).map(
+                line -> Arrays.stream(line.split(" "))
+                        .mapToInt(s -> Integer.parseInt(s.replace("\r", "").replace("\n", "")))
+                        .toArray())
+                .map(coord -> new IntVector3(coord[0], coord[1], coord[2]))
+                .toList();
+
+        // Positions of carts are not stored as block coordinates, so every lookup
+        // used to create a new IntVector3 key. Trains look up consecutive blocks of track.
+        int[] xs = blocks.stream().mapToInt(b -> b.x).toArray();
+        int[] ys = blocks.stream().mapToInt(b -> b.y).toArray();
+        int[] zs = blocks.stream().mapToInt(b -> b.z).toArray();
+
+        HashMap<IntVector3, String> hashMap = new HashMap<>();
+        LongBlockCoordinateMap<String> longMap = new LongBlockCoordinateMap<>();
+        for (IntVector3 v : blocks) {
+            hashMap.put(v, v.toString());
+            longMap.put(LongBlockCoordinates.map(v.x, v.y, v.z), v.toString());
+        }
+
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            long found = 0;
+            for (int n = 0; n < 5000; n++) {
+                for (int i = 0; i < xs.length; i++) {
+                    if (hashMap.get(new IntVector3(xs[i], ys[i], zs[i])) != null) {
+                        found++;
+                    }
+                }
+            }
+            long hashMapTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int n = 0; n < 5000; n++) {
+                for (int i = 0; i < xs.length; i++) {
+                    if (longMap.get(xs[i], ys[i], zs[i]) != null) {
+                        found++;
+                    }
+                }
+            }
+            long longMapTime = System.nanoTime() - start;
+
+            System.out.println("HashMap: " + (hashMapTime / 1000000) + " ms, " +
+                               "LongBlockCoordinateMap: " + (longMapTime / 1000000) + " ms " +
+                               "(" + found + " found)");
+        }
+    }
+
     @Ignore
     @Test
     public void testHashPerformance() throws IOException {
@@ -0,0 +1,178 @@
+package com.bergerkiller.bukkit.tc;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.common.internal.CommonBootstrap;
+import com.bergerkiller.bukkit.tc.controller.components.RailPiece;
+import com.bergerkiller.bukkit.tc.events.SignActionEvent;
+import com.bergerkiller.bukkit.tc.rails.RailLookup.TrackedFakeSign;
+import com.bergerkiller.bukkit.tc.rails.RailLookup.TrackedSign;
+import com.bergerkiller.bukkit.tc.signactions.SignAction;
+import com.bergerkiller.bukkit.tc.signactions.SignActionType;
+
+/**
+ * Checks that the sign action cached in a tracked sign is the same one found without the cache,
+ * and measures how long it takes to find the sign actions of signs when trains pass them.
+ */
+public class SignActionDispatchTest {
+    private static final String[][] SIGN_TEXTS = {
+            { "[train]", "station", "5", "continue" },
+            { "[+train]", "destination", "", "spawn" },
+            { "[cart]", "switcher", "left", "right" },
+            { "[train]", "announce", "", "Next stop" },
+            { "[train]", "property", "speedlimit", "0.4" },
+            { "[train]", "sound", "minecraft:block.note_block.bell", "" },
+            { "[train]", "animate", "door", "" },
+            { "[train]", "unknownaddon", "", "" },
+            { "Welcome", "to the", "station", "" }
+    };
+
+    @Test
+    public void testCachedActionMatchesUncached() {
+        CommonBootstrap.initServer();
+        SignAction.init();
+        try {
+            TrackedSign[] signs = new TrackedSign[SIGN_TEXTS.length];
+            for (int i = 0; i < signs.length; i++) {
+                signs[i] = new TestSign(createBlock(i), SIGN_TEXTS[i].clone());
+                signs[i].getAction(); // Caches it
+                assertTrue(signs[i].hasCachedAction());
+            }
+            for (TrackedSign sign : signs) {
+                assertSameAction(sign);
+            }
+
+            // Text below the header changes after the action was cached
+            for (int i = 0; i < signs.length; i++) {
+                String[] otherText = SIGN_TEXTS[(i + 1) % SIGN_TEXTS.length];
+                for (int line = 1; line < otherText.length; line++) {
+                    signs[i].setLine(line, otherText[line]);
+                }
+                assertTrue(signs[i].hasCachedAction());
+                assertSameAction(signs[i]);
+            }
+        } finally {
+            SignAction.deinit();
+        }
+    }
+
+    @Ignore
+    @Test
+    public void testDispatchPerformance() {
+        CommonBootstrap.initServer();
+        SignAction.init();
+        try {
+            final int numSigns = 10000;
+            final int numRounds = 100;
+            TrackedSign[] signs = new TrackedSign[numSigns];
+            for (int i = 0; i < numSigns; i++) {
+                signs[i] = new TestSign(createBlock(i), SIGN_TEXTS[i % SIGN_TEXTS.length]);
+                signs[i].getAction(); // Caches it
+            }
+
+            for (int warmup = 0; warmup < 2; warmup++) {
+                // Every activation finds the sign action again, as happens for new tracked signs
+                long start = System.nanoTime();
+                for (int round = 0; round < numRounds; round++) {
+                    for (TrackedSign sign : signs) {
+                        TrackedSign uncached = new TestSign(sign.signBlock, ((TestSign) sign).lines);
+                        SignAction.getSignAction(uncached.createEvent(SignActionType.GROUP_ENTER));
+                    }
+                }
+                long timeUncached = System.nanoTime() - start;
+
+                // Tracked signs remember their sign action
+                start = System.nanoTime();
+                for (int round = 0; round < numRounds; round++) {
+                    for (TrackedSign sign : signs) {
+                        SignActionEvent event = sign.createEvent(SignActionType.GROUP_ENTER);
+                        SignAction.getSignAction(event);
+                    }
+                }
+                long timeCached = System.nanoTime() - start;
+
+                System.out.println("Signs: " + numSigns +
+                        ", uncached: " + (timeUncached / numRounds / numSigns) + " ns/sign" +
+                        ", cached: " + (timeCached / numRounds / numSigns) + " ns/sign");
+            }
+        } finally {
+            SignAction.deinit();
+        }
+    }
+
+    private static void assertSameAction(TrackedSign sign) {
+        TrackedSign uncached = new TestSign(sign.signBlock, ((TestSign) sign).lines.clone());
+        assertSame(SignAction.getSignAction(uncached.createEvent(SignActionType.GROUP_ENTER)),
+                   SignAction.getSignAction(sign.createEvent(SignActionType.GROUP_ENTER)));
+    }
+
+    private static Block createBlock(final int x) {
+        return (Block) Proxy.newProxyInstance(SignActionDispatchTest.class.getClassLoader(),
+                new Class<?>[] { Block.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getX": return x;
+                    case "getY": return 64;
+                    case "getZ": return 0;
+                    case "hashCode": return x;
+                    case "equals": return proxy == args[0];
+                    default: return null;
+                    }
+                });
+    }
+
+    private static final class TestSign extends TrackedFakeSign {
+        private final String[] lines;
+
+        public TestSign(Block signBlock, String[] lines) {
+            super(signBlock, RailPiece.NONE);
+            this.lines = lines;
+        }
+
+        @Override
+        public boolean verify() {
+            return true;
+        }
+
+        @Override
+        public boolean isRemoved() {
+            return false;
+        }
+
+        @Override
+        public BlockFace getFacing() {
+            return BlockFace.NORTH;
+        }
+
+        @Override
+        public Block getAttachedBlock() {
+            return null;
+        }
+
+        @Override
+        public String[] getExtraLines() {
+            return new String[0];
+        }
+
+        @Override
+        public PowerState getPower(BlockFace from) {
+            return PowerState.NONE;
+        }
+
+        @Override
+        public String getLine(int index) throws IndexOutOfBoundsException {
+            return lines[index];
+        }
+
+        @Override
+        public void setLine(int index, String line) throws IndexOutOfBoundsException {
+            lines[index] = line;
+        }
+    }
+}
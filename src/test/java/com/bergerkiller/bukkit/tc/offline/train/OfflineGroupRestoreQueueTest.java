@@ -0,0 +1,117 @@
+package com.bergerkiller.bukkit.tc.offline.train;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Tests the order in which queued offline groups are restored as trains
+ */
+public class OfflineGroupRestoreQueueTest {
+
+    @Test
+    public void testPollOrder() throws IOException {
+        OfflineGroup a = createGroup("a", 2);
+        OfflineGroup b = createGroup("b", 3);
+        OfflineGroup c = createGroup("c", 1);
+        OfflineGroup d = createGroup("d", 1);
+        Map<OfflineGroup, Long> priorities = new HashMap<>();
+        priorities.put(a, 5L);
+        priorities.put(b, 1L);
+        priorities.put(c, 3L);
+        priorities.put(d, 9L);
+
+        OfflineGroupRestoreQueue queue = new OfflineGroupRestoreQueue();
+        queue.add(a);
+        queue.add(b);
+        queue.add(c);
+        queue.add(d);
+        queue.add(b);
+        assertEquals(4, queue.size());
+
+        // Lowest priority first, until the cart limit is reached
+        List<OfflineGroup> restored = new ArrayList<>();
+        queue.poll(4, g -> priorities.get(g), g -> restored.add(g));
+        assertEquals(Arrays.asList(b, c), restored);
+        assertEquals(2, queue.size());
+
+        // Priorities are computed again every poll, and one group is restored even if over the limit
+        priorities.put(d, 0L);
+        restored.clear();
+        queue.poll(1, g -> priorities.get(g), g -> restored.add(g));
+        assertEquals(Collections.singletonList(d), restored);
+        queue.poll(1, g -> priorities.get(g), g -> restored.add(g));
+        assertEquals(Arrays.asList(d, a), restored);
+        assertTrue(queue.isEmpty());
+        assertEquals(4, queue.getMetrics().getMaxLength());
+        assertEquals(4, queue.getMetrics().getRestoredCount());
+
+        // Polling an empty queue does nothing
+        queue.poll(1, g -> priorities.get(g), g -> restored.add(g));
+        assertEquals(2, restored.size());
+    }
+
+    @Test
+    public void testRequeueWhenChunksUnloaded() throws IOException {
+        OfflineGroup a = createGroup("a", 2);
+        OfflineGroup b = createGroup("b", 2);
+        OfflineGroup c = createGroup("c", 2);
+        OfflineGroup e = createGroup("e", 2);
+        Map<OfflineGroup, Long> priorities = new HashMap<>();
+        priorities.put(a, 0L);
+        priorities.put(b, 1L);
+        priorities.put(c, 2L);
+        priorities.put(e, -1L);
+
+        OfflineGroupRestoreQueue queue = new OfflineGroupRestoreQueue();
+        queue.add(a);
+        queue.add(b);
+        queue.add(c);
+
+        // The chunks of a unloaded again: it is dropped from the queue without counting
+        // towards the limit, and waits for its chunks to load again
+        List<OfflineGroup> restored = new ArrayList<>();
+        queue.poll(2, g -> priorities.get(g), g -> g != a && restored.add(g));
+        assertEquals(Collections.singletonList(b), restored);
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getMetrics().getRestoredCount());
+
+        // Once loaded again it is queued again. Groups whose chunks load while restoring
+        // are restored after the groups queued before them.
+        queue.add(a);
+        queue.poll(100, g -> priorities.get(g), g -> {
+            if (g == a) {
+                queue.add(e);
+                queue.add(c);
+            }
+            return restored.add(g);
+        });
+        assertEquals(Arrays.asList(b, a, c, e), restored);
+        assertTrue(queue.isEmpty());
+        assertEquals(4, queue.getMetrics().getRestoredCount());
+
+        // The queue still works after groups were added while polling
+        queue.add(a);
+        queue.poll(100, g -> priorities.get(g), g -> restored.add(g));
+        assertEquals(Arrays.asList(b, a, c, e, a), restored);
+    }
+
+    private static OfflineGroup createGroup(String name, int numCarts) throws IOException {
+        List<Integer> memberData = new ArrayList<>();
+        for (int i = 0; i < numCarts; i++) {
+            memberData.add(i);
+        }
+        return new OfflineGroup(name, null, Collections.emptyList(), Collections.emptyList(), memberData,
+                (group, index) -> new OfflineMember(group, new UUID(name.hashCode(), index), 0, 0, 0.0, 0.0, 0.0,
+                        Collections.emptyList(), Collections.emptyList(), Collections.emptyList()));
+    }
+}
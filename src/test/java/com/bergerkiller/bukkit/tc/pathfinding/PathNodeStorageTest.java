@@ -0,0 +1,248 @@
+package com.bergerkiller.bukkit.tc.pathfinding;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.bergerkiller.bukkit.common.BlockLocation;
+import com.bergerkiller.bukkit.common.config.CompressedDataWriter;
+
+/**
+ * Tests saving and loading the path finding nodes, and the journal of changes
+ */
+public class PathNodeStorageTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveLoadRoundTrip() throws IOException {
+        String filename = folder.newFolder().getPath() + File.separator + "destinations.dat";
+        PathProvider provider = createNetwork(filename);
+        provider.save(false, filename);
+        assertTrue(PathNodeStorage.isStoredInFormat(new File(filename)));
+
+        // Worlds are only loaded once used
+        PathProvider loaded = new PathProvider(null);
+        loaded.load(filename);
+        assertTrue(loaded.getLoadedWorlds().isEmpty());
+        assertEquals(describe(provider.getLoadedWorlds()), describe(loaded.getWorlds()));
+    }
+
+    @Test
+    public void testUnloadedWorldsKeptOnSave() throws IOException {
+        String filename = folder.newFolder().getPath() + File.separator + "destinations.dat";
+        PathProvider provider = createNetwork(filename);
+        provider.save(false, filename);
+        List<String> expected = describe(provider.getLoadedWorlds());
+
+        // Only the nether is used, and saved both to the journal and in full
+        PathProvider loaded = new PathProvider(null);
+        loaded.load(filename);
+        PathWorld nether = loaded.getWorld("world_nether");
+        assertEquals(1, loaded.getLoadedWorlds().size());
+        nether.getNodeByName("portal").addName("nether_station");
+        loaded.save(true, filename);
+        assertTrue(new File(filename + ".journal").length() > 0);
+        provider.getWorld("world_nether").getNodeByName("portal").addName("nether_station");
+        expected = describe(provider.getLoadedWorlds());
+        loaded.save(false, filename);
+        assertFalse(new File(filename + ".journal").exists());
+        assertEquals(1, loaded.getLoadedWorlds().size());
+
+        PathProvider reloaded = new PathProvider(null);
+        reloaded.load(filename);
+        assertEquals(expected, describe(reloaded.getWorlds()));
+    }
+
+    @Test
+    public void testJournalReplay() throws IOException {
+        String filename = folder.newFolder().getPath() + File.separator + "destinations.dat";
+        PathProvider provider = createNetwork(filename);
+        provider.save(false, filename);
+        long length = new File(filename).length();
+
+        // Change the network: rename, add and remove nodes and change a connection
+        PathWorld world = provider.getWorld("world");
+        world.getNodeByName("station1").addName("central");
+        world.getNodeByName("station2").removeName("platform2");
+        PathNode added = world.addNode(new BlockLocation("world", 500, 70, -30));
+        added.addName("depot");
+        added.addNeighbour(world.getNodeByName("station1"), 12.75, "w", false);
+        world.getNodeAtRail(new BlockLocation("world", 100, 64, 0)).remove();
+        world.getNodeByName("station1").replaceNeighbours("e", added, 333.5);
+        List<String> expected = describe(provider.getLoadedWorlds());
+
+        // Autosave only appends the changes to the journal
+        provider.save(true, filename);
+        assertEquals(length, new File(filename).length());
+        assertTrue(new File(filename + ".journal").length() > 0);
+
+        PathProvider loaded = new PathProvider(null);
+        loaded.load(filename);
+        assertEquals(expected, describe(loaded.getWorlds()));
+
+        // A full save replays the journal into the main file
+        loaded.save(false, filename);
+        assertFalse(new File(filename + ".journal").exists());
+        PathProvider reloaded = new PathProvider(null);
+        reloaded.load(filename);
+        assertEquals(expected, describe(reloaded.getWorlds()));
+    }
+
+    @Test
+    public void testTruncatedJournal() throws IOException {
+        String filename = folder.newFolder().getPath() + File.separator + "destinations.dat";
+        PathProvider provider = createNetwork(filename);
+        provider.save(false, filename);
+        provider.getWorld("world").getNodeByName("station1").addName("central");
+        provider.save(true, filename);
+        List<String> expected = describe(provider.getLoadedWorlds());
+
+        // A record cut off while writing, as if the server crashed
+        try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(filename + ".journal", true))) {
+            stream.writeInt(100);
+            stream.write(new byte[] { 1, 0, 5, 'w', 'o' });
+        }
+        PathProvider loaded = new PathProvider(null);
+        loaded.load(filename);
+        assertEquals(expected, describe(loaded.getWorlds()));
+    }
+
+    @Test
+    public void testCorruptJournal() throws IOException {
+        String filename = folder.newFolder().getPath() + File.separator + "destinations.dat";
+        PathProvider provider = createNetwork(filename);
+        provider.save(false, filename);
+        provider.getWorld("world").getNodeByName("station1").addName("central");
+        provider.save(true, filename);
+        List<String> expected = describe(provider.getLoadedWorlds());
+
+        // A complete record with a world name that is not valid modified UTF-8,
+        // followed by more records that can not be trusted
+        try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(filename + ".journal", true))) {
+            stream.writeInt(4);
+            stream.write(new byte[] { 1, 0, 1, (byte) 0xFF });
+            stream.writeInt(-1);
+            stream.writeInt(0);
+        }
+        PathProvider loaded = new PathProvider(null);
+        loaded.load(filename);
+        assertEquals(expected, describe(loaded.getWorlds()));
+
+        // The corrupt records are dropped by the next full save
+        loaded.save(false, filename);
+        assertFalse(new File(filename + ".journal").exists());
+    }
+
+    @Test
+    public void testLegacyConversion() throws IOException {
+        String filename = folder.newFolder().getPath() + File.separator + "destinations.dat";
+        PathProvider provider = createNetwork(filename);
+        final List<PathNode> nodes = new ArrayList<>();
+        for (PathWorld world : provider.getLoadedWorlds()) {
+            nodes.addAll(world.getNodes());
+        }
+
+        // Written the way it was before the binary format existed
+        new CompressedDataWriter(filename) {
+            @Override
+            public void write(DataOutputStream stream) throws IOException {
+                stream.writeInt(nodes.size());
+                for (int i = 0; i < nodes.size(); i++) {
+                    PathNode node = nodes.get(i);
+                    node.index = i;
+                    List<String> names = new ArrayList<>(node.getNames());
+                    if (node.containsSwitcher() && !names.isEmpty()) {
+                        names.add(0, "::traincarts::switchable::");
+                    }
+                    stream.writeUTF(String.join("\n", names));
+                    stream.writeUTF(node.location.world);
+                    stream.writeInt(node.location.x);
+                    stream.writeInt(node.location.y);
+                    stream.writeInt(node.location.z);
+                }
+                for (PathNode node : nodes) {
+                    stream.writeInt(node.getNeighbours().size());
+                    for (PathConnection connection : node.getNeighbours()) {
+                        connection.writeTo(stream);
+                    }
+                }
+            }
+        }.write();
+        assertFalse(PathNodeStorage.isStoredInFormat(new File(filename)));
+
+        // Legacy files are read in full
+        PathProvider loaded = new PathProvider(null);
+        loaded.load(filename);
+        assertEquals(2, loaded.getLoadedWorlds().size());
+        assertEquals(describe(provider.getLoadedWorlds()), describe(loaded.getLoadedWorlds()));
+
+        // And converted on the next save
+        loaded.save(false, filename);
+        assertTrue(PathNodeStorage.isStoredInFormat(new File(filename)));
+        PathProvider converted = new PathProvider(null);
+        converted.load(filename);
+        assertEquals(describe(provider.getLoadedWorlds()), describe(converted.getWorlds()));
+    }
+
+    private static PathProvider createNetwork(String filename) {
+        PathProvider provider = new PathProvider(null);
+        provider.load(filename);
+        PathWorld world = provider.getWorld("world");
+        PathWorld nether = provider.getWorld("world_nether");
+
+        PathNode station1 = world.addNode(new BlockLocation("world", 0, 64, 0));
+        station1.addName("station1");
+        PathNode junction = world.addNode(new BlockLocation("world", 100, 64, 0));
+        junction.addSwitcher();
+        PathNode station2 = world.addNode(new BlockLocation("world", 100, 12, -2000000));
+        station2.addSwitcher();
+        station2.addName("station2");
+        station2.addName("platform2");
+        PathNode portal = nether.addNode(new BlockLocation("world_nether", -12, 40, 8));
+        portal.addName("portal");
+
+        station1.addNeighbour(junction, 100.0, "e", false);
+        junction.addNeighbour(station1, 100.0, "w", false);
+        junction.addNeighbour(station2, 2000001.0 / 3.0, "s", false);
+        junction.addNeighbour(portal, 1e-5, "n", false);
+        station2.addNeighbour(junction, 1234.5, "n", false);
+        portal.addNeighbour(station1, 0.1, "u", false);
+        return provider;
+    }
+
+    // Describes all nodes and connections as text that can be compared
+    private static List<String> describe(Collection<PathWorld> worlds) {
+        List<String> result = new ArrayList<>();
+        for (PathWorld world : worlds) {
+            for (PathNode node : world.getNodes()) {
+                List<String> names = new ArrayList<>(node.getNames());
+                Collections.sort(names);
+                List<String> connections = new ArrayList<>();
+                for (PathConnection connection : node.getNeighbours()) {
+                    connections.add(connection.junctionName + " " + connection.destination.location
+                            + " " + Double.doubleToLongBits(connection.distance));
+                }
+                Collections.sort(connections);
+                assertSame(node, world.getNodeAtRail(node.location));
+                for (String name : names) {
+                    assertSame(node, world.getNodeByName(name));
+                }
+                result.add(node.location + (node.containsSwitcher() ? " switcher " : " ") + names + " " + connections);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,190 @@
+package com.bergerkiller.bukkit.tc.pathfinding;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.common.BlockLocation;
+
+/**
+ * Tests which junctions of nodes are walked again when nodes are added or removed
+ */
+public class PathProviderRerouteTest {
+
+    @Test
+    public void testAddNodeReroutesFoundNodesOnly() {
+        // Chain of nodes A - B - C - D, with B a switcher that also has a dead-end spur.
+        // Separately, E - F.
+        RecordingPathProvider provider = new RecordingPathProvider();
+        PathWorld world = provider.getWorld("world");
+        PathNode a = loadNode(world, 0);
+        PathNode b = loadNode(world, 100);
+        PathNode c = loadNode(world, 200);
+        PathNode d = loadNode(world, 300);
+        PathNode e = loadNode(world, 1000);
+        PathNode f = loadNode(world, 1100);
+        connectBoth(a, b);
+        connectBoth(b, c);
+        connectBoth(c, d);
+        connectBoth(e, f);
+        PathRouteTable routesToD = world.getRouteTable(d);
+        PathRouteTable routesToF = world.getRouteTable(f);
+        provider.addPendingNodes();
+        assertTrue(provider.walked.isEmpty());
+
+        // Place a new node on the spur of B. Only the new node itself is walked in full.
+        PathNode placed = world.addNode(new BlockLocation("world", 100, 64, 50));
+        provider.addPendingNodes();
+        assertEquals(Collections.singleton(placed), provider.walked.keySet());
+        assertEquals(PathProvider.OperationMode.INCREMENTAL_NODE, provider.walked.get(placed).mode);
+        assertNull(provider.walked.get(placed).junctionNames);
+        provider.walked.clear();
+
+        // Walking from the new node finds B, like PathFindOperation does
+        placed.addNeighbour(b, 50.0, "n", false);
+        provider.rerouteFoundNode(b, placed);
+        provider.addPendingNodes();
+
+        // Only B is walked again, all of its junctions as none connect to the new node yet
+        assertEquals(Collections.singleton(b), provider.walked.keySet());
+        WalkedJunctions walkedB = provider.walked.get(b);
+        assertEquals(PathProvider.OperationMode.INCREMENTAL_JUNCTION, walkedB.mode);
+        assertNull(walkedB.junctionNames);
+        assertTrue(walkedB.excludedNames.isEmpty());
+        provider.walked.clear();
+
+        // B now connects to the new node through the spur, which is not walked again when
+        // the new node finds B once more. A second new node between C and D finds C.
+        b.addNeighbour(placed, 50.0, "s", false);
+        PathNode placed2 = world.addNode(new BlockLocation("world", 250, 64, 0));
+        provider.rerouteFoundNode(b, placed);
+        provider.rerouteFoundNode(c, placed2);
+        provider.addPendingNodes();
+        assertEquals(new HashSet<>(Arrays.asList(placed2, b, c)), provider.walked.keySet());
+        assertEquals(Collections.singleton("s"), provider.walked.get(b).excludedNames);
+        assertTrue(provider.walked.get(c).excludedNames.isEmpty());
+
+        // Routes not affected by the new connections are kept, the others now include the new node
+        assertSame(routesToF, world.getRouteTable(f));
+        assertNotSame(routesToD, world.getRouteTable(d));
+        assertEquals(250.0, world.getRouteTable(d).getDistance(placed), 1e-6);
+    }
+
+    @Test
+    public void testRemoveNodeReroutesIncomingJunctionsOnly() {
+        RecordingPathProvider provider = new RecordingPathProvider();
+        PathWorld world = provider.getWorld("world");
+        PathNode a = loadNode(world, 0);
+        PathNode b = loadNode(world, 100);
+        PathNode c = loadNode(world, 200);
+        PathNode d = loadNode(world, 300);
+        PathNode e = loadNode(world, 1000);
+        PathNode f = loadNode(world, 1100);
+        connectBoth(a, b);
+        connectBoth(b, c);
+        connectBoth(c, d);
+        connectBoth(e, f);
+        PathRouteTable routesToA = world.getRouteTable(a);
+        PathRouteTable routesToF = world.getRouteTable(f);
+
+        // Removing C only walks the junctions of B and D that led to C
+        c.remove();
+        provider.addPendingNodes();
+        assertEquals(new HashSet<>(Arrays.asList(b, d)), provider.walked.keySet());
+        assertEquals(Collections.singleton("e"), provider.walked.get(b).junctionNames);
+        assertEquals(Collections.singleton("w"), provider.walked.get(d).junctionNames);
+        assertEquals(PathProvider.OperationMode.INCREMENTAL_JUNCTION, provider.walked.get(b).mode);
+
+        // Routes to F never passed C and are kept, routes to A are computed again without C
+        assertSame(routesToF, world.getRouteTable(f));
+        assertNotSame(routesToA, world.getRouteTable(a));
+        assertEquals(100.0, world.getRouteTable(a).getDistance(b), 1e-6);
+        assertEquals(Double.MAX_VALUE, world.getRouteTable(a).getDistance(d), 0.0);
+        assertNull(world.getNodeAtRail(c.location));
+        assertEquals(1, b.getNeighbours().size());
+        assertTrue(d.getNeighbours().isEmpty());
+    }
+
+    @Test
+    public void testNodePlacedAtEndOfSpur() {
+        // Junction 'n' of the found node leads to another node, junction 's' is
+        // a dead-end spur. A new node is placed at the end of the spur.
+        PathNode found = createNode(0);
+        PathNode other = createNode(100);
+        PathNode placed = createNode(-50);
+        connect(found, other, "n");
+        Set<PathNode> newNodes = Collections.singleton(placed);
+
+        // The spur had no connection, but must now find the new node
+        assertTrue(PathProvider.isJunctionAffectedByNewNodes(found, "s", newNodes));
+        // The other junction might pass the new node, so it is walked too
+        assertTrue(PathProvider.isJunctionAffectedByNewNodes(found, "n", newNodes));
+    }
+
+    @Test
+    public void testJunctionAlreadyConnectedToNewNode() {
+        PathNode found = createNode(0);
+        PathNode placed = createNode(-50);
+        connect(found, placed, "s");
+        Set<PathNode> newNodes = Collections.singleton(placed);
+
+        assertFalse(PathProvider.isJunctionAffectedByNewNodes(found, "s", newNodes));
+        assertTrue(PathProvider.isJunctionAffectedByNewNodes(found, "n", newNodes));
+    }
+
+    private static PathNode createNode(int x) {
+        return new PathNode(null, new BlockLocation("world", x, 64, 0));
+    }
+
+    private static void connect(PathNode from, PathNode to, String junctionName) {
+        from.getNeighbours().add(new PathConnection(to, 10.0, junctionName));
+    }
+
+    private static PathNode loadNode(PathWorld world, int x) {
+        PathNode node = world.getOrLoadNode(new BlockLocation(world.getName(), x, 64, 0));
+        node.addSwitcher();
+        return node;
+    }
+
+    // Connects two nodes west to east with junctions 'e' and 'w'
+    private static void connectBoth(PathNode west, PathNode east) {
+        double distance = east.location.x - west.location.x;
+        west.addNeighbour(east, distance, "e", false);
+        east.addNeighbour(west, distance, "w", false);
+    }
+
+    private static final class WalkedJunctions {
+        public final Set<String> junctionNames;
+        public final Set<String> excludedNames;
+        public final PathProvider.OperationMode mode;
+
+        public WalkedJunctions(Set<String> junctionNames, Set<String> excludedNames, PathProvider.OperationMode mode) {
+            this.junctionNames = junctionNames;
+            this.excludedNames = excludedNames;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * Records the junctions that would be walked, instead of walking the rails
+     */
+    private static final class RecordingPathProvider extends PathProvider {
+        public final Map<PathNode, WalkedJunctions> walked = new LinkedHashMap<>();
+
+        public RecordingPathProvider() {
+            super(null);
+        }
+
+        @Override
+        void scheduleJunctions(PathNode node, Set<String> junctionNames, Set<String> excludedNames, OperationMode mode) {
+            walked.put(node, new WalkedJunctions(junctionNames, excludedNames, mode));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.bergerkiller.bukkit.tc.pathfinding;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.common.BlockLocation;
+
+/**
+ * Compares the performance of the per-destination route tables with the recursive
+ * depth-first search they replaced. The network is a bidirectional chain of nodes
+ * with n/4 random one-way shortcuts, like a long line with some bypasses.
+ */
+public class PathRouteTableTest {
+
+    @Ignore
+    @Test
+    public void testRouteLookupPerformance() {
+        for (int numNodes : new int[] { 1000, 4000 }) {
+            List<PathNode> nodes = createNetwork(new Random(1234), numNodes);
+            Random random = new Random(5678);
+            final int numLookups = 200;
+
+            // Warmup, also checks both find the same route distance
+            for (int i = 0; i < numLookups; i++) {
+                PathNode from = nodes.get(random.nextInt(numNodes));
+                PathNode destination = nodes.get(random.nextInt(numNodes));
+                double expected = LegacySearch.findDistance(from, destination);
+                double actual = computeTable(nodes, destination).getDistance(from);
+                assertEquals(expected, actual, 1e-6);
+            }
+
+            // Old: recursive search of a random destination from a random node
+            long legacyStart = System.nanoTime();
+            for (int i = 0; i < numLookups; i++) {
+                LegacySearch.findDistance(nodes.get(random.nextInt(numNodes)), nodes.get(random.nextInt(numNodes)));
+            }
+            long legacyTime = System.nanoTime() - legacyStart;
+
+            // New: first lookup of a random destination, so including computing the table
+            long tableStart = System.nanoTime();
+            for (int i = 0; i < numLookups; i++) {
+                PathNode from = nodes.get(random.nextInt(numNodes));
+                computeTable(nodes, nodes.get(random.nextInt(numNodes))).getDistance(from);
+            }
+            long tableTime = System.nanoTime() - tableStart;
+
+            System.out.println("Nodes: " + numNodes +
+                    ", recursive search: " + String.format("%.3f", (double) legacyTime / numLookups / 1.0e6) + " ms" +
+                    ", route table: " + String.format("%.3f", (double) tableTime / numLookups / 1.0e6) + " ms");
+        }
+    }
+
+    private static PathRouteTable computeTable(List<PathNode> nodes, PathNode destination) {
+        return PathRouteTable.compute(destination, PathRouteTable.computeReverseConnections(nodes));
+    }
+
+    private static List<PathNode> createNetwork(Random random, int numNodes) {
+        List<PathNode> nodes = new ArrayList<>(numNodes);
+        for (int i = 0; i < numNodes; i++) {
+            nodes.add(new PathNode(null, new BlockLocation("world", i * 10, 64, 0)));
+        }
+        for (int i = 1; i < numNodes; i++) {
+            connect(nodes.get(i - 1), nodes.get(i), 10.0 + random.nextInt(20));
+            connect(nodes.get(i), nodes.get(i - 1), 10.0 + random.nextInt(20));
+        }
+        for (int i = 0; i < numNodes / 4; i++) {
+            PathNode from = nodes.get(random.nextInt(numNodes));
+            PathNode to = nodes.get(random.nextInt(numNodes));
+            if (from != to) {
+                connect(from, to, 50.0 + random.nextInt(500));
+            }
+        }
+        return nodes;
+    }
+
+    private static void connect(PathNode from, PathNode to, double distance) {
+        from.getNeighbours().add(new PathConnection(to, distance, "n"));
+    }
+
+    /**
+     * The recursive depth-first search previously used by PathNode.findBestPath,
+     * without the caching of results between searches. A node is only searched again
+     * when it is reached with a shorter distance, and paths longer than the best one
+     * found so far are abandoned.
+     */
+    private static final class LegacySearch {
+        private final PathNode destination;
+        private final Map<PathNode, Double> startDistances = new IdentityHashMap<>();
+        private final Map<PathNode, Double> results = new IdentityHashMap<>();
+        private double maxTotalDistance = Double.MAX_VALUE;
+
+        private LegacySearch(PathNode destination) {
+            this.destination = destination;
+        }
+
+        public static double findDistance(PathNode from, PathNode destination) {
+            Double result = new LegacySearch(destination).find(from, 0.0);
+            return (result == null) ? Double.MAX_VALUE : result.doubleValue();
+        }
+
+        private Double find(PathNode node, double startDistance) {
+            if (startDistance > maxTotalDistance) {
+                return null;
+            }
+
+            Double lastStartDistance = startDistances.get(node);
+            if (lastStartDistance != null && startDistance > lastStartDistance.doubleValue()) {
+                return null;
+            }
+            startDistances.put(node, startDistance);
+
+            if (node == destination) {
+                if (startDistance < maxTotalDistance) {
+                    maxTotalDistance = startDistance;
+                    return 0.0;
+                } else {
+                    return null;
+                }
+            }
+
+            results.remove(node);
+            for (PathConnection neighbour : node.getNeighbours()) {
+                Double result = find(neighbour.destination, startDistance + neighbour.distance);
+                if (result != null) {
+                    results.put(node, neighbour.distance + result.doubleValue());
+                }
+            }
+            return results.get(node);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.bergerkiller.bukkit.tc.properties;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.common.config.ConfigurationNode;
+import com.bergerkiller.bukkit.common.utils.StringUtil;
+import com.bergerkiller.bukkit.tc.Util;
+
+/**
+ * Checks that the train names found using the name index of the train properties map
+ * are the same as those found by checking every train
+ */
+public class TrainPropertiesMapTest {
+    private static final String[] EXPRESSIONS = {
+            "train1", "train12", "nope",           // Exact
+            "train*", "train1*", "cargo*", "x*",   // Prefix
+            "*ain*", "*rgo_1*", "*_*", "*zzz*",    // Middle
+            "*1", "*_12", "*ain", "*",             // Suffix
+            "tr*1", "*ca*go*", "*ab*",             // Multiple elements and short elements
+            "red", "*red*", "§ared*", "*express"   // Chat style characters
+    };
+
+    @Test
+    public void testMatchesFullScan() {
+        TrainPropertiesMap map = new TrainPropertiesMap();
+        for (String name : createNames()) {
+            add(map, name);
+        }
+        assertMatchesFullScan(map);
+    }
+
+    @Test
+    public void testRenameAndRemove() {
+        TrainPropertiesMap map = new TrainPropertiesMap();
+        List<String> names = createNames();
+        for (String name : names) {
+            add(map, name);
+        }
+
+        // Rename half of the trains, the same way TrainPropertiesStore.rename() does
+        Random random = new Random(42);
+        for (int i = 0; i < names.size(); i += 2) {
+            TrainProperties properties = map.remove(names.get(i));
+            properties.trainname = "renamed_" + random.nextInt(1000) + "_" + i;
+            map.add(properties.trainname, properties);
+            assertTrue(properties.matchName("renamed_*"));
+        }
+        assertMatchesFullScan(map);
+        for (TrainProperties properties : candidates(map, "train12")) {
+            assertNotEquals("train12", properties.getTrainName());
+        }
+
+        // Remove all the trains that were not renamed
+        for (int i = 1; i < names.size(); i += 2) {
+            assertNotNull(map.remove(names.get(i)));
+        }
+        assertMatchesFullScan(map);
+        assertTrue(candidates(map, "*ain*").isEmpty());
+        assertTrue(candidates(map, "*express").isEmpty());
+        assertFalse(candidates(map, "*ame*").isEmpty());
+
+        // Replace a train with a new one of the same name
+        TrainProperties first = map.values().iterator().next();
+        TrainProperties replacement = add(map, first.getTrainName());
+        assertTrue(first.isRemoved());
+        assertMatchesFullScan(map);
+        assertTrue(candidates(map, first.getTrainName()).contains(replacement));
+        assertFalse(candidates(map, first.getTrainName()).contains(first));
+
+        map.clear();
+        assertTrue(candidates(map, "*ame*").isEmpty());
+        assertTrue(candidates(map, "renamed*").isEmpty());
+    }
+
+    private static void assertMatchesFullScan(TrainPropertiesMap map) {
+        for (String expression : EXPRESSIONS) {
+            String[] elements = expression.split("\\*", -1);
+            boolean firstAny = expression.startsWith("*");
+            boolean lastAny = expression.endsWith("*");
+            Collection<TrainProperties> candidates = candidates(map, expression);
+            for (TrainProperties properties : candidates) {
+                assertNotNull("Candidate of removed train for " + expression, properties);
+                assertFalse("Candidate of removed train for " + expression, properties.isRemoved());
+            }
+
+            List<String> expected = new ArrayList<>();
+            List<String> expectedStripped = new ArrayList<>();
+            for (TrainProperties properties : map.values()) {
+                if (properties.matchName(elements, firstAny, lastAny)) {
+                    expected.add(properties.getTrainName());
+                }
+                String stripped = StringUtil.stripChatStyle(properties.getTrainName());
+                if (Util.matchText(stripped, elements, firstAny, lastAny)) {
+                    expectedStripped.add(properties.getTrainName());
+                }
+            }
+
+            List<String> actual = new ArrayList<>();
+            List<String> candidateNames = new ArrayList<>();
+            for (TrainProperties properties : candidates) {
+                candidateNames.add(properties.getTrainName());
+                if (properties.matchName(elements, firstAny, lastAny)) {
+                    actual.add(properties.getTrainName());
+                }
+            }
+
+            // Both are sorted by train name
+            assertEquals("Matches of " + expression, expected, actual);
+            assertTrue("Matches without chat style of " + expression, candidateNames.containsAll(expectedStripped));
+        }
+    }
+
+    private static Collection<TrainProperties> candidates(TrainPropertiesMap map, String expression) {
+        return map.findNameCandidates(expression.split("\\*", -1),
+                expression.startsWith("*"), expression.endsWith("*"));
+    }
+
+    private static TrainProperties add(TrainPropertiesMap map, String name) {
+        TrainProperties properties = new TrainProperties(null, name, new ConfigurationNode());
+        map.add(name, properties);
+        return properties;
+    }
+
+    private static List<String> createNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            names.add("train" + i);
+            names.add("cargo_" + i);
+        }
+        names.add("tr");
+        names.add("ab");
+        names.add("x");
+        names.add("§aredline");
+        names.add("§cred");
+        names.add("blue§lexpress");
+        names.add("Express");
+        return names;
+    }
+}
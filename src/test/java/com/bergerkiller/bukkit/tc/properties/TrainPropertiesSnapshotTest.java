@@ -0,0 +1,135 @@
+package com.bergerkiller.bukkit.tc.properties;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.bergerkiller.bukkit.common.config.BasicConfiguration;
+import com.bergerkiller.bukkit.common.config.ConfigurationNode;
+
+/**
+ * Tests copying the configuration of changed trains for saving, and writing it to disk
+ */
+public class TrainPropertiesSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOnlyChangedTrainsCopied() {
+        ConfigurationNode config = createConfig();
+        TrainPropertiesSnapshot snapshot = new TrainPropertiesSnapshot();
+        config.addChangeListener(snapshot::markChanged);
+        Map<String, ConfigurationNode> first = snapshot.update(config);
+        assertEquals(Arrays.asList("train1", "train 2", "train3"), new ArrayList<>(first.keySet()));
+
+        // Changes deep inside the configuration of a train, and to a name with a space
+        config.set("train3.carts.cart1.name", "changed");
+        config.set("train 2.speed", 0.6);
+        Map<String, ConfigurationNode> second = snapshot.update(config);
+        assertSame(first.get("train1"), second.get("train1"));
+        assertNotSame(first.get("train 2"), second.get("train 2"));
+        assertNotSame(first.get("train3"), second.get("train3"));
+        assertEquals(0.6, second.get("train 2").get("speed", 0.0), 0.0);
+        assertEquals("changed", second.get("train3").get("carts.cart1.name", ""));
+        assertEquals("b", first.get("train3").get("carts.cart1.name", ""));
+
+        // Copies are not affected by later changes, nothing is copied if nothing changed
+        config.set("train1.speed", 0.8);
+        assertEquals(0.4, second.get("train1").get("speed", 0.0), 0.0);
+        config.remove("train 2");
+        Map<String, ConfigurationNode> third = snapshot.update(config);
+        assertEquals(Arrays.asList("train1", "train3"), new ArrayList<>(third.keySet()));
+        assertNotSame(second.get("train1"), third.get("train1"));
+        assertSame(second.get("train3"), third.get("train3"));
+        Map<String, ConfigurationNode> fourth = snapshot.update(config);
+        assertSame(third.get("train1"), fourth.get("train1"));
+        assertSame(third.get("train3"), fourth.get("train3"));
+
+        // Marking all as changed copies all trains again
+        snapshot.markAllChanged();
+        Map<String, ConfigurationNode> fifth = snapshot.update(config);
+        assertNotSame(fourth.get("train1"), fifth.get("train1"));
+        assertNotSame(fourth.get("train3"), fifth.get("train3"));
+    }
+
+    @Test
+    public void testFailedWriteKeepsFile() throws IOException {
+        File file = new File(folder.getRoot(), "TrainProperties.yml");
+        File tempFile = new File(file.getPath() + ".tmp");
+        ConfigurationNode config = createConfig();
+        TrainPropertiesSnapshot snapshot = new TrainPropertiesSnapshot();
+        config.addChangeListener(snapshot::markChanged);
+        snapshot.write(file, snapshot.update(config));
+        assertFalse(snapshot.isWriteFailed());
+        assertFalse(tempFile.exists());
+        byte[] saved = Files.readAllBytes(file.toPath());
+
+        // Make writing the temporary file fail
+        assertTrue(tempFile.mkdir());
+        assertTrue(new File(tempFile, "blocked").createNewFile());
+        config.set("train1.speed", 2.0);
+        try {
+            snapshot.write(file, snapshot.update(config));
+            fail("Write should have failed");
+        } catch (IOException ex) {
+            // Expected
+        }
+        assertTrue(snapshot.isWriteFailed());
+        assertArrayEquals(saved, Files.readAllBytes(file.toPath()));
+
+        // The copies are written again on the next save, even though no train changed since
+        new File(tempFile, "blocked").delete();
+        tempFile.delete();
+        Map<String, ConfigurationNode> retry = snapshot.update(config);
+        assertFalse(snapshot.isWriteFailed());
+        snapshot.write(file, retry);
+        assertEquals(2.0, load(file).get("train1.speed", 0.0), 0.0);
+    }
+
+    @Test
+    public void testReplaceFile() throws IOException {
+        File file = new File(folder.getRoot(), "TrainProperties.yml");
+        File tempFile = new File(file.getPath() + ".tmp");
+        Files.write(file.toPath(), "old:\n  speed: 1.0\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(tempFile.toPath(), "left over by a crash".getBytes(StandardCharsets.UTF_8));
+
+        // The file is replaced in full, the left over temporary file is overwritten and moved
+        ConfigurationNode config = createConfig();
+        TrainPropertiesSnapshot snapshot = new TrainPropertiesSnapshot();
+        snapshot.write(file, snapshot.update(config));
+        assertFalse(tempFile.exists());
+        BasicConfiguration loaded = load(file);
+        assertEquals(Arrays.asList("train1", "train 2", "train3"), new ArrayList<>(loaded.getKeys()));
+        assertEquals(0.4, loaded.get("train1.speed", 0.0), 0.0);
+        assertEquals("b", loaded.get("train3.carts.cart1.name", ""));
+    }
+
+    private static ConfigurationNode createConfig() {
+        ConfigurationNode config = new ConfigurationNode();
+        config.set("train1.speed", 0.4);
+        config.set("train 2.speed", 1.0);
+        config.set("train3.carts.cart1.name", "b");
+        config.set("train3.carts.cart2.name", "c");
+        return config;
+    }
+
+    private static BasicConfiguration load(File file) throws IOException {
+        BasicConfiguration config = new BasicConfiguration();
+        try (InputStream stream = new FileInputStream(file)) {
+            config.loadFromStream(stream);
+        }
+        return config;
+    }
+}
@@ -0,0 +1,141 @@
+package com.bergerkiller.bukkit.tc.rails;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
+
+/**
+ * Tests the index of rails occupied by trains, and finding the train nearest to a position
+ */
+public class TrackOccupancyIndexTest {
+
+    @Test
+    public void testUpdateAndRemove() {
+        TrackOccupancyIndex index = new TrackOccupancyIndex();
+        MinecartGroup a = createGroup();
+        MinecartGroup b = createGroup();
+
+        index.update(a, new TrackOccupancyIndex.Occupant[] { occupant(a, 10.5, 64.0, 10.5) });
+        index.update(b, new TrackOccupancyIndex.Occupant[] { occupant(b, 20.5, 64.0, 10.5), occupant(b, 21.5, 64.0, 10.5) });
+        assertEquals(2, index.getTrainCount());
+        assertEquals(1, index.getOccupants(10, 64, 10).size());
+        assertSame(b, index.getOccupants(21, 64, 10).get(0).group);
+
+        // Moving a train replaces the rails it occupied before
+        index.update(a, new TrackOccupancyIndex.Occupant[] { occupant(a, 11.5, 64.0, 10.5) });
+        assertTrue(index.getOccupants(10, 64, 10).isEmpty());
+        assertSame(a, index.getOccupants(11, 64, 10).get(0).group);
+        assertSame(a, index.findNearest(12.0, 64.0, 10.5, 8.0, null).group);
+
+        // Trains occupying no rails are removed
+        index.update(a, new TrackOccupancyIndex.Occupant[0]);
+        assertEquals(1, index.getTrainCount());
+        assertTrue(index.getOccupants(11, 64, 10).isEmpty());
+        assertSame(b, index.findNearest(12.0, 64.0, 10.5, 16.0, null).group);
+
+        index.remove(b);
+        assertEquals(0, index.getTrainCount());
+        assertTrue(index.getOccupants(20, 64, 10).isEmpty());
+        assertNull(index.findNearest(12.0, 64.0, 10.5, 256.0, null));
+    }
+
+    @Test
+    public void testNearestAcrossChunkBorders() {
+        TrackOccupancyIndex index = new TrackOccupancyIndex();
+        MinecartGroup self = createGroup();
+        MinecartGroup near = createGroup();
+        MinecartGroup far = createGroup();
+        index.update(self, new TrackOccupancyIndex.Occupant[] { occupant(self, 16.5, 64.0, 0.5) });
+        index.update(near, new TrackOccupancyIndex.Occupant[] { occupant(near, 15.9, 64.0, -0.1) });
+        index.update(far, new TrackOccupancyIndex.Occupant[] { occupant(far, 3.0, 64.0, -3.0) });
+
+        // The nearest train is in the chunk next to the position, diagonally
+        assertSame(near, index.findNearest(16.1, 64.0, 0.1, 8.0, self).group);
+        assertSame(self, index.findNearest(16.4, 64.0, 0.4, 8.0, null).group);
+
+        // Negative chunk coordinates, and a train just outside the maximum distance
+        assertSame(far, index.findNearest(-0.5, 64.0, -0.5, 8.0, self).group);
+        assertSame(far, index.findNearest(-0.5, 64.0, -3.0, 4.0, self).group);
+        assertNull(index.findNearest(-0.5, 64.0, -3.0, 3.4, self));
+
+        // Height difference counts towards the distance
+        assertNull(index.findNearest(15.9, 72.0, -0.1, 7.9, self));
+        assertSame(near, index.findNearest(15.9, 72.0, -0.1, 8.0, self).group);
+
+        // A train several chunks away
+        index.update(far, new TrackOccupancyIndex.Occupant[] { occupant(far, -40.0, 64.0, 70.0) });
+        index.remove(near);
+        assertNull(index.findNearest(0.0, 64.0, 0.0, 64.0, self));
+        assertSame(far, index.findNearest(0.0, 64.0, 0.0, 81.0, self).group);
+    }
+
+    @Test
+    public void testNearestMatchesFullScan() {
+        TrackOccupancyIndex index = new TrackOccupancyIndex();
+        List<TrackOccupancyIndex.Occupant> all = new ArrayList<>();
+        Random random = new Random(1234);
+        List<MinecartGroup> groups = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            MinecartGroup group = createGroup();
+            TrackOccupancyIndex.Occupant[] occupants = new TrackOccupancyIndex.Occupant[1 + random.nextInt(4)];
+            double x = random.nextDouble() * 400.0 - 200.0;
+            double z = random.nextDouble() * 400.0 - 200.0;
+            for (int j = 0; j < occupants.length; j++) {
+                occupants[j] = occupant(group, x + j, 64.0 + random.nextInt(3), z);
+                all.add(occupants[j]);
+            }
+            index.update(group, occupants);
+            groups.add(group);
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 440.0 - 220.0;
+            double y = 60.0 + random.nextDouble() * 10.0;
+            double z = random.nextDouble() * 440.0 - 220.0;
+            double maxDistance = random.nextDouble() * 100.0;
+            MinecartGroup ignored = groups.get(random.nextInt(groups.size()));
+
+            double expected = Double.MAX_VALUE;
+            for (TrackOccupancyIndex.Occupant occupant : all) {
+                double distance = distance(occupant, x, y, z);
+                if (occupant.group != ignored && distance <= maxDistance) {
+                    expected = Math.min(expected, distance);
+                }
+            }
+
+            TrackOccupancyIndex.Occupant nearest = index.findNearest(x, y, z, maxDistance, ignored);
+            if (expected == Double.MAX_VALUE) {
+                assertNull(nearest);
+            } else {
+                assertNotNull(nearest);
+                assertNotSame(ignored, nearest.group);
+                assertEquals(expected, distance(nearest, x, y, z), 1e-9);
+            }
+        }
+    }
+
+    private static double distance(TrackOccupancyIndex.Occupant occupant, double x, double y, double z) {
+        double dx = occupant.posX - x;
+        double dy = occupant.posY - y;
+        double dz = occupant.posZ - z;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private static TrackOccupancyIndex.Occupant occupant(MinecartGroup group, double x, double y, double z) {
+        IntVector3 railBlock = new IntVector3((int) Math.floor(x), (int) Math.floor(y), (int) Math.floor(z));
+        return new TrackOccupancyIndex.Occupant(group, null, railBlock, x, y, z);
+    }
+
+    private static MinecartGroup createGroup() {
+        return new MinecartGroup(null) {
+            private static final long serialVersionUID = 1L;
+        };
+    }
+}
@@ -0,0 +1,150 @@
+package com.bergerkiller.bukkit.tc.signactions.mutex;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.tc.controller.components.RailPath;
+
+/**
+ * Tests the bitmap of blocks contained by mutex zones in a chunk, and the use
+ * of it to skip hit-testing the mutex zones while walking track
+ */
+public class MutexZoneChunkBitmapTest {
+
+    @Test
+    public void testSetAcrossSectionBorders() {
+        MutexZoneChunkBitmap bitmap = new MutexZoneChunkBitmap(-1, 2);
+        assertFalse(bitmap.get(-16, 0, 32));
+
+        // Sections are added above, below and with gaps in between
+        bitmap.set(-16, 15, 32);
+        bitmap.set(-1, 16, 47);
+        bitmap.set(-8, -1, 40);
+        bitmap.set(-8, -64, 40);
+        bitmap.set(-8, 300, 40);
+        assertTrue(bitmap.get(-16, 15, 32));
+        assertTrue(bitmap.get(-1, 16, 47));
+        assertTrue(bitmap.get(-8, -1, 40));
+        assertTrue(bitmap.get(-8, -64, 40));
+        assertTrue(bitmap.get(-8, 300, 40));
+
+        // Neighbouring blocks, also in other sections, are not set
+        assertFalse(bitmap.get(-16, 16, 32));
+        assertFalse(bitmap.get(-16, 14, 32));
+        assertFalse(bitmap.get(-15, 15, 32));
+        assertFalse(bitmap.get(-16, 15, 33));
+        assertFalse(bitmap.get(-1, 15, 47));
+        assertFalse(bitmap.get(-8, 0, 40));
+        assertFalse(bitmap.get(-8, -63, 40));
+        assertFalse(bitmap.get(-8, 100, 40));
+        assertFalse(bitmap.get(-8, 301, 40));
+        assertFalse(bitmap.get(-8, -65, 40));
+
+        bitmap.clear();
+        assertFalse(bitmap.get(-16, 15, 32));
+        assertFalse(bitmap.get(-8, -64, 40));
+    }
+
+    @Test
+    public void testSetAllAndGetAnyClipped() {
+        MutexZoneChunkBitmap bitmap = new MutexZoneChunkBitmap(0, -1);
+
+        // Area outside of the chunk sets nothing
+        bitmap.setAll(16, 0, -16, 40, 10, -1);
+        bitmap.setAll(0, 0, 0, 15, 10, 20);
+        assertFalse(bitmap.getAny(0, 0, -16, 15, 10, -1));
+
+        // Only the part inside the chunk is set
+        bitmap.setAll(-5, 14, -3, 2, 17, 3);
+        for (int y = 12; y <= 19; y++) {
+            for (int z = -16; z <= -1; z++) {
+                for (int x = 0; x <= 15; x++) {
+                    boolean expected = (x <= 2 && y >= 14 && y <= 17 && z >= -3);
+                    assertEquals(expected, bitmap.get(x, y, z));
+                }
+            }
+        }
+
+        // Area partially outside of the chunk
+        assertTrue(bitmap.getAny(-20, 17, -20, 0, 20, -3));
+        assertFalse(bitmap.getAny(-20, 18, -20, 20, 30, 20));
+        assertFalse(bitmap.getAny(3, 0, -16, 40, 30, 20));
+        assertFalse(bitmap.getAny(-20, 0, -16, 20, 30, -4));
+        assertFalse(bitmap.getAny(-20, 0, -16, -1, 30, 20));
+    }
+
+    @Test
+    public void testZoneSpanningChunks() {
+        // A cuboid zone from chunk -2,-1 to chunk 1,1, stored per chunk the way cuboid zones do
+        Map<Long, MutexZoneChunkBitmap> bitmaps = createBitmaps(-3, -2, 2, 2);
+        for (MutexZoneChunkBitmap bitmap : bitmaps.values()) {
+            bitmap.setAll(-20, 60, -5, 17, 70, 16);
+        }
+        for (int y = 58; y <= 72; y++) {
+            for (int z = -32; z <= 47; z++) {
+                for (int x = -48; x <= 47; x++) {
+                    boolean expected = (x >= -20 && x <= 17 && y >= 60 && y <= 70 && z >= -5 && z <= 16);
+                    MutexZoneChunkBitmap bitmap = bitmaps.get(key(x >> 4, z >> 4));
+                    assertEquals(expected, bitmap.get(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMovingPointMayContainZones() {
+        Map<Long, MutexZoneChunkBitmap> bitmaps = createBitmaps(-2, -2, 1, 1);
+        bitmaps.get(key(-1, 0)).set(-1, 64, 5);
+        bitmaps.get(key(0, -1)).set(0, 64, -1);
+        MutexZoneCacheWorld.MovingPoint point = new MutexZoneCacheWorld.MovingPoint(new MutexZoneCacheWorld.MutexZoneByChunkGetter() {
+            @Override
+            public MutexZone[] getAt(int cx, int cz) {
+                return null;
+            }
+
+            @Override
+            public MutexZoneChunkBitmap getBitmapAt(int cx, int cz) {
+                return bitmaps.get(key(cx, cz));
+            }
+        }, 0, 0);
+
+        // Ray inside a single block, and crossing into the chunk next to it
+        assertTrue(point.mayContainZones(pos(-0.5, 64.5, 5.1), pos(-0.5, 64.5, 5.9)));
+        assertTrue(point.mayContainZones(pos(2.5, 64.5, 5.5), pos(-0.5, 64.5, 5.5)));
+        assertFalse(point.mayContainZones(pos(2.5, 64.5, 5.5), pos(0.5, 64.5, 5.5)));
+        assertFalse(point.mayContainZones(pos(-0.5, 65.5, 5.5), pos(-0.5, 66.5, 5.5)));
+
+        // Ray touching the side of the block at a chunk corner
+        assertTrue(point.mayContainZones(pos(0.5, 64.5, 0.0), pos(4.5, 64.5, 0.0)));
+        assertFalse(point.mayContainZones(pos(1.5, 64.5, 0.5), pos(4.5, 64.5, 0.5)));
+
+        // Chunks without a bitmap or zones contain no zones
+        assertFalse(point.mayContainZones(pos(100.5, 64.5, 100.5), pos(101.5, 64.5, 100.5)));
+
+        // Long rays are always hit-tested
+        assertTrue(point.mayContainZones(pos(100.5, 64.5, 100.5), pos(200.5, 64.5, 100.5)));
+    }
+
+    private static RailPath.Position pos(double x, double y, double z) {
+        return RailPath.Position.fromPosDir(new Vector(x, y, z), new Vector(0.0, 0.0, 1.0));
+    }
+
+    private static Map<Long, MutexZoneChunkBitmap> createBitmaps(int minCX, int minCZ, int maxCX, int maxCZ) {
+        Map<Long, MutexZoneChunkBitmap> bitmaps = new HashMap<>();
+        for (int cz = minCZ; cz <= maxCZ; cz++) {
+            for (int cx = minCX; cx <= maxCX; cx++) {
+                bitmaps.put(key(cx, cz), new MutexZoneChunkBitmap(cx, cz));
+            }
+        }
+        return bitmaps;
+    }
+
+    private static long key(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+}
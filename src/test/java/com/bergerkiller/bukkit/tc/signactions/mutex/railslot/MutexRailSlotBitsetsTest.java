@@ -0,0 +1,141 @@
+package com.bergerkiller.bukkit.tc.signactions.mutex.railslot;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.tc.signactions.mutex.MutexZoneSlotType;
+
+/**
+ * Tests the index of the rails locked by the entered groups of a mutex zone slot
+ */
+public class MutexRailSlotBitsetsTest {
+
+    @Test
+    public void testRebuild() {
+        MutexRailSlotMap a = createMap(MutexZoneSlotType.SMART, rail(0), rail(1), rail(2));
+        MutexRailSlotMap b = createMap(MutexZoneSlotType.SMART, rail(2), rail(3));
+        MutexRailSlotMap c = createMap(MutexZoneSlotType.SMART);
+
+        MutexRailSlotBitsets bitsets = new MutexRailSlotBitsets();
+        bitsets.rebuild(new MutexRailSlotMap[] { a, b, c });
+        assertEquals(3, bitsets.size());
+        assertSame(b, bitsets.get(1));
+        assertEquals(0x1L, bitsets.getLocking(rail(0)));
+        assertEquals(0x3L, bitsets.getLocking(rail(2)));
+        assertEquals(0x2L, bitsets.getLocking(rail(3)));
+        assertEquals(0x0L, bitsets.getLocking(rail(4)));
+
+        // Rebuilding with other maps forgets the old rails
+        bitsets.rebuild(new MutexRailSlotMap[] { b });
+        assertEquals(1, bitsets.size());
+        assertEquals(0x0L, bitsets.getLocking(rail(0)));
+        assertEquals(0x1L, bitsets.getLocking(rail(2)));
+    }
+
+    @Test
+    public void testAdd() {
+        MutexRailSlotMap a = createMap(MutexZoneSlotType.SMART, rail(0));
+        MutexRailSlotMap b = createMap(MutexZoneSlotType.SMART, rail(1));
+        MutexRailSlotMap notIndexed = createMap(MutexZoneSlotType.SMART);
+
+        MutexRailSlotBitsets bitsets = new MutexRailSlotBitsets();
+        bitsets.rebuild(new MutexRailSlotMap[] { a, b });
+
+        b.add(MutexZoneSlotType.SMART, rail(0), 1);
+        bitsets.add(b, rail(0));
+        assertEquals(0x3L, bitsets.getLocking(rail(0)));
+
+        // Maps that are not indexed are ignored
+        notIndexed.add(MutexZoneSlotType.SMART, rail(5), 1);
+        bitsets.add(notIndexed, rail(5));
+        assertEquals(0x0L, bitsets.getLocking(rail(5)));
+    }
+
+    @Test
+    public void testFullyLocked() {
+        MutexRailSlotMap smart = createMap(MutexZoneSlotType.SMART, rail(0));
+        MutexRailSlotMap full = createMap(MutexZoneSlotType.NORMAL, rail(10));
+        MutexRailSlotMap empty = createMap(MutexZoneSlotType.SMART);
+
+        MutexRailSlotBitsets bitsets = new MutexRailSlotBitsets();
+        bitsets.rebuild(new MutexRailSlotMap[] { smart, full, empty });
+
+        // A fully locked group locks every rail of the slot
+        assertEquals(0x3L, bitsets.getLocking(rail(0)));
+        assertEquals(0x2L, bitsets.getLocking(rail(5)));
+
+        // Becoming fully locked after the rebuild is picked up by add()
+        smart.add(MutexZoneSlotType.NORMAL, rail(1), 1);
+        bitsets.add(smart, rail(1));
+        assertEquals(0x3L, bitsets.getLocking(rail(5)));
+
+        // Shares rails with every group that locks at least one rail
+        MutexRailSlotMap other = createMap(MutexZoneSlotType.SMART, rail(20));
+        assertTrue(bitsets.isLockedByAny(other, 0x2L));
+        assertFalse(bitsets.isLockedByAny(other, 0x4L));
+        assertFalse(bitsets.isLockedByAny(empty, 0x2L));
+        assertTrue(bitsets.isLockedByAny(full, 0x1L));
+        assertFalse(bitsets.isLockedByAny(full, 0x4L));
+    }
+
+    @Test
+    public void testIsLockedByAny() {
+        MutexRailSlotMap a = createMap(MutexZoneSlotType.SMART, rail(0), rail(1));
+        MutexRailSlotMap b = createMap(MutexZoneSlotType.SMART, rail(1), rail(2));
+        MutexRailSlotMap c = createMap(MutexZoneSlotType.SMART, rail(3));
+
+        MutexRailSlotBitsets bitsets = new MutexRailSlotBitsets();
+        bitsets.rebuild(new MutexRailSlotMap[] { a, b, c });
+        assertTrue(bitsets.isLockedByAny(b, 0x1L));
+        assertFalse(bitsets.isLockedByAny(b, 0x4L));
+        assertFalse(bitsets.isLockedByAny(b, 0x0L));
+        assertFalse(bitsets.isLockedByAny(c, 0x3L));
+    }
+
+    @Test
+    public void testGroupsPast64() {
+        MutexRailSlotMap[] maps = new MutexRailSlotMap[MutexRailSlotBitsets.MAX_MAPS];
+        for (int i = 0; i < maps.length; i++) {
+            maps[i] = createMap(MutexZoneSlotType.SMART, rail(i));
+        }
+
+        // The last bit is the sign bit of the long
+        MutexRailSlotBitsets bitsets = new MutexRailSlotBitsets();
+        bitsets.rebuild(maps);
+        assertEquals(Long.MIN_VALUE, bitsets.getLocking(rail(63)));
+        maps[63].add(MutexZoneSlotType.SMART, rail(0), 1);
+        bitsets.add(maps[63], rail(0));
+        assertEquals(Long.MIN_VALUE | 0x1L, bitsets.getLocking(rail(0)));
+
+        // Groups past 64 can not be indexed
+        MutexRailSlotMap[] tooMany = new MutexRailSlotMap[MutexRailSlotBitsets.MAX_MAPS + 1];
+        System.arraycopy(maps, 0, tooMany, 0, maps.length);
+        tooMany[maps.length] = createMap(MutexZoneSlotType.SMART, rail(100));
+        try {
+            bitsets.rebuild(tooMany);
+            fail("Rebuild should fail with more than 64 maps");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+
+        // Adding rails of a group past 64 does nothing
+        tooMany[maps.length].add(MutexZoneSlotType.SMART, rail(101), 1);
+        bitsets.add(tooMany[maps.length], rail(101));
+        assertEquals(0x0L, bitsets.getLocking(rail(100)));
+        assertEquals(0x0L, bitsets.getLocking(rail(101)));
+    }
+
+    private static IntVector3 rail(int x) {
+        return new IntVector3(x, 64, 0);
+    }
+
+    private static MutexRailSlotMap createMap(MutexZoneSlotType type, IntVector3... rails) {
+        MutexRailSlotMap map = new MutexRailSlotMap();
+        for (IntVector3 rail : rails) {
+            map.add(type, rail, 0);
+        }
+        return map;
+    }
+}